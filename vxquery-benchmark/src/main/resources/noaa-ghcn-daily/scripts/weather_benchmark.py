@@ -73,6 +73,7 @@ class WeatherBenchmark:
                           "q07_filter_1960.xq",
                           "q07_filter_1980.xq",
                           "q07_filter_2000.xq",
+                          "order_by_value.xq",
                           ] 
     BENCHMARK_LOCAL_TESTS = ["local_speed_up", "local_batch_scale_out"] 
     BENCHMARK_CLUSTER_TESTS = ["speed_up", "batch_scale_out"] 
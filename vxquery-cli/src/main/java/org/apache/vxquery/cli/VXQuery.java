@@ -14,6 +14,7 @@
  */
 package org.apache.vxquery.cli;
 
+import java.io.DataOutput;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -27,6 +28,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import javax.xml.namespace.QName;
+
 import org.apache.commons.io.FileUtils;
 import org.apache.vxquery.compiler.CompilerControlBlock;
 import org.apache.vxquery.compiler.algebricks.VXQueryGlobalDataFactory;
@@ -35,9 +38,11 @@ import org.apache.vxquery.context.DynamicContext;
 import org.apache.vxquery.context.DynamicContextImpl;
 import org.apache.vxquery.context.RootStaticContextImpl;
 import org.apache.vxquery.context.StaticContextImpl;
+import org.apache.vxquery.datamodel.values.ValueTag;
 import org.apache.vxquery.exceptions.SystemException;
 import org.apache.vxquery.result.ResultUtils;
 import org.apache.vxquery.xmlquery.ast.ModuleNode;
+import org.apache.vxquery.xmlquery.query.CompiledPlanCache;
 import org.apache.vxquery.xmlquery.query.Module;
 import org.apache.vxquery.xmlquery.query.XMLQueryCompiler;
 import org.apache.vxquery.xmlquery.query.XQueryCompilationListener;
@@ -68,6 +73,8 @@ import edu.uci.ics.hyracks.control.cc.ClusterControllerService;
 import edu.uci.ics.hyracks.control.common.controllers.CCConfig;
 import edu.uci.ics.hyracks.control.common.controllers.NCConfig;
 import edu.uci.ics.hyracks.control.nc.NodeControllerService;
+import edu.uci.ics.hyracks.data.std.api.IValueReference;
+import edu.uci.ics.hyracks.data.std.util.ArrayBackedValueStorage;
 import edu.uci.ics.hyracks.dataflow.common.comm.io.ResultFrameTupleAccessor;
 
 public class VXQuery {
@@ -79,6 +86,7 @@ public class VXQuery {
     private IHyracksDataset hds;
 
     private ResultSetId resultSetId;
+    private final CompiledPlanCache planCache;
     private static List<String> timingMessages = new ArrayList<String>();
     private static long sumTiming;
     private static long sumSquaredTiming;
@@ -93,6 +101,7 @@ public class VXQuery {
      */
     public VXQuery(CmdLineOptions opts) {
         this.opts = opts;
+        planCache = new CompiledPlanCache(opts.planCacheSize);
     }
 
     /**
@@ -149,6 +158,14 @@ public class VXQuery {
      */
     private void execute() throws Exception {
         System.setProperty("vxquery.buffer_size", Integer.toString(opts.bufferSize));
+        System.setProperty("vxquery.collection_file_queue", Boolean.toString(opts.collectionFileQueue));
+        System.setProperty("vxquery.utf8_parser", Boolean.toString(opts.utf8Parser));
+        System.setProperty("vxquery.mapped_io", Boolean.toString(opts.mappedIO));
+        System.setProperty("vxquery.parser_threads", Integer.toString(opts.parserThreads));
+        System.setProperty("vxquery.parse_cache", opts.parseCache == null ? "" : opts.parseCache);
+        System.setProperty("vxquery.doc_cache_size", Long.toString(opts.docCacheSize));
+        System.setProperty("vxquery.shared_dictionary", Boolean.toString(opts.sharedDictionary));
+        System.setProperty("vxquery.broadcast_join_size", Long.toString(opts.broadcastJoinSize));
 
         if (opts.clientNetIpAddress != null) {
             hcc = new HyracksConnection(opts.clientNetIpAddress, opts.clientNetPort);
@@ -260,25 +277,45 @@ public class VXQuery {
             };
 
             start = opts.timing ? new Date() : null;
-            XMLQueryCompiler compiler = new XMLQueryCompiler(listener, getNodeList(), opts.frameSize,
-                    opts.availableProcessors, opts.joinHashSize, opts.maximumDataSize);
-            resultSetId = createResultSetId();
-            CompilerControlBlock ccb = new CompilerControlBlock(new StaticContextImpl(RootStaticContextImpl.INSTANCE),
-                    resultSetId, null);
-            compiler.compile(query, new StringReader(qStr), ccb, opts.optimizationLevel);
+            String[] nodeList = getNodeList();
+            XMLQueryCompiler compiler = new XMLQueryCompiler(listener, nodeList, opts.frameSize,
+                    opts.availableProcessors, opts.joinHashSize, opts.maximumDataSize, opts.splitCollectionFiles);
+            // The compilation results requested by the -show options are only reported when compiling.
+            String planKey = null;
+            if (planCache.isEnabled() && !opts.showAST && !opts.showTET && !opts.showOET && !opts.showRP) {
+                planKey = CompiledPlanCache.getKey(qStr, opts.optimizationLevel, compiler.getSettings());
+            }
+            CompiledPlanCache.Entry cached = planKey == null ? null : planCache.get(planKey, nodeList);
+            Module module;
+            if (cached != null) {
+                module = cached.getModule();
+                resultSetId = cached.getResultSetId();
+            } else {
+                resultSetId = createResultSetId();
+                CompilerControlBlock ccb = new CompilerControlBlock(new StaticContextImpl(
+                        RootStaticContextImpl.INSTANCE), resultSetId, null);
+                compiler.compile(query, new StringReader(qStr), ccb, opts.optimizationLevel);
+                module = compiler.getModule();
+                if (planKey != null) {
+                    planCache.put(planKey, nodeList, module, resultSetId);
+                }
+            }
             // if -timing argument passed, show the starting and ending times
             if (opts.timing) {
                 end = new Date();
-                timingMessage("Compile time: " + (end.getTime() - start.getTime()) + " ms");
+                timingMessage("Compile time: " + (end.getTime() - start.getTime()) + " ms"
+                        + (cached != null ? " (cached plan)" : ""));
             }
             if (opts.compileOnly) {
                 continue;
             }
 
-            Module module = compiler.getModule();
             JobSpecification js = module.getHyracksJobSpecification();
 
             DynamicContext dCtx = new DynamicContextImpl(module.getModuleContext());
+            for (Map.Entry<String, String> binding : opts.bindings.entrySet()) {
+                dCtx.bindVariable(new QName(binding.getKey()), createStringValue(binding.getValue()));
+            }
             js.setGlobalJobDataFactory(new VXQueryGlobalDataFactory(dCtx.createFactory()));
 
             PrintWriter writer = new PrintWriter(System.out, true);
@@ -306,6 +343,22 @@ public class VXQuery {
         }
     }
 
+    /**
+     * Create an xs:string value for an external variable binding.
+     * 
+     * @param value
+     *            String given on the command line.
+     * @return Tagged xs:string value.
+     * @throws IOException
+     */
+    private static IValueReference createStringValue(String value) throws IOException {
+        ArrayBackedValueStorage abvs = new ArrayBackedValueStorage();
+        DataOutput out = abvs.getDataOutput();
+        out.write(ValueTag.XS_STRING_TAG);
+        out.writeUTF(value);
+        return abvs;
+    }
+
     /**
      * Get cluster node configuration.
      * 
@@ -456,9 +509,39 @@ public class VXQuery {
         @Option(name = "-maximum-data-size", usage = "Maximum possible data size in bytes. (default 150,323,855,000)")
         private long maximumDataSize = -1;
 
+        @Option(name = "-broadcast-join-size", usage = "Largest input in bytes an equi-join copies to every partition instead of repartitioning both inputs. (default 0, broadcast joins are off)")
+        private long broadcastJoinSize = 0;
+
         @Option(name = "-buffer-size", usage = "Disk read buffer size in bytes.")
         private int bufferSize = -1;
 
+        @Option(name = "-split-collection-files", usage = "Spread the files of each collection directory over all available processors of a node.")
+        private boolean splitCollectionFiles;
+
+        @Option(name = "-collection-file-queue", usage = "With -split-collection-files, scan partitions pull files largest first from a queue shared by the node.")
+        private boolean collectionFileQueue;
+
+        @Option(name = "-utf8-parser", usage = "Parse UTF-8 XML files at the byte level instead of with SAX.")
+        private boolean utf8Parser;
+
+        @Option(name = "-mapped-io", usage = "Read XML files through memory mapped chunks.")
+        private boolean mappedIO;
+
+        @Option(name = "-parser-threads", usage = "Number of threads parsing collection files ahead of query evaluation in each scan partition. (default 0, parse on the scan thread)")
+        private int parserThreads = 0;
+
+        @Option(name = "-doc-cache-size", usage = "Size in bytes of the parsed documents fn:doc keeps on each node. (default 0, the cache is off)")
+        private long docCacheSize = 0;
+
+        @Option(name = "-parse-cache", usage = "Directory caching the parsed trees of collection files for later queries.")
+        private String parseCache = null;
+
+        @Option(name = "-shared-dictionary", usage = "Collection scans keep element and attribute names in one dictionary per job instead of in every tree. Ignored when the cluster has more than one node, not combined with -parse-cache.")
+        private boolean sharedDictionary;
+
+        @Option(name = "-plan-cache-size", usage = "Number of compiled queries kept for queries submitted again. (default 0, the cache is off)")
+        private int planCacheSize = 0;
+
         @Option(name = "-O", usage = "Optimization Level. Default: Full Optimization")
         private int optimizationLevel = Integer.MAX_VALUE;
 
@@ -489,7 +572,7 @@ public class VXQuery {
         @Option(name = "-timing-ignore-queries", usage = "Ignore the first X number of quereies.")
         private int timingIgnoreQueries = 2;
 
-        @Option(name = "-x", usage = "Bind an external variable")
+        @Option(name = "-x", usage = "Bind an external variable as name=value. A collection path refers to it as ${name}.")
         private Map<String, String> bindings = new HashMap<String, String>();
 
         @Argument
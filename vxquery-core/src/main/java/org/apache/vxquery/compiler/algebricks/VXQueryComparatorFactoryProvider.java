@@ -16,7 +16,7 @@
  */
 package org.apache.vxquery.compiler.algebricks;
 
-import org.apache.vxquery.datamodel.accessors.TaggedValuePointable;
+import org.apache.vxquery.runtime.functions.util.AtomicSortKey;
 
 import edu.uci.ics.hyracks.algebricks.common.exceptions.AlgebricksException;
 import edu.uci.ics.hyracks.algebricks.data.IBinaryComparatorFactoryProvider;
@@ -30,6 +30,10 @@ public class VXQueryComparatorFactoryProvider implements IBinaryComparatorFactor
         return new BinaryComparatorFactory(type, ascending);
     }
 
+    /**
+     * Compares values in the order of {@link AtomicSortKey}, which agrees with the keys of
+     * {@link VXQueryNormalizedKeyComputerFactoryProvider}.
+     */
     private static class BinaryComparatorFactory implements IBinaryComparatorFactory {
         private static final long serialVersionUID = 1L;
 
@@ -41,21 +45,17 @@ public class VXQueryComparatorFactoryProvider implements IBinaryComparatorFactor
 
         @Override
         public IBinaryComparator createBinaryComparator() {
-            final TaggedValuePointable tvp1 = (TaggedValuePointable) TaggedValuePointable.FACTORY.createPointable();
-            final TaggedValuePointable tvp2 = (TaggedValuePointable) TaggedValuePointable.FACTORY.createPointable();
+            final AtomicSortKey key1 = new AtomicSortKey();
+            final AtomicSortKey key2 = new AtomicSortKey();
             return new IBinaryComparator() {
                 @Override
                 public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
-                    tvp1.set(b1, s1, l1);
-                    tvp2.set(b2, s2, l2);
-                    for (int i = 0; i < l1 && i < l2; ++i) {
-                        if (b1[s1 + i] != b2[s2 + i]) {
-                            return b1[s1 + i] - b2[s2 + i];
-                        }
-                    }
-                    return l1 - l2;
+                    key1.set(b1, s1, l1);
+                    key2.set(b2, s2, l2);
+                    int c = key1.compareTo(key2);
+                    return ascending ? c : -c;
                 }
             };
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.vxquery.compiler.algebricks;
+
+import org.apache.vxquery.runtime.functions.util.AtomicSortKey;
+
+import edu.uci.ics.hyracks.algebricks.data.INormalizedKeyComputerFactoryProvider;
+import edu.uci.ics.hyracks.api.dataflow.value.INormalizedKeyComputer;
+import edu.uci.ics.hyracks.api.dataflow.value.INormalizedKeyComputerFactory;
+
+/**
+ * Gives sorts an int prefix of each key, so most comparisons of a sort are done on the prefixes alone.
+ */
+public class VXQueryNormalizedKeyComputerFactoryProvider implements INormalizedKeyComputerFactoryProvider {
+    public static final INormalizedKeyComputerFactoryProvider INSTANCE = new VXQueryNormalizedKeyComputerFactoryProvider();
+
+    private VXQueryNormalizedKeyComputerFactoryProvider() {
+    }
+
+    @Override
+    public INormalizedKeyComputerFactory getNormalizedKeyComputerFactory(Object type, boolean ascending) {
+        return new NormalizedKeyComputerFactory(ascending);
+    }
+
+    private static class NormalizedKeyComputerFactory implements INormalizedKeyComputerFactory {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean ascending;
+
+        public NormalizedKeyComputerFactory(boolean ascending) {
+            this.ascending = ascending;
+        }
+
+        @Override
+        public INormalizedKeyComputer createNormalizedKeyComputer() {
+            final AtomicSortKey key = new AtomicSortKey();
+            return new INormalizedKeyComputer() {
+                @Override
+                public int normalize(byte[] bytes, int start, int length) {
+                    key.set(bytes, start, length);
+                    int nk = key.getNormalizedKey();
+                    // Keys are compared unsigned, so the complement reverses the order.
+                    return ascending ? nk : ~nk;
+                }
+            };
+        }
+    }
+}
@@ -27,10 +27,13 @@ import org.apache.vxquery.compiler.rewriter.rules.EliminateSubplanForSingleItems
 import org.apache.vxquery.compiler.rewriter.rules.EliminateUnnestAggregateSequencesRule;
 import org.apache.vxquery.compiler.rewriter.rules.EliminateUnnestAggregateSubplanRule;
 import org.apache.vxquery.compiler.rewriter.rules.InlineNestedVariablesRule;
+import org.apache.vxquery.compiler.rewriter.rules.IntroduceBroadcastJoinRule;
 import org.apache.vxquery.compiler.rewriter.rules.IntroduceCollectionRule;
 import org.apache.vxquery.compiler.rewriter.rules.IntroduceTwoStepAggregateRule;
 import org.apache.vxquery.compiler.rewriter.rules.PushChildIntoDataScanRule;
+import org.apache.vxquery.compiler.rewriter.rules.PushValuePredicateIntoDataScanRule;
 import org.apache.vxquery.compiler.rewriter.rules.PushFunctionsOntoEqJoinBranches;
+import org.apache.vxquery.compiler.rewriter.rules.PushProjectionIntoDataScanRule;
 import org.apache.vxquery.compiler.rewriter.rules.RemoveRedundantBooleanExpressionsRule;
 import org.apache.vxquery.compiler.rewriter.rules.RemoveRedundantCastExpressionsRule;
 import org.apache.vxquery.compiler.rewriter.rules.RemoveRedundantDataExpressionsRule;
@@ -39,6 +42,7 @@ import org.apache.vxquery.compiler.rewriter.rules.RemoveRedundantTreatExpression
 import org.apache.vxquery.compiler.rewriter.rules.RemoveUnusedSortDistinctNodesRule;
 import org.apache.vxquery.compiler.rewriter.rules.RemoveUnusedUnnestIterateRule;
 import org.apache.vxquery.compiler.rewriter.rules.SetCollectionDataSourceRule;
+import org.apache.vxquery.compiler.rewriter.rules.SetJoinBuildSideRule;
 import org.apache.vxquery.compiler.rewriter.rules.SetVariableIdContextRule;
 
 import edu.uci.ics.hyracks.algebricks.core.rewriter.base.HeuristicOptimizer;
@@ -180,6 +184,7 @@ public class RewriteRuleset {
         xquery.add(new PushSubplanWithAggregateDownThroughProductRule());
         xquery.add(new PushSelectDownRule());
         xquery.add(new PushSelectIntoJoinRule());
+        xquery.add(new PushValuePredicateIntoDataScanRule());
         // Clean up
         xquery.add(new RemoveRedundantVariablesRule());
         xquery.add(new RemoveUnusedAssignAndAggregateRule());
@@ -214,6 +219,7 @@ public class RewriteRuleset {
         List<IAlgebraicRewriteRule> joinInference = new LinkedList<IAlgebraicRewriteRule>();
         joinInference.add(new InlineVariablesRule());
         joinInference.add(new ComplexJoinInferenceRule());
+        joinInference.add(new SetJoinBuildSideRule());
         return joinInference;
     }
 
@@ -244,6 +250,7 @@ public class RewriteRuleset {
         consolidation.add(new IntroduceGroupByCombinerRule());
         consolidation.add(new IntroduceAggregateCombinerRule());
         consolidation.add(new RemoveUnusedAssignAndAggregateRule());
+        consolidation.add(new PushProjectionIntoDataScanRule());
         return consolidation;
     }
 
@@ -251,6 +258,7 @@ public class RewriteRuleset {
         List<IAlgebraicRewriteRule> physicalPlanRewrites = new LinkedList<IAlgebraicRewriteRule>();
         physicalPlanRewrites.add(new PullSelectOutOfEqJoin());
         physicalPlanRewrites.add(new PushFunctionsOntoEqJoinBranches());
+        physicalPlanRewrites.add(new IntroduceBroadcastJoinRule());
         physicalPlanRewrites.add(new SetAlgebricksPhysicalOperatorsRule());
         physicalPlanRewrites.add(new EnforceStructuralPropertiesRule());
         physicalPlanRewrites.add(new PushProjectDownRule());
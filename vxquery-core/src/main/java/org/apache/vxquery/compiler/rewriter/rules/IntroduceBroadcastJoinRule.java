@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.vxquery.compiler.rewriter.rules;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.commons.lang3.mutable.Mutable;
+import org.apache.vxquery.compiler.rewriter.rules.util.InputSizeToolbox;
+
+import edu.uci.ics.hyracks.algebricks.common.exceptions.AlgebricksException;
+import edu.uci.ics.hyracks.algebricks.core.algebra.base.ILogicalExpression;
+import edu.uci.ics.hyracks.algebricks.core.algebra.base.ILogicalOperator;
+import edu.uci.ics.hyracks.algebricks.core.algebra.base.IOptimizationContext;
+import edu.uci.ics.hyracks.algebricks.core.algebra.base.LogicalExpressionTag;
+import edu.uci.ics.hyracks.algebricks.core.algebra.base.LogicalOperatorTag;
+import edu.uci.ics.hyracks.algebricks.core.algebra.base.LogicalVariable;
+import edu.uci.ics.hyracks.algebricks.core.algebra.expressions.AbstractFunctionCallExpression;
+import edu.uci.ics.hyracks.algebricks.core.algebra.expressions.BroadcastExpressionAnnotation;
+import edu.uci.ics.hyracks.algebricks.core.algebra.expressions.BroadcastExpressionAnnotation.BroadcastSide;
+import edu.uci.ics.hyracks.algebricks.core.algebra.functions.AlgebricksBuiltinFunctions;
+import edu.uci.ics.hyracks.algebricks.core.algebra.operators.logical.AbstractBinaryJoinOperator;
+import edu.uci.ics.hyracks.algebricks.core.algebra.operators.logical.AbstractLogicalOperator;
+import edu.uci.ics.hyracks.algebricks.core.rewriter.base.IAlgebraicRewriteRule;
+
+/**
+ * Marks an equi-join to replicate its small input to every partition, so the large input is joined where it is read
+ * instead of being repartitioned over the network. An input is small when the collection files and documents it
+ * reads add up to at most the vxquery.broadcast_join_size property, which is 0 (off) unless set. The physical join
+ * rule puts the broadcast input on the build side.
+ */
+public class IntroduceBroadcastJoinRule implements IAlgebraicRewriteRule {
+    public static final long DEFAULT_BROADCAST_JOIN_SIZE = 0;
+
+    @Override
+    public boolean rewritePre(Mutable<ILogicalOperator> opRef, IOptimizationContext context) {
+        return false;
+    }
+
+    @Override
+    public boolean rewritePost(Mutable<ILogicalOperator> opRef, IOptimizationContext context)
+            throws AlgebricksException {
+        AbstractLogicalOperator op = (AbstractLogicalOperator) opRef.getValue();
+        if (op.getOperatorTag() != LogicalOperatorTag.INNERJOIN) {
+            return false;
+        }
+        long broadcastJoinSize = getBroadcastJoinSize();
+        if (broadcastJoinSize <= 0) {
+            return false;
+        }
+        AbstractBinaryJoinOperator join = (AbstractBinaryJoinOperator) op;
+        ILogicalExpression condition = join.getCondition().getValue();
+        if (condition.getExpressionTag() != LogicalExpressionTag.FUNCTION_CALL) {
+            return false;
+        }
+        // Only a single equality is checked for the annotation.
+        AbstractFunctionCallExpression eq = (AbstractFunctionCallExpression) condition;
+        if (!eq.getFunctionIdentifier().equals(AlgebricksBuiltinFunctions.EQ)
+                || eq.getAnnotations().containsKey(BroadcastExpressionAnnotation.BROADCAST_ANNOTATION_KEY)) {
+            return false;
+        }
+
+        // Broadcast the smaller input that is under the limit.
+        long leftBytes = InputSizeToolbox.getInputBytes(join.getInputs().get(0), context);
+        long rightBytes = InputSizeToolbox.getInputBytes(join.getInputs().get(1), context);
+        Mutable<ILogicalOperator> small;
+        if (rightBytes >= 0 && rightBytes <= broadcastJoinSize && (leftBytes < 0 || rightBytes <= leftBytes)) {
+            small = join.getInputs().get(1);
+        } else if (leftBytes >= 0 && leftBytes <= broadcastJoinSize) {
+            small = join.getInputs().get(0);
+        } else {
+            return false;
+        }
+
+        // The annotation names the argument of the equality that comes from the broadcast input.
+        Collection<LogicalVariable> smallVariables = new ArrayList<LogicalVariable>();
+        PushFunctionsOntoEqJoinBranches.getProducedVariablesInDescendantsAndSelf(small.getValue(), smallVariables);
+        BroadcastSide side;
+        if (usesOnly(eq.getArguments().get(0).getValue(), smallVariables)) {
+            side = BroadcastSide.LEFT;
+        } else if (usesOnly(eq.getArguments().get(1).getValue(), smallVariables)) {
+            side = BroadcastSide.RIGHT;
+        } else {
+            return false;
+        }
+        BroadcastExpressionAnnotation annotation = new BroadcastExpressionAnnotation();
+        annotation.setObject(side);
+        eq.getAnnotations().put(BroadcastExpressionAnnotation.BROADCAST_ANNOTATION_KEY, annotation);
+        return true;
+    }
+
+    private static boolean usesOnly(ILogicalExpression expression, Collection<LogicalVariable> variables) {
+        List<LogicalVariable> used = new ArrayList<LogicalVariable>();
+        expression.getUsedVariables(used);
+        return !used.isEmpty() && variables.containsAll(used);
+    }
+
+    public static long getBroadcastJoinSize() {
+        return Long.parseLong(System.getProperty("vxquery.broadcast_join_size",
+                Long.toString(DEFAULT_BROADCAST_JOIN_SIZE)));
+    }
+}
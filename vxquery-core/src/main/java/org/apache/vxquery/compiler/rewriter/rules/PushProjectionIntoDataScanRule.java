@@ -0,0 +1,328 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.vxquery.compiler.rewriter.rules;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang3.mutable.Mutable;
+import org.apache.vxquery.compiler.rewriter.rules.util.ExpressionToolbox;
+import org.apache.vxquery.functions.BuiltinFunctions;
+import org.apache.vxquery.functions.BuiltinOperators;
+import org.apache.vxquery.metadata.VXQueryCollectionDataSource;
+
+import edu.uci.ics.hyracks.algebricks.common.exceptions.AlgebricksException;
+import edu.uci.ics.hyracks.algebricks.core.algebra.base.ILogicalExpression;
+import edu.uci.ics.hyracks.algebricks.core.algebra.base.ILogicalOperator;
+import edu.uci.ics.hyracks.algebricks.core.algebra.base.ILogicalPlan;
+import edu.uci.ics.hyracks.algebricks.core.algebra.base.IOptimizationContext;
+import edu.uci.ics.hyracks.algebricks.core.algebra.base.LogicalExpressionTag;
+import edu.uci.ics.hyracks.algebricks.core.algebra.base.LogicalOperatorTag;
+import edu.uci.ics.hyracks.algebricks.core.algebra.base.LogicalVariable;
+import edu.uci.ics.hyracks.algebricks.core.algebra.expressions.AbstractFunctionCallExpression;
+import edu.uci.ics.hyracks.algebricks.core.algebra.expressions.VariableReferenceExpression;
+import edu.uci.ics.hyracks.algebricks.core.algebra.functions.FunctionIdentifier;
+import edu.uci.ics.hyracks.algebricks.core.algebra.operators.logical.AbstractAssignOperator;
+import edu.uci.ics.hyracks.algebricks.core.algebra.operators.logical.AbstractLogicalOperator;
+import edu.uci.ics.hyracks.algebricks.core.algebra.operators.logical.AbstractOperatorWithNestedPlans;
+import edu.uci.ics.hyracks.algebricks.core.algebra.operators.logical.DataSourceScanOperator;
+import edu.uci.ics.hyracks.algebricks.core.algebra.operators.logical.UnnestOperator;
+import edu.uci.ics.hyracks.algebricks.core.algebra.operators.logical.visitors.VariableUtilities;
+import edu.uci.ics.hyracks.algebricks.core.algebra.rewriter.base.IAlgebraicRewriteRule;
+import edu.uci.ics.hyracks.algebricks.core.algebra.visitors.ILogicalExpressionReferenceTransform;
+
+/**
+ * The rule finds the child steps a query takes below the elements read by a
+ * collection data scan.
+ *
+ * <pre>
+ * Before
+ *
+ *   plan__parent
+ *   ASSIGN( $v2 : child( $v1, type1 ) )
+ *   ASSIGN( $v3 : child( $v1, type2 ) )
+ *   DATASCAN( $source : $v1 )
+ *   plan__child
+ *
+ *   Where $v1 (or a copy of it) is only used by child and attribute steps.
+ *
+ * After
+ *
+ *   plan__parent
+ *   ASSIGN( $v2 : child( $v1, type1 ) )
+ *   ASSIGN( $v3 : child( $v1, type2 ) )
+ *   DATASCAN( $source : $v1 )
+ *   plan__child
+ *
+ *   $source is encoded with the projection ( type1, type2 ). The scan
+ *   only builds the children named by the projection.
+ * </pre>
+ *
+ * The projection is recomputed over the whole plan each time the rule runs,
+ * since earlier rules may still move child steps into the data source.
+ */
+public class PushProjectionIntoDataScanRule implements IAlgebraicRewriteRule {
+    final Set<FunctionIdentifier> NODE_NAVIGATION = new HashSet<FunctionIdentifier>();
+    final List<AbstractLogicalOperator> operators = new ArrayList<AbstractLogicalOperator>();
+
+    public PushProjectionIntoDataScanRule() {
+        // Functions that can reach the children that are not built.
+        NODE_NAVIGATION.add(BuiltinOperators.PARENT.getFunctionIdentifier());
+        NODE_NAVIGATION.add(BuiltinOperators.ANCESTOR.getFunctionIdentifier());
+        NODE_NAVIGATION.add(BuiltinOperators.ANCESTOR_OR_SELF.getFunctionIdentifier());
+        NODE_NAVIGATION.add(BuiltinOperators.FOLLOWING.getFunctionIdentifier());
+        NODE_NAVIGATION.add(BuiltinOperators.FOLLOWING_SIBLING.getFunctionIdentifier());
+        NODE_NAVIGATION.add(BuiltinOperators.PRECEDING.getFunctionIdentifier());
+        NODE_NAVIGATION.add(BuiltinOperators.PRECEDING_SIBLING.getFunctionIdentifier());
+        NODE_NAVIGATION.add(BuiltinFunctions.FN_ROOT_0.getFunctionIdentifier());
+        NODE_NAVIGATION.add(BuiltinFunctions.FN_ROOT_1.getFunctionIdentifier());
+    }
+
+    @Override
+    public boolean rewritePre(Mutable<ILogicalOperator> opRef, IOptimizationContext context) throws AlgebricksException {
+        AbstractLogicalOperator op = (AbstractLogicalOperator) opRef.getValue();
+        if (op.getOperatorTag() != LogicalOperatorTag.DISTRIBUTE_RESULT) {
+            return false;
+        }
+        operators.clear();
+        findOperators(op);
+        boolean navigation = usesNodeNavigation();
+        for (AbstractLogicalOperator scan : operators) {
+            if (scan.getOperatorTag() != LogicalOperatorTag.DATASOURCESCAN) {
+                continue;
+            }
+            DataSourceScanOperator datascan = (DataSourceScanOperator) scan;
+            if (!(datascan.getDataSource() instanceof VXQueryCollectionDataSource)) {
+                continue;
+            }
+            VXQueryCollectionDataSource ds = (VXQueryCollectionDataSource) datascan.getDataSource();
+            if (ds.getChildSeq().isEmpty() || navigation) {
+                ds.setProjection(null);
+            } else {
+                ds.setProjection(findProjection(datascan.getVariables().get(0)));
+            }
+        }
+        // The plan is not changed.
+        return false;
+    }
+
+    @Override
+    public boolean rewritePost(Mutable<ILogicalOperator> opRef, IOptimizationContext context) {
+        return false;
+    }
+
+    private void findOperators(AbstractLogicalOperator op) {
+        operators.add(op);
+        if (op.hasNestedPlans()) {
+            for (ILogicalPlan nestedPlan : ((AbstractOperatorWithNestedPlans) op).getNestedPlans()) {
+                for (Mutable<ILogicalOperator> root : nestedPlan.getRoots()) {
+                    findOperators((AbstractLogicalOperator) root.getValue());
+                }
+            }
+        }
+        for (Mutable<ILogicalOperator> input : op.getInputs()) {
+            findOperators((AbstractLogicalOperator) input.getValue());
+        }
+    }
+
+    private boolean usesNodeNavigation() throws AlgebricksException {
+        final List<Mutable<ILogicalExpression>> finds = new ArrayList<Mutable<ILogicalExpression>>();
+        for (AbstractLogicalOperator op : operators) {
+            for (Mutable<ILogicalExpression> expression : getExpressions(op)) {
+                for (FunctionIdentifier fi : NODE_NAVIGATION) {
+                    ExpressionToolbox.findAllFunctionExpressions(expression, fi, finds);
+                    if (!finds.isEmpty()) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The type codes of the child steps on the scan variable, or null if the variable is used in any other
+     *         way.
+     */
+    private List<Integer> findProjection(LogicalVariable scanVariable) throws AlgebricksException {
+        // Find the copies of the scan variable.
+        Set<LogicalVariable> aliases = new HashSet<LogicalVariable>();
+        aliases.add(scanVariable);
+        boolean added;
+        do {
+            added = false;
+            for (AbstractLogicalOperator op : operators) {
+                List<LogicalVariable> variables = new ArrayList<LogicalVariable>();
+                List<Mutable<ILogicalExpression>> expressions = new ArrayList<Mutable<ILogicalExpression>>();
+                getDefinitions(op, variables, expressions);
+                for (int i = 0; i < variables.size(); ++i) {
+                    if (!aliases.contains(variables.get(i)) && isAlias(expressions.get(i).getValue(), aliases)) {
+                        aliases.add(variables.get(i));
+                        added = true;
+                    }
+                }
+            }
+        } while (added);
+
+        // Check every use of the copies.
+        List<Integer> projection = new ArrayList<Integer>();
+        for (AbstractLogicalOperator op : operators) {
+            List<LogicalVariable> used = new ArrayList<LogicalVariable>();
+            VariableUtilities.getUsedVariables(op, used);
+            used.retainAll(aliases);
+            if (used.isEmpty() || op.getOperatorTag() == LogicalOperatorTag.PROJECT) {
+                continue;
+            }
+            Set<LogicalVariable> checked = new HashSet<LogicalVariable>();
+            List<LogicalVariable> variables = new ArrayList<LogicalVariable>();
+            List<Mutable<ILogicalExpression>> definitions = new ArrayList<Mutable<ILogicalExpression>>();
+            getDefinitions(op, variables, definitions);
+            for (Mutable<ILogicalExpression> expression : getExpressions(op)) {
+                int index = indexOf(definitions, expression);
+                if (index >= 0 && aliases.contains(variables.get(index))) {
+                    // Defines a copy.
+                    findVariables(expression.getValue(), aliases, checked);
+                } else if (!checkUses(expression, aliases, projection, checked)) {
+                    return null;
+                }
+            }
+            if (!checked.containsAll(used)) {
+                // Used by the operator itself.
+                return null;
+            }
+        }
+        return projection;
+    }
+
+    /**
+     * @return False if an expression uses a copy of the scan variable outside of a child or attribute step.
+     */
+    private boolean checkUses(Mutable<ILogicalExpression> expression, Set<LogicalVariable> aliases,
+            List<Integer> projection, Set<LogicalVariable> checked) {
+        ILogicalExpression le = expression.getValue();
+        switch (le.getExpressionTag()) {
+            case VARIABLE:
+                return !aliases.contains(((VariableReferenceExpression) le).getVariableReference());
+            case FUNCTION_CALL:
+                AbstractFunctionCallExpression afce = (AbstractFunctionCallExpression) le;
+                FunctionIdentifier fi = afce.getFunctionIdentifier();
+                if (fi.equals(BuiltinOperators.CHILD.getFunctionIdentifier())
+                        || fi.equals(BuiltinOperators.ATTRIBUTE.getFunctionIdentifier())) {
+                    ILogicalExpression context = stripWrappers(afce.getArguments().get(0).getValue());
+                    if (context.getExpressionTag() == LogicalExpressionTag.VARIABLE
+                            && aliases.contains(((VariableReferenceExpression) context).getVariableReference())) {
+                        checked.add(((VariableReferenceExpression) context).getVariableReference());
+                        if (fi.equals(BuiltinOperators.CHILD.getFunctionIdentifier())) {
+                            int typeCode = ExpressionToolbox.getTypeExpressionTypeArgument(expression);
+                            if (typeCode <= 0) {
+                                return false;
+                            }
+                            if (!projection.contains(typeCode)) {
+                                projection.add(typeCode);
+                            }
+                        }
+                        return true;
+                    }
+                }
+                for (Mutable<ILogicalExpression> argument : afce.getArguments()) {
+                    if (!checkUses(argument, aliases, projection, checked)) {
+                        return false;
+                    }
+                }
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    private boolean isAlias(ILogicalExpression expression, Set<LogicalVariable> aliases) {
+        ILogicalExpression le = stripWrappers(expression);
+        return le.getExpressionTag() == LogicalExpressionTag.VARIABLE
+                && aliases.contains(((VariableReferenceExpression) le).getVariableReference());
+    }
+
+    private void findVariables(ILogicalExpression expression, Set<LogicalVariable> aliases,
+            Set<LogicalVariable> checked) {
+        ILogicalExpression le = stripWrappers(expression);
+        if (le.getExpressionTag() == LogicalExpressionTag.VARIABLE) {
+            checked.add(((VariableReferenceExpression) le).getVariableReference());
+        }
+    }
+
+    /**
+     * Removes the expressions that keep the nodes of their argument.
+     */
+    private ILogicalExpression stripWrappers(ILogicalExpression expression) {
+        ILogicalExpression le = expression;
+        while (le.getExpressionTag() == LogicalExpressionTag.FUNCTION_CALL) {
+            AbstractFunctionCallExpression afce = (AbstractFunctionCallExpression) le;
+            FunctionIdentifier fi = afce.getFunctionIdentifier();
+            if (fi.equals(BuiltinOperators.TREAT.getFunctionIdentifier())
+                    || fi.equals(BuiltinOperators.SORT_DISTINCT_NODES_ASC.getFunctionIdentifier())
+                    || fi.equals(BuiltinOperators.SORT_DISTINCT_NODES_ASC_OR_ATOMICS.getFunctionIdentifier())
+                    || fi.equals(BuiltinOperators.SEQUENCE.getFunctionIdentifier())
+                    || fi.equals(BuiltinOperators.ITERATE.getFunctionIdentifier())) {
+                le = afce.getArguments().get(0).getValue();
+            } else {
+                break;
+            }
+        }
+        return le;
+    }
+
+    private void getDefinitions(AbstractLogicalOperator op, List<LogicalVariable> variables,
+            List<Mutable<ILogicalExpression>> expressions) {
+        switch (op.getOperatorTag()) {
+            case ASSIGN:
+            case AGGREGATE:
+                AbstractAssignOperator assign = (AbstractAssignOperator) op;
+                variables.addAll(assign.getVariables());
+                expressions.addAll(assign.getExpressions());
+                break;
+            case UNNEST:
+                UnnestOperator unnest = (UnnestOperator) op;
+                variables.add(unnest.getVariable());
+                expressions.add(unnest.getExpressionRef());
+                break;
+            default:
+                break;
+        }
+    }
+
+    private int indexOf(List<Mutable<ILogicalExpression>> expressions, Mutable<ILogicalExpression> expression) {
+        for (int i = 0; i < expressions.size(); ++i) {
+            if (expressions.get(i) == expression) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private List<Mutable<ILogicalExpression>> getExpressions(AbstractLogicalOperator op) throws AlgebricksException {
+        final List<Mutable<ILogicalExpression>> expressions = new ArrayList<Mutable<ILogicalExpression>>();
+        op.acceptExpressionTransform(new ILogicalExpressionReferenceTransform() {
+            @Override
+            public boolean transform(Mutable<ILogicalExpression> exprRef) {
+                expressions.add(exprRef);
+                return false;
+            }
+        });
+        return expressions;
+    }
+}
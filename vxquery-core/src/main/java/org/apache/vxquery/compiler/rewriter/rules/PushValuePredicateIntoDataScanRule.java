@@ -0,0 +1,403 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.vxquery.compiler.rewriter.rules;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.mutable.Mutable;
+import org.apache.commons.lang3.mutable.MutableObject;
+import org.apache.vxquery.compiler.algebricks.VXQueryConstantValue;
+import org.apache.vxquery.compiler.rewriter.rules.util.ExpressionToolbox;
+import org.apache.vxquery.datamodel.values.ValueTag;
+import org.apache.vxquery.functions.BuiltinFunctions;
+import org.apache.vxquery.functions.BuiltinOperators;
+import org.apache.vxquery.metadata.VXQueryCollectionDataSource;
+import org.apache.vxquery.xmlparser.ElementValuePredicate;
+import org.apache.vxquery.xmlparser.ElementValuePredicate.Operator;
+import org.apache.vxquery.xmlparser.ElementValuePredicate.ValueType;
+
+import edu.uci.ics.hyracks.algebricks.common.exceptions.AlgebricksException;
+import edu.uci.ics.hyracks.algebricks.core.algebra.base.ILogicalExpression;
+import edu.uci.ics.hyracks.algebricks.core.algebra.base.ILogicalOperator;
+import edu.uci.ics.hyracks.algebricks.core.algebra.base.ILogicalPlan;
+import edu.uci.ics.hyracks.algebricks.core.algebra.base.IOptimizationContext;
+import edu.uci.ics.hyracks.algebricks.core.algebra.base.LogicalExpressionTag;
+import edu.uci.ics.hyracks.algebricks.core.algebra.base.LogicalOperatorTag;
+import edu.uci.ics.hyracks.algebricks.core.algebra.base.LogicalVariable;
+import edu.uci.ics.hyracks.algebricks.core.algebra.expressions.AbstractFunctionCallExpression;
+import edu.uci.ics.hyracks.algebricks.core.algebra.expressions.ConstantExpression;
+import edu.uci.ics.hyracks.algebricks.core.algebra.expressions.VariableReferenceExpression;
+import edu.uci.ics.hyracks.algebricks.core.algebra.functions.AlgebricksBuiltinFunctions;
+import edu.uci.ics.hyracks.algebricks.core.algebra.functions.FunctionIdentifier;
+import edu.uci.ics.hyracks.algebricks.core.algebra.operators.logical.AbstractAssignOperator;
+import edu.uci.ics.hyracks.algebricks.core.algebra.operators.logical.AbstractLogicalOperator;
+import edu.uci.ics.hyracks.algebricks.core.algebra.operators.logical.DataSourceScanOperator;
+import edu.uci.ics.hyracks.algebricks.core.algebra.operators.logical.SelectOperator;
+import edu.uci.ics.hyracks.algebricks.core.algebra.operators.logical.SubplanOperator;
+import edu.uci.ics.hyracks.algebricks.core.algebra.operators.logical.UnnestOperator;
+import edu.uci.ics.hyracks.algebricks.core.algebra.rewriter.base.IAlgebraicRewriteRule;
+import edu.uci.ics.hyracks.data.std.primitive.DoublePointable;
+import edu.uci.ics.hyracks.data.std.primitive.LongPointable;
+
+/**
+ * The rule searches for a select operator testing the text of a child or
+ * attribute of the elements read by a collection data scan.
+ *
+ * <pre>
+ * Before
+ *
+ *   plan__parent
+ *   SELECT( value-eq( child( $v1, type ), "value" ) )
+ *   plan__middle
+ *   DATASCAN( $source : $v1 )
+ *   plan__child
+ *
+ *   Where plan__middle only has assign, select, subplan and unnest operators.
+ *
+ * After
+ *
+ *   plan__parent
+ *   SELECT( value-eq( child( $v1, type ), "value" ) )
+ *   plan__middle
+ *   DATASCAN( $source : $v1 )
+ *   plan__child
+ *
+ *   $source is encoded with the value test. The scan drops elements that
+ *   can not pass the select. The select is kept, so the test only has to
+ *   be conservative.
+ * </pre>
+ *
+ * Supported tests compare a child or attribute to a string literal, compare
+ * it to a numeric literal with a general comparison, compare the year of the
+ * value cast to xs:dateTime to a numeric literal or test it with
+ * fn:starts-with.
+ */
+public class PushValuePredicateIntoDataScanRule implements IAlgebraicRewriteRule {
+    final Map<FunctionIdentifier, Operator> VALUE_COMPARISONS = new HashMap<FunctionIdentifier, Operator>();
+    final Map<FunctionIdentifier, Operator> GENERAL_COMPARISONS = new HashMap<FunctionIdentifier, Operator>();
+    final Map<LogicalVariable, ILogicalExpression> variableExpressions = new HashMap<LogicalVariable, ILogicalExpression>();
+
+    public PushValuePredicateIntoDataScanRule() {
+        VALUE_COMPARISONS.put(BuiltinOperators.VALUE_EQ.getFunctionIdentifier(), Operator.EQ);
+        VALUE_COMPARISONS.put(BuiltinOperators.VALUE_NE.getFunctionIdentifier(), Operator.NE);
+        VALUE_COMPARISONS.put(BuiltinOperators.VALUE_LT.getFunctionIdentifier(), Operator.LT);
+        VALUE_COMPARISONS.put(BuiltinOperators.VALUE_LE.getFunctionIdentifier(), Operator.LE);
+        VALUE_COMPARISONS.put(BuiltinOperators.VALUE_GT.getFunctionIdentifier(), Operator.GT);
+        VALUE_COMPARISONS.put(BuiltinOperators.VALUE_GE.getFunctionIdentifier(), Operator.GE);
+        VALUE_COMPARISONS.put(AlgebricksBuiltinFunctions.EQ, Operator.EQ);
+        VALUE_COMPARISONS.put(AlgebricksBuiltinFunctions.NEQ, Operator.NE);
+        VALUE_COMPARISONS.put(AlgebricksBuiltinFunctions.LT, Operator.LT);
+        VALUE_COMPARISONS.put(AlgebricksBuiltinFunctions.LE, Operator.LE);
+        VALUE_COMPARISONS.put(AlgebricksBuiltinFunctions.GT, Operator.GT);
+        VALUE_COMPARISONS.put(AlgebricksBuiltinFunctions.GE, Operator.GE);
+        GENERAL_COMPARISONS.put(BuiltinOperators.GENERAL_EQ.getFunctionIdentifier(), Operator.EQ);
+        GENERAL_COMPARISONS.put(BuiltinOperators.GENERAL_NE.getFunctionIdentifier(), Operator.NE);
+        GENERAL_COMPARISONS.put(BuiltinOperators.GENERAL_LT.getFunctionIdentifier(), Operator.LT);
+        GENERAL_COMPARISONS.put(BuiltinOperators.GENERAL_LE.getFunctionIdentifier(), Operator.LE);
+        GENERAL_COMPARISONS.put(BuiltinOperators.GENERAL_GT.getFunctionIdentifier(), Operator.GT);
+        GENERAL_COMPARISONS.put(BuiltinOperators.GENERAL_GE.getFunctionIdentifier(), Operator.GE);
+    }
+
+    @Override
+    public boolean rewritePre(Mutable<ILogicalOperator> opRef, IOptimizationContext context) throws AlgebricksException {
+        return false;
+    }
+
+    @Override
+    public boolean rewritePost(Mutable<ILogicalOperator> opRef, IOptimizationContext context)
+            throws AlgebricksException {
+        AbstractLogicalOperator op = (AbstractLogicalOperator) opRef.getValue();
+        if (op.getOperatorTag() != LogicalOperatorTag.SELECT) {
+            return false;
+        }
+        SelectOperator select = (SelectOperator) op;
+
+        // Find the data scan and the variables defined on the way down.
+        variableExpressions.clear();
+        DataSourceScanOperator datascan = findDataScan(select.getInputs().get(0).getValue());
+        if (datascan == null || !(datascan.getDataSource() instanceof VXQueryCollectionDataSource)) {
+            return false;
+        }
+        VXQueryCollectionDataSource ds = (VXQueryCollectionDataSource) datascan.getDataSource();
+        if (ds.getChildSeq().isEmpty()) {
+            return false;
+        }
+        LogicalVariable scanVariable = datascan.getVariables().get(0);
+
+        List<ILogicalExpression> conjuncts = new ArrayList<ILogicalExpression>();
+        findConjuncts(select.getCondition().getValue(), conjuncts);
+        for (ILogicalExpression conjunct : conjuncts) {
+            ElementValuePredicate predicate = getPredicate(conjunct, scanVariable);
+            if (predicate != null) {
+                ds.addValuePredicate(predicate);
+            }
+        }
+        // The plan is not changed.
+        return false;
+    }
+
+    /**
+     * Walks down the operators that keep one tuple per scanned element, recording the variables they define.
+     */
+    private DataSourceScanOperator findDataScan(ILogicalOperator op) {
+        AbstractLogicalOperator current = (AbstractLogicalOperator) op;
+        while (true) {
+            switch (current.getOperatorTag()) {
+                case DATASOURCESCAN:
+                    return (DataSourceScanOperator) current;
+                case ASSIGN:
+                case UNNEST:
+                case SELECT:
+                    addVariableExpressions(current);
+                    break;
+                case SUBPLAN:
+                    for (ILogicalPlan nestedPlan : ((SubplanOperator) current).getNestedPlans()) {
+                        for (Mutable<ILogicalOperator> root : nestedPlan.getRoots()) {
+                            addNestedVariableExpressions(root.getValue());
+                        }
+                    }
+                    break;
+                default:
+                    return null;
+            }
+            current = (AbstractLogicalOperator) current.getInputs().get(0).getValue();
+        }
+    }
+
+    private void addNestedVariableExpressions(ILogicalOperator op) {
+        AbstractLogicalOperator current = (AbstractLogicalOperator) op;
+        while (current.getOperatorTag() != LogicalOperatorTag.NESTEDTUPLESOURCE) {
+            addVariableExpressions(current);
+            if (current.getInputs().isEmpty()) {
+                return;
+            }
+            current = (AbstractLogicalOperator) current.getInputs().get(0).getValue();
+        }
+    }
+
+    private void addVariableExpressions(AbstractLogicalOperator op) {
+        switch (op.getOperatorTag()) {
+            case ASSIGN:
+            case AGGREGATE:
+                AbstractAssignOperator assign = (AbstractAssignOperator) op;
+                for (int i = 0; i < assign.getVariables().size(); ++i) {
+                    variableExpressions.put(assign.getVariables().get(i), assign.getExpressions().get(i).getValue());
+                }
+                break;
+            case UNNEST:
+                UnnestOperator unnest = (UnnestOperator) op;
+                variableExpressions.put(unnest.getVariable(), unnest.getExpressionRef().getValue());
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void findConjuncts(ILogicalExpression expression, List<ILogicalExpression> conjuncts) {
+        ILogicalExpression le = resolveVariable(expression);
+        if (le.getExpressionTag() == LogicalExpressionTag.FUNCTION_CALL) {
+            AbstractFunctionCallExpression afce = (AbstractFunctionCallExpression) le;
+            FunctionIdentifier fi = afce.getFunctionIdentifier();
+            if (fi.equals(AlgebricksBuiltinFunctions.AND) || fi.equals(BuiltinOperators.AND.getFunctionIdentifier())) {
+                for (Mutable<ILogicalExpression> argument : afce.getArguments()) {
+                    findConjuncts(argument.getValue(), conjuncts);
+                }
+                return;
+            }
+            if (fi.equals(BuiltinFunctions.FN_BOOLEAN_1.getFunctionIdentifier())) {
+                findConjuncts(afce.getArguments().get(0).getValue(), conjuncts);
+                return;
+            }
+        }
+        conjuncts.add(le);
+    }
+
+    private ElementValuePredicate getPredicate(ILogicalExpression conjunct, LogicalVariable scanVariable) {
+        if (conjunct.getExpressionTag() != LogicalExpressionTag.FUNCTION_CALL) {
+            return null;
+        }
+        AbstractFunctionCallExpression afce = (AbstractFunctionCallExpression) conjunct;
+        FunctionIdentifier fi = afce.getFunctionIdentifier();
+        if (fi.equals(BuiltinFunctions.FN_STARTS_WITH_2.getFunctionIdentifier())) {
+            Mutable<ILogicalExpression> step = findStep(afce.getArguments().get(0).getValue(), scanVariable);
+            Object literal = getLiteral(afce.getArguments().get(1).getValue());
+            if (step == null || !(literal instanceof String) || ((String) literal).isEmpty()) {
+                return null;
+            }
+            return createPredicate(step, false, Operator.STARTS_WITH, ValueType.STRING, literal);
+        }
+        boolean general = GENERAL_COMPARISONS.containsKey(fi);
+        Operator operator = general ? GENERAL_COMPARISONS.get(fi) : VALUE_COMPARISONS.get(fi);
+        if (operator == null) {
+            return null;
+        }
+        ILogicalExpression left = afce.getArguments().get(0).getValue();
+        ILogicalExpression right = afce.getArguments().get(1).getValue();
+        Object literal = getLiteral(right);
+        if (literal == null) {
+            // Literal on the left side.
+            literal = getLiteral(left);
+            left = right;
+            operator = operator.swap();
+        }
+        if (literal == null) {
+            return null;
+        }
+
+        // The year of a value cast to xs:dateTime.
+        Mutable<ILogicalExpression> yearStep = findYearStep(left, scanVariable);
+        if (yearStep != null) {
+            if (literal instanceof String) {
+                return null;
+            }
+            return createPredicate(yearStep, false, operator, ValueType.YEAR, literal);
+        }
+
+        Mutable<ILogicalExpression> step = findStep(left, scanVariable);
+        if (step == null) {
+            return null;
+        }
+        if (literal instanceof String) {
+            return createPredicate(step, general, operator, ValueType.STRING, literal);
+        }
+        if (general) {
+            // Untyped values are compared to numbers as xs:double.
+            return createPredicate(step, true, operator, ValueType.NUMBER, literal);
+        }
+        return null;
+    }
+
+    private ElementValuePredicate createPredicate(Mutable<ILogicalExpression> step, boolean general,
+            Operator operator, ValueType valueType, Object literal) {
+        int typeCode = ExpressionToolbox.getTypeExpressionTypeArgument(step);
+        if (typeCode <= 0) {
+            return null;
+        }
+        boolean attribute = ((AbstractFunctionCallExpression) step.getValue()).getFunctionIdentifier().equals(
+                BuiltinOperators.ATTRIBUTE.getFunctionIdentifier());
+        if (literal instanceof String) {
+            return new ElementValuePredicate(attribute, general, typeCode, operator, valueType, (String) literal, 0);
+        }
+        return new ElementValuePredicate(attribute, general, typeCode, operator, valueType, null,
+                ((Number) literal).doubleValue());
+    }
+
+    /**
+     * Finds fn:year-from-dateTime over a cast of a child or attribute of the scan variable.
+     */
+    private Mutable<ILogicalExpression> findYearStep(ILogicalExpression expression, LogicalVariable scanVariable) {
+        ILogicalExpression le = stripWrappers(expression);
+        if (!isFunction(le, BuiltinFunctions.FN_YEAR_FROM_DATETIME_1.getFunctionIdentifier())) {
+            return null;
+        }
+        le = stripWrappers(((AbstractFunctionCallExpression) le).getArguments().get(0).getValue());
+        if (!isFunction(le, BuiltinOperators.CAST.getFunctionIdentifier())) {
+            return null;
+        }
+        return findStep(((AbstractFunctionCallExpression) le).getArguments().get(0).getValue(), scanVariable);
+    }
+
+    /**
+     * Finds a child or attribute step directly on the scan variable.
+     */
+    private Mutable<ILogicalExpression> findStep(ILogicalExpression expression, LogicalVariable scanVariable) {
+        ILogicalExpression le = stripWrappers(expression);
+        if (!isFunction(le, BuiltinOperators.CHILD.getFunctionIdentifier())
+                && !isFunction(le, BuiltinOperators.ATTRIBUTE.getFunctionIdentifier())) {
+            return null;
+        }
+        AbstractFunctionCallExpression step = (AbstractFunctionCallExpression) le;
+        ILogicalExpression context = stripWrappers(step.getArguments().get(0).getValue());
+        if (context.getExpressionTag() != LogicalExpressionTag.VARIABLE
+                || !((VariableReferenceExpression) context).getVariableReference().equals(scanVariable)) {
+            return null;
+        }
+        return new MutableObject<ILogicalExpression>(step);
+    }
+
+    /**
+     * Removes the expressions that do not change which values are tested: atomization, sequence handling and
+     * variable references. Promote and treat are kept, since they raise errors for the values the scan would drop.
+     */
+    private ILogicalExpression stripWrappers(ILogicalExpression expression) {
+        ILogicalExpression le = resolveVariable(expression);
+        while (le.getExpressionTag() == LogicalExpressionTag.FUNCTION_CALL) {
+            AbstractFunctionCallExpression afce = (AbstractFunctionCallExpression) le;
+            FunctionIdentifier fi = afce.getFunctionIdentifier();
+            if (fi.equals(BuiltinFunctions.FN_DATA_1.getFunctionIdentifier())
+                    || fi.equals(BuiltinOperators.SORT_DISTINCT_NODES_ASC.getFunctionIdentifier())
+                    || fi.equals(BuiltinOperators.SORT_DISTINCT_NODES_ASC_OR_ATOMICS.getFunctionIdentifier())
+                    || fi.equals(BuiltinOperators.SEQUENCE.getFunctionIdentifier())
+                    || fi.equals(BuiltinOperators.ITERATE.getFunctionIdentifier())) {
+                le = resolveVariable(afce.getArguments().get(0).getValue());
+            } else {
+                break;
+            }
+        }
+        return le;
+    }
+
+    private ILogicalExpression resolveVariable(ILogicalExpression expression) {
+        ILogicalExpression le = expression;
+        while (le.getExpressionTag() == LogicalExpressionTag.VARIABLE) {
+            ILogicalExpression defined = variableExpressions.get(((VariableReferenceExpression) le)
+                    .getVariableReference());
+            if (defined == null) {
+                break;
+            }
+            le = defined;
+        }
+        return le;
+    }
+
+    private boolean isFunction(ILogicalExpression le, FunctionIdentifier fi) {
+        return le.getExpressionTag() == LogicalExpressionTag.FUNCTION_CALL
+                && ((AbstractFunctionCallExpression) le).getFunctionIdentifier().equals(fi);
+    }
+
+    /**
+     * @return The value of a string, integer or double constant as a String, Long or Double, or null.
+     */
+    private Object getLiteral(ILogicalExpression expression) {
+        ILogicalExpression le = stripWrappers(expression);
+        if (le.getExpressionTag() != LogicalExpressionTag.CONSTANT
+                || !(((ConstantExpression) le).getValue() instanceof VXQueryConstantValue)) {
+            return null;
+        }
+        byte[] bytes = ((VXQueryConstantValue) ((ConstantExpression) le).getValue()).getValue();
+        switch (bytes[0]) {
+            case ValueTag.XS_STRING_TAG:
+                try {
+                    return new DataInputStream(new ByteArrayInputStream(bytes, 1, bytes.length - 1)).readUTF();
+                } catch (IOException e) {
+                    return null;
+                }
+            case ValueTag.XS_INTEGER_TAG:
+                return LongPointable.getLong(bytes, 1);
+            case ValueTag.XS_DOUBLE_TAG:
+                return DoublePointable.getDouble(bytes, 1);
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.vxquery.compiler.rewriter.rules;
+
+import org.apache.commons.lang3.mutable.Mutable;
+import org.apache.vxquery.compiler.rewriter.rules.util.InputSizeToolbox;
+
+import edu.uci.ics.hyracks.algebricks.common.exceptions.AlgebricksException;
+import edu.uci.ics.hyracks.algebricks.core.algebra.base.ILogicalOperator;
+import edu.uci.ics.hyracks.algebricks.core.algebra.base.IOptimizationContext;
+import edu.uci.ics.hyracks.algebricks.core.algebra.base.LogicalOperatorTag;
+import edu.uci.ics.hyracks.algebricks.core.algebra.operators.logical.AbstractLogicalOperator;
+import edu.uci.ics.hyracks.algebricks.core.algebra.operators.logical.InnerJoinOperator;
+import edu.uci.ics.hyracks.algebricks.core.rewriter.base.IAlgebraicRewriteRule;
+
+/**
+ * Puts the smaller input of an inner join on the right, the side a hash join builds its table from. Input sizes are
+ * the total size of the collection files and documents each branch reads. A join is left alone unless the sizes of
+ * both branches are known.
+ * 
+ * <pre>
+ * Before
+ * 
+ *   plan__parent
+ *   JOIN( $cond )
+ *     plan__large
+ *     plan__small
+ *   
+ * After 
+ * 
+ *   plan__parent
+ *   JOIN( $cond )
+ *     plan__small
+ *     plan__large
+ * </pre>
+ * 
+ * Where plan__large reads more bytes than plan__small.
+ */
+public class SetJoinBuildSideRule implements IAlgebraicRewriteRule {
+    @Override
+    public boolean rewritePre(Mutable<ILogicalOperator> opRef, IOptimizationContext context) {
+        return false;
+    }
+
+    @Override
+    public boolean rewritePost(Mutable<ILogicalOperator> opRef, IOptimizationContext context)
+            throws AlgebricksException {
+        AbstractLogicalOperator op = (AbstractLogicalOperator) opRef.getValue();
+        if (op.getOperatorTag() != LogicalOperatorTag.INNERJOIN) {
+            return false;
+        }
+        InnerJoinOperator join = (InnerJoinOperator) op;
+        Mutable<ILogicalOperator> left = join.getInputs().get(0);
+        Mutable<ILogicalOperator> right = join.getInputs().get(1);
+        long leftBytes = InputSizeToolbox.getInputBytes(left, context);
+        long rightBytes = InputSizeToolbox.getInputBytes(right, context);
+        if (leftBytes < 0 || rightBytes < 0 || rightBytes <= leftBytes) {
+            return false;
+        }
+        ILogicalOperator build = left.getValue();
+        left.setValue(right.getValue());
+        right.setValue(build);
+        context.computeAndSetTypeEnvironmentForOperator(join);
+        return true;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.vxquery.compiler.rewriter.rules.util;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.mutable.Mutable;
+import org.apache.vxquery.compiler.algebricks.VXQueryConstantValue;
+import org.apache.vxquery.datamodel.accessors.TaggedValuePointable;
+import org.apache.vxquery.datamodel.values.ValueTag;
+import org.apache.vxquery.exceptions.SystemException;
+import org.apache.vxquery.functions.BuiltinFunctions;
+import org.apache.vxquery.metadata.VXQueryCollectionDataSource;
+import org.apache.vxquery.metadata.VXQueryCollectionStatistics;
+import org.apache.vxquery.metadata.VXQueryMetadataProvider;
+import org.apache.vxquery.runtime.functions.util.FunctionHelper;
+
+import edu.uci.ics.hyracks.algebricks.core.algebra.base.ILogicalExpression;
+import edu.uci.ics.hyracks.algebricks.core.algebra.base.ILogicalOperator;
+import edu.uci.ics.hyracks.algebricks.core.algebra.base.IOptimizationContext;
+import edu.uci.ics.hyracks.algebricks.core.algebra.base.LogicalExpressionTag;
+import edu.uci.ics.hyracks.algebricks.core.algebra.expressions.AbstractFunctionCallExpression;
+import edu.uci.ics.hyracks.algebricks.core.algebra.expressions.ConstantExpression;
+import edu.uci.ics.hyracks.algebricks.core.algebra.expressions.VariableReferenceExpression;
+import edu.uci.ics.hyracks.algebricks.core.algebra.operators.logical.AbstractLogicalOperator;
+import edu.uci.ics.hyracks.algebricks.core.algebra.operators.logical.DataSourceScanOperator;
+import edu.uci.ics.hyracks.data.std.primitive.UTF8StringPointable;
+import edu.uci.ics.hyracks.dataflow.common.comm.util.ByteBufferInputStream;
+
+/**
+ * Estimates how much data a plan reads, from the size of the collections it scans and the documents it opens.
+ */
+public class InputSizeToolbox {
+    /**
+     * @return The total size in bytes of the collection files and documents read by the plan, or -1 when one of them
+     *         is unknown, for example when its path is only known when the job runs.
+     */
+    public static long getInputBytes(Mutable<ILogicalOperator> opRef, IOptimizationContext context) {
+        AbstractLogicalOperator op = (AbstractLogicalOperator) opRef.getValue();
+        switch (op.getOperatorTag()) {
+            case DATASOURCESCAN:
+                DataSourceScanOperator scan = (DataSourceScanOperator) op;
+                if (!(scan.getDataSource() instanceof VXQueryCollectionDataSource)) {
+                    return -1;
+                }
+                VXQueryMetadataProvider metadataProvider = null;
+                if (context.getMetadataProvider() instanceof VXQueryMetadataProvider) {
+                    metadataProvider = (VXQueryMetadataProvider) context.getMetadataProvider();
+                }
+                return VXQueryCollectionStatistics.getByteSize((VXQueryCollectionDataSource) scan.getDataSource(),
+                        metadataProvider);
+            case EMPTYTUPLESOURCE:
+                return 0;
+            case NESTEDTUPLESOURCE:
+                return -1;
+            default:
+                break;
+        }
+        if (op.hasNestedPlans()) {
+            return -1;
+        }
+        long bytes = 0;
+        for (Mutable<ILogicalExpression> expression : OperatorToolbox.getExpressions(opRef)) {
+            long b = getExpressionInputBytes(opRef, expression);
+            if (b < 0) {
+                return -1;
+            }
+            bytes += b;
+        }
+        for (Mutable<ILogicalOperator> input : op.getInputs()) {
+            long b = getInputBytes(input, context);
+            if (b < 0) {
+                return -1;
+            }
+            bytes += b;
+        }
+        return bytes;
+    }
+
+    private static long getExpressionInputBytes(Mutable<ILogicalOperator> opRef,
+            Mutable<ILogicalExpression> expression) {
+        List<Mutable<ILogicalExpression>> functions = new ArrayList<Mutable<ILogicalExpression>>();
+        ExpressionToolbox.findAllFunctionExpressions(expression,
+                BuiltinFunctions.FN_COLLECTION_0.getFunctionIdentifier(), functions);
+        ExpressionToolbox.findAllFunctionExpressions(expression,
+                BuiltinFunctions.FN_COLLECTION_1.getFunctionIdentifier(), functions);
+        if (!functions.isEmpty()) {
+            // Collections not replaced by a data source scan.
+            return -1;
+        }
+        ExpressionToolbox.findAllFunctionExpressions(expression, BuiltinFunctions.FN_DOC_1.getFunctionIdentifier(),
+                functions);
+        long bytes = 0;
+        for (Mutable<ILogicalExpression> function : functions) {
+            AbstractFunctionCallExpression doc = (AbstractFunctionCallExpression) function.getValue();
+            String path = getConstantString(opRef, doc.getArguments().get(0).getValue());
+            if (path == null) {
+                return -1;
+            }
+            File file = new File(path);
+            if (!file.isFile()) {
+                return -1;
+            }
+            bytes += file.length();
+        }
+        return bytes;
+    }
+
+    /**
+     * @return The string of a constant expression or of the constant assigned to a variable, or null.
+     */
+    private static String getConstantString(Mutable<ILogicalOperator> opRef, ILogicalExpression expression) {
+        if (expression.getExpressionTag() == LogicalExpressionTag.VARIABLE) {
+            VariableReferenceExpression vre = (VariableReferenceExpression) expression;
+            Mutable<ILogicalOperator> producer = OperatorToolbox.findProducerOf(opRef, vre.getVariableReference());
+            if (producer == null) {
+                return null;
+            }
+            Mutable<ILogicalExpression> produced = OperatorToolbox.getExpressionOf(producer,
+                    vre.getVariableReference());
+            if (produced == null) {
+                return null;
+            }
+            expression = produced.getValue();
+        }
+        if (expression.getExpressionTag() != LogicalExpressionTag.CONSTANT
+                || !(((ConstantExpression) expression).getValue() instanceof VXQueryConstantValue)) {
+            return null;
+        }
+        TaggedValuePointable tvp = (TaggedValuePointable) TaggedValuePointable.FACTORY.createPointable();
+        ExpressionToolbox.getConstantAsPointable((ConstantExpression) expression, tvp);
+        if (tvp.getTag() != ValueTag.XS_STRING_TAG) {
+            return null;
+        }
+        UTF8StringPointable stringp = (UTF8StringPointable) UTF8StringPointable.FACTORY.createPointable();
+        tvp.getValue(stringp);
+        ByteBufferInputStream bbis = new ByteBufferInputStream();
+        try {
+            return FunctionHelper.getStringFromPointable(stringp, bbis, new DataInputStream(bbis));
+        } catch (SystemException e) {
+            return null;
+        }
+    }
+}
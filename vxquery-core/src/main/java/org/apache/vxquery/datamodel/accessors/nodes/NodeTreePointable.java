@@ -17,6 +17,7 @@
 package org.apache.vxquery.datamodel.accessors.nodes;
 
 import org.apache.vxquery.datamodel.accessors.TaggedValuePointable;
+import org.apache.vxquery.datamodel.builders.nodes.SharedDictionary;
 
 import edu.uci.ics.hyracks.api.dataflow.value.ITypeTraits;
 import edu.uci.ics.hyracks.data.std.algorithms.BinarySearchAlgorithm;
@@ -34,6 +35,7 @@ import edu.uci.ics.hyracks.data.std.primitive.VoidPointable;
  *  NodeTreeHeader header;
  *  NodeId nodeId?;
  *  Dictionary dictionary?;
+ *  int32 sharedDictionaryId?;
  *  ElementNode rootNode;
  * }
  * 
@@ -41,6 +43,7 @@ import edu.uci.ics.hyracks.data.std.primitive.VoidPointable;
  *  bit nodeIdExists;
  *  bit dictionaryExists;
  *  bit headerTypeExists;
+ *  bit sharedDictionaryExists;
  * }
  * 
  * NodeId {
@@ -58,12 +61,14 @@ public class NodeTreePointable extends AbstractPointable {
     public static final int HEADER_NODEID_EXISTS_MASK = (1 << 0);
     public static final int HEADER_DICTIONARY_EXISTS_MASK = (1 << 1);
     public static final int HEADER_TYPE_EXISTS_MASK = (1 << 2);
+    public static final int HEADER_SHARED_DICTIONARY_EXISTS_MASK = (1 << 3);
 
     private static final int HEADER_OFFSET = 0;
     private static final int HEADER_SIZE = 1;
     private static final int NODE_ID_SIZE = 4;
 
     private static final int DICTIONARY_SIZE_SIZE = 4;
+    private static final int SHARED_DICTIONARY_ID_SIZE = 4;
     private static final int DICTIONARY_NENTRIES_SIZE = 4;
     private static final int IDX_PTR_SLOT_SIZE = 4;
     private static final int SORTED_PTR_SLOT_SIZE = 4;
@@ -95,11 +100,10 @@ public class NodeTreePointable extends AbstractPointable {
 
         @Override
         public int getStart(int index) {
-            int dataAreaStart = getDictionaryDataAreaStartOffset();
             int sortedPtrArrayStart = getDictionarySortedPointerArrayOffset();
             int sortedSlotValue = IntegerPointable
                     .getInteger(bytes, sortedPtrArrayStart + index * SORTED_PTR_SLOT_SIZE);
-            return dataAreaStart + sortedSlotValue;
+            return getStringOffset(sortedSlotValue);
         }
 
         @Override
@@ -110,6 +114,17 @@ public class NodeTreePointable extends AbstractPointable {
 
     private final BinarySearchAlgorithm binSearch = new BinarySearchAlgorithm();
 
+    /**
+     * The shared dictionary of the tree, resolved on first use after each {@link #set(byte[], int, int)}.
+     */
+    private SharedDictionary sharedDictionary;
+
+    @Override
+    public void set(byte[] bytes, int start, int length) {
+        super.set(bytes, start, length);
+        sharedDictionary = null;
+    }
+
     public boolean nodeIdExists() {
         return (getHeader() & HEADER_NODEID_EXISTS_MASK) != 0;
     }
@@ -118,6 +133,14 @@ public class NodeTreePointable extends AbstractPointable {
         return (getHeader() & HEADER_DICTIONARY_EXISTS_MASK) != 0;
     }
 
+    /**
+     * @return Whether the names of the tree are kept in a {@link SharedDictionary} instead of a dictionary of its
+     *         own.
+     */
+    public boolean sharedDictionaryExists() {
+        return (getHeader() & HEADER_SHARED_DICTIONARY_EXISTS_MASK) != 0;
+    }
+
     public boolean typeExists() {
         return (getHeader() & HEADER_TYPE_EXISTS_MASK) != 0;
     }
@@ -127,22 +150,33 @@ public class NodeTreePointable extends AbstractPointable {
     }
 
     public int getDictionaryEntryCount() {
+        if (sharedDictionaryExists()) {
+            return getSharedDictionary().getSize();
+        }
         return dictionaryExists() ? IntegerPointable.getInteger(bytes, getDictionaryEntryCountOffset()) : 0;
     }
 
     public void getString(int idx, IPointable string) {
+        if (sharedDictionaryExists()) {
+            getSharedDictionary().getString(idx, string);
+            return;
+        }
         int nEntries = getDictionaryEntryCount();
         if (idx < 0 || idx >= nEntries) {
             throw new IllegalArgumentException(idx + " not within [0, " + nEntries + ")");
         }
-        int dataAreaStart = getDictionaryDataAreaStartOffset();
-        int idxSlotValue = idx == 0 ? 0 : IntegerPointable.getInteger(bytes, getDictionaryIndexPointerArrayOffset()
-                + (idx - 1) * IDX_PTR_SLOT_SIZE);
-        int strLen = UTF8StringPointable.getUTFLength(bytes, dataAreaStart + idxSlotValue);
-        string.set(bytes, dataAreaStart + idxSlotValue, strLen + 2);
+        int stringOffset = getStringOffset(idx);
+        int strLen = UTF8StringPointable.getUTFLength(bytes, stringOffset);
+        string.set(bytes, stringOffset, strLen + 2);
     }
 
+    /**
+     * @return The dictionary code of the string or -1 when the string is not in the dictionary.
+     */
     public int lookupString(UTF8StringPointable key) {
+        if (sharedDictionaryExists()) {
+            return getSharedDictionary().find(key);
+        }
         boolean found = binSearch.find(sortedStringVector, key);
         if (!found) {
             return -1;
@@ -180,10 +214,27 @@ public class NodeTreePointable extends AbstractPointable {
         return getNodeIdOffset() + getNodeIdSize();
     }
 
+    /**
+     * @return The size of the dictionary or of the shared dictionary id that follows the node id.
+     */
     public int getDictionarySize() {
+        if (sharedDictionaryExists()) {
+            return SHARED_DICTIONARY_ID_SIZE;
+        }
         return dictionaryExists() ? IntegerPointable.getInteger(bytes, getDictionaryOffset()) : 0;
     }
 
+    public int getSharedDictionaryId() {
+        return sharedDictionaryExists() ? IntegerPointable.getInteger(bytes, getDictionaryOffset()) : 0;
+    }
+
+    private SharedDictionary getSharedDictionary() {
+        if (sharedDictionary == null) {
+            sharedDictionary = SharedDictionary.getInstance(getSharedDictionaryId());
+        }
+        return sharedDictionary;
+    }
+
     private int getDictionaryEntryCountOffset() {
         return getDictionaryOffset() + DICTIONARY_SIZE_SIZE;
     }
@@ -201,6 +252,12 @@ public class NodeTreePointable extends AbstractPointable {
                 * (IDX_PTR_SLOT_SIZE + SORTED_PTR_SLOT_SIZE);
     }
 
+    private int getStringOffset(int idx) {
+        int idxSlotValue = idx == 0 ? 0 : IntegerPointable.getInteger(bytes, getDictionaryIndexPointerArrayOffset()
+                + (idx - 1) * IDX_PTR_SLOT_SIZE);
+        return getDictionaryDataAreaStartOffset() + idxSlotValue;
+    }
+
     private int getRootNodeOffset() {
         return getDictionaryOffset() + getDictionarySize();
     }
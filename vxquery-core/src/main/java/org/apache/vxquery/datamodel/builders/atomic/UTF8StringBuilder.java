@@ -51,4 +51,14 @@ public class UTF8StringBuilder extends AbstractBuilder {
             throw new UTFDataFormatException("encoded string too long: " + mvs.getLength() + " bytes");
         }
     }
+
+    /**
+     * Appends bytes that are already in the modified UTF-8 form of {@link DataOutput#writeUTF(String)}.
+     */
+    public void appendUTF8Bytes(byte[] bytes, int start, int length) throws IOException {
+        out.write(bytes, start, length);
+        if (mvs.getLength() > 65535) {
+            throw new UTFDataFormatException("encoded string too long: " + mvs.getLength() + " bytes");
+        }
+    }
 }
\ No newline at end of file
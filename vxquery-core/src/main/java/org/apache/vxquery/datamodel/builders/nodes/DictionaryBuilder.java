@@ -19,22 +19,29 @@ package org.apache.vxquery.datamodel.builders.nodes;
 import java.io.DataOutput;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.util.Map.Entry;
-import java.util.TreeMap;
+import java.util.Arrays;
 
 import org.apache.vxquery.util.GrowableIntArray;
 
-import edu.uci.ics.hyracks.data.std.algorithms.BinarySearchAlgorithm;
-import edu.uci.ics.hyracks.data.std.collections.api.IValueReferenceVector;
+import edu.uci.ics.hyracks.data.std.api.IPointable;
 import edu.uci.ics.hyracks.data.std.primitive.IntegerPointable;
 import edu.uci.ics.hyracks.data.std.primitive.UTF8StringPointable;
 import edu.uci.ics.hyracks.data.std.util.ArrayBackedValueStorage;
 import edu.uci.ics.hyracks.data.std.util.ByteArrayAccessibleOutputStream;
 
+/**
+ * Builds the string dictionary of a node tree. Strings are found through an open addressing hash table over their
+ * UTF-8 bytes that holds slot indexes, so a lookup neither boxes nor hashes a String. The sorted index of the
+ * dictionary is only produced by {@link #write(ArrayBackedValueStorage)}.
+ */
 public class DictionaryBuilder {
+    private static final int INITIAL_TABLE_SIZE = 64;
+
+    private static final int INSERTION_SORT_THRESHOLD = 8;
+
     private final GrowableIntArray stringEndOffsets;
 
-    private final GrowableIntArray sortedSlotIndexes;
+    private final GrowableIntArray stringHashes;
 
     private final ByteArrayAccessibleOutputStream dataBuffer;
 
@@ -42,50 +49,45 @@ public class DictionaryBuilder {
 
     private final ArrayBackedValueStorage cache;
 
-    private final TreeMap<String, Integer> hashSlotIndexes;
+    private final ArrayBackedValueStorage keyBuffer;
 
-    private boolean cacheReady;
+    private final UTF8StringPointable left;
 
-    private final IValueReferenceVector sortedStringsVector = new IValueReferenceVector() {
-        @Override
-        public int getStart(int index) {
-            int slot = sortedSlotIndexes.getArray()[index];
-            return slot == 0 ? 0 : stringEndOffsets.getArray()[slot - 1];
-        }
+    private final UTF8StringPointable right;
 
-        @Override
-        public int getSize() {
-            return stringEndOffsets.getSize();
-        }
+    /**
+     * Slot index + 1 of the string hashed to each position, 0 for a free position.
+     */
+    private int[] table;
 
-        @Override
-        public int getLength(int index) {
-            return UTF8StringPointable.getUTFLength(dataBuffer.getByteArray(), getStart(index)) + 2;
-        }
+    private int[] sortedSlots;
 
-        @Override
-        public byte[] getBytes(int index) {
-            return dataBuffer.getByteArray();
-        }
-    };
+    private int[] sortTemp;
 
-    private final BinarySearchAlgorithm binSearch = new BinarySearchAlgorithm();
+    private boolean cacheReady;
 
     public DictionaryBuilder() {
         stringEndOffsets = new GrowableIntArray();
-        sortedSlotIndexes = new GrowableIntArray();
+        stringHashes = new GrowableIntArray();
         dataBuffer = new ByteArrayAccessibleOutputStream();
         dataBufferOut = new DataOutputStream(dataBuffer);
         cache = new ArrayBackedValueStorage();
-        hashSlotIndexes = new TreeMap<String, Integer>();
+        keyBuffer = new ArrayBackedValueStorage();
+        left = (UTF8StringPointable) UTF8StringPointable.FACTORY.createPointable();
+        right = (UTF8StringPointable) UTF8StringPointable.FACTORY.createPointable();
+        table = new int[INITIAL_TABLE_SIZE];
+        sortedSlots = new int[0];
+        sortTemp = new int[0];
         cacheReady = false;
     }
 
     public void reset() {
+        if (stringEndOffsets.getSize() > 0) {
+            Arrays.fill(table, 0);
+        }
         stringEndOffsets.clear();
-        sortedSlotIndexes.clear();
+        stringHashes.clear();
         dataBuffer.reset();
-        hashSlotIndexes.clear();
         cacheReady = false;
     }
 
@@ -109,53 +111,189 @@ public class DictionaryBuilder {
         for (int i = 0; i < entryCount; ++i) {
             out.writeInt(entryOffsets[i]);
         }
-        if (hashSlotIndexes.isEmpty()) {
-            int[] sortedOffsets = sortedSlotIndexes.getArray();
-            for (int i = 0; i < entryCount; ++i) {
-                out.writeInt(sortedOffsets[i]);
-            }
-        } else {
-            for (Entry<String, Integer> me : hashSlotIndexes.entrySet()) {
-                out.writeInt((Integer) me.getValue());
-            }
+        sortSlots();
+        for (int i = 0; i < entryCount; ++i) {
+            out.writeInt(sortedSlots[i]);
         }
         out.write(dataBuffer.getByteArray(), 0, dataBuffer.size());
         IntegerPointable.setInteger(abvs.getByteArray(), sizeOffset, abvs.getLength() - sizeOffset);
     }
 
+    public int getSize() {
+        return stringEndOffsets.getSize();
+    }
+
+    /**
+     * Sets the pointable to the string of the slot, including its length prefix.
+     */
+    public void getString(int slot, IPointable string) {
+        int start = getStringStart(slot);
+        string.set(dataBuffer.getByteArray(), start, stringEndOffsets.getArray()[slot] - start - 4);
+    }
+
+    /**
+     * @return The slot of the string or -1, without adding the string.
+     */
+    public int find(UTF8StringPointable str) {
+        byte[] bytes = str.getByteArray();
+        int start = str.getStartOffset();
+        int length = UTF8StringPointable.getUTFLength(bytes, start) + 2;
+        int entry = table[findPosition(bytes, start, length, hash(bytes, start, length))];
+        return entry - 1;
+    }
+
     public int lookup(String str) {
-        Integer slotIndex = hashSlotIndexes.get(str);
-        if (slotIndex == null) {
-            try {
-                dataBufferOut.writeUTF(str);
-                slotIndex = stringEndOffsets.getSize();
-                dataBufferOut.writeInt(slotIndex);
-            } catch (IOException e) {
-                throw new IllegalStateException(e);
-            }
-            stringEndOffsets.append(dataBuffer.size());
-            hashSlotIndexes.put(str, slotIndex);
-            cacheReady = false;
+        keyBuffer.reset();
+        try {
+            keyBuffer.getDataOutput().writeUTF(str);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
         }
-        return slotIndex;
+        return lookup(keyBuffer.getByteArray(), keyBuffer.getStartOffset(), keyBuffer.getLength());
     }
 
     public int lookup(UTF8StringPointable str) {
-        boolean found = binSearch.find(sortedStringsVector, str);
-        int index = binSearch.getIndex();
-        if (found) {
-            return sortedSlotIndexes.getArray()[index];
+        byte[] bytes = str.getByteArray();
+        int start = str.getStartOffset();
+        return lookup(bytes, start, UTF8StringPointable.getUTFLength(bytes, start) + 2);
+    }
+
+    /**
+     * @param length
+     *            Length of the string including its two byte length prefix.
+     */
+    private int lookup(byte[] bytes, int start, int length) {
+        int hash = hash(bytes, start, length);
+        int pos = findPosition(bytes, start, length, hash);
+        if (table[pos] != 0) {
+            return table[pos] - 1;
         }
-        dataBuffer.write(str.getByteArray(), str.getStartOffset(), str.getLength());
         int slotIndex = stringEndOffsets.getSize();
+        dataBuffer.write(bytes, start, length);
         try {
             dataBufferOut.writeInt(slotIndex);
         } catch (IOException e) {
             throw new IllegalStateException(e);
         }
         stringEndOffsets.append(dataBuffer.size());
-        sortedSlotIndexes.insert(index, slotIndex);
+        stringHashes.append(hash);
+        table[pos] = slotIndex + 1;
+        if ((slotIndex + 1) * 2 > table.length) {
+            rehash();
+        }
         cacheReady = false;
         return slotIndex;
     }
-}
\ No newline at end of file
+
+    /**
+     * @return The position of the string in the table or the free position it would take.
+     */
+    private int findPosition(byte[] bytes, int start, int length, int hash) {
+        int mask = table.length - 1;
+        int pos = hash & mask;
+        int entry;
+        while ((entry = table[pos]) != 0) {
+            int slot = entry - 1;
+            if (stringHashes.getArray()[slot] == hash && equals(slot, bytes, start, length)) {
+                break;
+            }
+            pos = (pos + 1) & mask;
+        }
+        return pos;
+    }
+
+    private static int hash(byte[] bytes, int start, int length) {
+        int h = 0;
+        for (int i = start + 2; i < start + length; ++i) {
+            h = 31 * h + bytes[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private int getStringStart(int slot) {
+        return slot == 0 ? 0 : stringEndOffsets.getArray()[slot - 1];
+    }
+
+    private boolean equals(int slot, byte[] bytes, int start, int length) {
+        int slotStart = getStringStart(slot);
+        // Each entry is followed by its int slot index.
+        if (stringEndOffsets.getArray()[slot] - slotStart - 4 != length) {
+            return false;
+        }
+        byte[] data = dataBuffer.getByteArray();
+        for (int i = 0; i < length; ++i) {
+            if (data[slotStart + i] != bytes[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        int[] hashes = stringHashes.getArray();
+        for (int slot = 0; slot < stringHashes.getSize(); ++slot) {
+            int pos = hashes[slot] & mask;
+            while (table[pos] != 0) {
+                pos = (pos + 1) & mask;
+            }
+            table[pos] = slot + 1;
+        }
+    }
+
+    /**
+     * Fills sortedSlots with the slot indexes ordered by their strings, the order NodeTreePointable searches in.
+     */
+    private void sortSlots() {
+        int size = stringEndOffsets.getSize();
+        if (sortedSlots.length < size) {
+            sortedSlots = new int[stringEndOffsets.getArray().length];
+            sortTemp = new int[sortedSlots.length];
+        }
+        for (int i = 0; i < size; ++i) {
+            sortedSlots[i] = i;
+        }
+        mergeSort(0, size);
+    }
+
+    private void mergeSort(int from, int to) {
+        if (to - from <= INSERTION_SORT_THRESHOLD) {
+            for (int i = from + 1; i < to; ++i) {
+                int slot = sortedSlots[i];
+                int j = i;
+                while (j > from && compare(sortedSlots[j - 1], slot) > 0) {
+                    sortedSlots[j] = sortedSlots[j - 1];
+                    --j;
+                }
+                sortedSlots[j] = slot;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(from, mid);
+        mergeSort(mid, to);
+        if (compare(sortedSlots[mid - 1], sortedSlots[mid]) <= 0) {
+            return;
+        }
+        System.arraycopy(sortedSlots, from, sortTemp, from, to - from);
+        int i = from;
+        int j = mid;
+        for (int k = from; k < to; ++k) {
+            if (j >= to || (i < mid && compare(sortTemp[i], sortTemp[j]) <= 0)) {
+                sortedSlots[k] = sortTemp[i++];
+            } else {
+                sortedSlots[k] = sortTemp[j++];
+            }
+        }
+    }
+
+    private int compare(int slot1, int slot2) {
+        byte[] data = dataBuffer.getByteArray();
+        int start1 = getStringStart(slot1);
+        int start2 = getStringStart(slot2);
+        left.set(data, start1, UTF8StringPointable.getUTFLength(data, start1) + 2);
+        right.set(data, start2, UTF8StringPointable.getUTFLength(data, start2) + 2);
+        return left.compareTo(right);
+    }
+}
@@ -39,8 +39,14 @@ public class NodeSubTreeBuilder extends AbstractNodeBuilder {
     }
 
     public void setChildNode(NodeTreePointable ntp, TaggedValuePointable itemTvp) throws IOException {
-        boolean hasDictionary = ntp.dictionaryExists() && hasDictionary(itemTvp.getTag());
-        byte header = (byte) (hasDictionary ? NodeTreePointable.HEADER_DICTIONARY_EXISTS_MASK : 0);
+        boolean hasDictionary = (ntp.dictionaryExists() || ntp.sharedDictionaryExists())
+                && hasDictionary(itemTvp.getTag());
+        byte header = 0;
+        if (hasDictionary) {
+            // Either the dictionary or the shared dictionary id is copied.
+            header = (byte) (ntp.sharedDictionaryExists() ? NodeTreePointable.HEADER_SHARED_DICTIONARY_EXISTS_MASK
+                    : NodeTreePointable.HEADER_DICTIONARY_EXISTS_MASK);
+        }
         // TODO add all header flags to this setting.
         boolean hasNodeIds = ntp.nodeIdExists();
         if (hasNodeIds) {
@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.vxquery.datamodel.builders.nodes;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import edu.uci.ics.hyracks.api.context.IHyracksJobletContext;
+import edu.uci.ics.hyracks.api.job.JobId;
+import edu.uci.ics.hyracks.api.resources.IDeallocatable;
+import edu.uci.ics.hyracks.data.std.api.IPointable;
+import edu.uci.ics.hyracks.data.std.primitive.UTF8StringPointable;
+import edu.uci.ics.hyracks.data.std.primitive.VoidPointable;
+
+/**
+ * A name dictionary shared by the node trees of the collection scans of one job in this process. Such trees carry
+ * the id of the dictionary in place of a dictionary of their own. The dictionary is dropped when the job ends.
+ * <p>
+ * The id is chosen at random, so a tree that reaches another process or outlives its job is detected instead of
+ * read with the wrong names.
+ * <p>
+ * Strings are added under the lock of the dictionary. Each added string is also copied to an append-only array that
+ * is published through a volatile size, so {@link #getSize()} and {@link #getString(int, IPointable)} read without
+ * a lock.
+ */
+public class SharedDictionary {
+    private static final Random RANDOM = new Random();
+
+    private static final Map<JobId, SharedDictionary> JOB_DICTIONARIES = new HashMap<JobId, SharedDictionary>();
+
+    private static final Map<Integer, SharedDictionary> DICTIONARIES = new ConcurrentHashMap<Integer,
+            SharedDictionary>();
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final int id;
+
+    private final DictionaryBuilder db;
+
+    private final IPointable added;
+
+    /**
+     * The strings by code, including their length prefix. Replaced by a larger copy when it is full.
+     */
+    private volatile byte[][] strings;
+
+    private volatile int size;
+
+    private SharedDictionary(int id) {
+        this.id = id;
+        db = new DictionaryBuilder();
+        added = VoidPointable.FACTORY.createPointable();
+        strings = new byte[INITIAL_CAPACITY][];
+        size = 0;
+    }
+
+    /**
+     * @return The dictionary of the job, created on first use and dropped when the job ends.
+     */
+    public static SharedDictionary getInstance(IHyracksJobletContext jobletCtx) {
+        final JobId jobId = jobletCtx.getJobId();
+        synchronized (JOB_DICTIONARIES) {
+            SharedDictionary dictionary = JOB_DICTIONARIES.get(jobId);
+            if (dictionary == null) {
+                int id;
+                do {
+                    id = RANDOM.nextInt();
+                } while (DICTIONARIES.containsKey(id));
+                dictionary = new SharedDictionary(id);
+                JOB_DICTIONARIES.put(jobId, dictionary);
+                DICTIONARIES.put(id, dictionary);
+                jobletCtx.registerDeallocatable(new IDeallocatable() {
+                    @Override
+                    public void deallocate() {
+                        synchronized (JOB_DICTIONARIES) {
+                            DICTIONARIES.remove(JOB_DICTIONARIES.remove(jobId).getId());
+                        }
+                    }
+                });
+            }
+            return dictionary;
+        }
+    }
+
+    /**
+     * @return The dictionary with the id, failing when the id belongs to another process or to a finished job.
+     */
+    public static SharedDictionary getInstance(int id) {
+        SharedDictionary dictionary = DICTIONARIES.get(id);
+        if (dictionary == null) {
+            throw new IllegalStateException("Node tree refers to the shared dictionary " + id
+                    + " of another process or a finished job");
+        }
+        return dictionary;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return The code of the string, adding it when missing.
+     */
+    public synchronized int lookup(UTF8StringPointable str) {
+        int code = db.lookup(str);
+        if (code == size) {
+            byte[][] current = strings;
+            if (code == current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+            }
+            db.getString(code, added);
+            current[code] = Arrays.copyOfRange(added.getByteArray(), added.getStartOffset(),
+                    added.getStartOffset() + added.getLength());
+            // The array is published before the size that makes the new string visible.
+            strings = current;
+            size = code + 1;
+        }
+        return code;
+    }
+
+    /**
+     * @return The code of the string or -1. Takes the lock, callers resolve a name once per dictionary.
+     */
+    public synchronized int find(UTF8StringPointable str) {
+        return db.find(str);
+    }
+
+    /**
+     * Sets the pointable to the string of a code that has been returned by {@link #lookup(UTF8StringPointable)}. The
+     * bytes of a string are never overwritten.
+     */
+    public void getString(int code, IPointable string) {
+        if (code < 0 || code >= size) {
+            throw new IllegalArgumentException(code + " not within [0, " + size + ")");
+        }
+        byte[] bytes = strings[code];
+        string.set(bytes, 0, bytes.length);
+    }
+}
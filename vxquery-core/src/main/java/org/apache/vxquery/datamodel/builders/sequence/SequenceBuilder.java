@@ -45,6 +45,18 @@ public class SequenceBuilder {
         slots.append(dataArea.getLength());
     }
 
+    /**
+     * @return Storage the next item is written to in place, saving the copy made by {@link #addItem(IValueReference)}.
+     *         The storage must not be reset. The item is completed by {@link #endItem()}.
+     */
+    public IMutableValueStorage getItemStorage() {
+        return dataArea;
+    }
+
+    public void endItem() {
+        slots.append(dataArea.getLength());
+    }
+
     public void finish() throws IOException {
         DataOutput out = mvs.getDataOutput();
         if (slots.getSize() != 1) {
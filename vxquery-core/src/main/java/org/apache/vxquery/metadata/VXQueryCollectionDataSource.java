@@ -20,6 +20,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.vxquery.compiler.rewriter.rules.CollectionFileDomain;
+import org.apache.vxquery.xmlparser.ElementValuePredicate;
 
 import edu.uci.ics.hyracks.algebricks.core.algebra.base.LogicalVariable;
 import edu.uci.ics.hyracks.algebricks.core.algebra.metadata.IDataSource;
@@ -35,7 +36,10 @@ public class VXQueryCollectionDataSource implements IDataSource<String> {
     private final int dataSourceId;
     private final String collectionName;
     private String[] collectionPartitions;
+    private int partitionCount;
     private final List<Integer> childSeq;
+    private final List<ElementValuePredicate> valuePredicates;
+    private List<Integer> projection;
     private int totalDataSources;
 
     private final Object[] types;
@@ -60,6 +64,8 @@ public class VXQueryCollectionDataSource implements IDataSource<String> {
             }
         };
         this.childSeq = new ArrayList<Integer>();
+        this.valuePredicates = new ArrayList<ElementValuePredicate>();
+        this.projection = null;
     }
 
     public int getTotalDataSources() {
@@ -82,8 +88,16 @@ public class VXQueryCollectionDataSource implements IDataSource<String> {
         this.collectionPartitions = collectionPartitions;
     }
 
+    /**
+     * The number of scan partitions per node. Each collection path gets at least one partition; when more partitions
+     * are requested, the files of each path are split between them.
+     */
     public int getPartitionCount() {
-        return collectionPartitions.length;
+        return Math.max(collectionPartitions.length, partitionCount);
+    }
+
+    public void setPartitionCount(int partitionCount) {
+        this.partitionCount = partitionCount;
     }
 
     @Override
@@ -113,8 +127,40 @@ public class VXQueryCollectionDataSource implements IDataSource<String> {
         return childSeq;
     }
 
+    /**
+     * Add a test that every element returned by the scan must pass.
+     *
+     * @return False if the data source already has the predicate.
+     */
+    public boolean addValuePredicate(ElementValuePredicate predicate) {
+        if (valuePredicates.contains(predicate)) {
+            return false;
+        }
+        valuePredicates.add(predicate);
+        return true;
+    }
+
+    public List<ElementValuePredicate> getValuePredicates() {
+        return valuePredicates;
+    }
+
+    /**
+     * Set the child steps the query uses below each returned element. Other children are not built.
+     *
+     * @param projection
+     *            Sequence type codes of the child steps, or null to build every child.
+     */
+    public void setProjection(List<Integer> projection) {
+        this.projection = projection;
+    }
+
+    public List<Integer> getProjection() {
+        return projection;
+    }
+
     @Override
     public String toString() {
-        return "VXQueryCollectionDataSource [collectionName=" + collectionName + ", childSeq=" + childSeq + "]";
+        return "VXQueryCollectionDataSource [collectionName=" + collectionName + ", childSeq=" + childSeq
+                + ", valuePredicates=" + valuePredicates + ", projection=" + projection + "]";
     }
 }
@@ -0,0 +1,187 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.vxquery.metadata;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.filefilter.TrueFileFilter;
+
+/**
+ * Spreads the files of one collection directory over several scan partitions on the same node.
+ * The directory is listed once per node and the listing is shared by all partitions reading it.
+ * Partitions either take a fixed split, where files are assigned largest first to the least loaded
+ * partition, or pull files largest first from a queue shared by the whole node.
+ */
+public class VXQueryCollectionFileSplitter {
+    protected static final Logger LOGGER = Logger.getLogger(VXQueryCollectionFileSplitter.class.getName());
+
+    private static final Map<String, VXQueryCollectionFileSplitter> SPLITTERS = new HashMap<String, VXQueryCollectionFileSplitter>();
+
+    private static final Comparator<File> LARGEST_FIRST = new Comparator<File>() {
+        @Override
+        public int compare(File f1, File f2) {
+            long l1 = f1.length();
+            long l2 = f2.length();
+            if (l1 != l2) {
+                return l1 > l2 ? -1 : 1;
+            }
+            return f1.getPath().compareTo(f2.getPath());
+        }
+    };
+
+    private final String key;
+    private final List<File> files;
+    private final List<List<File>> splits;
+    private int nextFile;
+    private int openSplits;
+
+    // Scan statistics for each split.
+    private final long[] bytesParsed;
+    private final int[] filesParsed;
+    private final long[] finishTimes;
+
+    private VXQueryCollectionFileSplitter(String key, File directory, int splitCount) {
+        this.key = key;
+        files = listFiles(directory);
+        Collections.sort(files, LARGEST_FIRST);
+
+        splits = new ArrayList<List<File>>(splitCount);
+        long[] splitBytes = new long[splitCount];
+        for (int i = 0; i < splitCount; ++i) {
+            splits.add(new ArrayList<File>());
+        }
+        for (File file : files) {
+            int smallest = 0;
+            for (int i = 1; i < splitCount; ++i) {
+                if (splitBytes[i] < splitBytes[smallest]) {
+                    smallest = i;
+                }
+            }
+            splits.get(smallest).add(file);
+            splitBytes[smallest] += file.length();
+        }
+        nextFile = 0;
+        openSplits = splitCount;
+
+        bytesParsed = new long[splitCount];
+        filesParsed = new int[splitCount];
+        finishTimes = new long[splitCount];
+    }
+
+    /**
+     * Get the shared listing for a directory. The first caller for a key lists the directory.
+     *
+     * @param key
+     *            Identifies the scan on this node (job, data source and directory).
+     * @param directory
+     *            Collection directory to split.
+     * @param splitCount
+     *            Number of partitions sharing the directory.
+     * @return The splitter shared by all partitions with the same key.
+     */
+    public static synchronized VXQueryCollectionFileSplitter acquire(String key, File directory, int splitCount) {
+        VXQueryCollectionFileSplitter splitter = SPLITTERS.get(key);
+        if (splitter == null) {
+            splitter = new VXQueryCollectionFileSplitter(key, directory, splitCount);
+            SPLITTERS.put(key, splitter);
+        }
+        return splitter;
+    }
+
+    /**
+     * Release one split. The listing is dropped once every split has been released.
+     */
+    public static synchronized void release(VXQueryCollectionFileSplitter splitter) {
+        if (--splitter.openSplits <= 0) {
+            SPLITTERS.remove(splitter.key);
+            splitter.logStatistics();
+        }
+    }
+
+    /**
+     * @return The fixed set of files assigned to a split.
+     */
+    public List<File> getSplit(int splitIndex) {
+        return splits.get(splitIndex);
+    }
+
+    /**
+     * Take the largest file that no split has read yet.
+     *
+     * @return The next file or null once the queue is empty.
+     */
+    public synchronized File pollFile(int splitIndex) {
+        if (nextFile < files.size()) {
+            return files.get(nextFile++);
+        }
+        if (finishTimes[splitIndex] == 0) {
+            finishTimes[splitIndex] = System.currentTimeMillis();
+        }
+        return null;
+    }
+
+    public synchronized void fileParsed(int splitIndex, File file) {
+        bytesParsed[splitIndex] += file.length();
+        ++filesParsed[splitIndex];
+    }
+
+    public synchronized void splitFinished(int splitIndex) {
+        if (finishTimes[splitIndex] == 0) {
+            finishTimes[splitIndex] = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Logs the bytes parsed by each split and how long it waited for the slowest split on the node.
+     */
+    private void logStatistics() {
+        if (!LOGGER.isLoggable(Level.FINE)) {
+            return;
+        }
+        long lastFinish = 0;
+        for (long finishTime : finishTimes) {
+            lastFinish = Math.max(lastFinish, finishTime);
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("Collection scan statistics (").append(key).append("):");
+        for (int i = 0; i < finishTimes.length; ++i) {
+            sb.append("\n  split ").append(i).append(": files=").append(filesParsed[i]).append(" bytes-parsed=")
+                    .append(bytesParsed[i]).append(" idle-time=").append(lastFinish - finishTimes[i]).append(" ms");
+        }
+        LOGGER.fine(sb.toString());
+    }
+
+    public static List<File> listFiles(File directory) {
+        List<File> files = new ArrayList<File>();
+        @SuppressWarnings("unchecked")
+        Iterator<File> it = FileUtils.iterateFiles(directory, new VXQueryIOFileFilter(), TrueFileFilter.INSTANCE);
+        while (it.hasNext()) {
+            files.add(it.next());
+        }
+        return files;
+    }
+}
@@ -16,6 +16,7 @@
  */
 package org.apache.vxquery.metadata;
 
+import java.io.DataInputStream;
 import java.io.File;
 import java.nio.ByteBuffer;
 import java.util.Iterator;
@@ -23,9 +24,17 @@ import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.xml.namespace.QName;
+
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.filefilter.TrueFileFilter;
 import org.apache.vxquery.context.DynamicContext;
+import org.apache.vxquery.datamodel.accessors.TaggedValuePointable;
+import org.apache.vxquery.datamodel.builders.nodes.SharedDictionary;
+import org.apache.vxquery.datamodel.values.ValueTag;
+import org.apache.vxquery.exceptions.SystemException;
+import org.apache.vxquery.runtime.functions.util.FunctionHelper;
+import org.apache.vxquery.xmlparser.ElementValuePredicate;
 import org.apache.vxquery.xmlparser.ITreeNodeIdProvider;
 import org.apache.vxquery.xmlparser.TreeNodeIdProvider;
 import org.apache.vxquery.xmlparser.XMLParser;
@@ -36,35 +45,47 @@ import edu.uci.ics.hyracks.api.dataflow.value.IRecordDescriptorProvider;
 import edu.uci.ics.hyracks.api.dataflow.value.RecordDescriptor;
 import edu.uci.ics.hyracks.api.exceptions.HyracksDataException;
 import edu.uci.ics.hyracks.api.job.IOperatorDescriptorRegistry;
+import edu.uci.ics.hyracks.api.job.profiling.counters.ICounter;
+import edu.uci.ics.hyracks.data.std.primitive.UTF8StringPointable;
 import edu.uci.ics.hyracks.dataflow.common.comm.io.FrameTupleAccessor;
 import edu.uci.ics.hyracks.dataflow.common.comm.io.FrameTupleAppender;
+import edu.uci.ics.hyracks.dataflow.common.comm.util.ByteBufferInputStream;
 import edu.uci.ics.hyracks.dataflow.common.comm.util.FrameUtils;
 import edu.uci.ics.hyracks.dataflow.std.base.AbstractSingleActivityOperatorDescriptor;
 import edu.uci.ics.hyracks.dataflow.std.base.AbstractUnaryInputUnaryOutputOperatorNodePushable;
 
 public class VXQueryCollectionOperatorDescriptor extends AbstractSingleActivityOperatorDescriptor {
     private static final long serialVersionUID = 1L;
+    private static final String NODE_ID_PLACEHOLDER = "nodeId";
     private short dataSourceId;
     private short totalDataSources;
     private String[] collectionPartitions;
+    private int partitionsPerNode;
     private List<Integer> childSeq;
+    private List<ElementValuePredicate> valuePredicates;
+    private List<Integer> projection;
+    private boolean sharedDictionary;
     protected static final Logger LOGGER = Logger.getLogger(VXQueryCollectionOperatorDescriptor.class.getName());
 
     public VXQueryCollectionOperatorDescriptor(IOperatorDescriptorRegistry spec, VXQueryCollectionDataSource ds,
-            RecordDescriptor rDesc) {
+            RecordDescriptor rDesc, boolean sharedDictionary) {
         super(spec, 1, 1);
         collectionPartitions = ds.getPartitions();
+        partitionsPerNode = ds.getPartitionCount();
         dataSourceId = (short) ds.getDataSourceId();
         totalDataSources = (short) ds.getTotalDataSources();
         childSeq = ds.getChildSeq();
+        valuePredicates = ds.getValuePredicates();
+        projection = ds.getProjection();
+        this.sharedDictionary = sharedDictionary;
         recordDescriptors[0] = rDesc;
     }
 
     @Override
-    public IOperatorNodePushable createPushRuntime(IHyracksTaskContext ctx,
+    public IOperatorNodePushable createPushRuntime(final IHyracksTaskContext ctx,
             IRecordDescriptorProvider recordDescProvider, int partition, int nPartitions) throws HyracksDataException {
-        final FrameTupleAccessor fta = new FrameTupleAccessor(ctx.getFrameSize(),
-                recordDescProvider.getInputRecordDescriptor(getActivityId(), 0));
+        final RecordDescriptor inputRecordDescriptor = recordDescProvider.getInputRecordDescriptor(getActivityId(), 0);
+        final FrameTupleAccessor fta = new FrameTupleAccessor(ctx.getFrameSize(), inputRecordDescriptor);
         final int fieldOutputCount = recordDescProvider.getOutputRecordDescriptor(getActivityId(), 0).getFieldCount();
         final ByteBuffer frame = ctx.allocateFrame();
         final FrameTupleAppender appender = new FrameTupleAppender(ctx.getFrameSize(), fieldOutputCount);
@@ -73,40 +94,146 @@ public class VXQueryCollectionOperatorDescriptor extends AbstractSingleActivityO
         final String nodeId = ctx.getJobletContext().getApplicationContext().getNodeId();
         final DynamicContext dCtx = (DynamicContext) ctx.getJobletContext().getGlobalJobData();
 
-        final String collectionName = collectionPartitions[partition % collectionPartitions.length];
+        // Partitions for the same collection path on a node share its files.
+        final int localPartition = partition % partitionsPerNode;
+        final int pathIndex = localPartition % collectionPartitions.length;
+        final int splitIndex = localPartition / collectionPartitions.length;
+        final int splitCount = (partitionsPerNode - 1 - pathIndex) / collectionPartitions.length + 1;
+        final String collectionName = collectionPartitions[pathIndex];
+        final String splitKey = ctx.getJobletContext().getJobId() + ":" + nodeId + ":" + dataSourceId + ":"
+                + pathIndex;
+        final boolean fileQueue = Boolean.parseBoolean(System.getProperty("vxquery.collection_file_queue", "false"));
+        final ICounter bytesParsedCounter = ctx.getCounterContext().getCounter(
+                VXQueryCollectionOperatorDescriptor.class.getSimpleName() + ".bytes-parsed", true);
+        final ICounter filesParsedCounter = ctx.getCounterContext().getCounter(
+                VXQueryCollectionOperatorDescriptor.class.getSimpleName() + ".files-parsed", true);
+        final SharedDictionary dictionary = sharedDictionary ? SharedDictionary.getInstance(ctx.getJobletContext())
+                : null;
         final XMLParser parser = new XMLParser(false, nodeIdProvider, nodeId, frame, appender, childSeq,
-                dCtx.getStaticContext());
+                valuePredicates, projection, dictionary, dCtx.getStaticContext());
+        final int parserThreads = Integer.parseInt(System.getProperty("vxquery.parser_threads", "0"));
 
         return new AbstractUnaryInputUnaryOutputOperatorNodePushable() {
+            private File collectionDirectory;
+            private VXQueryCollectionFileSplitter splitter;
+            private VXQueryCollectionParsePipeline pipeline;
+            private boolean queueTaken;
+
             @Override
             public void open() throws HyracksDataException {
                 appender.reset(frame, true);
                 writer.open();
+                String collectionModifiedName = resolveCollectionName(collectionName, nodeId, dCtx);
+                collectionDirectory = new File(collectionModifiedName);
+                if (splitCount > 1 && collectionDirectory.isDirectory()) {
+                    splitter = VXQueryCollectionFileSplitter.acquire(splitKey, collectionDirectory, splitCount);
+                }
+                if (parserThreads > 0) {
+                    pipeline = new VXQueryCollectionParsePipeline(ctx, inputRecordDescriptor, fieldOutputCount,
+                            nodeIdProvider, nodeId, childSeq, valuePredicates, projection, dictionary,
+                            dCtx.getStaticContext(), parserThreads) {
+                        @Override
+                        protected void fileParsed(File file) {
+                            countFile(file);
+                        }
+                    };
+                }
             }
 
             @Override
             public void nextFrame(ByteBuffer buffer) throws HyracksDataException {
                 fta.reset(buffer);
-                String collectionModifiedName = collectionName.replace("${nodeId}", nodeId);
-                File collectionDirectory = new File(collectionModifiedName);
+                if (!collectionDirectory.isDirectory()) {
+                    throw new HyracksDataException("Invalid directory parameter (" + nodeId + ":"
+                            + collectionDirectory.getAbsolutePath() + ") passed to collection.");
+                }
 
-                // Go through each tuple.
-                if (collectionDirectory.isDirectory()) {
-                    for (int tupleIndex = 0; tupleIndex < fta.getTupleCount(); ++tupleIndex) {
-                        @SuppressWarnings("unchecked")
-                        Iterator<File> it = FileUtils.iterateFiles(collectionDirectory, new VXQueryIOFileFilter(),
-                                TrueFileFilter.INSTANCE);
-                        while (it.hasNext()) {
-                            File xmlDocument = it.next();
-                            if (LOGGER.isLoggable(Level.FINE)) {
-                                LOGGER.fine("Starting to read XML document: " + xmlDocument.getAbsolutePath());
-                            }
-                            parser.parseElements(xmlDocument, writer, fta, tupleIndex);
+                if (pipeline != null) {
+                    pipeline.parse(buffer, getFiles(takeQueue()), writer);
+                    return;
+                }
+
+                if (takeQueue()) {
+                    // Pull files from the node's shared queue until it is empty.
+                    File xmlDocument;
+                    while ((xmlDocument = splitter.pollFile(splitIndex)) != null) {
+                        for (int tupleIndex = 0; tupleIndex < fta.getTupleCount(); ++tupleIndex) {
+                            parseElements(xmlDocument, tupleIndex);
                         }
                     }
-                } else {
-                    throw new HyracksDataException("Invalid directory parameter (" + nodeId + ":"
-                            + collectionDirectory.getAbsolutePath() + ") passed to collection.");
+                    return;
+                }
+
+                // Go through each tuple.
+                for (int tupleIndex = 0; tupleIndex < fta.getTupleCount(); ++tupleIndex) {
+                    Iterator<File> it = getFiles(false);
+                    while (it.hasNext()) {
+                        parseElements(it.next(), tupleIndex);
+                    }
+                }
+            }
+
+            /**
+             * @return Whether this frame pulls its files from the node's queue. The queue is drained by the first
+             *         input frame, so later frames read the fixed split of the partition, which covers every file
+             *         once over all partitions as well.
+             */
+            private boolean takeQueue() {
+                if (splitter == null || !fileQueue || queueTaken) {
+                    return false;
+                }
+                queueTaken = true;
+                return true;
+            }
+
+            /**
+             * @return The files this partition reads: the queue, its split or the whole directory.
+             */
+            private Iterator<File> getFiles(boolean queue) {
+                if (queue) {
+                    return new Iterator<File>() {
+                        private File next = splitter.pollFile(splitIndex);
+
+                        @Override
+                        public boolean hasNext() {
+                            return next != null;
+                        }
+
+                        @Override
+                        public File next() {
+                            File file = next;
+                            next = splitter.pollFile(splitIndex);
+                            return file;
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+                if (splitter != null) {
+                    return splitter.getSplit(splitIndex).iterator();
+                }
+                @SuppressWarnings("unchecked")
+                Iterator<File> files = FileUtils.iterateFiles(collectionDirectory, new VXQueryIOFileFilter(),
+                        TrueFileFilter.INSTANCE);
+                return files;
+            }
+
+            private void parseElements(File xmlDocument, int tupleIndex) throws HyracksDataException {
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.fine("Starting to read XML document: " + xmlDocument.getAbsolutePath());
+                }
+                parser.parseElements(xmlDocument, writer, fta, tupleIndex);
+                countFile(xmlDocument);
+            }
+
+            private void countFile(File xmlDocument) {
+                bytesParsedCounter.update(xmlDocument.length());
+                filesParsedCounter.update(1);
+                if (splitter != null) {
+                    splitter.fileParsed(splitIndex, xmlDocument);
                 }
             }
 
@@ -117,6 +244,11 @@ public class VXQueryCollectionOperatorDescriptor extends AbstractSingleActivityO
 
             @Override
             public void close() throws HyracksDataException {
+                if (splitter != null) {
+                    splitter.splitFinished(splitIndex);
+                    VXQueryCollectionFileSplitter.release(splitter);
+                    splitter = null;
+                }
                 // Check if needed?
                 fta.reset(frame);
                 if (fta.getTupleCount() > 0) {
@@ -126,4 +258,51 @@ public class VXQueryCollectionOperatorDescriptor extends AbstractSingleActivityO
             }
         };
     }
-}
\ No newline at end of file
+
+    /**
+     * Replaces ${nodeId} in a collection path with the node id and every other ${name} with the string bound to the
+     * external variable name. Paths bound this way can change between runs of the same job.
+     */
+    static String resolveCollectionName(String collectionName, String nodeId, DynamicContext dCtx)
+            throws HyracksDataException {
+        StringBuilder sb = new StringBuilder();
+        int start = 0;
+        int open;
+        while ((open = collectionName.indexOf("${", start)) >= 0) {
+            int close = collectionName.indexOf('}', open + 2);
+            if (close < 0) {
+                break;
+            }
+            String name = collectionName.substring(open + 2, close);
+            sb.append(collectionName, start, open);
+            sb.append(NODE_ID_PLACEHOLDER.equals(name) ? nodeId : getVariableString(name, dCtx));
+            start = close + 1;
+        }
+        sb.append(collectionName, start, collectionName.length());
+        return sb.toString();
+    }
+
+    private static String getVariableString(String name, DynamicContext dCtx) throws HyracksDataException {
+        TaggedValuePointable tvp = (TaggedValuePointable) TaggedValuePointable.FACTORY.createPointable();
+        dCtx.lookupVariable(new QName(name), tvp);
+        if (tvp.getByteArray() == null) {
+            throw new HyracksDataException("No value bound to the collection variable " + name + ".");
+        }
+        switch (tvp.getTag()) {
+            case ValueTag.XS_STRING_TAG:
+            case ValueTag.XS_UNTYPED_ATOMIC_TAG:
+            case ValueTag.XS_ANY_URI_TAG:
+                break;
+            default:
+                throw new HyracksDataException("The collection variable " + name + " is not a string.");
+        }
+        UTF8StringPointable stringp = (UTF8StringPointable) UTF8StringPointable.FACTORY.createPointable();
+        tvp.getValue(stringp);
+        ByteBufferInputStream bbis = new ByteBufferInputStream();
+        try {
+            return FunctionHelper.getStringFromPointable(stringp, bbis, new DataInputStream(bbis));
+        } catch (SystemException e) {
+            throw new HyracksDataException(e);
+        }
+    }
+}
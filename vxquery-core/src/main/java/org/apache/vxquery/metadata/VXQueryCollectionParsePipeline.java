@@ -0,0 +1,278 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.vxquery.metadata;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.vxquery.context.StaticContext;
+import org.apache.vxquery.datamodel.builders.nodes.SharedDictionary;
+import org.apache.vxquery.xmlparser.ElementValuePredicate;
+import org.apache.vxquery.xmlparser.ITreeNodeIdProvider;
+import org.apache.vxquery.xmlparser.XMLParser;
+
+import edu.uci.ics.hyracks.api.comm.IFrameWriter;
+import edu.uci.ics.hyracks.api.context.IHyracksTaskContext;
+import edu.uci.ics.hyracks.api.dataflow.value.RecordDescriptor;
+import edu.uci.ics.hyracks.api.exceptions.HyracksDataException;
+import edu.uci.ics.hyracks.dataflow.common.comm.io.FrameTupleAccessor;
+import edu.uci.ics.hyracks.dataflow.common.comm.io.FrameTupleAppender;
+
+/**
+ * Parses collection files on separate threads while the operator thread pushes the parsed frames downstream.
+ * Parser threads copy each full frame into a bounded ring of pre-allocated frames and block when the ring is full,
+ * so parsing runs ahead of the downstream operators by at most the ring size.
+ */
+public abstract class VXQueryCollectionParsePipeline {
+    public static final int RING_FRAMES_PER_THREAD = 4;
+
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "vxquery-collection-parser");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final int threadCount;
+    private final ByteBuffer inputFrame;
+    private final XMLParser[] parsers;
+    private final ByteBuffer[] parserFrames;
+    private final FrameTupleAppender[] appenders;
+    private final FrameTupleAccessor[] accessors;
+    private final BlockingQueue<ByteBuffer> free;
+    private final BlockingQueue<ByteBuffer> filled;
+    private volatile boolean failed;
+    private volatile Throwable error;
+
+    /**
+     * Copies a parser thread's full frame into the ring.
+     */
+    private final IFrameWriter ringWriter = new IFrameWriter() {
+        @Override
+        public void open() throws HyracksDataException {
+        }
+
+        @Override
+        public void nextFrame(ByteBuffer buffer) throws HyracksDataException {
+            if (failed) {
+                throw new HyracksDataException("Collection parsing stopped");
+            }
+            ByteBuffer slot;
+            try {
+                slot = free.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new HyracksDataException(e);
+            }
+            System.arraycopy(buffer.array(), 0, slot.array(), 0, slot.capacity());
+            slot.clear();
+            filled.add(slot);
+        }
+
+        @Override
+        public void fail() throws HyracksDataException {
+        }
+
+        @Override
+        public void close() throws HyracksDataException {
+        }
+    };
+
+    public VXQueryCollectionParsePipeline(IHyracksTaskContext ctx, RecordDescriptor inputRecordDescriptor,
+            int fieldOutputCount, ITreeNodeIdProvider nodeIdProvider, String nodeId, List<Integer> childSeq,
+            List<ElementValuePredicate> valuePredicates, List<Integer> projection, SharedDictionary sharedDictionary,
+            StaticContext staticContext, int threadCount) throws HyracksDataException {
+        this.threadCount = threadCount;
+        inputFrame = ctx.allocateFrame();
+        ITreeNodeIdProvider sharedNodeIdProvider = new SynchronizedTreeNodeIdProvider(nodeIdProvider);
+        parsers = new XMLParser[threadCount];
+        parserFrames = new ByteBuffer[threadCount];
+        appenders = new FrameTupleAppender[threadCount];
+        accessors = new FrameTupleAccessor[threadCount];
+        for (int i = 0; i < threadCount; ++i) {
+            parserFrames[i] = ctx.allocateFrame();
+            appenders[i] = new FrameTupleAppender(ctx.getFrameSize(), fieldOutputCount);
+            accessors[i] = new FrameTupleAccessor(ctx.getFrameSize(), inputRecordDescriptor);
+            parsers[i] = new XMLParser(false, sharedNodeIdProvider, nodeId, parserFrames[i], appenders[i], childSeq,
+                    valuePredicates, projection, sharedDictionary, staticContext);
+        }
+        int ringSize = threadCount * RING_FRAMES_PER_THREAD;
+        free = new ArrayBlockingQueue<ByteBuffer>(ringSize);
+        for (int i = 0; i < ringSize; ++i) {
+            free.add(ctx.allocateFrame());
+        }
+        filled = new ArrayBlockingQueue<ByteBuffer>(ringSize + threadCount);
+    }
+
+    /**
+     * Parse the files for every tuple of the input frame and push the results to the writer. Returns once all
+     * files have been parsed and their frames have been pushed.
+     */
+    public void parse(ByteBuffer input, Iterator<File> files, IFrameWriter writer) throws HyracksDataException {
+        System.arraycopy(input.array(), 0, inputFrame.array(), 0, inputFrame.capacity());
+        failed = false;
+        error = null;
+        List<Future<?>> workers = new ArrayList<Future<?>>(threadCount);
+        for (int i = 0; i < threadCount; ++i) {
+            workers.add(EXECUTOR.submit(new Worker(i, files)));
+        }
+        int running = threadCount;
+        try {
+            while (running > 0) {
+                ByteBuffer buffer = filled.take();
+                if (buffer == END) {
+                    --running;
+                    continue;
+                }
+                try {
+                    writer.nextFrame(buffer);
+                } finally {
+                    free.add(buffer);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stop(workers, running);
+            throw new HyracksDataException(e);
+        } catch (HyracksDataException e) {
+            stop(workers, running);
+            throw e;
+        }
+        if (error != null) {
+            if (error instanceof HyracksDataException) {
+                throw (HyracksDataException) error;
+            }
+            throw new HyracksDataException(error);
+        }
+    }
+
+    /**
+     * Stops the workers and waits for each of them to end, so that all frames are back in the ring for the next call.
+     */
+    private void stop(List<Future<?>> workers, int running) {
+        failed = true;
+        boolean interrupted = false;
+        // Frames go back to the ring until every worker has ended, so no worker stays blocked on a full ring.
+        while (running > 0) {
+            try {
+                ByteBuffer buffer = filled.take();
+                if (buffer == END) {
+                    --running;
+                } else {
+                    free.add(buffer);
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        for (Future<?> worker : workers) {
+            while (true) {
+                try {
+                    worker.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (CancellationException e) {
+                    break;
+                } catch (ExecutionException e) {
+                    // Workers record their own errors.
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private File nextFile(Iterator<File> files) {
+        synchronized (files) {
+            return files.hasNext() ? files.next() : null;
+        }
+    }
+
+    /**
+     * Called on a parser thread after a file has been parsed for every input tuple.
+     */
+    protected abstract void fileParsed(File file);
+
+    private class Worker implements Runnable {
+        private final int index;
+        private final Iterator<File> files;
+
+        Worker(int index, Iterator<File> files) {
+            this.index = index;
+            this.files = files;
+        }
+
+        @Override
+        public void run() {
+            FrameTupleAccessor fta = accessors[index];
+            try {
+                fta.reset(inputFrame);
+                appenders[index].reset(parserFrames[index], true);
+                File file;
+                while (!failed && (file = nextFile(files)) != null) {
+                    for (int tupleIndex = 0; tupleIndex < fta.getTupleCount(); ++tupleIndex) {
+                        parsers[index].parseElements(file, ringWriter, fta, tupleIndex);
+                    }
+                    fileParsed(file);
+                }
+                // Push the partially filled frame.
+                fta.reset(parserFrames[index]);
+                if (!failed && fta.getTupleCount() > 0) {
+                    ringWriter.nextFrame(parserFrames[index]);
+                }
+            } catch (Throwable e) {
+                if (!failed) {
+                    error = e;
+                    failed = true;
+                }
+            } finally {
+                filled.add(END);
+            }
+        }
+    }
+
+    private static class SynchronizedTreeNodeIdProvider implements ITreeNodeIdProvider {
+        private final ITreeNodeIdProvider provider;
+
+        SynchronizedTreeNodeIdProvider(ITreeNodeIdProvider provider) {
+            this.provider = provider;
+        }
+
+        @Override
+        public synchronized int getId() {
+            return provider.getId();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.vxquery.metadata;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Number and total size of the XML files in a collection directory, as seen from the compiler. The optimizer uses
+ * them to compare the inputs of a join. Results are kept per directory while no directory of the collection changes
+ * its modification time, which catches files added or removed anywhere below it, and at most {@link #MAX_AGE}
+ * milliseconds, which bounds how long files rewritten in place go unnoticed.
+ */
+public class VXQueryCollectionStatistics {
+    public static final int CACHE_SIZE = 256;
+
+    public static final long MAX_AGE = 60 * 1000;
+
+    private static final LinkedHashMap<String, VXQueryCollectionStatistics> CACHE =
+            new LinkedHashMap<String, VXQueryCollectionStatistics>(16, 0.75f, true);
+
+    private final long computeTime;
+    private final List<File> directories;
+    private final List<Long> directoryModified;
+    private long fileCount;
+    private long byteSize;
+
+    private VXQueryCollectionStatistics(File directory) {
+        computeTime = System.currentTimeMillis();
+        directories = new ArrayList<File>();
+        directoryModified = new ArrayList<Long>();
+        add(directory, new VXQueryIOFileFilter());
+    }
+
+    public long getFileCount() {
+        return fileCount;
+    }
+
+    public long getByteSize() {
+        return byteSize;
+    }
+
+    /**
+     * @return The statistics of the collection path, or null when the path is not a directory visible here or is
+     *         resolved when the job runs.
+     */
+    public static synchronized VXQueryCollectionStatistics get(String collectionPath) {
+        if (collectionPath.contains("${")) {
+            return null;
+        }
+        File directory = new File(collectionPath);
+        if (!directory.isDirectory()) {
+            return null;
+        }
+        String key = directory.getAbsolutePath();
+        VXQueryCollectionStatistics statistics = CACHE.get(key);
+        if (statistics == null || !statistics.isCurrent()) {
+            statistics = new VXQueryCollectionStatistics(directory);
+            CACHE.put(key, statistics);
+            Iterator<Map.Entry<String, VXQueryCollectionStatistics>> i = CACHE.entrySet().iterator();
+            while (CACHE.size() > CACHE_SIZE && i.hasNext()) {
+                i.next();
+                i.remove();
+            }
+        }
+        return statistics;
+    }
+
+    /**
+     * @param metadataProvider
+     *            Maps source names to their paths, or null to use the partitions as paths.
+     * @return The total size of the files read by the data source, or -1 when a path has no statistics.
+     */
+    public static long getByteSize(VXQueryCollectionDataSource ds, VXQueryMetadataProvider metadataProvider) {
+        long byteSize = 0;
+        for (String partition : ds.getPartitions()) {
+            String path = metadataProvider != null ? metadataProvider.getSourcePath(partition) : partition;
+            VXQueryCollectionStatistics statistics = get(path);
+            if (statistics == null) {
+                return -1;
+            }
+            byteSize += statistics.getByteSize();
+        }
+        return byteSize;
+    }
+
+    private void add(File directory, VXQueryIOFileFilter filter) {
+        directories.add(directory);
+        directoryModified.add(directory.lastModified());
+        File[] children = directory.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                add(child, filter);
+            } else if (filter.accept(child)) {
+                ++fileCount;
+                byteSize += child.length();
+            }
+        }
+    }
+
+    /**
+     * Only stats the directories, not the files.
+     */
+    private boolean isCurrent() {
+        if (System.currentTimeMillis() - computeTime > MAX_AGE) {
+            return false;
+        }
+        for (int i = 0; i < directories.size(); ++i) {
+            if (directories.get(i).lastModified() != directoryModified.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "VXQueryCollectionStatistics [fileCount=" + fileCount + ", byteSize=" + byteSize + "]";
+    }
+}
@@ -54,10 +54,21 @@ import edu.uci.ics.hyracks.dataflow.std.result.ResultWriterOperatorDescriptor;
 public class VXQueryMetadataProvider implements IMetadataProvider<String, String> {
     String[] nodeList;
     Map<String, File> sourceFileMap;
+    int collectionFilePartitions;
 
     public VXQueryMetadataProvider(String[] nodeList, Map<String, File> sourceFileMap) {
+        this(nodeList, sourceFileMap, 0);
+    }
+
+    /**
+     * @param collectionFilePartitions
+     *            Number of scan partitions per node that share the files of a collection. Values below 2 keep one
+     *            partition per collection path.
+     */
+    public VXQueryMetadataProvider(String[] nodeList, Map<String, File> sourceFileMap, int collectionFilePartitions) {
         this.nodeList = nodeList;
         this.sourceFileMap = sourceFileMap;
+        this.collectionFilePartitions = collectionFilePartitions;
     }
 
     @Override
@@ -76,19 +87,34 @@ public class VXQueryMetadataProvider implements IMetadataProvider<String, String
             final int len = ds.getPartitions().length;
             String[] collectionPartitions = new String[len];
             for (int i = 0; i < len; ++i) {
-                String partition = ds.getPartitions()[i];
-                File mapped = sourceFileMap.get(partition);
-                collectionPartitions[i] = mapped != null ? mapped.toString() : partition;
+                collectionPartitions[i] = getSourcePath(ds.getPartitions()[i]);
             }
             ds.setPartitions(collectionPartitions);
         }
+        ds.setPartitionCount(collectionFilePartitions);
         RecordDescriptor rDesc = new RecordDescriptor(new ISerializerDeserializer[opSchema.getSize()]);
-        IOperatorDescriptor scanner = new VXQueryCollectionOperatorDescriptor(jobSpec, ds, rDesc);
+        IOperatorDescriptor scanner = new VXQueryCollectionOperatorDescriptor(jobSpec, ds, rDesc,
+                useSharedDictionary(nodeList));
 
         AlgebricksPartitionConstraint constraint = getClusterLocations(nodeList, ds.getPartitionCount());
         return new Pair<IOperatorDescriptor, AlgebricksPartitionConstraint>(scanner, constraint);
     }
 
+    /**
+     * @return The path a collection name stands for, or the name itself when it is not a mapped source.
+     */
+    public String getSourcePath(String partition) {
+        File mapped = sourceFileMap != null ? sourceFileMap.get(partition) : null;
+        return mapped != null ? mapped.toString() : partition;
+    }
+
+    /**
+     * A shared dictionary lives in one process, so it is only used when the job runs on a single node.
+     */
+    public static boolean useSharedDictionary(String[] nodeList) {
+        return Boolean.parseBoolean(System.getProperty("vxquery.shared_dictionary", "false")) && nodeList.length == 1;
+    }
+
     public static AlgebricksPartitionConstraint getClusterLocations(String[] nodeList) {
         int availableProcessors = Runtime.getRuntime().availableProcessors();
         if (availableProcessors < 1) {
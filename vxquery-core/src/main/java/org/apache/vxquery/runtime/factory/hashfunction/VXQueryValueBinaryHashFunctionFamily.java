@@ -0,0 +1,49 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.vxquery.runtime.factory.hashfunction;
+
+import org.apache.vxquery.runtime.functions.util.AtomicSortKey;
+
+import edu.uci.ics.hyracks.api.dataflow.value.IBinaryHashFunction;
+import edu.uci.ics.hyracks.api.dataflow.value.IBinaryHashFunctionFamily;
+
+/**
+ * Hashes values the way the comparator compares them, so values of different types that compare equal, such as
+ * xs:integer 1 and xs:double 1.0, land in the same partition. Every item of a sequence is part of the hash.
+ */
+public class VXQueryValueBinaryHashFunctionFamily implements IBinaryHashFunctionFamily {
+    private static final long serialVersionUID = 1L;
+
+    public static final IBinaryHashFunctionFamily INSTANCE = new VXQueryValueBinaryHashFunctionFamily();
+
+    private VXQueryValueBinaryHashFunctionFamily() {
+
+    }
+
+    @Override
+    public IBinaryHashFunction createBinaryHashFunction(final int seed) {
+        final AtomicSortKey key = new AtomicSortKey();
+        return new IBinaryHashFunction() {
+            @Override
+            public int hash(byte[] bytes, int offset, int length) {
+                key.set(bytes, offset, length);
+                return key.hash(seed);
+            }
+        };
+    }
+
+}
@@ -21,7 +21,6 @@ import java.io.IOException;
 
 import org.apache.vxquery.datamodel.accessors.SequencePointable;
 import org.apache.vxquery.datamodel.accessors.TaggedValuePointable;
-import org.apache.vxquery.datamodel.accessors.TypedPointables;
 import org.apache.vxquery.datamodel.values.ValueTag;
 import org.apache.vxquery.datamodel.values.XDMConstants;
 import org.apache.vxquery.exceptions.ErrorCode;
@@ -29,7 +28,7 @@ import org.apache.vxquery.exceptions.SystemException;
 import org.apache.vxquery.runtime.functions.base.AbstractTaggedValueArgumentAggregateEvaluator;
 import org.apache.vxquery.runtime.functions.base.AbstractTaggedValueArgumentAggregateEvaluatorFactory;
 import org.apache.vxquery.runtime.functions.comparison.AbstractValueComparisonOperation;
-import org.apache.vxquery.runtime.functions.util.FunctionHelper;
+import org.apache.vxquery.runtime.functions.util.MinMaxComparisonHelper;
 
 import edu.uci.ics.hyracks.algebricks.common.exceptions.AlgebricksException;
 import edu.uci.ics.hyracks.algebricks.runtime.base.IAggregateEvaluator;
@@ -47,11 +46,9 @@ public abstract class AbstractMaxMinAggregateEvaluatorFactory extends
     }
 
     protected IAggregateEvaluator createEvaluator(IScalarEvaluator[] args) throws AlgebricksException {
-        final AbstractValueComparisonOperation aOpComparison = createValueComparisonOperation();
+        final MinMaxComparisonHelper comparison = new MinMaxComparisonHelper(createValueComparisonOperation(), dCtx);
         final TaggedValuePointable tvp2 = (TaggedValuePointable) TaggedValuePointable.FACTORY.createPointable();
         final SequencePointable seqp = (SequencePointable) SequencePointable.FACTORY.createPointable();
-        final TypedPointables tp1 = new TypedPointables();
-        final TypedPointables tp2 = new TypedPointables();
 
         final ArrayBackedValueStorage abvs = new ArrayBackedValueStorage();
         final DataOutput dOut = abvs.getDataOutput();
@@ -92,9 +89,7 @@ public abstract class AbstractMaxMinAggregateEvaluatorFactory extends
                     if (count != 0) {
                         tvp2.set(abvs.getByteArray(), abvs.getStartOffset(), abvs.getLength());
                     }
-                    if (count == 0
-                            || FunctionHelper.transformThenCompareMinMaxTaggedValues(aOpComparison, tvp1, tvp2, dCtx,
-                                    tp1, tp2)) {
+                    if (count == 0 || comparison.compare(tvp1, tvp2)) {
                         try {
                             abvs.reset();
                             dOut.write(tvp1.getByteArray(), tvp1.getStartOffset(), tvp1.getLength());
@@ -19,14 +19,13 @@ package org.apache.vxquery.runtime.functions.aggregate;
 import org.apache.vxquery.context.DynamicContext;
 import org.apache.vxquery.datamodel.accessors.SequencePointable;
 import org.apache.vxquery.datamodel.accessors.TaggedValuePointable;
-import org.apache.vxquery.datamodel.accessors.TypedPointables;
 import org.apache.vxquery.datamodel.values.ValueTag;
 import org.apache.vxquery.datamodel.values.XDMConstants;
 import org.apache.vxquery.exceptions.SystemException;
 import org.apache.vxquery.runtime.functions.base.AbstractTaggedValueArgumentScalarEvaluator;
 import org.apache.vxquery.runtime.functions.base.AbstractTaggedValueArgumentScalarEvaluatorFactory;
 import org.apache.vxquery.runtime.functions.comparison.AbstractValueComparisonOperation;
-import org.apache.vxquery.runtime.functions.util.FunctionHelper;
+import org.apache.vxquery.runtime.functions.util.MinMaxComparisonHelper;
 
 import edu.uci.ics.hyracks.algebricks.common.exceptions.AlgebricksException;
 import edu.uci.ics.hyracks.algebricks.runtime.base.IScalarEvaluator;
@@ -47,12 +46,10 @@ public abstract class AbstractMaxMinScalarEvaluatorFactory extends AbstractTagge
             throws AlgebricksException {
         final DynamicContext dCtx = (DynamicContext) ctx.getJobletContext().getGlobalJobData();
         final SequencePointable seqp = (SequencePointable) SequencePointable.FACTORY.createPointable();
-        final AbstractValueComparisonOperation aOpComparison = createValueComparisonOperation();
+        final MinMaxComparisonHelper comparison = new MinMaxComparisonHelper(createValueComparisonOperation(), dCtx);
         final TaggedValuePointable tvpReturn = (TaggedValuePointable) TaggedValuePointable.FACTORY.createPointable();
         final TaggedValuePointable tvpNext = (TaggedValuePointable) TaggedValuePointable.FACTORY.createPointable();
         final VoidPointable p = (VoidPointable) VoidPointable.FACTORY.createPointable();
-        final TypedPointables tp1 = new TypedPointables();
-        final TypedPointables tp2 = new TypedPointables();
 
         return new AbstractTaggedValueArgumentScalarEvaluator(args) {
             @Override
@@ -72,8 +69,7 @@ public abstract class AbstractMaxMinScalarEvaluatorFactory extends AbstractTagge
                                 // Init.
                                 tvpReturn.set(tvpNext);
                             }
-                            if (FunctionHelper.transformThenCompareMinMaxTaggedValues(aOpComparison, tvpNext,
-                                    tvpReturn, dCtx, tp1, tp2)) {
+                            if (comparison.compare(tvpNext, tvpReturn)) {
                                 tvpReturn.set(tvpNext);
                             }
                         }
@@ -24,11 +24,11 @@ import org.apache.vxquery.datamodel.values.ValueTag;
 import org.apache.vxquery.datamodel.values.XDMConstants;
 import org.apache.vxquery.exceptions.ErrorCode;
 import org.apache.vxquery.exceptions.SystemException;
-import org.apache.vxquery.runtime.functions.arithmetic.AddOperation;
 import org.apache.vxquery.runtime.functions.arithmetic.DivideOperation;
 import org.apache.vxquery.runtime.functions.base.AbstractTaggedValueArgumentAggregateEvaluator;
 import org.apache.vxquery.runtime.functions.base.AbstractTaggedValueArgumentAggregateEvaluatorFactory;
 import org.apache.vxquery.runtime.functions.util.ArithmeticHelper;
+import org.apache.vxquery.runtime.functions.util.SumHelper;
 
 import edu.uci.ics.hyracks.algebricks.common.exceptions.AlgebricksException;
 import edu.uci.ics.hyracks.algebricks.runtime.base.IAggregateEvaluator;
@@ -49,11 +49,7 @@ public class AvgGlobalAggregateEvaluatorFactory extends AbstractTaggedValueArgum
     protected IAggregateEvaluator createEvaluator(IScalarEvaluator[] args) throws AlgebricksException {
         final ArrayBackedValueStorage abvsCount = new ArrayBackedValueStorage();
         final DataOutput dOutCount = abvsCount.getDataOutput();
-        final ArrayBackedValueStorage abvsSum = new ArrayBackedValueStorage();
-        final DataOutput dOutSum = abvsSum.getDataOutput();
-        final AddOperation aOpAdd = new AddOperation();
-        final ArithmeticHelper add1 = new ArithmeticHelper(aOpAdd, dCtx);
-        final ArithmeticHelper add2 = new ArithmeticHelper(aOpAdd, dCtx);
+        final SumHelper sum = new SumHelper(dCtx);
         final DivideOperation aOpDivide = new DivideOperation();
         final ArithmeticHelper divide = new ArithmeticHelper(aOpDivide, dCtx);
         final LongPointable longp = (LongPointable) LongPointable.FACTORY.createPointable();
@@ -63,21 +59,12 @@ public class AvgGlobalAggregateEvaluatorFactory extends AbstractTaggedValueArgum
         return new AbstractTaggedValueArgumentAggregateEvaluator(args) {
             TaggedValuePointable tvpSum = (TaggedValuePointable) TaggedValuePointable.FACTORY.createPointable();
             TaggedValuePointable tvpCount = (TaggedValuePointable) TaggedValuePointable.FACTORY.createPointable();
+            long count;
 
             @Override
             public void init() throws AlgebricksException {
-                try {
-                    abvsCount.reset();
-                    dOutCount.write(ValueTag.XS_INTEGER_TAG);
-                    dOutCount.writeLong(0);
-                    tvpCount.set(abvsCount);
-                    abvsSum.reset();
-                    dOutSum.write(ValueTag.XS_INTEGER_TAG);
-                    dOutSum.writeLong(0);
-                    tvpSum.set(abvsSum);
-                } catch (Exception e) {
-                    throw new AlgebricksException(e);
-                }
+                count = 0;
+                sum.reset();
             }
 
             @Override
@@ -87,12 +74,17 @@ public class AvgGlobalAggregateEvaluatorFactory extends AbstractTaggedValueArgum
 
             @Override
             public void finish(IPointable result) throws AlgebricksException {
-                tvpCount.getValue(longp);
-                if (longp.getLong() == 0) {
+                if (count == 0) {
                     XDMConstants.setEmptySequence(result);
                 } else {
                     // Set count as a TaggedValuePointable.
                     try {
+                        abvsCount.reset();
+                        dOutCount.write(ValueTag.XS_INTEGER_TAG);
+                        dOutCount.writeLong(count);
+                        tvpCount.set(abvsCount);
+
+                        sum.get(tvpSum);
                         divide.compute(tvpSum, tvpCount, tvpSum);
                         result.set(tvpSum);
                     } catch (Exception e) {
@@ -112,9 +104,10 @@ public class AvgGlobalAggregateEvaluatorFactory extends AbstractTaggedValueArgum
                         return;
                     } else if (seqLen == 2) {
                         seq.getEntry(0, tvpArg);
-                        add1.compute(tvpArg, tvpCount, tvpCount);
+                        tvpArg.getValue(longp);
+                        count += longp.getLong();
                         seq.getEntry(1, tvpArg);
-                        add2.compute(tvpArg, tvpSum, tvpSum);
+                        sum.add(tvpArg);
                     } else {
                         throw new SystemException(ErrorCode.SYSE0001);
                     }
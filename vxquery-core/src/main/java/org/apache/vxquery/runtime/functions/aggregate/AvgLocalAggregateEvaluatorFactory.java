@@ -23,10 +23,9 @@ import org.apache.vxquery.datamodel.builders.sequence.SequenceBuilder;
 import org.apache.vxquery.datamodel.values.ValueTag;
 import org.apache.vxquery.datamodel.values.XDMConstants;
 import org.apache.vxquery.exceptions.SystemException;
-import org.apache.vxquery.runtime.functions.arithmetic.AddOperation;
 import org.apache.vxquery.runtime.functions.base.AbstractTaggedValueArgumentAggregateEvaluator;
 import org.apache.vxquery.runtime.functions.base.AbstractTaggedValueArgumentAggregateEvaluatorFactory;
-import org.apache.vxquery.runtime.functions.util.ArithmeticHelper;
+import org.apache.vxquery.runtime.functions.util.SumHelper;
 
 import edu.uci.ics.hyracks.algebricks.common.exceptions.AlgebricksException;
 import edu.uci.ics.hyracks.algebricks.runtime.base.IAggregateEvaluator;
@@ -47,13 +46,10 @@ public class AvgLocalAggregateEvaluatorFactory extends AbstractTaggedValueArgume
         final TaggedValuePointable tvpCount = (TaggedValuePointable) TaggedValuePointable.FACTORY.createPointable();
         final ArrayBackedValueStorage abvsCount = new ArrayBackedValueStorage();
         final DataOutput dOutCount = abvsCount.getDataOutput();
-        final ArrayBackedValueStorage abvsSum = new ArrayBackedValueStorage();
-        final DataOutput dOutSum = abvsSum.getDataOutput();
         final ArrayBackedValueStorage abvsSeq = new ArrayBackedValueStorage();
         final SequenceBuilder sb = new SequenceBuilder();
-        final AddOperation aOpAdd = new AddOperation();
-        final ArithmeticHelper add = new ArithmeticHelper(aOpAdd, dCtx);
-        
+        final SumHelper sum = new SumHelper(dCtx);
+
         return new AbstractTaggedValueArgumentAggregateEvaluator(args) {
             long count;
             TaggedValuePointable tvpSum = (TaggedValuePointable) TaggedValuePointable.FACTORY.createPointable();
@@ -61,14 +57,7 @@ public class AvgLocalAggregateEvaluatorFactory extends AbstractTaggedValueArgume
             @Override
             public void init() throws AlgebricksException {
                 count = 0;
-                try {
-                    abvsSum.reset();
-                    dOutSum.write(ValueTag.XS_INTEGER_TAG);
-                    dOutSum.writeLong(0);
-                    tvpSum.set(abvsSum);
-                } catch (Exception e) {
-                    throw new AlgebricksException(e);
-                }
+                sum.reset();
             }
 
             @Override
@@ -87,6 +76,7 @@ public class AvgLocalAggregateEvaluatorFactory extends AbstractTaggedValueArgume
                         dOutCount.write(ValueTag.XS_INTEGER_TAG);
                         dOutCount.writeLong(count);
                         tvpCount.set(abvsCount);
+                        sum.get(tvpSum);
 
                         // Save intermediate result.
                         abvsSeq.reset();
@@ -104,7 +94,7 @@ public class AvgLocalAggregateEvaluatorFactory extends AbstractTaggedValueArgume
             @Override
             protected void step(TaggedValuePointable[] args) throws SystemException {
                 TaggedValuePointable tvp = args[0];
-                add.compute(tvp, tvpSum, tvpSum);
+                sum.add(tvp);
                 count++;
             }
         };
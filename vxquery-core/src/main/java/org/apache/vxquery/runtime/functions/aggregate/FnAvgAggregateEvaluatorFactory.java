@@ -17,18 +17,16 @@
 package org.apache.vxquery.runtime.functions.aggregate;
 
 import java.io.DataOutput;
-import java.io.IOException;
 
 import org.apache.vxquery.datamodel.accessors.TaggedValuePointable;
 import org.apache.vxquery.datamodel.values.ValueTag;
 import org.apache.vxquery.datamodel.values.XDMConstants;
-import org.apache.vxquery.exceptions.ErrorCode;
 import org.apache.vxquery.exceptions.SystemException;
-import org.apache.vxquery.runtime.functions.arithmetic.AddOperation;
 import org.apache.vxquery.runtime.functions.arithmetic.DivideOperation;
 import org.apache.vxquery.runtime.functions.base.AbstractTaggedValueArgumentAggregateEvaluator;
 import org.apache.vxquery.runtime.functions.base.AbstractTaggedValueArgumentAggregateEvaluatorFactory;
 import org.apache.vxquery.runtime.functions.util.ArithmeticHelper;
+import org.apache.vxquery.runtime.functions.util.SumHelper;
 
 import edu.uci.ics.hyracks.algebricks.common.exceptions.AlgebricksException;
 import edu.uci.ics.hyracks.algebricks.runtime.base.IAggregateEvaluator;
@@ -47,12 +45,9 @@ public class FnAvgAggregateEvaluatorFactory extends AbstractTaggedValueArgumentA
     @Override
     protected IAggregateEvaluator createEvaluator(IScalarEvaluator[] args) throws AlgebricksException {
         final TaggedValuePointable tvpCount = (TaggedValuePointable) TaggedValuePointable.FACTORY.createPointable();
-        final ArrayBackedValueStorage abvsSum = new ArrayBackedValueStorage();
-        final DataOutput dOutSum = abvsSum.getDataOutput();
         final ArrayBackedValueStorage abvsCount = new ArrayBackedValueStorage();
         final DataOutput dOutCount = abvsCount.getDataOutput();
-        final AddOperation aOpAdd = new AddOperation();
-        final ArithmeticHelper add = new ArithmeticHelper(aOpAdd, dCtx);
+        final SumHelper sum = new SumHelper(dCtx);
         final DivideOperation aOpDivide = new DivideOperation();
         final ArithmeticHelper divide = new ArithmeticHelper(aOpDivide, dCtx);
 
@@ -82,6 +77,7 @@ public class FnAvgAggregateEvaluatorFactory extends AbstractTaggedValueArgumentA
                         dOutCount.writeLong(count);
                         tvpCount.set(abvsCount);
 
+                        sum.get(tvpSum);
                         divide.compute(tvpSum, tvpCount, tvpSum);
                         result.set(tvpSum);
                     } catch (Exception e) {
@@ -95,15 +91,9 @@ public class FnAvgAggregateEvaluatorFactory extends AbstractTaggedValueArgumentA
                 TaggedValuePointable tvp = args[0];
                 if (count == 0) {
                     // Init.
-                    try {
-                        abvsSum.reset();
-                        dOutSum.write(tvp.getByteArray(), tvp.getStartOffset(), tvp.getLength());
-                        tvpSum.set(abvsSum);
-                    } catch (IOException e) {
-                        throw new SystemException(ErrorCode.SYSE0001, e.toString());
-                    }
+                    sum.reset(tvp);
                 } else {
-                    add.compute(tvp, tvpSum, tvpSum);
+                    sum.add(tvp);
                 }
                 count++;
             }
@@ -16,23 +16,17 @@
  */
 package org.apache.vxquery.runtime.functions.aggregate;
 
-import java.io.DataOutput;
-import java.io.IOException;
-
 import org.apache.vxquery.datamodel.accessors.TaggedValuePointable;
-import org.apache.vxquery.datamodel.values.ValueTag;
 import org.apache.vxquery.exceptions.SystemException;
-import org.apache.vxquery.runtime.functions.arithmetic.AddOperation;
 import org.apache.vxquery.runtime.functions.base.AbstractTaggedValueArgumentAggregateEvaluator;
 import org.apache.vxquery.runtime.functions.base.AbstractTaggedValueArgumentAggregateEvaluatorFactory;
-import org.apache.vxquery.runtime.functions.util.ArithmeticHelper;
+import org.apache.vxquery.runtime.functions.util.SumHelper;
 
 import edu.uci.ics.hyracks.algebricks.common.exceptions.AlgebricksException;
 import edu.uci.ics.hyracks.algebricks.runtime.base.IAggregateEvaluator;
 import edu.uci.ics.hyracks.algebricks.runtime.base.IScalarEvaluator;
 import edu.uci.ics.hyracks.algebricks.runtime.base.IScalarEvaluatorFactory;
 import edu.uci.ics.hyracks.data.std.api.IPointable;
-import edu.uci.ics.hyracks.data.std.util.ArrayBackedValueStorage;
 
 public class FnSumAggregateEvaluatorFactory extends AbstractTaggedValueArgumentAggregateEvaluatorFactory {
     private static final long serialVersionUID = 1L;
@@ -43,26 +37,14 @@ public class FnSumAggregateEvaluatorFactory extends AbstractTaggedValueArgumentA
 
     @Override
     protected IAggregateEvaluator createEvaluator(IScalarEvaluator[] args) throws AlgebricksException {
-        final ArrayBackedValueStorage abvsSum = new ArrayBackedValueStorage();
-        final DataOutput dOutSum = abvsSum.getDataOutput();
-        final AddOperation aOpAdd = new AddOperation();
-        final ArithmeticHelper add = new ArithmeticHelper(aOpAdd, dCtx);
+        final SumHelper sum = new SumHelper(dCtx);
 
         return new AbstractTaggedValueArgumentAggregateEvaluator(args) {
-            TaggedValuePointable tvpSum = (TaggedValuePointable) TaggedValuePointable.FACTORY.createPointable();
-
             // TODO Check if the second argument is supplied as the zero value.
 
             @Override
             public void init() throws AlgebricksException {
-                try {
-                    abvsSum.reset();
-                    dOutSum.write(ValueTag.XS_INTEGER_TAG);
-                    dOutSum.writeLong(0);
-                    tvpSum.set(abvsSum);
-                } catch (IOException e) {
-                    throw new AlgebricksException(e.toString());
-                }
+                sum.reset();
             }
 
             @Override
@@ -72,13 +54,17 @@ public class FnSumAggregateEvaluatorFactory extends AbstractTaggedValueArgumentA
 
             @Override
             public void finish(IPointable result) throws AlgebricksException {
-                result.set(tvpSum);
+                try {
+                    sum.get(result);
+                } catch (SystemException e) {
+                    throw new AlgebricksException(e);
+                }
             }
 
             @Override
             protected void step(TaggedValuePointable[] args) throws SystemException {
                 TaggedValuePointable tvp = args[0];
-                add.compute(tvp, tvpSum, tvpSum);
+                sum.add(tvp);
             }
         };
     }
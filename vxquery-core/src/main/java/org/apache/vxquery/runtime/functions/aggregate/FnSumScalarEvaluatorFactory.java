@@ -24,10 +24,9 @@ import org.apache.vxquery.datamodel.accessors.TaggedValuePointable;
 import org.apache.vxquery.datamodel.values.ValueTag;
 import org.apache.vxquery.exceptions.ErrorCode;
 import org.apache.vxquery.exceptions.SystemException;
-import org.apache.vxquery.runtime.functions.arithmetic.AddOperation;
 import org.apache.vxquery.runtime.functions.base.AbstractTaggedValueArgumentScalarEvaluator;
 import org.apache.vxquery.runtime.functions.base.AbstractTaggedValueArgumentScalarEvaluatorFactory;
-import org.apache.vxquery.runtime.functions.util.ArithmeticHelper;
+import org.apache.vxquery.runtime.functions.util.SumHelper;
 
 import edu.uci.ics.hyracks.algebricks.common.exceptions.AlgebricksException;
 import edu.uci.ics.hyracks.algebricks.runtime.base.IScalarEvaluator;
@@ -52,10 +51,8 @@ public class FnSumScalarEvaluatorFactory extends AbstractTaggedValueArgumentScal
         final ArrayBackedValueStorage abvs = new ArrayBackedValueStorage();
         final DataOutput dOut = abvs.getDataOutput();
         final TaggedValuePointable tvpNext = (TaggedValuePointable) TaggedValuePointable.FACTORY.createPointable();
-        final TaggedValuePointable tvpSum = (TaggedValuePointable) TaggedValuePointable.FACTORY.createPointable();
         final VoidPointable p = (VoidPointable) VoidPointable.FACTORY.createPointable();
-        final AddOperation aOpAdd = new AddOperation();
-        final ArithmeticHelper add = new ArithmeticHelper(aOpAdd, dCtx);
+        final SumHelper sum = new SumHelper(dCtx);
 
         return new AbstractTaggedValueArgumentScalarEvaluator(args) {
             @Override
@@ -80,6 +77,8 @@ public class FnSumScalarEvaluatorFactory extends AbstractTaggedValueArgumentScal
                                 throw new SystemException(ErrorCode.SYSE0001, e);
                             }
                         }
+                    } else if (seqLen == 1) {
+                        seqp.getEntry(0, result);
                     } else {
                         // Add up the sequence.
                         for (int j = 0; j < seqLen; ++j) {
@@ -87,12 +86,12 @@ public class FnSumScalarEvaluatorFactory extends AbstractTaggedValueArgumentScal
                             tvpNext.set(p.getByteArray(), p.getStartOffset(), p.getLength());
                             if (j == 0) {
                                 // Init.
-                                tvpSum.set(tvpNext);
+                                sum.reset(tvpNext);
                             } else {
-                                add.compute(tvpNext, tvpSum, tvpSum);
+                                sum.add(tvpNext);
                             }
                         }
-                        result.set(tvpSum);
+                        sum.get(result);
                     }
                 } else {
                     // Only one result.
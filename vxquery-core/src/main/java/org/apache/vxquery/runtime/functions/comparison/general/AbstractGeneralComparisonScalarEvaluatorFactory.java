@@ -17,12 +17,15 @@
 package org.apache.vxquery.runtime.functions.comparison.general;
 
 import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
 
 import org.apache.vxquery.context.DynamicContext;
 import org.apache.vxquery.datamodel.accessors.SequencePointable;
 import org.apache.vxquery.datamodel.accessors.TaggedValuePointable;
 import org.apache.vxquery.datamodel.accessors.TypedPointables;
 import org.apache.vxquery.datamodel.values.ValueTag;
+import org.apache.vxquery.datamodel.values.XDMConstants;
 import org.apache.vxquery.exceptions.ErrorCode;
 import org.apache.vxquery.exceptions.SystemException;
 import org.apache.vxquery.runtime.functions.base.AbstractTaggedValueArgumentScalarEvaluator;
@@ -63,8 +66,10 @@ import org.apache.vxquery.runtime.functions.cast.CastToUnsignedShortOperation;
 import org.apache.vxquery.runtime.functions.cast.CastToUntypedAtomicOperation;
 import org.apache.vxquery.runtime.functions.cast.CastToYMDurationOperation;
 import org.apache.vxquery.runtime.functions.comparison.AbstractValueComparisonOperation;
+import org.apache.vxquery.runtime.functions.util.AtomicValueHashSet;
 import org.apache.vxquery.runtime.functions.util.AtomizeHelper;
 import org.apache.vxquery.runtime.functions.util.FunctionHelper;
+import org.apache.vxquery.util.GrowableIntArray;
 
 import edu.uci.ics.hyracks.algebricks.common.exceptions.AlgebricksException;
 import edu.uci.ics.hyracks.algebricks.runtime.base.IScalarEvaluator;
@@ -79,6 +84,13 @@ public abstract class AbstractGeneralComparisonScalarEvaluatorFactory extends
         AbstractTaggedValueArgumentScalarEvaluatorFactory {
     private static final long serialVersionUID = 1L;
 
+    /**
+     * Sequence pairs with fewer item pairs than this are compared with nested loops.
+     */
+    private static final long HASH_PROBE_MIN_PAIRS = 64;
+
+    private static final byte[] EMPTY_UNTYPED_ATOMIC = { ValueTag.XS_UNTYPED_ATOMIC_TAG, 0, 0 };
+
     public AbstractGeneralComparisonScalarEvaluatorFactory(IScalarEvaluatorFactory[] args) {
         super(args);
     }
@@ -109,6 +121,21 @@ public abstract class AbstractGeneralComparisonScalarEvaluatorFactory extends
         final TaggedValuePointable tvpCompare1 = (TaggedValuePointable) TaggedValuePointable.FACTORY.createPointable();
         final TaggedValuePointable tvpCompare2 = (TaggedValuePointable) TaggedValuePointable.FACTORY.createPointable();
 
+        final boolean hashProbe = supportsHashProbe();
+        final TaggedValuePointable tvpItem = (TaggedValuePointable) TaggedValuePointable.FACTORY.createPointable();
+        final TaggedValuePointable tvpAtomic = (TaggedValuePointable) TaggedValuePointable.FACTORY.createPointable();
+        final TaggedValuePointable tvpUntyped = (TaggedValuePointable) TaggedValuePointable.FACTORY
+                .createPointable();
+        final TaggedValuePointable tvpCast = (TaggedValuePointable) TaggedValuePointable.FACTORY.createPointable();
+        final ArrayBackedValueStorage abvsCast = new ArrayBackedValueStorage();
+        final AtomicValueHashSet buildTyped = new AtomicValueHashSet(false);
+        final AtomicValueHashSet buildUntyped = new AtomicValueHashSet(false);
+        final GrowableIntArray buildTypes = new GrowableIntArray();
+        final GrowableIntArray probeTypes = new GrowableIntArray();
+        final AtomicValueHashSet[] castSets = new AtomicValueHashSet[256];
+        final boolean[] castSetBuilt = new boolean[256];
+        final AbstractCastToOperation[] castOps = new AbstractCastToOperation[256];
+
         return new AbstractTaggedValueArgumentScalarEvaluator(args) {
             AbstractCastToOperation aCastToOp = new CastToStringOperation();
 
@@ -118,6 +145,20 @@ public abstract class AbstractGeneralComparisonScalarEvaluatorFactory extends
                 TaggedValuePointable tvpArg1 = args[0];
                 TaggedValuePointable tvpArg2 = args[1];
                 try {
+                    if (hashProbe && tvpArg1.getTag() == ValueTag.SEQUENCE_TAG
+                            && tvpArg2.getTag() == ValueTag.SEQUENCE_TAG) {
+                        tvpArg1.getValue(seqp1);
+                        tvpArg2.getValue(seqp2);
+                        int seqLen1 = seqp1.getEntryCount();
+                        int seqLen2 = seqp2.getEntryCount();
+                        if ((long) seqLen1 * seqLen2 >= HASH_PROBE_MIN_PAIRS) {
+                            // Build on the smaller sequence.
+                            booleanResult = seqLen1 <= seqLen2 ? evaluateHashProbe(seqp1, seqp2) : evaluateHashProbe(
+                                    seqp2, seqp1);
+                            setBooleanResult(booleanResult, result);
+                            return;
+                        }
+                    }
                     if (tvpArg1.getTag() == ValueTag.SEQUENCE_TAG) {
                         tvpArg1.getValue(seqp1);
                         int seqLen = seqp1.getEntryCount();
@@ -133,10 +174,7 @@ public abstract class AbstractGeneralComparisonScalarEvaluatorFactory extends
                         booleanResult = evaluateTaggedValueArgument2(aOp, tvpArg1, tvpArg2, dCtx);
                     }
 
-                    byte[] byteResult = new byte[2];
-                    byteResult[0] = ValueTag.XS_BOOLEAN_TAG;
-                    byteResult[1] = (byte) (booleanResult ? 1 : 0);
-                    result.set(byteResult, 0, 2);
+                    setBooleanResult(booleanResult, result);
                 } catch (SystemException se) {
                     throw se;
                 } catch (Exception e) {
@@ -144,6 +182,135 @@ public abstract class AbstractGeneralComparisonScalarEvaluatorFactory extends
                 }
             }
 
+            private void setBooleanResult(boolean booleanResult, IPointable result) {
+                if (booleanResult) {
+                    XDMConstants.setTrue(result);
+                } else {
+                    XDMConstants.setFalse(result);
+                }
+            }
+
+            /**
+             * Compare two sequences by probing a hash set of the atomized build items with each atomized probe item.
+             * Untyped atomic items of the build side are cast once for each type they are compared with. Without a
+             * match the types of both sides are checked, so that incomparable items raise XPTY0004 as in the nested
+             * loop.
+             * 
+             * @param seqpBuild
+             * @param seqpProbe
+             * @return Whether an item of one sequence equals an item of the other.
+             * @throws SystemException
+             * @throws IOException
+             */
+            private boolean evaluateHashProbe(SequencePointable seqpBuild, SequencePointable seqpProbe)
+                    throws SystemException, IOException {
+                buildTyped.reset(dCtx);
+                buildUntyped.reset(dCtx);
+                buildTypes.clear();
+                probeTypes.clear();
+                Arrays.fill(castSetBuilt, false);
+                int buildLen = seqpBuild.getEntryCount();
+                for (int j = 0; j < buildLen; ++j) {
+                    seqpBuild.getEntry(j, tvpItem);
+                    int tid = atomizeItem(tvpItem, tvpAtomic);
+                    if (tid == ValueTag.XS_UNTYPED_ATOMIC_TAG) {
+                        buildUntyped.add(tvpAtomic);
+                    } else {
+                        buildTyped.add(tvpAtomic);
+                        addType(buildTypes, tid);
+                    }
+                }
+
+                int probeLen = seqpProbe.getEntryCount();
+                for (int j = 0; j < probeLen; ++j) {
+                    seqpProbe.getEntry(j, tvpItem);
+                    int tid = atomizeItem(tvpItem, tvpAtomic);
+                    if (tid == ValueTag.XS_UNTYPED_ATOMIC_TAG) {
+                        if (buildUntyped.contains(tvpAtomic)) {
+                            return true;
+                        }
+                        for (int k = 0; k < buildTypes.getSize(); ++k) {
+                            castUntypedAtomic(tvpAtomic, buildTypes.getArray()[k], tvpCast);
+                            if (buildTyped.contains(tvpCast)) {
+                                return true;
+                            }
+                        }
+                    } else {
+                        if (buildTyped.contains(tvpAtomic)) {
+                            return true;
+                        }
+                        if (buildUntyped.size() > 0 && getCastSet(tid).contains(tvpAtomic)) {
+                            return true;
+                        }
+                        addType(probeTypes, tid);
+                    }
+                }
+                for (int j = 0; j < probeTypes.getSize(); ++j) {
+                    for (int k = 0; k < buildTypes.getSize(); ++k) {
+                        if (!isComparable(probeTypes.getArray()[j], buildTypes.getArray()[k])) {
+                            throw new SystemException(ErrorCode.XPTY0004);
+                        }
+                    }
+                }
+                return false;
+            }
+
+            /**
+             * @return The base type of the atomized item for general comparisons.
+             */
+            private int atomizeItem(TaggedValuePointable tvp, TaggedValuePointable atomic) throws SystemException,
+                    IOException {
+                atomic.set(tvp);
+                ah.atomize(tvp, ppool, atomic);
+                if (atomic.getTag() == ValueTag.NODE_TREE_TAG) {
+                    // An element without children.
+                    atomic.set(EMPTY_UNTYPED_ATOMIC, 0, EMPTY_UNTYPED_ATOMIC.length);
+                }
+                return FunctionHelper.getBaseTypeForGeneralComparisons(atomic.getTag());
+            }
+
+            private void addType(GrowableIntArray types, int tid) {
+                for (int k = 0; k < types.getSize(); ++k) {
+                    if (types.getArray()[k] == tid) {
+                        return;
+                    }
+                }
+                types.append(tid);
+            }
+
+            /**
+             * @return The untyped atomic build items cast to the type.
+             */
+            private AtomicValueHashSet getCastSet(int tid) throws SystemException {
+                if (castSets[tid] == null) {
+                    castSets[tid] = new AtomicValueHashSet(false);
+                }
+                AtomicValueHashSet castSet = castSets[tid];
+                if (!castSetBuilt[tid]) {
+                    castSet.reset(dCtx);
+                    for (int k = 0; k < buildUntyped.size(); ++k) {
+                        buildUntyped.getValue(k, tvpUntyped);
+                        castUntypedAtomic(tvpUntyped, tid, tvpCast);
+                        castSet.add(tvpCast);
+                    }
+                    castSetBuilt[tid] = true;
+                }
+                return castSet;
+            }
+
+            private void castUntypedAtomic(TaggedValuePointable tvp, int tid, TaggedValuePointable cast)
+                    throws SystemException {
+                abvsCast.reset();
+                getCastToOperator(tid);
+                tvp.getValue(tp1.utf8sp);
+                try {
+                    aCastToOp.convertUntypedAtomic(tp1.utf8sp, abvsCast.getDataOutput());
+                } catch (IOException e) {
+                    throw new SystemException(ErrorCode.SYSE0001, e);
+                }
+                cast.set(abvsCast.getByteArray(), abvsCast.getStartOffset(), abvsCast.getLength());
+            }
+
             /**
              * Check the second argument for a sequence and loop if required.
              * 
@@ -218,9 +385,7 @@ public abstract class AbstractGeneralComparisonScalarEvaluatorFactory extends
 
                     // Set up value comparison tagged value pointables.
                     if (tid1 == ValueTag.XS_UNTYPED_ATOMIC_TAG && tid2 == ValueTag.XS_UNTYPED_ATOMIC_TAG) {
-                        // Only need to change tag since the storage is the same for untyped atomic and string.
-                        tvpCompare1.getByteArray()[0] = ValueTag.XS_STRING_TAG;
-                        tvpCompare2.getByteArray()[0] = ValueTag.XS_STRING_TAG;
+                        // Untyped atomic values are compared as strings.
                     } else if (tid1 == ValueTag.XS_UNTYPED_ATOMIC_TAG) {
                         tid1 = tid2;
                         getCastToOperator(tid2);
@@ -264,116 +429,152 @@ public abstract class AbstractGeneralComparisonScalarEvaluatorFactory extends
             }
 
             private void getCastToOperator(int tid) {
+                aCastToOp = castOps[tid];
+                if (aCastToOp == null) {
+                    aCastToOp = createCastToOperator(tid);
+                    castOps[tid] = aCastToOp;
+                }
+            }
+
+            private AbstractCastToOperation createCastToOperator(int tid) {
+                AbstractCastToOperation castOp;
                 switch (tid) {
                     case ValueTag.XS_ANY_URI_TAG:
-                        aCastToOp = new CastToAnyURIOperation();
+                        castOp = new CastToAnyURIOperation();
                         break;
                     case ValueTag.XS_BASE64_BINARY_TAG:
-                        aCastToOp = new CastToBase64BinaryOperation();
+                        castOp = new CastToBase64BinaryOperation();
                         break;
                     case ValueTag.XS_BOOLEAN_TAG:
-                        aCastToOp = new CastToBooleanOperation();
+                        castOp = new CastToBooleanOperation();
                         break;
                     case ValueTag.XS_DATE_TAG:
-                        aCastToOp = new CastToDateOperation();
+                        castOp = new CastToDateOperation();
                         break;
                     case ValueTag.XS_DATETIME_TAG:
-                        aCastToOp = new CastToDateTimeOperation();
+                        castOp = new CastToDateTimeOperation();
                         break;
                     case ValueTag.XS_DAY_TIME_DURATION_TAG:
-                        aCastToOp = new CastToDTDurationOperation();
+                        castOp = new CastToDTDurationOperation();
                         break;
                     case ValueTag.XS_DURATION_TAG:
-                        aCastToOp = new CastToDurationOperation();
+                        castOp = new CastToDurationOperation();
                         break;
                     case ValueTag.XS_HEX_BINARY_TAG:
-                        aCastToOp = new CastToHexBinaryOperation();
+                        castOp = new CastToHexBinaryOperation();
                         break;
                     case ValueTag.XS_G_DAY_TAG:
-                        aCastToOp = new CastToGDayOperation();
+                        castOp = new CastToGDayOperation();
                         break;
                     case ValueTag.XS_G_MONTH_DAY_TAG:
-                        aCastToOp = new CastToGMonthDayOperation();
+                        castOp = new CastToGMonthDayOperation();
                         break;
                     case ValueTag.XS_G_MONTH_TAG:
-                        aCastToOp = new CastToGMonthOperation();
+                        castOp = new CastToGMonthOperation();
                         break;
                     case ValueTag.XS_G_YEAR_MONTH_TAG:
-                        aCastToOp = new CastToGYearMonthOperation();
+                        castOp = new CastToGYearMonthOperation();
                         break;
                     case ValueTag.XS_G_YEAR_TAG:
-                        aCastToOp = new CastToGYearOperation();
+                        castOp = new CastToGYearOperation();
                         break;
                     case ValueTag.XS_QNAME_TAG:
-                        aCastToOp = new CastToQNameOperation();
+                        castOp = new CastToQNameOperation();
                         break;
                     case ValueTag.XS_STRING_TAG:
-                        aCastToOp = new CastToStringOperation();
+                        castOp = new CastToStringOperation();
                         break;
                     case ValueTag.XS_TIME_TAG:
-                        aCastToOp = new CastToTimeOperation();
+                        castOp = new CastToTimeOperation();
                         break;
                     case ValueTag.XS_UNTYPED_ATOMIC_TAG:
-                        aCastToOp = new CastToUntypedAtomicOperation();
+                        castOp = new CastToUntypedAtomicOperation();
                         break;
                     case ValueTag.XS_YEAR_MONTH_DURATION_TAG:
-                        aCastToOp = new CastToYMDurationOperation();
+                        castOp = new CastToYMDurationOperation();
                         break;
                     case ValueTag.XS_DECIMAL_TAG:
-                        aCastToOp = new CastToDecimalOperation();
+                        castOp = new CastToDecimalOperation();
                         break;
                     case ValueTag.XS_DOUBLE_TAG:
-                        aCastToOp = new CastToDoubleOperation();
+                        castOp = new CastToDoubleOperation();
                         break;
                     case ValueTag.XS_FLOAT_TAG:
-                        aCastToOp = new CastToFloatOperation();
+                        castOp = new CastToFloatOperation();
                         break;
                     case ValueTag.XS_INTEGER_TAG:
-                        aCastToOp = new CastToIntegerOperation();
+                        castOp = new CastToIntegerOperation();
                         break;
                     case ValueTag.XS_NON_POSITIVE_INTEGER_TAG:
-                        aCastToOp = new CastToNonPositiveIntegerOperation();
+                        castOp = new CastToNonPositiveIntegerOperation();
                         break;
                     case ValueTag.XS_NEGATIVE_INTEGER_TAG:
-                        aCastToOp = new CastToNegativeIntegerOperation();
+                        castOp = new CastToNegativeIntegerOperation();
                         break;
                     case ValueTag.XS_LONG_TAG:
-                        aCastToOp = new CastToLongOperation();
+                        castOp = new CastToLongOperation();
                         break;
                     case ValueTag.XS_NON_NEGATIVE_INTEGER_TAG:
-                        aCastToOp = new CastToNonNegativeIntegerOperation();
+                        castOp = new CastToNonNegativeIntegerOperation();
                         break;
                     case ValueTag.XS_UNSIGNED_LONG_TAG:
-                        aCastToOp = new CastToUnsignedLongOperation();
+                        castOp = new CastToUnsignedLongOperation();
                         break;
                     case ValueTag.XS_POSITIVE_INTEGER_TAG:
-                        aCastToOp = new CastToPositiveIntegerOperation();
+                        castOp = new CastToPositiveIntegerOperation();
                         break;
                     case ValueTag.XS_INT_TAG:
-                        aCastToOp = new CastToIntOperation();
+                        castOp = new CastToIntOperation();
                         break;
                     case ValueTag.XS_UNSIGNED_INT_TAG:
-                        aCastToOp = new CastToUnsignedIntOperation();
+                        castOp = new CastToUnsignedIntOperation();
                         break;
                     case ValueTag.XS_SHORT_TAG:
-                        aCastToOp = new CastToShortOperation();
+                        castOp = new CastToShortOperation();
                         break;
                     case ValueTag.XS_UNSIGNED_SHORT_TAG:
-                        aCastToOp = new CastToUnsignedShortOperation();
+                        castOp = new CastToUnsignedShortOperation();
                         break;
                     case ValueTag.XS_BYTE_TAG:
-                        aCastToOp = new CastToByteOperation();
+                        castOp = new CastToByteOperation();
                         break;
                     case ValueTag.XS_UNSIGNED_BYTE_TAG:
-                        aCastToOp = new CastToUnsignedByteOperation();
+                        castOp = new CastToUnsignedByteOperation();
                         break;
                     default:
-                        aCastToOp = new CastToUntypedAtomicOperation();
+                        castOp = new CastToUntypedAtomicOperation();
                 }
+                return castOp;
             }
 
         };
     }
 
+    /**
+     * @return Whether values of the two base types for general comparisons can be compared with each other.
+     */
+    private static boolean isComparable(int tid1, int tid2) {
+        return tid1 == tid2 || getComparisonClass(tid1) == getComparisonClass(tid2);
+    }
+
+    private static int getComparisonClass(int tid) {
+        switch (tid) {
+            case ValueTag.XS_ANY_URI_TAG:
+                return ValueTag.XS_STRING_TAG;
+            case ValueTag.XS_DAY_TIME_DURATION_TAG:
+            case ValueTag.XS_YEAR_MONTH_DURATION_TAG:
+                return ValueTag.XS_DURATION_TAG;
+            default:
+                return tid;
+        }
+    }
+
+    /**
+     * @return Whether two sequences can be compared by probing a hash set, which only holds for equality.
+     */
+    protected boolean supportsHashProbe() {
+        return false;
+    }
+
     protected abstract AbstractValueComparisonOperation createValueComparisonOperation();
 }
\ No newline at end of file
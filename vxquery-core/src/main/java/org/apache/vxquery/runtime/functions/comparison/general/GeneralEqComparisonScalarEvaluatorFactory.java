@@ -32,4 +32,9 @@ public class GeneralEqComparisonScalarEvaluatorFactory extends AbstractGeneralCo
     protected AbstractValueComparisonOperation createValueComparisonOperation() {
         return new ValueEqComparisonOperation();
     }
+
+    @Override
+    protected boolean supportsHashProbe() {
+        return true;
+    }
 }
\ No newline at end of file
@@ -60,6 +60,8 @@ public class FnDocScalarEvaluatorFactory extends AbstractTaggedValueArgumentScal
         final String nodeId = ctx.getJobletContext().getApplicationContext().getNodeId();
 
         return new AbstractTaggedValueArgumentScalarEvaluator(args) {
+            private XMLParser parser;
+
             @Override
             protected void evaluate(TaggedValuePointable[] args, IPointable result) throws SystemException {
                 TaggedValuePointable tvp = args[0];
@@ -77,8 +79,11 @@ public class FnDocScalarEvaluatorFactory extends AbstractTaggedValueArgumentScal
                 }
                 tvp.getValue(stringp);
                 try {
-                    // Only one document should be parsed so its ok to have a unique parser.
-                    XMLParser parser = new XMLParser(false, nodeIdProvider, nodeId);
+                    // Documents are parsed one at a time, so the parser is reused for every call.
+                    if (parser == null) {
+                        parser = new XMLParser(false, nodeIdProvider, nodeId);
+                    }
+                    abvs.reset();
                     FunctionHelper.readInDocFromPointable(stringp, bbis, di, abvs, parser);
                 } catch (Exception e) {
                     throw new SystemException(ErrorCode.SYSE0001, e);
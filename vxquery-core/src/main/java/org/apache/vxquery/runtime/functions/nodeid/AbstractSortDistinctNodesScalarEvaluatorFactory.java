@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.vxquery.runtime.functions.nodeid;
+
+import java.io.IOException;
+
+import org.apache.vxquery.datamodel.accessors.SequencePointable;
+import org.apache.vxquery.datamodel.accessors.TaggedValuePointable;
+import org.apache.vxquery.datamodel.accessors.TypedPointables;
+import org.apache.vxquery.datamodel.builders.sequence.SequenceBuilder;
+import org.apache.vxquery.datamodel.values.ValueTag;
+import org.apache.vxquery.exceptions.ErrorCode;
+import org.apache.vxquery.exceptions.SystemException;
+import org.apache.vxquery.runtime.functions.base.AbstractTaggedValueArgumentScalarEvaluator;
+import org.apache.vxquery.runtime.functions.base.AbstractTaggedValueArgumentScalarEvaluatorFactory;
+import org.apache.vxquery.runtime.functions.util.FunctionHelper;
+
+import edu.uci.ics.hyracks.algebricks.common.exceptions.AlgebricksException;
+import edu.uci.ics.hyracks.algebricks.runtime.base.IScalarEvaluator;
+import edu.uci.ics.hyracks.algebricks.runtime.base.IScalarEvaluatorFactory;
+import edu.uci.ics.hyracks.api.context.IHyracksTaskContext;
+import edu.uci.ics.hyracks.data.std.api.IPointable;
+import edu.uci.ics.hyracks.data.std.util.ArrayBackedValueStorage;
+
+/**
+ * Puts the nodes of a sequence in document order and/or removes duplicate nodes, using the tree and local node ids
+ * given out by the parser. Sequences holding atomic values or nodes without ids are returned unchanged, as is a
+ * sequence that already has the requested order.
+ */
+public abstract class AbstractSortDistinctNodesScalarEvaluatorFactory extends
+        AbstractTaggedValueArgumentScalarEvaluatorFactory {
+    private static final long serialVersionUID = 1L;
+
+    private final boolean sort;
+    private final boolean distinct;
+    private final boolean descending;
+
+    /**
+     * @param sort
+     *            Whether the result is in document order. Otherwise the input order is kept.
+     * @param distinct
+     *            Whether duplicate nodes are removed.
+     * @param descending
+     *            Whether the result is in reverse document order.
+     */
+    public AbstractSortDistinctNodesScalarEvaluatorFactory(IScalarEvaluatorFactory[] args, boolean sort,
+            boolean distinct, boolean descending) {
+        super(args);
+        this.sort = sort;
+        this.distinct = distinct;
+        this.descending = descending;
+    }
+
+    @Override
+    protected IScalarEvaluator createEvaluator(IHyracksTaskContext ctx, IScalarEvaluator[] args)
+            throws AlgebricksException {
+        final ArrayBackedValueStorage abvs = new ArrayBackedValueStorage();
+        final SequenceBuilder sb = new SequenceBuilder();
+        final SequencePointable seq = new SequencePointable();
+        final TaggedValuePointable tvpItem = (TaggedValuePointable) TaggedValuePointable.FACTORY.createPointable();
+        final TaggedValuePointable tvpNode = (TaggedValuePointable) TaggedValuePointable.FACTORY.createPointable();
+        final TypedPointables tp = new TypedPointables();
+        final NodeIdSorter sorter = new NodeIdSorter();
+
+        return new AbstractTaggedValueArgumentScalarEvaluator(args) {
+            private boolean[] keep = new boolean[0];
+
+            @Override
+            protected void evaluate(TaggedValuePointable[] args, IPointable result) throws SystemException {
+                TaggedValuePointable tvp = args[0];
+                if (tvp.getTag() != ValueTag.SEQUENCE_TAG) {
+                    result.set(tvp);
+                    return;
+                }
+                tvp.getValue(seq);
+                int seqLen = seq.getEntryCount();
+                sorter.reset();
+                for (int j = 0; j < seqLen; ++j) {
+                    seq.getEntry(j, tvpItem);
+                    if (tvpItem.getTag() != ValueTag.NODE_TREE_TAG) {
+                        result.set(tvp);
+                        return;
+                    }
+                    tvpItem.getValue(tp.ntp);
+                    int treeId = tp.ntp.getRootNodeId();
+                    int localNodeId = FunctionHelper.getLocalNodeId(tvpItem, tp, tvpNode);
+                    if (treeId == -1 || localNodeId == -1) {
+                        result.set(tvp);
+                        return;
+                    }
+                    sorter.add(NodeIdSorter.getKey(treeId, localNodeId));
+                }
+
+                // Strictly ordered keys are also free of duplicates.
+                boolean ordered = descending ? sorter.isDescending(distinct) : sorter.isAscending(distinct);
+                if (ordered) {
+                    result.set(tvp);
+                    return;
+                }
+                if (!sorter.isAscending(false)) {
+                    sorter.sort();
+                }
+                if (distinct) {
+                    sorter.removeDuplicates();
+                }
+
+                try {
+                    abvs.reset();
+                    sb.reset(abvs);
+                    int size = sorter.size();
+                    if (sort) {
+                        for (int i = 0; i < size; ++i) {
+                            seq.getEntry(sorter.getItem(descending ? size - 1 - i : i), tvpItem);
+                            sb.addItem(tvpItem);
+                        }
+                    } else {
+                        // Keep the first occurrence of each node at its input position.
+                        if (keep.length < seqLen) {
+                            keep = new boolean[seqLen];
+                        }
+                        for (int j = 0; j < seqLen; ++j) {
+                            keep[j] = false;
+                        }
+                        for (int i = 0; i < size; ++i) {
+                            keep[sorter.getItem(i)] = true;
+                        }
+                        for (int j = 0; j < seqLen; ++j) {
+                            if (keep[j]) {
+                                seq.getEntry(j, tvpItem);
+                                sb.addItem(tvpItem);
+                            }
+                        }
+                    }
+                    sb.finish();
+                    result.set(abvs);
+                } catch (IOException e) {
+                    throw new SystemException(ErrorCode.SYSE0001, e);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.vxquery.runtime.functions.nodeid;
+
+import java.util.Arrays;
+
+/**
+ * Orders the items of a sequence by node id. A key is the tree id in the upper and the local node id in the lower
+ * 32 bits, compared unsigned. Keys are sorted with a stable least significant digit radix sort, so equal keys keep
+ * the order in which they were added.
+ */
+class NodeIdSorter {
+    private static final int DIGIT_BITS = 8;
+    private static final int RADIX = 1 << DIGIT_BITS;
+    private static final int INSERTION_SORT_THRESHOLD = 32;
+
+    private final int[] counts = new int[RADIX];
+    private long[] keys = new long[64];
+    private long[] keysTmp = new long[64];
+    private int[] items = new int[64];
+    private int[] itemsTmp = new int[64];
+    private int size;
+
+    public static long getKey(int treeId, int localNodeId) {
+        return ((long) treeId << 32) | (localNodeId & 0xffffffffL);
+    }
+
+    public void reset() {
+        size = 0;
+    }
+
+    public void add(long key) {
+        if (size == keys.length) {
+            int capacity = size * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            items = Arrays.copyOf(items, capacity);
+            keysTmp = new long[capacity];
+            itemsTmp = new int[capacity];
+        }
+        keys[size] = key;
+        items[size] = size;
+        ++size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The index, in order of {@link #add(long)}, of the item at position i.
+     */
+    public int getItem(int i) {
+        return items[i];
+    }
+
+    /**
+     * @param strict
+     *            Whether equal neighbours break the order.
+     */
+    public boolean isAscending(boolean strict) {
+        for (int i = 1; i < size; ++i) {
+            int c = compare(keys[i - 1], keys[i]);
+            if (c > 0 || (strict && c == 0)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean isDescending(boolean strict) {
+        for (int i = 1; i < size; ++i) {
+            int c = compare(keys[i - 1], keys[i]);
+            if (c < 0 || (strict && c == 0)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void sort() {
+        if (size <= INSERTION_SORT_THRESHOLD) {
+            insertionSort();
+            return;
+        }
+        for (int shift = 0; shift < 64; shift += DIGIT_BITS) {
+            radixPass(shift);
+        }
+    }
+
+    /**
+     * Drops the keys equal to their predecessor. Only valid after sorting.
+     */
+    public void removeDuplicates() {
+        if (size == 0) {
+            return;
+        }
+        int last = 0;
+        for (int i = 1; i < size; ++i) {
+            if (keys[i] != keys[last]) {
+                ++last;
+                keys[last] = keys[i];
+                items[last] = items[i];
+            }
+        }
+        size = last + 1;
+    }
+
+    private void radixPass(int shift) {
+        for (int d = 0; d < RADIX; ++d) {
+            counts[d] = 0;
+        }
+        for (int i = 0; i < size; ++i) {
+            ++counts[(int) (keys[i] >>> shift) & (RADIX - 1)];
+        }
+        // All keys share this digit, the pass would not move anything.
+        if (counts[(int) (keys[0] >>> shift) & (RADIX - 1)] == size) {
+            return;
+        }
+        int offset = 0;
+        for (int d = 0; d < RADIX; ++d) {
+            int count = counts[d];
+            counts[d] = offset;
+            offset += count;
+        }
+        for (int i = 0; i < size; ++i) {
+            int position = counts[(int) (keys[i] >>> shift) & (RADIX - 1)]++;
+            keysTmp[position] = keys[i];
+            itemsTmp[position] = items[i];
+        }
+        long[] keysSwap = keys;
+        keys = keysTmp;
+        keysTmp = keysSwap;
+        int[] itemsSwap = items;
+        items = itemsTmp;
+        itemsTmp = itemsSwap;
+    }
+
+    private void insertionSort() {
+        for (int i = 1; i < size; ++i) {
+            long key = keys[i];
+            int item = items[i];
+            int j = i - 1;
+            while (j >= 0 && compare(keys[j], key) > 0) {
+                keys[j + 1] = keys[j];
+                items[j + 1] = items[j];
+                --j;
+            }
+            keys[j + 1] = key;
+            items[j + 1] = item;
+        }
+    }
+
+    private static int compare(long key1, long key2) {
+        long k1 = key1 ^ Long.MIN_VALUE;
+        long k2 = key2 ^ Long.MIN_VALUE;
+        return k1 < k2 ? -1 : (k1 == k2 ? 0 : 1);
+    }
+}
@@ -21,16 +21,13 @@ import java.io.IOException;
 import org.apache.vxquery.context.DynamicContext;
 import org.apache.vxquery.datamodel.accessors.SequencePointable;
 import org.apache.vxquery.datamodel.accessors.TaggedValuePointable;
-import org.apache.vxquery.datamodel.accessors.TypedPointables;
 import org.apache.vxquery.datamodel.builders.sequence.SequenceBuilder;
 import org.apache.vxquery.datamodel.values.ValueTag;
 import org.apache.vxquery.exceptions.ErrorCode;
 import org.apache.vxquery.exceptions.SystemException;
 import org.apache.vxquery.runtime.functions.base.AbstractTaggedValueArgumentScalarEvaluator;
 import org.apache.vxquery.runtime.functions.base.AbstractTaggedValueArgumentScalarEvaluatorFactory;
-import org.apache.vxquery.runtime.functions.comparison.AbstractValueComparisonOperation;
-import org.apache.vxquery.runtime.functions.comparison.ValueEqComparisonOperation;
-import org.apache.vxquery.runtime.functions.util.FunctionHelper;
+import org.apache.vxquery.runtime.functions.util.AtomicValueHashSet;
 
 import edu.uci.ics.hyracks.algebricks.common.exceptions.AlgebricksException;
 import edu.uci.ics.hyracks.algebricks.runtime.base.IScalarEvaluator;
@@ -38,7 +35,6 @@ import edu.uci.ics.hyracks.algebricks.runtime.base.IScalarEvaluatorFactory;
 import edu.uci.ics.hyracks.api.context.IHyracksTaskContext;
 import edu.uci.ics.hyracks.data.std.api.IPointable;
 import edu.uci.ics.hyracks.data.std.primitive.UTF8StringPointable;
-import edu.uci.ics.hyracks.data.std.primitive.VoidPointable;
 import edu.uci.ics.hyracks.data.std.util.ArrayBackedValueStorage;
 
 public class FnDistinctValuesScalarEvaluatorFactory extends AbstractTaggedValueArgumentScalarEvaluatorFactory {
@@ -55,13 +51,9 @@ public class FnDistinctValuesScalarEvaluatorFactory extends AbstractTaggedValueA
         final SequenceBuilder sb = new SequenceBuilder();
         final SequencePointable seq = new SequencePointable();
         final DynamicContext dCtx = (DynamicContext) ctx.getJobletContext().getGlobalJobData();
-        final AbstractValueComparisonOperation aOp = new ValueEqComparisonOperation();
-        final TaggedValuePointable tvpDistinct = (TaggedValuePointable) TaggedValuePointable.FACTORY.createPointable();
-        final TaggedValuePointable tvpCheck = (TaggedValuePointable) TaggedValuePointable.FACTORY.createPointable();
-        final VoidPointable p = (VoidPointable) VoidPointable.FACTORY.createPointable();
+        final TaggedValuePointable tvpItem = (TaggedValuePointable) TaggedValuePointable.FACTORY.createPointable();
         final UTF8StringPointable stringp = (UTF8StringPointable) UTF8StringPointable.FACTORY.createPointable();
-        final TypedPointables tp1 = new TypedPointables();
-        final TypedPointables tp2 = new TypedPointables();
+        final AtomicValueHashSet distinct = new AtomicValueHashSet(true);
 
         return new AbstractTaggedValueArgumentScalarEvaluator(args) {
             @Override
@@ -84,27 +76,12 @@ public class FnDistinctValuesScalarEvaluatorFactory extends AbstractTaggedValueA
                         tvp1.getValue(seq);
                         int seqLen = seq.getEntryCount();
 
-                        // Add remaining distinct item.
-                        boolean found = false;
+                        // Keep the first of each group of equal items.
+                        distinct.reset(dCtx);
                         for (int j = 0; j < seqLen; ++j) {
-                            seq.getEntry(j, p);
-                            tvpDistinct.set(p.getByteArray(), p.getStartOffset(), p.getLength());
-
-                            // Check if item is distinct.
-                            if (j + 1 < seqLen) {
-                                for (int k = j + 1; k < seqLen; ++k) {
-                                    seq.getEntry(k, p);
-                                    tvpCheck.set(p.getByteArray(), p.getStartOffset(), p.getLength());
-                                    if (FunctionHelper.compareTaggedValues(aOp, tvpDistinct, tvpCheck, dCtx, tp1, tp2)) {
-                                        found = true;
-                                        break;
-                                    }
-                                }
-                            }
-
-                            // Add distinct item.
-                            if (!found) {
-                                sb.addItem(tvpDistinct);
+                            seq.getEntry(j, tvpItem);
+                            if (distinct.add(tvpItem)) {
+                                sb.addItem(tvpItem);
                             }
                         }
                     } else {
@@ -26,6 +26,7 @@ import org.apache.vxquery.datamodel.accessors.nodes.DocumentNodePointable;
 import org.apache.vxquery.datamodel.accessors.nodes.ElementNodePointable;
 import org.apache.vxquery.datamodel.accessors.nodes.NodeTreePointable;
 import org.apache.vxquery.datamodel.builders.nodes.NodeSubTreeBuilder;
+import org.apache.vxquery.datamodel.builders.sequence.SequenceBuilder;
 import org.apache.vxquery.datamodel.values.ValueTag;
 import org.apache.vxquery.datamodel.values.XDMConstants;
 
@@ -42,12 +43,21 @@ public abstract class AbstractForwardAxisPathStep {
     private final DocumentNodePointable dnp = (DocumentNodePointable) DocumentNodePointable.FACTORY.createPointable();
     private final ElementNodePointable enp = (ElementNodePointable) ElementNodePointable.FACTORY.createPointable();
     private final NodeSubTreeBuilder nstb = new NodeSubTreeBuilder();
+    private SequenceBuilder resultSeqb;
 
     public AbstractForwardAxisPathStep(IHyracksTaskContext ctx, PointablePool pp) {
         dCtx = (DynamicContext) ctx.getJobletContext().getGlobalJobData();
         this.pp = pp;
     }
 
+    /**
+     * Makes the step append each node it returns to the sequence builder in place, instead of building the node in
+     * a buffer of its own for the caller to copy. The result pointable passed to step is then left unset.
+     */
+    public void setResultSequence(SequenceBuilder seqb) {
+        resultSeqb = seqb;
+    }
+
     protected void getSequence(TaggedValuePointable tvp, SequencePointable seqp) {
         switch (tvp.getTag()) {
             case ValueTag.DOCUMENT_NODE_TAG:
@@ -67,6 +77,13 @@ public abstract class AbstractForwardAxisPathStep {
     }
 
     protected void setNodeToResult(TaggedValuePointable tvpItem, IPointable result) throws IOException {
+        if (resultSeqb != null) {
+            nstb.reset(resultSeqb.getItemStorage());
+            nstb.setChildNode(ntp, tvpItem);
+            nstb.finish();
+            resultSeqb.endItem();
+            return;
+        }
         nodeAbvs.reset();
         nstb.reset(nodeAbvs);
         nstb.setChildNode(ntp, tvpItem);
@@ -43,8 +43,6 @@ public abstract class AbstractPathStepScalarEvaluator extends AbstractTaggedValu
 
     protected final TaggedValuePointable itemTvp;
 
-    private final TaggedValuePointable node;
-    
     private INodeFilter filter;
     
     public AbstractPathStepScalarEvaluator(IScalarEvaluator[] args, IHyracksTaskContext ctx) {
@@ -54,7 +52,6 @@ public abstract class AbstractPathStepScalarEvaluator extends AbstractTaggedValu
         seqb = new SequenceBuilder();
         nodeAbvs = new ArrayBackedValueStorage();
         itemTvp = (TaggedValuePointable) TaggedValuePointable.FACTORY.createPointable();
-        node = (TaggedValuePointable) TaggedValuePointable.FACTORY.createPointable();
     }
 
     protected void setNodeTest(SequenceType sType) {
@@ -64,6 +61,13 @@ public abstract class AbstractPathStepScalarEvaluator extends AbstractTaggedValu
     @Override
     protected abstract void evaluate(TaggedValuePointable[] args, IPointable result) throws SystemException;
 
+    /**
+     * Must be called after ntp is set to a new node tree.
+     */
+    protected void nodeTreeChanged() {
+        filter.setNodeTree(ntp);
+    }
+
     protected boolean matches() {
         return filter.accept(ntp, itemTvp);
     }
@@ -77,7 +81,9 @@ public abstract class AbstractPathStepScalarEvaluator extends AbstractTaggedValu
     }
 
     protected void appendNodeToResult() throws IOException {
-        setNodeToResult(node);
-        seqb.addItem(node);
+        nstb.reset(seqb.getItemStorage());
+        nstb.setChildNode(ntp, itemTvp);
+        nstb.finish();
+        seqb.endItem();
     }
 }
\ No newline at end of file
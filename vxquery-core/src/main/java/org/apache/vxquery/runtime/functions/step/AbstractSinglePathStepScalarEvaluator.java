@@ -101,6 +101,7 @@ public abstract class AbstractSinglePathStepScalarEvaluator extends AbstractPath
     }
 
     protected void processNodeTree() throws SystemException, IOException {
+        nodeTreeChanged();
         getSequence(ntp, seqp);
         int seqSize = seqp.getEntryCount();
         for (int i = 0; i < seqSize; ++i) {
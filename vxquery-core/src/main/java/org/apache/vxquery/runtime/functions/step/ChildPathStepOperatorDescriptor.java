@@ -53,9 +53,13 @@ public class ChildPathStepOperatorDescriptor extends AbstractForwardAxisPathStep
             throw new SystemException(ErrorCode.SYSE0001);
         }
         tvp.getValue(ntp);
+        for (INodeFilter f : filter) {
+            f.setNodeTree(ntp);
+        }
     }
 
     protected void setFilterCode(List<Integer> typeCodes) {
+        filter.clear();
         for (int typeCode : typeCodes) {
             SequenceType sType = dCtx.getStaticContext().lookupSequenceType(typeCode);
             INodeFilter f = NodeTestFilter.getNodeTestFilter(sType);
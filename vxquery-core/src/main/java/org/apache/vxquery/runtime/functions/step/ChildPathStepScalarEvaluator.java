@@ -42,6 +42,7 @@ public class ChildPathStepScalarEvaluator extends AbstractTaggedValueArgumentSca
     public ChildPathStepScalarEvaluator(IScalarEvaluator[] args, IHyracksTaskContext ctx) {
         super(args);
         childPathStep = new ChildPathStepUnnesting(ctx, ppool);
+        childPathStep.setResultSequence(seqb);
     }
 
     @Override
@@ -52,7 +53,7 @@ public class ChildPathStepScalarEvaluator extends AbstractTaggedValueArgumentSca
             seqb.reset(seqAbvs);
             try {
                 while (childPathStep.step(itemTvp)) {
-                    seqb.addItem(itemTvp);
+                    // The step has appended the node to seqb.
                 }
             } catch (AlgebricksException e) {
                 throw new SystemException(ErrorCode.SYSE0001, e);
@@ -68,6 +68,7 @@ public class ChildPathStepUnnesting extends AbstractForwardAxisPathStep {
             seqArgsLength = seqNtp.getEntryCount();
         } else if (args[0].getTag() == ValueTag.NODE_TREE_TAG) {
             args[0].getValue(ntp);
+            filter.setNodeTree(ntp);
             seqArgsLength = -1;
         } else {
             throw new SystemException(ErrorCode.SYSE0001);
@@ -83,6 +84,7 @@ public class ChildPathStepUnnesting extends AbstractForwardAxisPathStep {
                     throw new AlgebricksException(description);
                 }
                 tvpNtp.getValue(ntp);
+                filter.setNodeTree(ntp);
                 ntp.getRootNode(tvpStep);
                 if (stepNodeTree(tvpStep, 0, result)) {
                     return true;
@@ -41,6 +41,7 @@ public class DescendantOrSelfPathStepScalarEvaluator extends AbstractDescendantP
     public DescendantOrSelfPathStepScalarEvaluator(IScalarEvaluator[] args, IHyracksTaskContext ctx) {
         super(args, ctx);
         descendentOrSelfPathStep = new DescendantOrSelfPathStepUnnesting(ctx, ppool, true);
+        descendentOrSelfPathStep.setResultSequence(seqb);
     }
 
     @Override
@@ -51,7 +52,7 @@ public class DescendantOrSelfPathStepScalarEvaluator extends AbstractDescendantP
             seqb.reset(seqAbvs);
             try {
                 while (descendentOrSelfPathStep.step(itemTvp)) {
-                    seqb.addItem(itemTvp);
+                    // The step has appended the node to seqb.
                 }
             } catch (AlgebricksException e) {
                 throw new SystemException(ErrorCode.SYSE0001, e);
@@ -26,10 +26,13 @@ import org.apache.vxquery.datamodel.accessors.TaggedValuePointable;
 import org.apache.vxquery.datamodel.values.ValueTag;
 import org.apache.vxquery.exceptions.ErrorCode;
 import org.apache.vxquery.exceptions.SystemException;
+import org.apache.vxquery.runtime.functions.step.NodeTestFilter.INodeFilter;
+import org.apache.vxquery.types.SequenceType;
 
 import edu.uci.ics.hyracks.algebricks.common.exceptions.AlgebricksException;
 import edu.uci.ics.hyracks.api.context.IHyracksTaskContext;
 import edu.uci.ics.hyracks.data.std.api.IPointable;
+import edu.uci.ics.hyracks.data.std.primitive.IntegerPointable;
 
 public class DescendantOrSelfPathStepUnnesting extends AbstractForwardAxisPathStep {
     private boolean testSelf;
@@ -43,6 +46,12 @@ public class DescendantOrSelfPathStepUnnesting extends AbstractForwardAxisPathSt
     private final TaggedValuePointable tvpItem = (TaggedValuePointable) TaggedValuePointable.FACTORY.createPointable();
     private final TaggedValuePointable tvpNtp = (TaggedValuePointable) TaggedValuePointable.FACTORY.createPointable();
     private final TaggedValuePointable tvpStep = (TaggedValuePointable) TaggedValuePointable.FACTORY.createPointable();
+    private final IntegerPointable ip = (IntegerPointable) IntegerPointable.FACTORY.createPointable();
+    /**
+     * The node test of a descendant axis step, null for the node() test of // which returns every node.
+     */
+    private INodeFilter filter;
+    private int filterLookupID = -1;
 
     public DescendantOrSelfPathStepUnnesting(IHyracksTaskContext ctx, PointablePool pp, boolean testSelf) {
         super(ctx, pp);
@@ -55,12 +64,27 @@ public class DescendantOrSelfPathStepUnnesting extends AbstractForwardAxisPathSt
         indexSequence.add(0);
         returnSequence.add(0);
 
+        if (args.length > 1) {
+            if (args[1].getTag() != ValueTag.XS_INT_TAG) {
+                throw new IllegalArgumentException("Expected int value tag, got: " + args[1].getTag());
+            }
+            args[1].getValue(ip);
+            if (ip.getInteger() != filterLookupID) {
+                filterLookupID = ip.getInteger();
+                SequenceType sType = dCtx.getStaticContext().lookupSequenceType(ip.getInteger());
+                filter = NodeTestFilter.getNodeTestFilter(sType);
+            }
+        } else {
+            filter = null;
+        }
+
         // Check the argument passed in as sequence or node tree.
         if (args[0].getTag() == ValueTag.SEQUENCE_TAG) {
             args[0].getValue(seqNtp);
             seqArgsLength = seqNtp.getEntryCount();
         } else if (args[0].getTag() == ValueTag.NODE_TREE_TAG) {
             args[0].getValue(ntp);
+            nodeTreeChanged();
             seqArgsLength = -1;
         } else {
             throw new SystemException(ErrorCode.SYSE0001);
@@ -76,6 +100,7 @@ public class DescendantOrSelfPathStepUnnesting extends AbstractForwardAxisPathSt
                     throw new AlgebricksException(description);
                 }
                 tvpNtp.getValue(ntp);
+                nodeTreeChanged();
                 ntp.getRootNode(tvpStep);
                 if (processNodeTree(tvpStep, result)) {
                     return true;
@@ -98,12 +123,14 @@ public class DescendantOrSelfPathStepUnnesting extends AbstractForwardAxisPathSt
         if (testSelf && returnSelf) {
             returnSelf = false;
             tvpItem.set(rootTVP);
-            try {
-                setNodeToResult(tvpItem, result);
-                return true;
-            } catch (IOException e) {
-                String description = ErrorCode.SYSE0001 + ": " + ErrorCode.SYSE0001.getDescription();
-                throw new AlgebricksException(description);
+            if (accept(tvpItem)) {
+                try {
+                    setNodeToResult(tvpItem, result);
+                    return true;
+                } catch (IOException e) {
+                    String description = ErrorCode.SYSE0001 + ": " + ErrorCode.SYSE0001.getDescription();
+                    throw new AlgebricksException(description);
+                }
             }
         }
 
@@ -136,8 +163,10 @@ public class DescendantOrSelfPathStepUnnesting extends AbstractForwardAxisPathSt
                 // Check current node
                 if (indexSequence.get(level) == returnSequence.get(level)) {
                     returnSequence.set(level, returnSequence.get(level) + 1);
-                    setNodeToResult(tvpItem, result);
-                    return true;
+                    if (accept(tvpItem)) {
+                        setNodeToResult(tvpItem, result);
+                        return true;
+                    }
                 }
                 // Check children nodes
                 if (level + 1 <= indexSequence.size()) {
@@ -163,4 +192,17 @@ public class DescendantOrSelfPathStepUnnesting extends AbstractForwardAxisPathSt
             pp.giveBack(seqItem);
         }
     }
-}
\ No newline at end of file
+
+    private void nodeTreeChanged() {
+        if (filter != null) {
+            filter.setNodeTree(ntp);
+        }
+    }
+
+    /**
+     * @return Whether the node passes the node test of the step. Its descendants are searched either way.
+     */
+    private boolean accept(TaggedValuePointable tvp) {
+        return filter == null || filter.accept(ntp, tvp);
+    }
+}
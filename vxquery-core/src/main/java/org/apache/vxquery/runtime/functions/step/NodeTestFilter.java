@@ -28,9 +28,7 @@ import org.apache.vxquery.types.NameTest;
 import org.apache.vxquery.types.NodeType;
 import org.apache.vxquery.types.SequenceType;
 
-import edu.uci.ics.hyracks.data.std.api.IPointable;
 import edu.uci.ics.hyracks.data.std.primitive.UTF8StringPointable;
-import edu.uci.ics.hyracks.data.std.primitive.VoidPointable;
 
 public class NodeTestFilter {
 
@@ -40,24 +38,9 @@ public class NodeTestFilter {
         switch (nodeType.getNodeKind()) {
             case ATTRIBUTE: {
                 AttributeType aType = (AttributeType) nodeType;
-                NameTest nameTest = aType.getNameTest();
-                byte[] uri = nameTest.getUri();
-                byte[] localName = nameTest.getLocalName();
-                final UTF8StringPointable urip = (UTF8StringPointable) (uri == null ? null
-                        : UTF8StringPointable.FACTORY.createPointable());
-                final UTF8StringPointable localp = (UTF8StringPointable) (localName == null ? null
-                        : UTF8StringPointable.FACTORY.createPointable());
-                if (uri != null) {
-                    urip.set(uri, 0, uri.length);
-                }
-                if (localName != null) {
-                    localp.set(localName, 0, localName.length);
-                }
-                final IPointable temp = VoidPointable.FACTORY.createPointable();
                 final AttributeNodePointable anp = (AttributeNodePointable) AttributeNodePointable.FACTORY
                         .createPointable();
-                final CodedQNamePointable cqp = (CodedQNamePointable) CodedQNamePointable.FACTORY.createPointable();
-                filter = new INodeFilter() {
+                filter = new AbstractNameFilter(aType.getNameTest()) {
                     @Override
                     public boolean accept(NodeTreePointable ntp, TaggedValuePointable tvp) {
                         if (tvp.getTag() != ValueTag.ATTRIBUTE_NODE_TAG) {
@@ -65,26 +48,14 @@ public class NodeTestFilter {
                         }
                         tvp.getValue(anp);
                         anp.getName(cqp);
-                        if (urip != null) {
-                            ntp.getString(cqp.getNamespaceCode(), temp);
-                            if (urip.compareTo(temp) != 0) {
-                                return false;
-                            }
-                        }
-                        if (localp != null) {
-                            ntp.getString(cqp.getLocalCode(), temp);
-                            if (localp.compareTo(temp) != 0) {
-                                return false;
-                            }
-                        }
-                        return true;
+                        return matches();
                     }
                 };
                 break;
             }
 
             case COMMENT:
-                filter = new INodeFilter() {
+                filter = new AbstractKindFilter() {
                     @Override
                     public boolean accept(NodeTreePointable ntp, TaggedValuePointable tvp) {
                         return tvp.getTag() == ValueTag.COMMENT_NODE_TAG;
@@ -93,7 +64,7 @@ public class NodeTestFilter {
                 break;
 
             case DOCUMENT:
-                filter = new INodeFilter() {
+                filter = new AbstractKindFilter() {
                     @Override
                     public boolean accept(NodeTreePointable ntp, TaggedValuePointable tvp) {
                         return tvp.getTag() == ValueTag.DOCUMENT_NODE_TAG;
@@ -103,23 +74,8 @@ public class NodeTestFilter {
 
             case ELEMENT: {
                 ElementType eType = (ElementType) nodeType;
-                NameTest nameTest = eType.getNameTest();
-                byte[] uri = nameTest.getUri();
-                byte[] localName = nameTest.getLocalName();
-                final UTF8StringPointable urip = (UTF8StringPointable) (uri == null ? null
-                        : UTF8StringPointable.FACTORY.createPointable());
-                final UTF8StringPointable localp = (UTF8StringPointable) (localName == null ? null
-                        : UTF8StringPointable.FACTORY.createPointable());
-                if (uri != null) {
-                    urip.set(uri, 0, uri.length);
-                }
-                if (localName != null) {
-                    localp.set(localName, 0, localName.length);
-                }
-                final IPointable temp = VoidPointable.FACTORY.createPointable();
                 final ElementNodePointable enp = (ElementNodePointable) ElementNodePointable.FACTORY.createPointable();
-                final CodedQNamePointable cqp = (CodedQNamePointable) CodedQNamePointable.FACTORY.createPointable();
-                filter = new INodeFilter() {
+                filter = new AbstractNameFilter(eType.getNameTest()) {
                     @Override
                     public boolean accept(NodeTreePointable ntp, TaggedValuePointable tvp) {
                         if (tvp.getTag() != ValueTag.ELEMENT_NODE_TAG) {
@@ -127,26 +83,14 @@ public class NodeTestFilter {
                         }
                         tvp.getValue(enp);
                         enp.getName(cqp);
-                        if (urip != null) {
-                            ntp.getString(cqp.getNamespaceCode(), temp);
-                            if (urip.compareTo(temp) != 0) {
-                                return false;
-                            }
-                        }
-                        if (localp != null) {
-                            ntp.getString(cqp.getLocalCode(), temp);
-                            if (localp.compareTo(temp) != 0) {
-                                return false;
-                            }
-                        }
-                        return true;
+                        return matches();
                     }
                 };
                 break;
             }
 
             case PI:
-                filter = new INodeFilter() {
+                filter = new AbstractKindFilter() {
                     @Override
                     public boolean accept(NodeTreePointable ntp, TaggedValuePointable tvp) {
                         return tvp.getTag() == ValueTag.PI_NODE_TAG;
@@ -155,7 +99,7 @@ public class NodeTestFilter {
                 break;
 
             case TEXT:
-                filter = new INodeFilter() {
+                filter = new AbstractKindFilter() {
                     @Override
                     public boolean accept(NodeTreePointable ntp, TaggedValuePointable tvp) {
                         return tvp.getTag() == ValueTag.TEXT_NODE_TAG;
@@ -165,7 +109,7 @@ public class NodeTestFilter {
                 
             case ANY:
             default:
-                filter = new INodeFilter() {
+                filter = new AbstractKindFilter() {
                     @Override
                     public boolean accept(NodeTreePointable ntp, TaggedValuePointable tvp) {
                         return true;
@@ -177,6 +121,84 @@ public class NodeTestFilter {
     }
 
     public interface INodeFilter {
+        /**
+         * Must be called whenever the node tree of the following accept calls changes, since a filter may keep
+         * state derived from the tree.
+         */
+        public void setNodeTree(NodeTreePointable ntp);
+
         public boolean accept(NodeTreePointable ntp, TaggedValuePointable tvp);
     }
+
+    private static abstract class AbstractKindFilter implements INodeFilter {
+        @Override
+        public void setNodeTree(NodeTreePointable ntp) {
+        }
+    }
+
+    /**
+     * Tests names by dictionary code. The names of the test are looked up in the dictionary of each node tree once,
+     * so every node is tested with integer compares. A name missing from the dictionary rejects every node of the
+     * tree.
+     */
+    private static abstract class AbstractNameFilter implements INodeFilter {
+        private final UTF8StringPointable urip;
+        private final UTF8StringPointable localp;
+        protected final CodedQNamePointable cqp;
+        private int uriCode;
+        private int localCode;
+        private boolean missing;
+        private boolean sharedResolved;
+        private int sharedId;
+        private int sharedUriCode;
+        private int sharedLocalCode;
+
+        AbstractNameFilter(NameTest nameTest) {
+            byte[] uri = nameTest.getUri();
+            byte[] localName = nameTest.getLocalName();
+            urip = (UTF8StringPointable) (uri == null ? null : UTF8StringPointable.FACTORY.createPointable());
+            localp = (UTF8StringPointable) (localName == null ? null : UTF8StringPointable.FACTORY
+                    .createPointable());
+            if (uri != null) {
+                urip.set(uri, 0, uri.length);
+            }
+            if (localName != null) {
+                localp.set(localName, 0, localName.length);
+            }
+            cqp = (CodedQNamePointable) CodedQNamePointable.FACTORY.createPointable();
+        }
+
+        @Override
+        public void setNodeTree(NodeTreePointable ntp) {
+            if (ntp.sharedDictionaryExists() && sharedResolved && ntp.getSharedDictionaryId() == sharedId) {
+                uriCode = sharedUriCode;
+                localCode = sharedLocalCode;
+                missing = false;
+                return;
+            }
+            uriCode = urip == null ? -1 : ntp.lookupString(urip);
+            localCode = localp == null ? -1 : ntp.lookupString(localp);
+            missing = (urip != null && uriCode < 0) || (localp != null && localCode < 0);
+            if (ntp.sharedDictionaryExists() && !missing) {
+                // Codes of a shared dictionary never change. Missing names are looked up again, they may be added.
+                sharedResolved = true;
+                sharedId = ntp.getSharedDictionaryId();
+                sharedUriCode = uriCode;
+                sharedLocalCode = localCode;
+            }
+        }
+
+        /**
+         * @return Whether the name in cqp passes the test.
+         */
+        protected boolean matches() {
+            if (missing) {
+                return false;
+            }
+            if (urip != null && cqp.getNamespaceCode() != uriCode) {
+                return false;
+            }
+            return localp == null || cqp.getLocalCode() == localCode;
+        }
+    }
 }
\ No newline at end of file
@@ -70,6 +70,7 @@ public class SelfPathStepScalarEvaluator extends AbstractPathStepScalarEvaluator
                 default:
                     throw new SystemException(ErrorCode.SYSE0001);
             }
+            nodeTreeChanged();
             itemTvp.set(rootTVP);
             if (matches()) {
                 appendNodeToResult();
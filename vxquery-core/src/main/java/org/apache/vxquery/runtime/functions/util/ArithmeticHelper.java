@@ -46,6 +46,10 @@ public class ArithmeticHelper {
     private final ArrayBackedValueStorage abvsArgument2;
     private final DataOutput dOutArgument2;
     private final CastToDoubleOperation castToDouble;
+    private final LongPointable longp1;
+    private final DoublePointable doublep1;
+    private final LongPointable longp2;
+    private final DoublePointable doublep2;
 
     public ArithmeticHelper(AbstractArithmeticOperation aOp, DynamicContext dCtx) {
         this.aOp = aOp;
@@ -59,6 +63,10 @@ public class ArithmeticHelper {
         abvsArgument2 = new ArrayBackedValueStorage();
         dOutArgument2 = abvsArgument2.getDataOutput();
         castToDouble = new CastToDoubleOperation();
+        longp1 = (LongPointable) LongPointable.FACTORY.createPointable();
+        doublep1 = (DoublePointable) DoublePointable.FACTORY.createPointable();
+        longp2 = (LongPointable) LongPointable.FACTORY.createPointable();
+        doublep2 = (DoublePointable) DoublePointable.FACTORY.createPointable();
     }
 
     public void compute(TaggedValuePointable tvp1, TaggedValuePointable tvp2, IPointable result) throws SystemException {
@@ -66,8 +74,6 @@ public class ArithmeticHelper {
         try {
             int tid1 = getBaseTypeForArithmetics(tvp1.getTag());
             int tid2 = getBaseTypeForArithmetics(tvp2.getTag());
-            LongPointable longp1 = (LongPointable) LongPointable.FACTORY.createPointable();
-            DoublePointable doublep1 = (DoublePointable) DoublePointable.FACTORY.createPointable();
             switch (tvp1.getTag()) {
                 case ValueTag.XS_INTEGER_TAG:
                 case ValueTag.XS_NON_POSITIVE_INTEGER_TAG:
@@ -99,8 +105,6 @@ public class ArithmeticHelper {
                             DoublePointable.TYPE_TRAITS.getFixedLength());
                     break;
             }
-            LongPointable longp2 = (LongPointable) LongPointable.FACTORY.createPointable();
-            DoublePointable doublep2 = (DoublePointable) DoublePointable.FACTORY.createPointable();
             switch (tvp2.getTag()) {
                 case ValueTag.XS_INTEGER_TAG:
                 case ValueTag.XS_NON_POSITIVE_INTEGER_TAG:
@@ -455,7 +459,25 @@ public class ArithmeticHelper {
         throw new SystemException(ErrorCode.XPTY0004);
     }
 
+    /**
+     * Base types by tag for arithmetics, filled in as tags are seen.
+     */
+    private static final int[] BASE_TYPES_FOR_ARITHMETICS = new int[FunctionHelper.BASE_TYPE_CACHE_SIZE];
+
     public static int getBaseTypeForArithmetics(int tid) throws SystemException {
+        if (tid < 0 || tid >= FunctionHelper.BASE_TYPE_CACHE_SIZE) {
+            return computeBaseTypeForArithmetics(tid);
+        }
+        // Holds the base type + 1, 0 until it is known.
+        int baseTid = BASE_TYPES_FOR_ARITHMETICS[tid] - 1;
+        if (baseTid < 0) {
+            baseTid = computeBaseTypeForArithmetics(tid);
+            BASE_TYPES_FOR_ARITHMETICS[tid] = baseTid + 1;
+        }
+        return baseTid;
+    }
+
+    private static int computeBaseTypeForArithmetics(int tid) throws SystemException {
         if (tid >= BuiltinTypeConstants.BUILTIN_TYPE_COUNT) {
             throw new SystemException(ErrorCode.XPTY0004);
         }
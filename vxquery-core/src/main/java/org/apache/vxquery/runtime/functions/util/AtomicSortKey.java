@@ -0,0 +1,530 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.vxquery.runtime.functions.util;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+
+import org.apache.vxquery.datamodel.accessors.PointablePool;
+import org.apache.vxquery.datamodel.accessors.PointablePoolFactory;
+import org.apache.vxquery.datamodel.accessors.SequencePointable;
+import org.apache.vxquery.datamodel.accessors.TaggedValuePointable;
+import org.apache.vxquery.datamodel.accessors.TypedPointables;
+import org.apache.vxquery.datamodel.util.DateTime;
+import org.apache.vxquery.datamodel.values.ValueTag;
+
+import edu.uci.ics.hyracks.data.std.primitive.UTF8StringPointable;
+
+/**
+ * The sort key of a value, ordered the way order by orders atomic values. Items are atomized and untyped atomic
+ * values are ordered as strings. Numbers are ordered by value across numeric types with NaN below every other
+ * number, strings by codepoint, and dates and times by their instant, taking a missing timezone as UTC. Values of
+ * types that can not be compared are grouped by type.
+ * <p>
+ * A sequence is ordered item by item, and a sequence that is a prefix of another is below it, so the empty sequence
+ * is below every value. When the items of two keys tie but a key holds a node, the raw bytes decide, so distinct
+ * nodes with the same string value are never taken as the same key.
+ * <p>
+ * {@link #getNormalizedKey()} gives an unsigned int prefix of the key: a smaller prefix always means a smaller key.
+ * {@link #hash(int)} gives equal hashes for keys that compare equal, so keys can be hashed for joins and grouping.
+ */
+public class AtomicSortKey {
+    private static final int GROUP_EMPTY = 0;
+    private static final int GROUP_NAN = 1;
+    private static final int GROUP_NUMERIC = 2;
+    private static final int GROUP_STRING = 3;
+    private static final int GROUP_BOOLEAN = 4;
+    private static final int GROUP_DATETIME = 5;
+    private static final int GROUP_DATE = 6;
+    private static final int GROUP_TIME = 7;
+    private static final int GROUP_G_YEAR_MONTH = 8;
+    private static final int GROUP_G_YEAR = 9;
+    private static final int GROUP_G_MONTH_DAY = 10;
+    private static final int GROUP_G_DAY = 11;
+    private static final int GROUP_G_MONTH = 12;
+    private static final int GROUP_YM_DURATION = 13;
+    private static final int GROUP_DT_DURATION = 14;
+    private static final int GROUP_OTHER = 15;
+
+    private static final int GROUP_SHIFT = 28;
+
+    private final TaggedValuePointable tvp = (TaggedValuePointable) TaggedValuePointable.FACTORY.createPointable();
+    private final SequencePointable seqp = (SequencePointable) SequencePointable.FACTORY.createPointable();
+    private final PointablePool ppool = PointablePoolFactory.INSTANCE.createPointablePool();
+
+    /**
+     * Key of the first item, kept while the value is set.
+     */
+    private final Item first = new Item();
+
+    /**
+     * Key of a later item, only set while comparing.
+     */
+    private final Item next = new Item();
+
+    private byte[] bytes;
+
+    private int start;
+
+    private int length;
+
+    /**
+     * Number of items, 1 for a value that is not a sequence.
+     */
+    private int itemCount;
+
+    public void set(byte[] bytes, int start, int length) {
+        this.bytes = bytes;
+        this.start = start;
+        this.length = length;
+        tvp.set(bytes, start, length);
+        if (tvp.getTag() == ValueTag.SEQUENCE_TAG) {
+            tvp.getValue(seqp);
+            itemCount = seqp.getEntryCount();
+            if (itemCount == 0) {
+                return;
+            }
+            seqp.getEntry(0, tvp);
+        } else {
+            itemCount = 1;
+        }
+        first.set(tvp);
+    }
+
+    public int compareTo(AtomicSortKey other) {
+        int count = Math.min(itemCount, other.itemCount);
+        boolean node = false;
+        for (int i = 0; i < count; ++i) {
+            Item item1 = getItem(i);
+            Item item2 = other.getItem(i);
+            int c = item1.compareTo(item2);
+            if (c != 0) {
+                return c;
+            }
+            node |= item1.node || item2.node;
+        }
+        if (itemCount != other.itemCount) {
+            return itemCount < other.itemCount ? -1 : 1;
+        }
+        return node ? compareBytes(bytes, start, length, other.bytes, other.start, other.length) : 0;
+    }
+
+    private Item getItem(int index) {
+        if (index == 0) {
+            return first;
+        }
+        seqp.getEntry(index, tvp);
+        next.set(tvp);
+        return next;
+    }
+
+    /**
+     * @return A prefix of the key, to be compared as an unsigned int. Keys with equal prefixes need
+     *         {@link #compareTo(AtomicSortKey)}.
+     */
+    public int getNormalizedKey() {
+        return itemCount == 0 ? GROUP_EMPTY << GROUP_SHIFT : first.getNormalizedKey();
+    }
+
+    /**
+     * @param seed
+     *            Selects a member of the hash family, as used by hybrid hash joins.
+     * @return A hash that is equal for keys that compare equal.
+     */
+    public int hash(int seed) {
+        if (itemCount == 0) {
+            return hashLong(0, seed * 31 + GROUP_EMPTY);
+        }
+        int h = first.hash(seed);
+        for (int i = 1; i < itemCount; ++i) {
+            h = h * 31 + getItem(i).hash(seed);
+        }
+        return h;
+    }
+
+    /**
+     * The key of a single item.
+     */
+    private class Item {
+        private final TaggedValuePointable tvp = (TaggedValuePointable) TaggedValuePointable.FACTORY
+                .createPointable();
+        private final TaggedValuePointable tvpAtomic = (TaggedValuePointable) TaggedValuePointable.FACTORY
+                .createPointable();
+        private final TypedPointables tp = new TypedPointables();
+        private final AtomizeHelper ah = new AtomizeHelper();
+
+        private int group;
+
+        /**
+         * Numbers: the value, used unless both numbers are integers.
+         */
+        private double doubleValue;
+
+        /**
+         * Integers, booleans, durations and instants of dates and times.
+         */
+        private long longValue;
+
+        private boolean isInteger;
+
+        private boolean isDecimal;
+
+        private boolean node;
+
+        private byte[] bytes;
+
+        private int start;
+
+        private int length;
+
+        void set(TaggedValuePointable item) {
+            tvp.set(item);
+            node = tvp.getTag() == ValueTag.NODE_TREE_TAG;
+            if (node) {
+                tvpAtomic.set(tvp);
+                try {
+                    ah.atomize(tvp, ppool, tvpAtomic);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                if (tvpAtomic.getTag() == ValueTag.NODE_TREE_TAG) {
+                    // An element without children.
+                    setString(tvp.getByteArray(), tvp.getStartOffset(), 0);
+                    return;
+                }
+                tvp.set(tvpAtomic);
+            }
+            setAtomic();
+        }
+
+        private void setAtomic() {
+            isInteger = false;
+            isDecimal = false;
+            switch (tvp.getTag()) {
+                case ValueTag.XS_INTEGER_TAG:
+                case ValueTag.XS_LONG_TAG:
+                case ValueTag.XS_NEGATIVE_INTEGER_TAG:
+                case ValueTag.XS_NON_POSITIVE_INTEGER_TAG:
+                case ValueTag.XS_NON_NEGATIVE_INTEGER_TAG:
+                case ValueTag.XS_POSITIVE_INTEGER_TAG:
+                case ValueTag.XS_UNSIGNED_INT_TAG:
+                case ValueTag.XS_UNSIGNED_LONG_TAG:
+                    tvp.getValue(tp.longp);
+                    setInteger(tp.longp.getLong());
+                    break;
+
+                case ValueTag.XS_INT_TAG:
+                case ValueTag.XS_UNSIGNED_SHORT_TAG:
+                    tvp.getValue(tp.intp);
+                    setInteger(tp.intp.getInteger());
+                    break;
+
+                case ValueTag.XS_SHORT_TAG:
+                case ValueTag.XS_UNSIGNED_BYTE_TAG:
+                    tvp.getValue(tp.shortp);
+                    setInteger(tp.shortp.getShort());
+                    break;
+
+                case ValueTag.XS_BYTE_TAG:
+                    tvp.getValue(tp.bytep);
+                    setInteger(tp.bytep.getByte());
+                    break;
+
+                case ValueTag.XS_DECIMAL_TAG:
+                    tvp.getValue(tp.decp);
+                    setNumber(tp.decp.doubleValue());
+                    isDecimal = true;
+                    break;
+
+                case ValueTag.XS_FLOAT_TAG:
+                    tvp.getValue(tp.floatp);
+                    setNumber(tp.floatp.getFloat());
+                    break;
+
+                case ValueTag.XS_DOUBLE_TAG:
+                    tvp.getValue(tp.doublep);
+                    setNumber(tp.doublep.getDouble());
+                    break;
+
+                case ValueTag.XS_UNTYPED_ATOMIC_TAG:
+                case ValueTag.XS_STRING_TAG:
+                case ValueTag.XS_NORMALIZED_STRING_TAG:
+                case ValueTag.XS_TOKEN_TAG:
+                case ValueTag.XS_LANGUAGE_TAG:
+                case ValueTag.XS_NMTOKEN_TAG:
+                case ValueTag.XS_NAME_TAG:
+                case ValueTag.XS_NCNAME_TAG:
+                case ValueTag.XS_ID_TAG:
+                case ValueTag.XS_IDREF_TAG:
+                case ValueTag.XS_ENTITY_TAG:
+                case ValueTag.XS_ANY_URI_TAG:
+                    tvp.getValue(tp.utf8sp);
+                    setString(tp.utf8sp.getByteArray(), tp.utf8sp.getStartOffset() + 2,
+                            UTF8StringPointable.getUTFLength(tp.utf8sp.getByteArray(), tp.utf8sp.getStartOffset()));
+                    break;
+
+                case ValueTag.XS_BOOLEAN_TAG:
+                    tvp.getValue(tp.boolp);
+                    group = GROUP_BOOLEAN;
+                    longValue = tp.boolp.getBoolean() ? 1 : 0;
+                    break;
+
+                case ValueTag.XS_DATETIME_TAG:
+                    tvp.getValue(tp.datetimep);
+                    group = GROUP_DATETIME;
+                    longValue = getInstant(tp.datetimep.getYear(), tp.datetimep.getMonth(), tp.datetimep.getDay(),
+                            tp.datetimep.getHour(), tp.datetimep.getMinute(), tp.datetimep.getMilliSecond(),
+                            tp.datetimep.getTimezoneHour(), tp.datetimep.getTimezoneMinute());
+                    break;
+
+                case ValueTag.XS_TIME_TAG:
+                    tvp.getValue(tp.timep);
+                    group = GROUP_TIME;
+                    longValue = getInstant(DateTime.TIME_DEFAULT_YEAR, DateTime.TIME_DEFAULT_MONTH,
+                            DateTime.TIME_DEFAULT_DAY, tp.timep.getHour(), tp.timep.getMinute(),
+                            tp.timep.getMilliSecond(), tp.timep.getTimezoneHour(), tp.timep.getTimezoneMinute());
+                    break;
+
+                case ValueTag.XS_DATE_TAG:
+                    setDate(GROUP_DATE);
+                    break;
+
+                case ValueTag.XS_G_YEAR_MONTH_TAG:
+                    setDate(GROUP_G_YEAR_MONTH);
+                    break;
+
+                case ValueTag.XS_G_YEAR_TAG:
+                    setDate(GROUP_G_YEAR);
+                    break;
+
+                case ValueTag.XS_G_MONTH_DAY_TAG:
+                    setDate(GROUP_G_MONTH_DAY);
+                    break;
+
+                case ValueTag.XS_G_DAY_TAG:
+                    setDate(GROUP_G_DAY);
+                    break;
+
+                case ValueTag.XS_G_MONTH_TAG:
+                    setDate(GROUP_G_MONTH);
+                    break;
+
+                case ValueTag.XS_YEAR_MONTH_DURATION_TAG:
+                    tvp.getValue(tp.intp);
+                    group = GROUP_YM_DURATION;
+                    longValue = tp.intp.getInteger();
+                    break;
+
+                case ValueTag.XS_DAY_TIME_DURATION_TAG:
+                    tvp.getValue(tp.longp);
+                    group = GROUP_DT_DURATION;
+                    longValue = tp.longp.getLong();
+                    break;
+
+                default:
+                    group = GROUP_OTHER;
+                    bytes = tvp.getByteArray();
+                    start = tvp.getStartOffset();
+                    length = tvp.getLength();
+            }
+        }
+
+        private void setInteger(long value) {
+            group = GROUP_NUMERIC;
+            longValue = value;
+            doubleValue = value;
+            isInteger = true;
+        }
+
+        private void setNumber(double value) {
+            if (Double.isNaN(value)) {
+                group = GROUP_NAN;
+                return;
+            }
+            group = GROUP_NUMERIC;
+            // Covers -0.
+            doubleValue = value == 0 ? 0.0 : value;
+        }
+
+        private void setString(byte[] bytes, int start, int length) {
+            group = GROUP_STRING;
+            this.bytes = bytes;
+            this.start = start;
+            this.length = length;
+        }
+
+        private void setDate(int dateGroup) {
+            tvp.getValue(tp.datep);
+            group = dateGroup;
+            longValue = getInstant(tp.datep.getYear(), tp.datep.getMonth(), tp.datep.getDay(), 0, 0, 0,
+                    tp.datep.getTimezoneHour(), tp.datep.getTimezoneMinute());
+        }
+
+        int compareTo(Item other) {
+            if (group != other.group) {
+                return group < other.group ? -1 : 1;
+            }
+            switch (group) {
+                case GROUP_NAN:
+                    return 0;
+
+                case GROUP_NUMERIC:
+                    if (isInteger && other.isInteger) {
+                        return compare(longValue, other.longValue);
+                    }
+                    if (doubleValue != other.doubleValue) {
+                        return doubleValue < other.doubleValue ? -1 : 1;
+                    }
+                    if ((isDecimal || isInteger) && (other.isDecimal || other.isInteger)) {
+                        // Decimals that only differ past the precision of a double.
+                        return getBigDecimal().compareTo(other.getBigDecimal());
+                    }
+                    return 0;
+
+                case GROUP_STRING:
+                case GROUP_OTHER:
+                    return compareBytes(bytes, start, length, other.bytes, other.start, other.length);
+
+                default:
+                    return compare(longValue, other.longValue);
+            }
+        }
+
+        private BigDecimal getBigDecimal() {
+            if (isInteger) {
+                return BigDecimal.valueOf(longValue);
+            }
+            tvp.getValue(tp.decp);
+            return BigDecimal.valueOf(tp.decp.getDecimalValue(), tp.decp.getDecimalPlace());
+        }
+
+        int getNormalizedKey() {
+            int prefix;
+            switch (group) {
+                case GROUP_NAN:
+                case GROUP_OTHER:
+                    prefix = 0;
+                    break;
+
+                case GROUP_NUMERIC:
+                    long bits = Double.doubleToLongBits(doubleValue);
+                    // Order the bits of negative numbers the same way as their values.
+                    prefix = getLongPrefix(bits ^ ((bits >> 63) & Long.MAX_VALUE));
+                    break;
+
+                case GROUP_STRING:
+                    prefix = 0;
+                    for (int i = 0; i < 3; ++i) {
+                        prefix = (prefix << 8) | (i < length ? bytes[start + i] & 0xff : 0);
+                    }
+                    prefix <<= 4;
+                    break;
+
+                case GROUP_BOOLEAN:
+                    prefix = (int) longValue;
+                    break;
+
+                default:
+                    prefix = getLongPrefix(longValue);
+            }
+            return (group << GROUP_SHIFT) | prefix;
+        }
+
+        int hash(int seed) {
+            int groupSeed = seed * 31 + group;
+            switch (group) {
+                case GROUP_NAN:
+                    return hashLong(0, groupSeed);
+
+                case GROUP_NUMERIC:
+                    // Integers that compare equal to a double have the same double value.
+                    return hashLong(Double.doubleToLongBits(doubleValue), groupSeed);
+
+                case GROUP_STRING:
+                case GROUP_OTHER:
+                    int h = groupSeed;
+                    for (int i = 0; i < length; ++i) {
+                        h = h * 31 + bytes[start + i];
+                    }
+                    return hashLong(h, groupSeed);
+
+                default:
+                    return hashLong(longValue, groupSeed);
+            }
+        }
+    }
+
+    /**
+     * @return Milliseconds since 1970-01-01T00:00:00Z.
+     */
+    private static long getInstant(long year, long month, long day, long hour, long minute, long milliSecond,
+            long timezoneHour, long timezoneMinute) {
+        long instant = getEpochDay(year, month, day) * DateTime.CHRONON_OF_DAY + hour * DateTime.CHRONON_OF_HOUR
+                + minute * DateTime.CHRONON_OF_MINUTE + milliSecond;
+        if (timezoneHour != DateTime.TIMEZONE_HOUR_NULL && timezoneMinute != DateTime.TIMEZONE_MINUTE_NULL) {
+            instant -= timezoneHour * DateTime.CHRONON_OF_HOUR + timezoneMinute * DateTime.CHRONON_OF_MINUTE;
+        }
+        return instant;
+    }
+
+    /**
+     * @return Days since 1970-01-01 in the proleptic Gregorian calendar.
+     */
+    private static long getEpochDay(long year, long month, long day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * The 64 bit finalizer of MurmurHash3.
+     */
+    private static int hashLong(long value, int seed) {
+        long k = value ^ (seed * 0x9e3779b97f4a7c15L);
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return (int) k;
+    }
+
+    /**
+     * @return The top bits of the value below the group bits, in unsigned order.
+     */
+    private static int getLongPrefix(long value) {
+        return (int) ((value ^ Long.MIN_VALUE) >>> (64 - GROUP_SHIFT));
+    }
+
+    private static int compare(long v1, long v2) {
+        return v1 < v2 ? -1 : (v1 > v2 ? 1 : 0);
+    }
+
+    private static int compareBytes(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+        for (int i = 0; i < l1 && i < l2; ++i) {
+            int c1 = b1[s1 + i] & 0xff;
+            int c2 = b2[s2 + i] & 0xff;
+            if (c1 != c2) {
+                return c1 - c2;
+            }
+        }
+        return l1 - l2;
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.vxquery.runtime.functions.util;
+
+import java.io.IOException;
+
+import org.apache.vxquery.context.DynamicContext;
+import org.apache.vxquery.datamodel.accessors.TaggedValuePointable;
+import org.apache.vxquery.datamodel.accessors.TypedPointables;
+import org.apache.vxquery.exceptions.ErrorCode;
+import org.apache.vxquery.exceptions.SystemException;
+import org.apache.vxquery.runtime.functions.comparison.AbstractValueComparisonOperation;
+import org.apache.vxquery.runtime.functions.comparison.ValueEqComparisonOperation;
+import org.apache.vxquery.util.GrowableIntArray;
+
+import edu.uci.ics.hyracks.data.std.util.ArrayBackedValueStorage;
+
+/**
+ * A set of atomic values under eq. Values are found through {@link AtomicValueHasher} and confirmed with the same
+ * comparison eq uses, so the set gives the results of comparing every pair. Added values are copied into the set.
+ */
+public class AtomicValueHashSet {
+    private static final int INITIAL_TABLE_SIZE = 64;
+
+    private static final int NAN_CLASS = Integer.MIN_VALUE;
+
+    private final boolean nanEqualsNaN;
+
+    private final AtomicValueHasher hasher = new AtomicValueHasher();
+
+    private final AbstractValueComparisonOperation aOp = new ValueEqComparisonOperation();
+
+    private final TypedPointables tp1 = new TypedPointables();
+
+    private final TypedPointables tp2 = new TypedPointables();
+
+    private final ArrayBackedValueStorage values = new ArrayBackedValueStorage();
+
+    private final GrowableIntArray valueEnds = new GrowableIntArray();
+
+    private final GrowableIntArray valueHashes = new GrowableIntArray();
+
+    private final GrowableIntArray valueClasses = new GrowableIntArray();
+
+    /**
+     * Table position of each value, -1 for a value that is not in the table.
+     */
+    private final GrowableIntArray valuePositions = new GrowableIntArray();
+
+    private final TaggedValuePointable valueTvp = (TaggedValuePointable) TaggedValuePointable.FACTORY
+            .createPointable();
+
+    /**
+     * Value index + 1 of the value hashed to each position, 0 for a free position.
+     */
+    private int[] table = new int[INITIAL_TABLE_SIZE];
+
+    private DynamicContext dCtx;
+
+    private boolean nanAdded;
+
+    /**
+     * @param nanEqualsNaN
+     *            Whether NaN is taken to equal NaN, as in fn:distinct-values. Otherwise NaN is never in the set.
+     */
+    public AtomicValueHashSet(boolean nanEqualsNaN) {
+        this.nanEqualsNaN = nanEqualsNaN;
+    }
+
+    public void reset(DynamicContext dCtx) {
+        this.dCtx = dCtx;
+        // Only the positions taken by values are cleared, so a set that once grew stays cheap to reset.
+        int[] positions = valuePositions.getArray();
+        for (int index = 0; index < valuePositions.getSize(); ++index) {
+            if (positions[index] >= 0) {
+                table[positions[index]] = 0;
+            }
+        }
+        values.reset();
+        valueEnds.clear();
+        valueHashes.clear();
+        valueClasses.clear();
+        valuePositions.clear();
+        nanAdded = false;
+    }
+
+    public int size() {
+        return valueEnds.getSize();
+    }
+
+    /**
+     * @return Whether the value was added, that is no value of the set equals it.
+     */
+    public boolean add(TaggedValuePointable tvp) throws SystemException {
+        if (hasher.isNaN(tvp)) {
+            if (nanEqualsNaN && nanAdded) {
+                return false;
+            }
+            nanAdded = true;
+            if (nanEqualsNaN) {
+                // Kept in the order of values, but not in the table.
+                append(tvp, NAN_CLASS, 0, -1);
+            }
+            return true;
+        }
+        int hashClass = AtomicValueHasher.getHashClass(tvp.getTag());
+        int hash = hasher.hash(tvp, dCtx);
+        int pos = findPosition(tvp, hashClass, hash);
+        if (table[pos] != 0) {
+            return false;
+        }
+        table[pos] = append(tvp, hashClass, hash, pos) + 1;
+        if (valueEnds.getSize() * 2 > table.length) {
+            rehash();
+        }
+        return true;
+    }
+
+    public boolean contains(TaggedValuePointable tvp) throws SystemException {
+        if (hasher.isNaN(tvp)) {
+            return nanEqualsNaN && nanAdded;
+        }
+        int hashClass = AtomicValueHasher.getHashClass(tvp.getTag());
+        return table[findPosition(tvp, hashClass, hasher.hash(tvp, dCtx))] != 0;
+    }
+
+    /**
+     * @return The position of the value in the table or the free position it would take.
+     */
+    private int findPosition(TaggedValuePointable tvp, int hashClass, int hash) throws SystemException {
+        int mask = table.length - 1;
+        int pos = hash & mask;
+        int entry;
+        while ((entry = table[pos]) != 0) {
+            int index = entry - 1;
+            if (valueHashes.getArray()[index] == hash && valueClasses.getArray()[index] == hashClass) {
+                getValue(index, valueTvp);
+                if (FunctionHelper.compareTaggedValues(aOp, valueTvp, tvp, dCtx, tp1, tp2)) {
+                    break;
+                }
+            }
+            pos = (pos + 1) & mask;
+        }
+        return pos;
+    }
+
+    private int append(TaggedValuePointable tvp, int hashClass, int hash, int pos) throws SystemException {
+        try {
+            values.getDataOutput().write(tvp.getByteArray(), tvp.getStartOffset(), tvp.getLength());
+        } catch (IOException e) {
+            throw new SystemException(ErrorCode.SYSE0001, e);
+        }
+        valueEnds.append(values.getLength());
+        valueHashes.append(hash);
+        valueClasses.append(hashClass);
+        valuePositions.append(pos);
+        return valueEnds.getSize() - 1;
+    }
+
+    /**
+     * Sets the pointable to the value with the index, values are kept in the order they were added.
+     */
+    public void getValue(int index, TaggedValuePointable tvp) {
+        int start = index == 0 ? 0 : valueEnds.getArray()[index - 1];
+        tvp.set(values.getByteArray(), values.getStartOffset() + start, valueEnds.getArray()[index] - start);
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        int[] hashes = valueHashes.getArray();
+        for (int index = 0; index < valueEnds.getSize(); ++index) {
+            if (valueClasses.getArray()[index] == NAN_CLASS) {
+                continue;
+            }
+            int pos = hashes[index] & mask;
+            while (table[pos] != 0) {
+                pos = (pos + 1) & mask;
+            }
+            table[pos] = index + 1;
+            valuePositions.getArray()[index] = pos;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.vxquery.runtime.functions.util;
+
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.vxquery.context.DynamicContext;
+import org.apache.vxquery.datamodel.api.ITimezone;
+import org.apache.vxquery.datamodel.accessors.TaggedValuePointable;
+import org.apache.vxquery.datamodel.accessors.TypedPointables;
+import org.apache.vxquery.datamodel.accessors.atomic.XSDateTimePointable;
+import org.apache.vxquery.datamodel.util.DateTime;
+import org.apache.vxquery.datamodel.values.ValueTag;
+import org.apache.vxquery.exceptions.ErrorCode;
+import org.apache.vxquery.exceptions.SystemException;
+
+import edu.uci.ics.hyracks.data.std.primitive.UTF8StringPointable;
+import edu.uci.ics.hyracks.data.std.util.ArrayBackedValueStorage;
+
+/**
+ * Hashes atomic values consistently with the value comparison eq: values that eq finds equal get the same hash.
+ * <p>
+ * Values are first put in a hash class. Numbers, string like values and durations each form one class, every other
+ * comparison base type is a class of its own. Values of different classes never compare equal, so they need not be
+ * compared at all.
+ * <p>
+ * Numbers hash their value rounded to float, since eq compares some pairs as floats. Magnitudes of 2^53 and above
+ * share one hash, as long and double conversions round differently there. Dates and times are hashed after the same
+ * timezone normalization eq uses.
+ */
+public class AtomicValueHasher {
+    public static final int NUMERIC_CLASS = -1;
+
+    public static final int STRING_CLASS = -2;
+
+    public static final int DURATION_CLASS = -3;
+
+    private static final float LARGE_NUMBER = 9007199254740992f;
+
+    private static final int LARGE_NUMBER_HASH = 0x5f3759df;
+
+    private final TypedPointables tp = new TypedPointables();
+
+    private final ArrayBackedValueStorage abvsInner = new ArrayBackedValueStorage();
+
+    private final DataOutput dOutInner = abvsInner.getDataOutput();
+
+    private final XSDateTimePointable ctxDatetimep = (XSDateTimePointable) XSDateTimePointable.FACTORY
+            .createPointable();
+
+    /**
+     * @return The hash class of a value with the tag.
+     */
+    public static int getHashClass(int tag) throws SystemException {
+        int tid = FunctionHelper.getBaseTypeForComparisons(tag);
+        switch (tid) {
+            case ValueTag.XS_DECIMAL_TAG:
+            case ValueTag.XS_INTEGER_TAG:
+            case ValueTag.XS_FLOAT_TAG:
+            case ValueTag.XS_DOUBLE_TAG:
+                return NUMERIC_CLASS;
+
+            case ValueTag.XS_STRING_TAG:
+            case ValueTag.XS_NORMALIZED_STRING_TAG:
+            case ValueTag.XS_TOKEN_TAG:
+            case ValueTag.XS_LANGUAGE_TAG:
+            case ValueTag.XS_NMTOKEN_TAG:
+            case ValueTag.XS_NAME_TAG:
+            case ValueTag.XS_NCNAME_TAG:
+            case ValueTag.XS_ID_TAG:
+            case ValueTag.XS_IDREF_TAG:
+            case ValueTag.XS_ENTITY_TAG:
+            case ValueTag.XS_UNTYPED_ATOMIC_TAG:
+            case ValueTag.XS_ANY_URI_TAG:
+                return STRING_CLASS;
+
+            case ValueTag.XS_DURATION_TAG:
+            case ValueTag.XS_DAY_TIME_DURATION_TAG:
+            case ValueTag.XS_YEAR_MONTH_DURATION_TAG:
+                return DURATION_CLASS;
+        }
+        return tid;
+    }
+
+    /**
+     * @return Whether the value is a float or double NaN.
+     */
+    public boolean isNaN(TaggedValuePointable tvp) throws SystemException {
+        switch (FunctionHelper.getBaseTypeForComparisons(tvp.getTag())) {
+            case ValueTag.XS_FLOAT_TAG:
+                tvp.getValue(tp.floatp);
+                return Float.isNaN(tp.floatp.getFloat());
+
+            case ValueTag.XS_DOUBLE_TAG:
+                tvp.getValue(tp.doublep);
+                return Double.isNaN(tp.doublep.getDouble());
+        }
+        return false;
+    }
+
+    /**
+     * @param dCtx
+     *            Supplies the implicit timezone for dates and times without one.
+     */
+    public int hash(TaggedValuePointable tvp, DynamicContext dCtx) throws SystemException {
+        int tid = FunctionHelper.getBaseTypeForComparisons(tvp.getTag());
+        int hash;
+        int start;
+        try {
+            switch (tid) {
+                case ValueTag.XS_DECIMAL_TAG:
+                    tvp.getValue(tp.decp);
+                    hash = hashNumber(tp.decp.doubleValue());
+                    break;
+
+                case ValueTag.XS_INTEGER_TAG:
+                    tvp.getValue(tp.longp);
+                    hash = hashNumber(tp.longp.doubleValue());
+                    break;
+
+                case ValueTag.XS_FLOAT_TAG:
+                    tvp.getValue(tp.floatp);
+                    hash = hashNumber(tp.floatp.doubleValue());
+                    break;
+
+                case ValueTag.XS_DOUBLE_TAG:
+                    tvp.getValue(tp.doublep);
+                    hash = hashNumber(tp.doublep.getDouble());
+                    break;
+
+                case ValueTag.XS_BOOLEAN_TAG:
+                    tvp.getValue(tp.boolp);
+                    hash = tp.boolp.getBoolean() ? 1 : 0;
+                    break;
+
+                case ValueTag.XS_DATE_TAG:
+                case ValueTag.XS_G_DAY_TAG:
+                case ValueTag.XS_G_MONTH_DAY_TAG:
+                case ValueTag.XS_G_MONTH_TAG:
+                case ValueTag.XS_G_YEAR_MONTH_TAG:
+                case ValueTag.XS_G_YEAR_TAG:
+                    tvp.getValue(tp.datep);
+                    start = normalizeTimezone(tp.datep, dCtx);
+                    hash = hashLong(XSDateTimePointable.getYearMonth(abvsInner.getByteArray(), start) * 31
+                            + XSDateTimePointable.getDay(abvsInner.getByteArray(), start));
+                    break;
+
+                case ValueTag.XS_DATETIME_TAG:
+                    tvp.getValue(tp.datetimep);
+                    start = normalizeTimezone(tp.datetimep, dCtx);
+                    hash = hashLong(XSDateTimePointable.getYearMonth(abvsInner.getByteArray(), start) * 31
+                            + XSDateTimePointable.getDayTime(abvsInner.getByteArray(), start));
+                    break;
+
+                case ValueTag.XS_TIME_TAG:
+                    tvp.getValue(tp.timep);
+                    start = normalizeTimezone(tp.timep, dCtx);
+                    hash = hashLong(XSDateTimePointable.getYearMonth(abvsInner.getByteArray(), start) * 31
+                            + XSDateTimePointable.getDayTime(abvsInner.getByteArray(), start));
+                    break;
+
+                case ValueTag.XS_DURATION_TAG:
+                    tvp.getValue(tp.durationp);
+                    hash = hashLong(tp.durationp.getYearMonth() * 31L + tp.durationp.getDayTime());
+                    break;
+
+                case ValueTag.XS_DAY_TIME_DURATION_TAG:
+                    tvp.getValue(tp.longp);
+                    hash = hashLong(tp.longp.getLong());
+                    break;
+
+                case ValueTag.XS_YEAR_MONTH_DURATION_TAG:
+                    tvp.getValue(tp.intp);
+                    hash = hashLong(tp.intp.getInteger() * 31L);
+                    break;
+
+                case ValueTag.XS_QNAME_TAG:
+                    tvp.getValue(tp.qnamep);
+                    // Only the URI and the local name take part in eq.
+                    hash = hashBytes(tp.qnamep.getByteArray(), tp.qnamep.getStartOffset(), tp.qnamep.getUriLength());
+                    hash = hash * 31
+                            + hashBytes(tp.qnamep.getByteArray(), tp.qnamep.getStartOffset()
+                                    + tp.qnamep.getUriLength() + tp.qnamep.getPrefixLength(),
+                                    tp.qnamep.getLocalNameLength());
+                    break;
+
+                case ValueTag.XS_HEX_BINARY_TAG:
+                case ValueTag.XS_BASE64_BINARY_TAG:
+                    tvp.getValue(tp.binaryp);
+                    hash = hashBytes(tp.binaryp.getByteArray(), tp.binaryp.getStartOffset(),
+                            tp.binaryp.getLength());
+                    break;
+
+                default:
+                    if (getHashClass(tid) != STRING_CLASS && tid != ValueTag.XS_NOTATION_TAG) {
+                        throw new SystemException(ErrorCode.XPTY0004);
+                    }
+                    tvp.getValue(tp.utf8sp);
+                    hash = hashBytes(tp.utf8sp.getByteArray(), tp.utf8sp.getStartOffset() + 2,
+                            UTF8StringPointable.getUTFLength(tp.utf8sp.getByteArray(), tp.utf8sp.getStartOffset()));
+            }
+        } catch (IOException e) {
+            throw new SystemException(ErrorCode.SYSE0001, e);
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Writes the value moved to UTC the way eq does.
+     * 
+     * @return The start of the normalized date time in abvsInner.
+     */
+    private int normalizeTimezone(ITimezone timezonep, DynamicContext dCtx) throws IOException {
+        abvsInner.reset();
+        dCtx.getCurrentDateTime(ctxDatetimep);
+        DateTime.getUtcTimezoneDateTime(timezonep, ctxDatetimep, dOutInner);
+        // Skip the tag.
+        return abvsInner.getStartOffset() + 1;
+    }
+
+    private static int hashNumber(double d) {
+        float f = (float) d;
+        if (f == 0) {
+            // Covers -0.
+            return 0;
+        }
+        if (Float.isNaN(f)) {
+            return Float.floatToIntBits(Float.NaN);
+        }
+        if (Math.abs(f) >= LARGE_NUMBER) {
+            return LARGE_NUMBER_HASH;
+        }
+        return Float.floatToIntBits(f);
+    }
+
+    private static int hashLong(long l) {
+        return (int) (l ^ (l >>> 32));
+    }
+
+    private static int hashBytes(byte[] bytes, int start, int length) {
+        int h = 0;
+        for (int i = start; i < start + length; ++i) {
+            h = 31 * h + bytes[i];
+        }
+        return h;
+    }
+}
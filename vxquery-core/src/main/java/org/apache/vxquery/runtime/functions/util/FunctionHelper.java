@@ -33,8 +33,6 @@ import org.apache.vxquery.datamodel.util.DateTime;
 import org.apache.vxquery.datamodel.values.ValueTag;
 import org.apache.vxquery.exceptions.ErrorCode;
 import org.apache.vxquery.exceptions.SystemException;
-import org.apache.vxquery.runtime.functions.arithmetic.AbstractArithmeticOperation;
-import org.apache.vxquery.runtime.functions.cast.CastToDoubleOperation;
 import org.apache.vxquery.runtime.functions.comparison.AbstractValueComparisonOperation;
 import org.apache.vxquery.runtime.functions.strings.ICharacterIterator;
 import org.apache.vxquery.runtime.functions.strings.UTF8StringCharacterIterator;
@@ -43,418 +41,13 @@ import org.apache.vxquery.types.BuiltinTypeRegistry;
 import org.apache.vxquery.xmlparser.XMLParser;
 
 import edu.uci.ics.hyracks.api.exceptions.HyracksDataException;
-import edu.uci.ics.hyracks.data.std.api.IPointable;
-import edu.uci.ics.hyracks.data.std.primitive.DoublePointable;
-import edu.uci.ics.hyracks.data.std.primitive.LongPointable;
 import edu.uci.ics.hyracks.data.std.primitive.UTF8StringPointable;
 import edu.uci.ics.hyracks.data.std.util.ArrayBackedValueStorage;
 import edu.uci.ics.hyracks.dataflow.common.comm.util.ByteBufferInputStream;
 
 public class FunctionHelper {
 
-    public static void arithmeticOperation(AbstractArithmeticOperation aOp, DynamicContext dCtx,
-            TaggedValuePointable tvp1, TaggedValuePointable tvp2, IPointable result, TypedPointables tp1,
-            TypedPointables tp2) throws SystemException {
-        final ArrayBackedValueStorage abvs = new ArrayBackedValueStorage();
-        final DataOutput dOut = abvs.getDataOutput();
-        final ArrayBackedValueStorage abvsArgument1 = new ArrayBackedValueStorage();
-        final DataOutput dOutArgument1 = abvsArgument1.getDataOutput();
-        final ArrayBackedValueStorage abvsArgument2 = new ArrayBackedValueStorage();
-        final DataOutput dOutArgument2 = abvsArgument2.getDataOutput();
-        final CastToDoubleOperation castToDouble = new CastToDoubleOperation();
-
-        abvs.reset();
-        try {
-            int tid1 = getBaseTypeForArithmetics(tvp1.getTag());
-            int tid2 = getBaseTypeForArithmetics(tvp2.getTag());
-            LongPointable longp1 = (LongPointable) LongPointable.FACTORY.createPointable();
-            DoublePointable doublep1 = (DoublePointable) DoublePointable.FACTORY.createPointable();
-            switch (tvp1.getTag()) {
-                case ValueTag.XS_INTEGER_TAG:
-                case ValueTag.XS_NON_POSITIVE_INTEGER_TAG:
-                case ValueTag.XS_NEGATIVE_INTEGER_TAG:
-                case ValueTag.XS_LONG_TAG:
-                case ValueTag.XS_NON_NEGATIVE_INTEGER_TAG:
-                case ValueTag.XS_UNSIGNED_LONG_TAG:
-                case ValueTag.XS_POSITIVE_INTEGER_TAG:
-                case ValueTag.XS_INT_TAG:
-                case ValueTag.XS_UNSIGNED_INT_TAG:
-                case ValueTag.XS_SHORT_TAG:
-                case ValueTag.XS_UNSIGNED_SHORT_TAG:
-                case ValueTag.XS_BYTE_TAG:
-                case ValueTag.XS_UNSIGNED_BYTE_TAG:
-                    abvsArgument1.reset();
-                    getIntegerPointable(tvp1, dOutArgument1, tp1);
-                    longp1.set(abvsArgument1.getByteArray(), abvsArgument1.getStartOffset() + 1,
-                            LongPointable.TYPE_TRAITS.getFixedLength());
-                    break;
-                case ValueTag.XS_DOUBLE_TAG:
-                    tvp1.getValue(doublep1);
-                    break;
-                case ValueTag.XS_UNTYPED_ATOMIC_TAG:
-                    tid1 = ValueTag.XS_DOUBLE_TAG;
-                    tvp1.getValue(tp1.utf8sp);
-                    abvsArgument1.reset();
-                    castToDouble.convertUntypedAtomic(tp1.utf8sp, dOutArgument1);
-                    doublep1.set(abvsArgument1.getByteArray(), abvsArgument1.getStartOffset() + 1,
-                            DoublePointable.TYPE_TRAITS.getFixedLength());
-                    break;
-            }
-            LongPointable longp2 = (LongPointable) LongPointable.FACTORY.createPointable();
-            DoublePointable doublep2 = (DoublePointable) DoublePointable.FACTORY.createPointable();
-            switch (tvp2.getTag()) {
-                case ValueTag.XS_INTEGER_TAG:
-                case ValueTag.XS_NON_POSITIVE_INTEGER_TAG:
-                case ValueTag.XS_NEGATIVE_INTEGER_TAG:
-                case ValueTag.XS_LONG_TAG:
-                case ValueTag.XS_NON_NEGATIVE_INTEGER_TAG:
-                case ValueTag.XS_UNSIGNED_LONG_TAG:
-                case ValueTag.XS_POSITIVE_INTEGER_TAG:
-                case ValueTag.XS_INT_TAG:
-                case ValueTag.XS_UNSIGNED_INT_TAG:
-                case ValueTag.XS_SHORT_TAG:
-                case ValueTag.XS_UNSIGNED_SHORT_TAG:
-                case ValueTag.XS_BYTE_TAG:
-                case ValueTag.XS_UNSIGNED_BYTE_TAG:
-                    abvsArgument2.reset();
-                    getIntegerPointable(tvp2, dOutArgument2, tp2);
-                    longp2.set(abvsArgument2.getByteArray(), abvsArgument2.getStartOffset() + 1,
-                            LongPointable.TYPE_TRAITS.getFixedLength());
-                    break;
-                case ValueTag.XS_DOUBLE_TAG:
-                    tvp2.getValue(doublep2);
-                    break;
-                case ValueTag.XS_UNTYPED_ATOMIC_TAG:
-                    tid2 = ValueTag.XS_DOUBLE_TAG;
-                    tvp2.getValue(tp2.utf8sp);
-                    abvsArgument2.reset();
-                    castToDouble.convertUntypedAtomic(tp2.utf8sp, dOutArgument2);
-                    doublep2.set(abvsArgument2.getByteArray(), abvsArgument2.getStartOffset() + 1,
-                            DoublePointable.TYPE_TRAITS.getFixedLength());
-                    break;
-            }
-            switch (tid1) {
-                case ValueTag.XS_DECIMAL_TAG:
-                    tvp1.getValue(tp1.decp);
-                    switch (tid2) {
-                        case ValueTag.XS_DECIMAL_TAG:
-                            tvp2.getValue(tp2.decp);
-                            aOp.operateDecimalDecimal(tp1.decp, tp2.decp, dOut);
-                            result.set(abvs);
-                            return;
-
-                        case ValueTag.XS_INTEGER_TAG:
-                            aOp.operateDecimalInteger(tp1.decp, longp2, dOut);
-                            result.set(abvs);
-                            return;
-
-                        case ValueTag.XS_FLOAT_TAG:
-                            tvp2.getValue(tp2.floatp);
-                            aOp.operateDecimalFloat(tp1.decp, tp2.floatp, dOut);
-                            result.set(abvs);
-                            return;
-
-                        case ValueTag.XS_DOUBLE_TAG:
-                            aOp.operateDecimalDouble(tp1.decp, doublep2, dOut);
-                            result.set(abvs);
-                            return;
-
-                        case ValueTag.XS_DAY_TIME_DURATION_TAG:
-                            tvp2.getValue(tp2.longp);
-                            aOp.operateDecimalDTDuration(tp1.decp, tp2.longp, dOut);
-                            result.set(abvs);
-                            return;
-
-                        case ValueTag.XS_YEAR_MONTH_DURATION_TAG:
-                            tvp2.getValue(tp2.intp);
-                            aOp.operateDecimalYMDuration(tp1.decp, tp2.intp, dOut);
-                            result.set(abvs);
-                            return;
-                    }
-                    break;
-
-                case ValueTag.XS_INTEGER_TAG:
-                    switch (tid2) {
-                        case ValueTag.XS_DECIMAL_TAG:
-                            tvp2.getValue(tp2.decp);
-                            aOp.operateIntegerDecimal(longp1, tp2.decp, dOut);
-                            result.set(abvs);
-                            return;
-
-                        case ValueTag.XS_INTEGER_TAG:
-                            aOp.operateIntegerInteger(longp1, longp2, dOut);
-                            result.set(abvs);
-                            return;
-
-                        case ValueTag.XS_FLOAT_TAG:
-                            tvp2.getValue(tp2.floatp);
-                            aOp.operateIntegerFloat(longp1, tp2.floatp, dOut);
-                            result.set(abvs);
-                            return;
-
-                        case ValueTag.XS_DOUBLE_TAG:
-                            aOp.operateIntegerDouble(longp1, doublep2, dOut);
-                            result.set(abvs);
-                            return;
-
-                        case ValueTag.XS_DAY_TIME_DURATION_TAG:
-                            tvp2.getValue(tp2.longp);
-                            aOp.operateIntegerDTDuration(longp1, tp2.longp, dOut);
-                            result.set(abvs);
-                            return;
-
-                        case ValueTag.XS_YEAR_MONTH_DURATION_TAG:
-                            tvp2.getValue(tp2.intp);
-                            aOp.operateIntegerYMDuration(longp1, tp2.intp, dOut);
-                            result.set(abvs);
-                            return;
-                    }
-                    break;
-
-                case ValueTag.XS_FLOAT_TAG:
-                    tvp1.getValue(tp1.floatp);
-                    switch (tid2) {
-                        case ValueTag.XS_DECIMAL_TAG:
-                            tvp2.getValue(tp2.decp);
-                            aOp.operateFloatDecimal(tp1.floatp, tp2.decp, dOut);
-                            result.set(abvs);
-                            return;
-
-                        case ValueTag.XS_INTEGER_TAG:
-                            aOp.operateFloatInteger(tp1.floatp, longp2, dOut);
-                            result.set(abvs);
-                            return;
-
-                        case ValueTag.XS_FLOAT_TAG:
-                            tvp2.getValue(tp2.floatp);
-                            aOp.operateFloatFloat(tp1.floatp, tp2.floatp, dOut);
-                            result.set(abvs);
-                            return;
-
-                        case ValueTag.XS_DOUBLE_TAG:
-                            aOp.operateFloatDouble(tp1.floatp, doublep2, dOut);
-                            result.set(abvs);
-                            return;
-
-                        case ValueTag.XS_DAY_TIME_DURATION_TAG:
-                            tvp2.getValue(tp2.longp);
-                            aOp.operateFloatDTDuration(tp1.floatp, tp2.longp, dOut);
-                            result.set(abvs);
-                            return;
-
-                        case ValueTag.XS_YEAR_MONTH_DURATION_TAG:
-                            tvp2.getValue(tp2.intp);
-                            aOp.operateFloatYMDuration(tp1.floatp, tp2.intp, dOut);
-                            result.set(abvs);
-                            return;
-                    }
-                    break;
-
-                case ValueTag.XS_DOUBLE_TAG:
-                    switch (tid2) {
-                        case ValueTag.XS_DECIMAL_TAG:
-                            tvp2.getValue(tp2.decp);
-                            aOp.operateDoubleDecimal(doublep1, tp2.decp, dOut);
-                            result.set(abvs);
-                            return;
-
-                        case ValueTag.XS_INTEGER_TAG:
-                            aOp.operateDoubleInteger(doublep1, longp2, dOut);
-                            result.set(abvs);
-                            return;
-
-                        case ValueTag.XS_FLOAT_TAG:
-                            tvp2.getValue(tp2.floatp);
-                            aOp.operateDoubleFloat(doublep1, tp2.floatp, dOut);
-                            result.set(abvs);
-                            return;
-
-                        case ValueTag.XS_DOUBLE_TAG:
-                            aOp.operateDoubleDouble(doublep1, doublep2, dOut);
-                            result.set(abvs);
-                            return;
-
-                        case ValueTag.XS_DAY_TIME_DURATION_TAG:
-                            tvp2.getValue(tp2.longp);
-                            aOp.operateDoubleDTDuration(doublep1, tp2.longp, dOut);
-                            result.set(abvs);
-                            return;
-
-                        case ValueTag.XS_YEAR_MONTH_DURATION_TAG:
-                            tvp2.getValue(tp2.intp);
-                            aOp.operateDoubleYMDuration(doublep1, tp2.intp, dOut);
-                            result.set(abvs);
-                            return;
-                    }
-                    break;
-
-                case ValueTag.XS_DATE_TAG:
-                    tvp1.getValue(tp1.datep);
-                    switch (tid2) {
-                        case ValueTag.XS_DATE_TAG:
-                            tvp2.getValue(tp2.datep);
-                            aOp.operateDateDate(tp1.datep, tp2.datep, dCtx, dOut);
-                            result.set(abvs);
-                            return;
-
-                        case ValueTag.XS_DAY_TIME_DURATION_TAG:
-                            tvp2.getValue(tp2.longp);
-                            aOp.operateDateDTDuration(tp1.datep, tp2.longp, dOut);
-                            result.set(abvs);
-                            return;
-
-                        case ValueTag.XS_YEAR_MONTH_DURATION_TAG:
-                            tvp2.getValue(tp2.intp);
-                            aOp.operateDateYMDuration(tp1.datep, tp2.intp, dOut);
-                            result.set(abvs);
-                            return;
-                    }
-                    break;
-
-                case ValueTag.XS_DATETIME_TAG:
-                    tvp1.getValue(tp1.datetimep);
-                    switch (tid2) {
-                        case ValueTag.XS_DATETIME_TAG:
-                            tvp2.getValue(tp2.datetimep);
-                            aOp.operateDatetimeDatetime(tp1.datetimep, tp2.datetimep, dCtx, dOut);
-                            result.set(abvs);
-                            return;
-
-                        case ValueTag.XS_DAY_TIME_DURATION_TAG:
-                            tvp2.getValue(tp2.longp);
-                            aOp.operateDatetimeDTDuration(tp1.datetimep, tp2.longp, dOut);
-                            result.set(abvs);
-                            return;
-
-                        case ValueTag.XS_YEAR_MONTH_DURATION_TAG:
-                            tvp2.getValue(tp2.intp);
-                            aOp.operateDatetimeYMDuration(tp1.datetimep, tp2.intp, dOut);
-                            result.set(abvs);
-                            return;
-                    }
-                    break;
-
-                case ValueTag.XS_TIME_TAG:
-                    tvp1.getValue(tp1.timep);
-                    switch (tid2) {
-                        case ValueTag.XS_TIME_TAG:
-                            tvp2.getValue(tp2.timep);
-                            aOp.operateTimeTime(tp1.timep, tp2.timep, dCtx, dOut);
-                            result.set(abvs);
-                            return;
-
-                        case ValueTag.XS_DAY_TIME_DURATION_TAG:
-                            tvp2.getValue(tp2.longp);
-                            aOp.operateTimeDTDuration(tp1.timep, tp2.longp, dOut);
-                            result.set(abvs);
-                            return;
-
-                    }
-                    break;
-
-                case ValueTag.XS_DAY_TIME_DURATION_TAG:
-                    tvp1.getValue(tp1.longp);
-                    switch (tid2) {
-                        case ValueTag.XS_DECIMAL_TAG:
-                            tvp2.getValue(tp2.decp);
-                            aOp.operateDTDurationDecimal(tp1.longp, tp2.decp, dOut);
-                            result.set(abvs);
-                            return;
-
-                        case ValueTag.XS_INTEGER_TAG:
-                            aOp.operateDTDurationInteger(tp1.longp, longp2, dOut);
-                            result.set(abvs);
-                            return;
-
-                        case ValueTag.XS_FLOAT_TAG:
-                            tvp2.getValue(tp2.floatp);
-                            aOp.operateDTDurationFloat(tp1.longp, tp2.floatp, dOut);
-                            result.set(abvs);
-                            return;
-
-                        case ValueTag.XS_DOUBLE_TAG:
-                            aOp.operateDTDurationDouble(tp1.longp, doublep2, dOut);
-                            result.set(abvs);
-                            return;
-
-                        case ValueTag.XS_DATE_TAG:
-                            tvp2.getValue(tp2.datep);
-                            aOp.operateDTDurationDate(tp1.longp, tp2.datep, dOut);
-                            result.set(abvs);
-                            return;
-
-                        case ValueTag.XS_TIME_TAG:
-                            tvp2.getValue(tp2.timep);
-                            aOp.operateDTDurationTime(tp1.longp, tp2.timep, dOut);
-                            result.set(abvs);
-                            return;
-
-                        case ValueTag.XS_DATETIME_TAG:
-                            tvp2.getValue(tp2.datetimep);
-                            aOp.operateDTDurationDatetime(tp1.longp, tp2.datetimep, dOut);
-                            result.set(abvs);
-                            return;
-
-                        case ValueTag.XS_DAY_TIME_DURATION_TAG:
-                            tvp2.getValue(tp2.longp);
-                            aOp.operateDTDurationDTDuration(tp1.longp, tp2.longp, dOut);
-                            result.set(abvs);
-                            return;
-                    }
-                    break;
-
-                case ValueTag.XS_YEAR_MONTH_DURATION_TAG:
-                    tvp1.getValue(tp1.intp);
-                    switch (tid2) {
-                        case ValueTag.XS_DECIMAL_TAG:
-                            tvp2.getValue(tp2.decp);
-                            aOp.operateYMDurationDecimal(tp1.intp, tp2.decp, dOut);
-                            result.set(abvs);
-                            return;
-
-                        case ValueTag.XS_INTEGER_TAG:
-                            aOp.operateYMDurationInteger(tp1.intp, longp2, dOut);
-                            result.set(abvs);
-                            return;
-
-                        case ValueTag.XS_FLOAT_TAG:
-                            tvp2.getValue(tp2.floatp);
-                            aOp.operateYMDurationFloat(tp1.intp, tp2.floatp, dOut);
-                            result.set(abvs);
-                            return;
-
-                        case ValueTag.XS_DOUBLE_TAG:
-                            aOp.operateYMDurationDouble(tp1.intp, doublep2, dOut);
-                            result.set(abvs);
-                            return;
-
-                        case ValueTag.XS_DATE_TAG:
-                            tvp2.getValue(tp2.datep);
-                            aOp.operateYMDurationDate(tp1.intp, tp2.datep, dOut);
-                            result.set(abvs);
-                            return;
-
-                        case ValueTag.XS_DATETIME_TAG:
-                            tvp2.getValue(tp2.datetimep);
-                            aOp.operateYMDurationDatetime(tp1.intp, tp2.datetimep, dOut);
-                            result.set(abvs);
-                            return;
-
-                        case ValueTag.XS_YEAR_MONTH_DURATION_TAG:
-                            tvp2.getValue(tp2.intp);
-                            aOp.operateYMDurationYMDuration(tp1.intp, tp2.intp, dOut);
-                            result.set(abvs);
-                            return;
-                    }
-                    break;
-            }
-        } catch (SystemException se) {
-            throw se;
-        } catch (Exception e) {
-            throw new SystemException(ErrorCode.SYSE0001, e);
-        }
-        throw new SystemException(ErrorCode.XPTY0004);
-    }
+    static final int BASE_TYPE_CACHE_SIZE = 256;
 
     public static boolean compareTaggedValues(AbstractValueComparisonOperation aOp, TaggedValuePointable tvp1,
             TaggedValuePointable tvp2, DynamicContext dCtx, TypedPointables tp1, TypedPointables tp2)
@@ -830,7 +423,25 @@ public class FunctionHelper {
         }
     }
 
+    /**
+     * Base types by tag for comparisons, filled in as tags are seen. Tags that raise an error are not kept.
+     */
+    private static final int[] BASE_TYPES_FOR_COMPARISONS = new int[BASE_TYPE_CACHE_SIZE];
+
     public static int getBaseTypeForComparisons(int tid) throws SystemException {
+        if (tid < 0 || tid >= BASE_TYPE_CACHE_SIZE) {
+            return computeBaseTypeForComparisons(tid);
+        }
+        // Holds the base type + 1, 0 until it is known.
+        int baseTid = BASE_TYPES_FOR_COMPARISONS[tid] - 1;
+        if (baseTid < 0) {
+            baseTid = computeBaseTypeForComparisons(tid);
+            BASE_TYPES_FOR_COMPARISONS[tid] = baseTid + 1;
+        }
+        return baseTid;
+    }
+
+    private static int computeBaseTypeForComparisons(int tid) throws SystemException {
         while (true) {
             switch (tid) {
                 case ValueTag.XS_ANY_URI_TAG:
@@ -881,7 +492,25 @@ public class FunctionHelper {
         }
     }
 
+    /**
+     * Base types by tag for general comparisons, filled in as tags are seen.
+     */
+    private static final int[] BASE_TYPES_FOR_GENERAL_COMPARISONS = new int[BASE_TYPE_CACHE_SIZE];
+
     public static int getBaseTypeForGeneralComparisons(int tid) throws SystemException {
+        if (tid < 0 || tid >= BASE_TYPE_CACHE_SIZE) {
+            return computeBaseTypeForGeneralComparisons(tid);
+        }
+        // Holds the base type + 1, 0 until it is known.
+        int baseTid = BASE_TYPES_FOR_GENERAL_COMPARISONS[tid] - 1;
+        if (baseTid < 0) {
+            baseTid = computeBaseTypeForGeneralComparisons(tid);
+            BASE_TYPES_FOR_GENERAL_COMPARISONS[tid] = baseTid + 1;
+        }
+        return baseTid;
+    }
+
+    private static int computeBaseTypeForGeneralComparisons(int tid) throws SystemException {
         while (true) {
             switch (tid) {
                 case ValueTag.NODE_TREE_TAG:
@@ -1030,7 +659,13 @@ public class FunctionHelper {
      * Get the local node id from a tagged value pointable when available.
      */
     public static int getLocalNodeId(TaggedValuePointable tvp1, TypedPointables tp) {
-        final TaggedValuePointable tvp = (TaggedValuePointable) TaggedValuePointable.FACTORY.createPointable();
+        return getLocalNodeId(tvp1, tp, (TaggedValuePointable) TaggedValuePointable.FACTORY.createPointable());
+    }
+
+    /**
+     * Same as {@link #getLocalNodeId(TaggedValuePointable, TypedPointables)}, using tvp as scratch space.
+     */
+    public static int getLocalNodeId(TaggedValuePointable tvp1, TypedPointables tp, TaggedValuePointable tvp) {
         int localNodeId = -1;
         if (tvp1.getTag() == ValueTag.NODE_TREE_TAG) {
             tvp1.getValue(tp.ntp);
@@ -1189,54 +824,6 @@ public class FunctionHelper {
         parser.parseDocument(file, abvs);
     }
 
-    public static boolean transformThenCompareMinMaxTaggedValues(AbstractValueComparisonOperation aOp,
-            TaggedValuePointable tvp1, TaggedValuePointable tvp2, DynamicContext dCtx, TypedPointables tp1,
-            TypedPointables tp2) throws SystemException {
-        TaggedValuePointable tvp1new = (TaggedValuePointable) TaggedValuePointable.FACTORY.createPointable();
-        TaggedValuePointable tvp2new = (TaggedValuePointable) TaggedValuePointable.FACTORY.createPointable();
-
-        ArrayBackedValueStorage abvsArgument1 = new ArrayBackedValueStorage();
-        DataOutput dOutArgument1 = abvsArgument1.getDataOutput();
-        ArrayBackedValueStorage abvsArgument2 = new ArrayBackedValueStorage();
-        DataOutput dOutArgument2 = abvsArgument2.getDataOutput();
-        CastToDoubleOperation castToDouble = new CastToDoubleOperation();
-
-        try {
-            abvsArgument1.reset();
-            if (tvp1.getTag() == ValueTag.XS_UNTYPED_ATOMIC_TAG) {
-                tvp1.getValue(tp1.utf8sp);
-                castToDouble.convertUntypedAtomic(tp1.utf8sp, dOutArgument1);
-                tvp1new.set(abvsArgument1.getByteArray(), abvsArgument1.getStartOffset(),
-                        DoublePointable.TYPE_TRAITS.getFixedLength() + 1);
-            } else if (isDerivedFromInteger(tvp1.getTag())) {
-                getIntegerPointable(tvp1, dOutArgument1, tp1);
-                tvp1new.set(abvsArgument1.getByteArray(), abvsArgument1.getStartOffset(),
-                        LongPointable.TYPE_TRAITS.getFixedLength() + 1);
-            } else {
-                tvp1new = tvp1;
-            }
-            abvsArgument2.reset();
-            if (tvp2.getTag() == ValueTag.XS_UNTYPED_ATOMIC_TAG) {
-                tvp2.getValue(tp2.utf8sp);
-                castToDouble.convertUntypedAtomic(tp2.utf8sp, dOutArgument2);
-                tvp2new.set(abvsArgument2.getByteArray(), abvsArgument2.getStartOffset(),
-                        DoublePointable.TYPE_TRAITS.getFixedLength() + 1);
-            } else if (isDerivedFromInteger(tvp2.getTag())) {
-                getIntegerPointable(tvp2, dOutArgument2, tp1);
-                tvp2new.set(abvsArgument2.getByteArray(), abvsArgument2.getStartOffset(),
-                        LongPointable.TYPE_TRAITS.getFixedLength() + 1);
-            } else {
-                tvp2new = tvp2;
-            }
-
-            return compareTaggedValues(aOp, tvp1new, tvp2new, dCtx, tp1, tp2);
-        } catch (SystemException se) {
-            throw se;
-        } catch (Exception e) {
-            throw new SystemException(ErrorCode.SYSE0001, e);
-        }
-    }
-
     public static void writeChar(char c, DataOutput dOut) {
         try {
             if ((c >= 0x0001) && (c <= 0x007F)) {
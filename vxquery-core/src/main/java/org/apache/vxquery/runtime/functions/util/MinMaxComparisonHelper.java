@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.vxquery.runtime.functions.util;
+
+import java.io.DataOutput;
+
+import org.apache.vxquery.context.DynamicContext;
+import org.apache.vxquery.datamodel.accessors.TaggedValuePointable;
+import org.apache.vxquery.datamodel.accessors.TypedPointables;
+import org.apache.vxquery.datamodel.values.ValueTag;
+import org.apache.vxquery.exceptions.ErrorCode;
+import org.apache.vxquery.exceptions.SystemException;
+import org.apache.vxquery.runtime.functions.cast.CastToDoubleOperation;
+import org.apache.vxquery.runtime.functions.comparison.AbstractValueComparisonOperation;
+
+import edu.uci.ics.hyracks.data.std.primitive.DoublePointable;
+import edu.uci.ics.hyracks.data.std.primitive.LongPointable;
+import edu.uci.ics.hyracks.data.std.util.ArrayBackedValueStorage;
+
+/**
+ * Compares values for fn:min and fn:max. Untyped atomic values are compared as doubles and integer subtypes as
+ * xs:integer, using buffers that are kept for the life of the evaluator.
+ */
+public class MinMaxComparisonHelper {
+    private final AbstractValueComparisonOperation aOp;
+    private final DynamicContext dCtx;
+    private final TypedPointables tp1 = new TypedPointables();
+    private final TypedPointables tp2 = new TypedPointables();
+    private final TaggedValuePointable tvp1new = (TaggedValuePointable) TaggedValuePointable.FACTORY
+            .createPointable();
+    private final TaggedValuePointable tvp2new = (TaggedValuePointable) TaggedValuePointable.FACTORY
+            .createPointable();
+    private final ArrayBackedValueStorage abvsArgument1 = new ArrayBackedValueStorage();
+    private final DataOutput dOutArgument1 = abvsArgument1.getDataOutput();
+    private final ArrayBackedValueStorage abvsArgument2 = new ArrayBackedValueStorage();
+    private final DataOutput dOutArgument2 = abvsArgument2.getDataOutput();
+    private final CastToDoubleOperation castToDouble = new CastToDoubleOperation();
+
+    public MinMaxComparisonHelper(AbstractValueComparisonOperation aOp, DynamicContext dCtx) {
+        this.aOp = aOp;
+        this.dCtx = dCtx;
+    }
+
+    /**
+     * @return The result of the comparison operation on the two values.
+     */
+    public boolean compare(TaggedValuePointable tvp1, TaggedValuePointable tvp2) throws SystemException {
+        if (!isTransformed(tvp1.getTag()) && !isTransformed(tvp2.getTag())) {
+            // Common case of xs:integer, xs:double and other values that are compared as they are.
+            return FunctionHelper.compareTaggedValues(aOp, tvp1, tvp2, dCtx, tp1, tp2);
+        }
+        try {
+            TaggedValuePointable tvpCompare1 = transform(tvp1, abvsArgument1, dOutArgument1, tvp1new, tp1);
+            TaggedValuePointable tvpCompare2 = transform(tvp2, abvsArgument2, dOutArgument2, tvp2new, tp2);
+            return FunctionHelper.compareTaggedValues(aOp, tvpCompare1, tvpCompare2, dCtx, tp1, tp2);
+        } catch (SystemException se) {
+            throw se;
+        } catch (Exception e) {
+            throw new SystemException(ErrorCode.SYSE0001, e);
+        }
+    }
+
+    private TaggedValuePointable transform(TaggedValuePointable tvp, ArrayBackedValueStorage abvs, DataOutput dOut,
+            TaggedValuePointable tvpNew, TypedPointables tp) throws Exception {
+        abvs.reset();
+        if (tvp.getTag() == ValueTag.XS_UNTYPED_ATOMIC_TAG) {
+            tvp.getValue(tp.utf8sp);
+            castToDouble.convertUntypedAtomic(tp.utf8sp, dOut);
+            tvpNew.set(abvs.getByteArray(), abvs.getStartOffset(), DoublePointable.TYPE_TRAITS.getFixedLength() + 1);
+            return tvpNew;
+        } else if (FunctionHelper.isDerivedFromInteger(tvp.getTag())) {
+            FunctionHelper.getIntegerPointable(tvp, dOut, tp);
+            tvpNew.set(abvs.getByteArray(), abvs.getStartOffset(), LongPointable.TYPE_TRAITS.getFixedLength() + 1);
+            return tvpNew;
+        }
+        return tvp;
+    }
+
+    private static boolean isTransformed(int tid) {
+        return tid == ValueTag.XS_UNTYPED_ATOMIC_TAG || (tid != ValueTag.XS_INTEGER_TAG
+                && FunctionHelper.isDerivedFromInteger(tid));
+    }
+}
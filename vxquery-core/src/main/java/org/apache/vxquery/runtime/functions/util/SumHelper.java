@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.vxquery.runtime.functions.util;
+
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.vxquery.context.DynamicContext;
+import org.apache.vxquery.datamodel.accessors.TaggedValuePointable;
+import org.apache.vxquery.datamodel.accessors.TypedPointables;
+import org.apache.vxquery.datamodel.values.ValueTag;
+import org.apache.vxquery.exceptions.ErrorCode;
+import org.apache.vxquery.exceptions.SystemException;
+import org.apache.vxquery.runtime.functions.arithmetic.AddOperation;
+
+import edu.uci.ics.hyracks.data.std.api.IPointable;
+import edu.uci.ics.hyracks.data.std.util.ArrayBackedValueStorage;
+
+/**
+ * Adds up values for fn:sum and fn:avg. While every value is an integer or a double the sum is kept in a long or a
+ * double and only written out by {@link #get(IPointable)}. Any other value moves the sum to {@link ArithmeticHelper},
+ * which handles decimals, floats, untyped atomic values and durations.
+ */
+public class SumHelper {
+    private static final int STATE_INTEGER = 0;
+    private static final int STATE_DOUBLE = 1;
+    private static final int STATE_GENERIC = 2;
+
+    private final ArithmeticHelper add;
+    private final TypedPointables tp = new TypedPointables();
+    private final ArrayBackedValueStorage abvs = new ArrayBackedValueStorage();
+    private final DataOutput dOut = abvs.getDataOutput();
+    private final TaggedValuePointable tvpSum = (TaggedValuePointable) TaggedValuePointable.FACTORY.createPointable();
+
+    private int state;
+    private long longSum;
+    private double doubleSum;
+
+    public SumHelper(DynamicContext dCtx) {
+        add = new ArithmeticHelper(new AddOperation(), dCtx);
+    }
+
+    /**
+     * Starts the sum at integer 0.
+     */
+    public void reset() {
+        state = STATE_INTEGER;
+        longSum = 0;
+    }
+
+    /**
+     * Starts the sum at the value.
+     */
+    public void reset(TaggedValuePointable tvp) throws SystemException {
+        if (isInteger(tvp.getTag())) {
+            state = STATE_INTEGER;
+            longSum = getLong(tvp);
+        } else if (tvp.getTag() == ValueTag.XS_DOUBLE_TAG) {
+            state = STATE_DOUBLE;
+            tvp.getValue(tp.doublep);
+            doubleSum = tp.doublep.getDouble();
+        } else {
+            state = STATE_GENERIC;
+            try {
+                abvs.reset();
+                dOut.write(tvp.getByteArray(), tvp.getStartOffset(), tvp.getLength());
+            } catch (IOException e) {
+                throw new SystemException(ErrorCode.SYSE0001, e);
+            }
+            tvpSum.set(abvs);
+        }
+    }
+
+    public void add(TaggedValuePointable tvp) throws SystemException {
+        switch (state) {
+            case STATE_INTEGER:
+                if (isInteger(tvp.getTag())) {
+                    longSum += getLong(tvp);
+                    return;
+                }
+                if (tvp.getTag() == ValueTag.XS_DOUBLE_TAG) {
+                    tvp.getValue(tp.doublep);
+                    doubleSum = tp.doublep.getDouble() + longSum;
+                    state = STATE_DOUBLE;
+                    return;
+                }
+                break;
+
+            case STATE_DOUBLE:
+                if (tvp.getTag() == ValueTag.XS_DOUBLE_TAG) {
+                    tvp.getValue(tp.doublep);
+                    doubleSum += tp.doublep.getDouble();
+                    return;
+                }
+                if (isInteger(tvp.getTag())) {
+                    doubleSum += getLong(tvp);
+                    return;
+                }
+                break;
+        }
+        if (state != STATE_GENERIC) {
+            writeSum();
+            tvpSum.set(abvs);
+            state = STATE_GENERIC;
+        }
+        add.compute(tvp, tvpSum, tvpSum);
+    }
+
+    /**
+     * Sets the result to the sum, which stays valid until the next call.
+     */
+    public void get(IPointable result) throws SystemException {
+        if (state == STATE_GENERIC) {
+            result.set(tvpSum);
+        } else {
+            writeSum();
+            result.set(abvs);
+        }
+    }
+
+    private void writeSum() throws SystemException {
+        try {
+            abvs.reset();
+            if (state == STATE_INTEGER) {
+                dOut.write(ValueTag.XS_INTEGER_TAG);
+                dOut.writeLong(longSum);
+            } else {
+                dOut.write(ValueTag.XS_DOUBLE_TAG);
+                dOut.writeDouble(doubleSum);
+            }
+        } catch (IOException e) {
+            throw new SystemException(ErrorCode.SYSE0001, e);
+        }
+    }
+
+    private static boolean isInteger(int tag) {
+        switch (tag) {
+            case ValueTag.XS_INTEGER_TAG:
+            case ValueTag.XS_LONG_TAG:
+            case ValueTag.XS_NEGATIVE_INTEGER_TAG:
+            case ValueTag.XS_NON_POSITIVE_INTEGER_TAG:
+            case ValueTag.XS_NON_NEGATIVE_INTEGER_TAG:
+            case ValueTag.XS_POSITIVE_INTEGER_TAG:
+            case ValueTag.XS_UNSIGNED_INT_TAG:
+            case ValueTag.XS_UNSIGNED_LONG_TAG:
+            case ValueTag.XS_INT_TAG:
+            case ValueTag.XS_UNSIGNED_SHORT_TAG:
+            case ValueTag.XS_SHORT_TAG:
+            case ValueTag.XS_UNSIGNED_BYTE_TAG:
+            case ValueTag.XS_BYTE_TAG:
+                return true;
+        }
+        return false;
+    }
+
+    private long getLong(TaggedValuePointable tvp) {
+        switch (tvp.getTag()) {
+            case ValueTag.XS_INT_TAG:
+            case ValueTag.XS_UNSIGNED_SHORT_TAG:
+                tvp.getValue(tp.intp);
+                return tp.intp.getInteger();
+
+            case ValueTag.XS_SHORT_TAG:
+            case ValueTag.XS_UNSIGNED_BYTE_TAG:
+                tvp.getValue(tp.shortp);
+                return tp.shortp.getShort();
+
+            case ValueTag.XS_BYTE_TAG:
+                tvp.getValue(tp.bytep);
+                return tp.bytep.getByte();
+
+            default:
+                tvp.getValue(tp.longp);
+                return tp.longp.getLong();
+        }
+    }
+}
@@ -16,10 +16,11 @@
  */
 package org.apache.vxquery.runtime.provider;
 
+import org.apache.vxquery.runtime.factory.hashfunction.VXQueryValueBinaryHashFunctionFamily;
+
 import edu.uci.ics.hyracks.algebricks.common.exceptions.AlgebricksException;
 import edu.uci.ics.hyracks.algebricks.data.IBinaryHashFunctionFamilyProvider;
 import edu.uci.ics.hyracks.api.dataflow.value.IBinaryHashFunctionFamily;
-import edu.uci.ics.hyracks.data.std.accessors.MurmurHash3BinaryHashFunctionFamily;
 
 public class VXQueryBinaryHashFunctionFamilyProvider implements IBinaryHashFunctionFamilyProvider {
 
@@ -30,7 +31,7 @@ public class VXQueryBinaryHashFunctionFamilyProvider implements IBinaryHashFunct
 
     @Override
     public IBinaryHashFunctionFamily getBinaryHashFunctionFamily(Object type) throws AlgebricksException {
-        return MurmurHash3BinaryHashFunctionFamily.INSTANCE;
+        return VXQueryValueBinaryHashFunctionFamily.INSTANCE;
     }
 
 }
@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.vxquery.xmlparser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads a source stream on a separate thread, a few buffers ahead of the consumer. Used to overlap decompression
+ * with XML parsing.
+ */
+public class AsyncInputStream extends InputStream {
+    private static final int BUFFER_COUNT = 4;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int STATE_NEW = 0;
+    private static final int STATE_RUNNING = 1;
+    private static final int STATE_CLOSED = 2;
+
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "vxquery-async-input");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private static class Chunk {
+        final byte[] data;
+        int length;
+
+        Chunk(int size) {
+            data = new byte[size];
+        }
+    }
+
+    private static final Chunk END = new Chunk(0);
+
+    private final InputStream source;
+    private final BlockingQueue<Chunk> free;
+    private final BlockingQueue<Chunk> filled;
+    private final AtomicInteger state;
+    private final Future<?> producer;
+    private volatile IOException error;
+    private Chunk current;
+    private int position;
+    private boolean eof;
+
+    public AsyncInputStream(InputStream source) {
+        this.source = source;
+        free = new ArrayBlockingQueue<Chunk>(BUFFER_COUNT);
+        filled = new ArrayBlockingQueue<Chunk>(BUFFER_COUNT + 1);
+        for (int i = 0; i < BUFFER_COUNT; ++i) {
+            free.add(new Chunk(BUFFER_SIZE));
+        }
+        state = new AtomicInteger(STATE_NEW);
+        producer = EXECUTOR.submit(new Runnable() {
+            @Override
+            public void run() {
+                fill();
+            }
+        });
+    }
+
+    private void fill() {
+        if (!state.compareAndSet(STATE_NEW, STATE_RUNNING)) {
+            return;
+        }
+        try {
+            while (true) {
+                Chunk chunk = free.take();
+                int n = source.read(chunk.data, 0, chunk.data.length);
+                if (n < 0) {
+                    break;
+                }
+                chunk.length = n;
+                filled.put(chunk);
+            }
+        } catch (IOException e) {
+            error = e;
+        } catch (InterruptedException e) {
+            // Closed by the consumer.
+        } finally {
+            try {
+                source.close();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+            // At most BUFFER_COUNT chunks are in flight, so there is always room for the end marker.
+            filled.offer(END);
+        }
+    }
+
+    private boolean nextChunk() throws IOException {
+        if (current != null) {
+            free.add(current);
+            current = null;
+        }
+        if (eof) {
+            return false;
+        }
+        Chunk chunk;
+        try {
+            chunk = filled.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        if (chunk == END) {
+            eof = true;
+            if (error != null) {
+                throw error;
+            }
+            return false;
+        }
+        current = chunk;
+        position = 0;
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        while (current == null || position >= current.length) {
+            if (!nextChunk()) {
+                return -1;
+            }
+        }
+        return current.data[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (current == null || position >= current.length) {
+            if (!nextChunk()) {
+                return -1;
+            }
+        }
+        int n = Math.min(len, current.length - position);
+        System.arraycopy(current.data, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return current == null ? 0 : current.length - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (state.compareAndSet(STATE_NEW, STATE_CLOSED)) {
+            source.close();
+        } else {
+            producer.cancel(true);
+        }
+        eof = true;
+    }
+}
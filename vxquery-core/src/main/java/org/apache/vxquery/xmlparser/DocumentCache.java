@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.vxquery.xmlparser;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps recently parsed documents in memory, shared by every task and query of the node. Entries are found by
+ * absolute path and parser settings and are dropped when the size or modification time of the file changes. The
+ * least recently used documents are evicted once the total size of the trees passes the capacity.
+ * <p>
+ * Trees are stored without their node id so every read can be given a fresh one.
+ */
+public class DocumentCache {
+    public static final long DEFAULT_CAPACITY = 0;
+
+    private static DocumentCache instance;
+
+    private final long capacity;
+    private final LinkedHashMap<String, Entry> entries;
+    private long size;
+
+    public DocumentCache(long capacity) {
+        this.capacity = capacity;
+        entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+        size = 0;
+    }
+
+    /**
+     * @return The node wide cache, sized by the vxquery.doc_cache_size property. A size of 0 turns caching off.
+     */
+    public static synchronized DocumentCache getInstance() {
+        if (instance == null) {
+            instance = new DocumentCache(Long.parseLong(System.getProperty("vxquery.doc_cache_size",
+                    Long.toString(DEFAULT_CAPACITY))));
+        }
+        return instance;
+    }
+
+    public boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    /**
+     * @param lastModified
+     *            Modification time of the file, read before parsing it.
+     * @param length
+     *            Size of the file, read before parsing it.
+     * @return The tree of the file or null.
+     */
+    public synchronized byte[] get(File file, String settings, long lastModified, long length) {
+        String key = getKey(file, settings);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.lastModified != lastModified || entry.length != length) {
+            entries.remove(key);
+            size -= entry.tree.length;
+            return null;
+        }
+        return entry.tree;
+    }
+
+    public synchronized void put(File file, String settings, long lastModified, long length, byte[] tree) {
+        if (tree.length > capacity) {
+            return;
+        }
+        Entry old = entries.put(getKey(file, settings), new Entry(lastModified, length, tree));
+        if (old != null) {
+            size -= old.tree.length;
+        }
+        size += tree.length;
+        Iterator<Map.Entry<String, Entry>> i = entries.entrySet().iterator();
+        while (size > capacity && i.hasNext()) {
+            size -= i.next().getValue().tree.length;
+            i.remove();
+        }
+    }
+
+    private static String getKey(File file, String settings) {
+        return file.getAbsolutePath() + '\n' + settings;
+    }
+
+    private static class Entry {
+        final long lastModified;
+        final long length;
+        final byte[] tree;
+
+        Entry(long lastModified, long length, byte[] tree) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.tree = tree;
+        }
+    }
+}
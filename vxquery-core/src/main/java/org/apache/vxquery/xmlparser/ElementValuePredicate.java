@@ -0,0 +1,304 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.vxquery.xmlparser;
+
+import java.io.Serializable;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A test on the text of a child element or attribute of the elements emitted by a collection scan. The scan uses
+ * it to drop elements that cannot pass the query's where clause. The test is conservative: text that the query
+ * would reject with an error is reported as {@link #UNKNOWN} so the element is kept and the query raises the error.
+ */
+public class ElementValuePredicate implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final int NO_MATCH = 0;
+    public static final int MATCH = 1;
+    public static final int UNKNOWN = 2;
+
+    public enum Operator {
+        EQ("eq"),
+        NE("ne"),
+        LT("lt"),
+        LE("le"),
+        GT("gt"),
+        GE("ge"),
+        STARTS_WITH("starts-with");
+
+        private final String name;
+
+        private Operator(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @return The operator with its arguments swapped.
+         */
+        public Operator swap() {
+            switch (this) {
+                case LT:
+                    return GT;
+                case LE:
+                    return GE;
+                case GT:
+                    return LT;
+                case GE:
+                    return LE;
+                default:
+                    return this;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    public enum ValueType {
+        /** The text compared as a string. */
+        STRING,
+        /** The text cast to xs:double. */
+        NUMBER,
+        /** The year of the text cast to xs:dateTime. */
+        YEAR
+    }
+
+    private static final Pattern DOUBLE_PATTERN = Pattern.compile("[+-]?(\\d+(\\.\\d*)?|\\.\\d+)([eE][+-]?\\d+)?");
+    private static final Pattern DATETIME_PATTERN = Pattern
+            .compile("(-?\\d{4,9})-(\\d\\d)-(\\d\\d)T(\\d\\d):(\\d\\d):(\\d\\d)(\\.\\d+)?(Z|[+-]\\d\\d:\\d\\d)?");
+
+    private final boolean attribute;
+    private final boolean general;
+    private final int typeCode;
+    private final Operator operator;
+    private final ValueType valueType;
+    private final String stringValue;
+    private final double numberValue;
+
+    /**
+     * @param attribute
+     *            Test an attribute instead of a child element.
+     * @param general
+     *            The test comes from a general comparison, which accepts several child values. Other tests raise an
+     *            error when there is more than one.
+     * @param typeCode
+     *            Sequence type code of the child or attribute step.
+     */
+    public ElementValuePredicate(boolean attribute, boolean general, int typeCode, Operator operator,
+            ValueType valueType, String stringValue, double numberValue) {
+        this.attribute = attribute;
+        this.general = general;
+        this.typeCode = typeCode;
+        this.operator = operator;
+        this.valueType = valueType;
+        this.stringValue = stringValue;
+        this.numberValue = numberValue;
+    }
+
+    public boolean isAttribute() {
+        return attribute;
+    }
+
+    public boolean isGeneral() {
+        return general;
+    }
+
+    public int getTypeCode() {
+        return typeCode;
+    }
+
+    /**
+     * Test the string value of one child or attribute.
+     *
+     * @return {@link #MATCH}, {@link #NO_MATCH} or {@link #UNKNOWN}.
+     */
+    public int evaluate(String text) {
+        switch (valueType) {
+            case STRING:
+                if (operator == Operator.STARTS_WITH) {
+                    return text.startsWith(stringValue) ? MATCH : NO_MATCH;
+                }
+                return compare(compareCodepoints(text, stringValue)) ? MATCH : NO_MATCH;
+            case NUMBER:
+                String number = text.trim();
+                double d;
+                if (number.equals("INF")) {
+                    d = Double.POSITIVE_INFINITY;
+                } else if (number.equals("-INF")) {
+                    d = Double.NEGATIVE_INFINITY;
+                } else if (number.equals("NaN")) {
+                    d = Double.NaN;
+                } else if (DOUBLE_PATTERN.matcher(number).matches()) {
+                    d = Double.parseDouble(number);
+                } else {
+                    return UNKNOWN;
+                }
+                return compare(d) ? MATCH : NO_MATCH;
+            case YEAR:
+                long year = parseYear(text.trim());
+                if (year == Long.MIN_VALUE) {
+                    return UNKNOWN;
+                }
+                return compare(year) ? MATCH : NO_MATCH;
+            default:
+                return UNKNOWN;
+        }
+    }
+
+    private boolean compare(int c) {
+        switch (operator) {
+            case EQ:
+                return c == 0;
+            case NE:
+                return c != 0;
+            case LT:
+                return c < 0;
+            case LE:
+                return c <= 0;
+            case GT:
+                return c > 0;
+            case GE:
+                return c >= 0;
+            default:
+                return true;
+        }
+    }
+
+    private boolean compare(double d) {
+        switch (operator) {
+            case EQ:
+                return d == numberValue;
+            case NE:
+                return d != numberValue;
+            case LT:
+                return d < numberValue;
+            case LE:
+                return d <= numberValue;
+            case GT:
+                return d > numberValue;
+            case GE:
+                return d >= numberValue;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Compares by Unicode codepoint, as the default collation does.
+     */
+    private static int compareCodepoints(String s1, String s2) {
+        int i1 = 0;
+        int i2 = 0;
+        while (i1 < s1.length() && i2 < s2.length()) {
+            int c1 = s1.codePointAt(i1);
+            int c2 = s2.codePointAt(i2);
+            if (c1 != c2) {
+                return c1 < c2 ? -1 : 1;
+            }
+            i1 += Character.charCount(c1);
+            i2 += Character.charCount(c2);
+        }
+        return (s1.length() - i1) - (s2.length() - i2);
+    }
+
+    /**
+     * @return The year of a valid xs:dateTime or Long.MIN_VALUE when the text is not one.
+     */
+    private static long parseYear(String text) {
+        Matcher m = DATETIME_PATTERN.matcher(text);
+        if (!m.matches()) {
+            return Long.MIN_VALUE;
+        }
+        long year = Long.parseLong(m.group(1));
+        int month = Integer.parseInt(m.group(2));
+        int day = Integer.parseInt(m.group(3));
+        int hour = Integer.parseInt(m.group(4));
+        if (year == 0 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)) {
+            return Long.MIN_VALUE;
+        }
+        if (hour >= 24 || Integer.parseInt(m.group(5)) > 59 || Integer.parseInt(m.group(6)) > 59) {
+            // 24:00:00 moves the value to the next day, and maybe the next year.
+            return Long.MIN_VALUE;
+        }
+        return year;
+    }
+
+    private static int daysInMonth(long year, int month) {
+        switch (month) {
+            case 2:
+                boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+                return leap ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + (attribute ? 1231 : 1237);
+        result = prime * result + (general ? 1231 : 1237);
+        result = prime * result + typeCode;
+        result = prime * result + operator.hashCode();
+        result = prime * result + valueType.hashCode();
+        result = prime * result + ((stringValue == null) ? 0 : stringValue.hashCode());
+        long temp = Double.doubleToLongBits(numberValue);
+        result = prime * result + (int) (temp ^ (temp >>> 32));
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null || getClass() != obj.getClass())
+            return false;
+        ElementValuePredicate other = (ElementValuePredicate) obj;
+        if (attribute != other.attribute || general != other.general || typeCode != other.typeCode || operator != other.operator
+                || valueType != other.valueType)
+            return false;
+        if (stringValue == null) {
+            if (other.stringValue != null)
+                return false;
+        } else if (!stringValue.equals(other.stringValue))
+            return false;
+        return Double.doubleToLongBits(numberValue) == Double.doubleToLongBits(other.numberValue);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(attribute ? "attribute(" : "child(").append(typeCode).append(")");
+        if (valueType == ValueType.YEAR) {
+            sb.insert(0, "year(").append(")");
+        }
+        sb.append(" ").append(operator).append(" ");
+        if (valueType == ValueType.STRING) {
+            sb.append("\"").append(stringValue).append("\"");
+        } else {
+            sb.append(numberValue);
+        }
+        return sb.toString();
+    }
+}
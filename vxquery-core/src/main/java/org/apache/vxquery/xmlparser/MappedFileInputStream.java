@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.vxquery.xmlparser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a file through memory mapped chunks instead of read system calls. A mapping is limited to 2 GB, so larger
+ * files are mapped one chunk at a time as the reader moves through them.
+ */
+public class MappedFileInputStream extends InputStream {
+    public static final int DEFAULT_CHUNK_SIZE = 256 * 1024 * 1024;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long size;
+    private final int chunkSize;
+    private final int readAheadSize;
+    private long chunkStart;
+    private MappedByteBuffer chunk;
+
+    public MappedFileInputStream(File file) throws IOException {
+        this(file, DEFAULT_CHUNK_SIZE, 0);
+    }
+
+    /**
+     * @param file
+     *            File to read.
+     * @param chunkSize
+     *            Number of bytes mapped at a time.
+     * @param readAheadSize
+     *            Number of bytes to fault in ahead of the reader when a chunk is mapped, or 0 to leave read ahead to
+     *            the operating system.
+     */
+    public MappedFileInputStream(File file, int chunkSize, int readAheadSize) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        channel = this.file.getChannel();
+        size = channel.size();
+        this.chunkSize = chunkSize;
+        this.readAheadSize = readAheadSize;
+        chunkStart = 0;
+        chunk = null;
+    }
+
+    private boolean nextChunk() throws IOException {
+        if (chunk != null) {
+            chunkStart += chunk.capacity();
+        }
+        if (chunkStart >= size) {
+            return false;
+        }
+        chunk = channel.map(FileChannel.MapMode.READ_ONLY, chunkStart, Math.min(chunkSize, size - chunkStart));
+        if (readAheadSize > 0) {
+            touch(chunk, Math.min(readAheadSize, chunk.capacity()));
+        }
+        return true;
+    }
+
+    /**
+     * Java offers no madvise, so the first pages of a new chunk are faulted in by reading one byte of each page.
+     */
+    private static void touch(MappedByteBuffer buffer, int length) {
+        for (int i = 0; i < length; i += 4096) {
+            buffer.get(i);
+        }
+    }
+
+    private boolean ensureAvailable() throws IOException {
+        while (chunk == null || !chunk.hasRemaining()) {
+            if (!nextChunk()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureAvailable()) {
+            return -1;
+        }
+        return chunk.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureAvailable()) {
+            return -1;
+        }
+        int n = Math.min(len, chunk.remaining());
+        chunk.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && ensureAvailable()) {
+            int step = (int) Math.min(n - skipped, chunk.remaining());
+            chunk.position(chunk.position() + step);
+            skipped += step;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return chunk == null ? 0 : chunk.remaining();
+    }
+
+    @Override
+    public void close() throws IOException {
+        chunk = null;
+        file.close();
+    }
+}
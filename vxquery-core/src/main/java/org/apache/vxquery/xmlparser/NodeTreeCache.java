@@ -0,0 +1,219 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.vxquery.xmlparser;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Keeps the node trees parsed from collection files in a cache directory, so later scans of an unchanged file read
+ * the trees instead of parsing the XML again. An entry is bound to the parser settings through a key and is valid
+ * while the size and modification time of the file stay the same.
+ * <p>
+ * Entry layout: magic, version, file size, file modification time, key, then one record per tree. A record is the
+ * tree length followed by the tree without its node id, which is given out again each time the tree is read.
+ * <p>
+ * Failures while writing an entry are logged and the entry is dropped; they never fail the parse.
+ */
+public class NodeTreeCache {
+    private static final Logger LOGGER = Logger.getLogger(NodeTreeCache.class.getName());
+
+    private static final int MAGIC = 0x56584e54;
+    private static final int VERSION = 1;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private final File directory;
+    private final String key;
+    private File entryFile;
+    private File tempFile;
+    private DataOutputStream out;
+    private boolean writeFailed;
+
+    /**
+     * @param directory
+     *            Cache directory, created when missing.
+     * @param key
+     *            Describes the parser settings that shape the trees.
+     */
+    public NodeTreeCache(File directory, String key) {
+        this.directory = directory;
+        this.key = key;
+    }
+
+    /**
+     * @return The trees of the file positioned at the first record, or null when there is no valid entry.
+     */
+    public ByteBuffer read(File file) throws IOException {
+        File entry = getEntryFile(file);
+        if (!entry.isFile()) {
+            return null;
+        }
+        ByteBuffer buffer;
+        RandomAccessFile raf = new RandomAccessFile(entry, "r");
+        try {
+            // The mapping stays valid after the file is closed.
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getLong() != file.length()
+                    || buffer.getLong() != file.lastModified()) {
+                return null;
+            }
+            byte[] entryKey = new byte[buffer.getInt()];
+            buffer.get(entryKey);
+            if (!key.equals(new String(entryKey, "UTF-8"))) {
+                return null;
+            }
+        } catch (RuntimeException e) {
+            // A truncated entry.
+            return null;
+        }
+        return buffer;
+    }
+
+    /**
+     * Starts a new entry for the file. Trees are added with {@link #write(byte[], int, int)}.
+     */
+    public void startWrite(File file) {
+        entryFile = getEntryFile(file);
+        writeFailed = false;
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+                throw new IOException("Can not create cache directory " + directory.getAbsolutePath());
+            }
+            // Written under a temporary name so concurrent readers never see a partial entry.
+            tempFile = File.createTempFile(entryFile.getName(), ".tmp", directory);
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), WRITE_BUFFER_SIZE));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(file.length());
+            out.writeLong(file.lastModified());
+            byte[] keyBytes = key.getBytes("UTF-8");
+            out.writeInt(keyBytes.length);
+            out.write(keyBytes);
+        } catch (IOException e) {
+            failWrite(e);
+        }
+    }
+
+    public boolean isWriting() {
+        return out != null;
+    }
+
+    /**
+     * Adds a tree record to the entry being written.
+     */
+    public void write(byte[] bytes, int start, int length) {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.writeInt(length);
+            out.write(bytes, start, length);
+        } catch (IOException e) {
+            failWrite(e);
+        }
+    }
+
+    /**
+     * Adds a tree record made of two byte ranges, used to leave out the node id.
+     */
+    public void write(byte[] bytes, int start1, int length1, int start2, int length2) {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.writeInt(length1 + length2);
+            out.write(bytes, start1, length1);
+            out.write(bytes, start2, length2);
+        } catch (IOException e) {
+            failWrite(e);
+        }
+    }
+
+    /**
+     * Makes the entry visible to later reads.
+     */
+    public void finishWrite() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+            out = null;
+            if (entryFile.exists() && !entryFile.delete()) {
+                throw new IOException("Can not replace cache entry " + entryFile.getAbsolutePath());
+            }
+            if (!tempFile.renameTo(entryFile)) {
+                throw new IOException("Can not create cache entry " + entryFile.getAbsolutePath());
+            }
+        } catch (IOException e) {
+            failWrite(e);
+        }
+    }
+
+    /**
+     * Drops the entry being written, for example after a parse error.
+     */
+    public void abortWrite() {
+        IOUtils.closeQuietly(out);
+        out = null;
+        if (tempFile != null) {
+            tempFile.delete();
+            tempFile = null;
+        }
+    }
+
+    private void failWrite(IOException e) {
+        if (!writeFailed) {
+            LOGGER.log(Level.WARNING, "Not caching the parsed trees in " + directory.getAbsolutePath(), e);
+            writeFailed = true;
+        }
+        abortWrite();
+    }
+
+    private File getEntryFile(File file) {
+        return new File(directory, digest(file.getAbsolutePath() + '\n' + key) + ".tree");
+    }
+
+    private static String digest(String s) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(s.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -30,6 +30,7 @@ import org.apache.vxquery.datamodel.builders.nodes.DictionaryBuilder;
 import org.apache.vxquery.datamodel.builders.nodes.DocumentNodeBuilder;
 import org.apache.vxquery.datamodel.builders.nodes.ElementNodeBuilder;
 import org.apache.vxquery.datamodel.builders.nodes.PINodeBuilder;
+import org.apache.vxquery.datamodel.builders.nodes.SharedDictionary;
 import org.apache.vxquery.datamodel.builders.nodes.TextNodeBuilder;
 import org.apache.vxquery.datamodel.values.ValueTag;
 import org.apache.vxquery.types.BuiltinTypeQNames;
@@ -37,6 +38,7 @@ import org.apache.vxquery.types.ElementType;
 import org.apache.vxquery.types.NameTest;
 import org.apache.vxquery.types.NodeType;
 import org.apache.vxquery.types.SequenceType;
+import org.apache.vxquery.util.GrowableIntArray;
 import org.apache.vxquery.xmlquery.query.XQueryConstants;
 import org.xml.sax.Attributes;
 import org.xml.sax.ContentHandler;
@@ -70,14 +72,55 @@ public class SAXContentHandler implements ContentHandler, LexicalHandler {
     private FrameTupleAccessor fta;
     private int tupleIndex;
     private IFrameWriter writer;
+    private NodeTreeCache cache;
+    private byte[] cachedTree;
+
+    // Shared dictionary variables
+    private SharedDictionary sharedDictionary;
+    private final GrowableIntArray sharedCodes;
+    private final UTF8StringPointable sharedNameP;
 
     // Element writing and path step variables
     private boolean skipping;
     private String[] childLocalName = null;
     private String[] childUri = null;
+    private byte[][] childLocalNameBytes = null;
+    private byte[][] childUriBytes = null;
     private boolean[] subElement = null;
     private final TaggedValuePointable tvp;
 
+    // Projection variables
+    private String[] projectionUri = null;
+    private String[] projectionLocalName = null;
+    private byte[][] projectionUriBytes = null;
+    private byte[][] projectionLocalNameBytes = null;
+    private int projectedDepth;
+
+    // Value predicate variables
+    private ElementValuePredicate[] predicates = null;
+    private String[] predicateUri = null;
+    private String[] predicateLocalName = null;
+    private byte[][] predicateUriBytes = null;
+    private byte[][] predicateLocalNameBytes = null;
+    private int[] predicateResults = null;
+    private int[] predicateValueCounts = null;
+    private boolean[] capturing = null;
+    private int captureDepth;
+    private final StringBuilder captureText;
+    private final StringBuilder attributeText;
+    private int rejectedDepth;
+
+    // Byte level parsing variables
+    private final UTF8StringPointable uriP;
+    private final UTF8StringPointable localNameP;
+    private final UTF8StringPointable prefixP;
+    private final UTF8StringPointable valueP;
+    private final ArrayBackedValueStorage typeNamesABVS;
+    private final UTF8StringPointable typeUriP;
+    private final UTF8StringPointable typePrefixP;
+    private final UTF8StringPointable untypedP;
+    private final UTF8StringPointable untypedAtomicP;
+
     // Basic tracking and setting variables
     private final boolean attachTypes;
     private final boolean createNodeIds;
@@ -94,6 +137,8 @@ public class SAXContentHandler implements ContentHandler, LexicalHandler {
         anb = new AttributeNodeBuilder();
         cnb = new CommentNodeBuilder();
         db = new DictionaryBuilder();
+        sharedCodes = new GrowableIntArray();
+        sharedNameP = (UTF8StringPointable) UTF8StringPointable.FACTORY.createPointable();
         docb = new DocumentNodeBuilder();
         pinb = new PINodeBuilder();
         tnb = new TextNodeBuilder();
@@ -105,6 +150,26 @@ public class SAXContentHandler implements ContentHandler, LexicalHandler {
         skipping = true;
         tvp = (TaggedValuePointable) TaggedValuePointable.FACTORY.createPointable();
 
+        // Projection variables
+        projectedDepth = 0;
+
+        // Value predicate variables
+        captureDepth = 0;
+        captureText = new StringBuilder();
+        attributeText = new StringBuilder();
+        rejectedDepth = 0;
+
+        // Byte level parsing variables
+        uriP = (UTF8StringPointable) UTF8StringPointable.FACTORY.createPointable();
+        localNameP = (UTF8StringPointable) UTF8StringPointable.FACTORY.createPointable();
+        prefixP = (UTF8StringPointable) UTF8StringPointable.FACTORY.createPointable();
+        valueP = (UTF8StringPointable) UTF8StringPointable.FACTORY.createPointable();
+        typeNamesABVS = new ArrayBackedValueStorage();
+        typeUriP = createTypeName(XQueryConstants.XS_NSURI);
+        typePrefixP = createTypeName(XQueryConstants.XS_PREFIX);
+        untypedP = createTypeName(BuiltinTypeQNames.UNTYPED_STR);
+        untypedAtomicP = createTypeName(BuiltinTypeQNames.UNTYPED_ATOMIC_STR);
+
         // Basic tracking and setting variables
         this.attachTypes = attachTypes;
         createNodeIds = nodeIdProvider != null;
@@ -132,6 +197,8 @@ public class SAXContentHandler implements ContentHandler, LexicalHandler {
             subElement = new boolean[childSeq.size()];
             childUri = new String[childSeq.size()];
             childLocalName = new String[childSeq.size()];
+            childUriBytes = new byte[childSeq.size()][];
+            childLocalNameBytes = new byte[childSeq.size()][];
         }
 
         int index = 0;
@@ -141,10 +208,100 @@ public class SAXContentHandler implements ContentHandler, LexicalHandler {
             NameTest nameTest = eType.getNameTest();
             childUri[index] = getStringFromBytes(nameTest.getUri());
             childLocalName[index] = getStringFromBytes(nameTest.getLocalName());
+            childUriBytes[index] = nameTest.getUri();
+            childLocalNameBytes[index] = nameTest.getLocalName();
             ++index;
         }
     }
 
+    /**
+     * Tests on the text of child elements or attributes that an element must pass to be written. Tests with a
+     * wildcard name are ignored.
+     *
+     * @param valuePredicates
+     *            The tests.
+     * @param nameTests
+     *            The name of the child or attribute of each test.
+     */
+    public void setValuePredicates(List<ElementValuePredicate> valuePredicates, List<NameTest> nameTests) {
+        List<ElementValuePredicate> named = new ArrayList<ElementValuePredicate>();
+        List<NameTest> names = new ArrayList<NameTest>();
+        for (int i = 0; i < valuePredicates.size(); ++i) {
+            NameTest nameTest = nameTests.get(i);
+            if (nameTest.getUri() != null && nameTest.getLocalName() != null) {
+                named.add(valuePredicates.get(i));
+                names.add(nameTest);
+            }
+        }
+        if (subElement == null || named.isEmpty()) {
+            predicates = null;
+            return;
+        }
+        predicates = named.toArray(new ElementValuePredicate[named.size()]);
+        predicateUri = new String[predicates.length];
+        predicateLocalName = new String[predicates.length];
+        predicateUriBytes = new byte[predicates.length][];
+        predicateLocalNameBytes = new byte[predicates.length][];
+        predicateResults = new int[predicates.length];
+        predicateValueCounts = new int[predicates.length];
+        capturing = new boolean[predicates.length];
+        for (int i = 0; i < predicates.length; ++i) {
+            predicateUri[i] = getStringFromBytes(names.get(i).getUri());
+            predicateLocalName[i] = getStringFromBytes(names.get(i).getLocalName());
+            predicateUriBytes[i] = names.get(i).getUri();
+            predicateLocalNameBytes[i] = names.get(i).getLocalName();
+        }
+    }
+
+    /**
+     * Limits the children built below each written element to the given names. Text, comments and processing
+     * instructions directly below the element are not built either. A wildcard name turns the projection off.
+     *
+     * @param nameTests
+     *            The names of the children used by the query.
+     */
+    public void setProjection(List<NameTest> nameTests) {
+        projectionUri = null;
+        if (subElement == null) {
+            return;
+        }
+        for (NameTest nameTest : nameTests) {
+            if (nameTest.getUri() == null || nameTest.getLocalName() == null) {
+                return;
+            }
+        }
+        String[] uris = new String[nameTests.size()];
+        projectionLocalName = new String[nameTests.size()];
+        projectionUriBytes = new byte[nameTests.size()][];
+        projectionLocalNameBytes = new byte[nameTests.size()][];
+        for (int i = 0; i < nameTests.size(); ++i) {
+            uris[i] = getStringFromBytes(nameTests.get(i).getUri());
+            projectionLocalName[i] = getStringFromBytes(nameTests.get(i).getLocalName());
+            projectionUriBytes[i] = nameTests.get(i).getUri();
+            projectionLocalNameBytes[i] = nameTests.get(i).getLocalName();
+        }
+        projectionUri = uris;
+    }
+
+    /**
+     * @param sharedDictionary
+     *            Dictionary the written element trees refer to instead of carrying a dictionary of their own, or
+     *            null.
+     */
+    public void setSharedDictionary(SharedDictionary sharedDictionary) {
+        this.sharedDictionary = sharedDictionary;
+        db.reset();
+        sharedCodes.clear();
+    }
+
+    /**
+     * @param cache
+     *            Cache entry receiving a copy of every written element, or null.
+     */
+    public void setCache(NodeTreeCache cache) {
+        this.cache = cache;
+    }
+
     public void setupElementWriter(IFrameWriter writer, FrameTupleAccessor fta, int tupleIndex) {
         this.writer = writer;
         this.fta = fta;
@@ -153,7 +310,7 @@ public class SAXContentHandler implements ContentHandler, LexicalHandler {
 
     @Override
     public void characters(char[] ch, int start, int length) throws SAXException {
-        if (skipping) {
+        if (skipping || skipProjectedContent()) {
             return;
         }
         try {
@@ -162,6 +319,9 @@ public class SAXContentHandler implements ContentHandler, LexicalHandler {
             e.printStackTrace();
             throw new SAXException(e);
         }
+        if (captureDepth > 0) {
+            captureText.append(ch, start, length);
+        }
         pendingText = true;
     }
 
@@ -183,7 +343,7 @@ public class SAXContentHandler implements ContentHandler, LexicalHandler {
         }
     }
 
-    private void endElementChildPathStep() throws IOException {
+    private void endElementChildPathStep() {
         if (subElement != null && depth <= subElement.length) {
             subElement[depth - 1] = false;
         }
@@ -192,10 +352,22 @@ public class SAXContentHandler implements ContentHandler, LexicalHandler {
     @Override
     public void endElement(String uri, String localName, String name) throws SAXException {
         if (skipping) {
+            if (depth == rejectedDepth) {
+                // The element failed an attribute test before it was built.
+                rejectedDepth = 0;
+                endElementChildPathStep();
+            } else if (depth == projectedDepth) {
+                // The end of a child the query does not use.
+                projectedDepth = 0;
+                skipping = false;
+            }
             --depth;
             return;
         }
         try {
+            if (captureDepth == depth) {
+                endCapture();
+            }
             boolean nonSkipped = foundFirstNonSkippedElement();
             flushText();
             ElementNodeBuilder enb = enbStack.remove(enbStack.size() - 1);
@@ -203,7 +375,11 @@ public class SAXContentHandler implements ContentHandler, LexicalHandler {
             endChildInParent(enb, nonSkipped);
             freeENB(enb);
             if (nonSkipped) {
-                writeElement();
+                if (predicates == null || !predicatesFailed()) {
+                    writeElement();
+                } else {
+                    skipping = true;
+                }
             }
             endElementChildPathStep();
         } catch (IOException e) {
@@ -223,7 +399,7 @@ public class SAXContentHandler implements ContentHandler, LexicalHandler {
 
     @Override
     public void processingInstruction(String target, String data) throws SAXException {
-        if (skipping) {
+        if (skipping || skipProjectedContent()) {
             return;
         }
         try {
@@ -258,7 +434,10 @@ public class SAXContentHandler implements ContentHandler, LexicalHandler {
         if (subElement == null) {
             skipping = false;
         }
-        db.reset();
+        if (sharedDictionary == null) {
+            // With a shared dictionary db only maps names to their shared codes and is kept across documents.
+            db.reset();
+        }
         try {
             textABVS.reset();
             utf8b.reset(textABVS);
@@ -291,6 +470,21 @@ public class SAXContentHandler implements ContentHandler, LexicalHandler {
                 }
             }
         }
+        return startNonSkippedElement();
+    }
+
+    private boolean startElementChildPathStep(UTF8StringPointable uri, UTF8StringPointable localName) {
+        if (subElement != null && depth <= subElement.length) {
+            // Check path step if it exists.
+            if (equalsUTF8String(uri, childUriBytes[depth - 1])
+                    && equalsUTF8String(localName, childLocalNameBytes[depth - 1])) {
+                subElement[depth - 1] = true;
+            }
+        }
+        return startNonSkippedElement();
+    }
+
+    private boolean startNonSkippedElement() {
         boolean start = foundFirstNonSkippedElement();
         if (start) {
             skipping = false;
@@ -306,33 +500,44 @@ public class SAXContentHandler implements ContentHandler, LexicalHandler {
         if (skipping) {
             return;
         }
+        if (projectionUri != null && depth == subElement.length + 1 && !isProjected(uri, localName)) {
+            skipProjectedChild();
+            return;
+        }
+        if (predicates != null) {
+            if (start) {
+                if (!startPredicates(atts)) {
+                    rejectElement();
+                    return;
+                }
+            } else if (depth == subElement.length + 1) {
+                startCapture(uri, localName);
+            }
+        }
         try {
             flushText();
             int idx = name.indexOf(':');
             String prefix = idx < 0 ? "" : name.substring(0, idx);
             ElementNodeBuilder enb = createENB();
             startChildInParent(enb, start);
-            int uriCode = db.lookup(uri);
-            int localNameCode = db.lookup(localName);
-            int prefixCode = db.lookup(prefix);
+            int uriCode = lookupName(uri);
+            int localNameCode = lookupName(localName);
+            int prefixCode = lookupName(prefix);
             enb.setName(uriCode, localNameCode, prefixCode);
             if (attachTypes) {
-                int typeUriCode = db.lookup(XQueryConstants.XS_NSURI);
-                int typeLocalNameCode = db.lookup(BuiltinTypeQNames.UNTYPED_STR);
-                int typePrefixCode = db.lookup(XQueryConstants.XS_PREFIX);
+                int typeUriCode = lookupName(XQueryConstants.XS_NSURI);
+                int typeLocalNameCode = lookupName(BuiltinTypeQNames.UNTYPED_STR);
+                int typePrefixCode = lookupName(XQueryConstants.XS_PREFIX);
                 enb.setType(typeUriCode, typeLocalNameCode, typePrefixCode);
             }
-            if (createNodeIds) {
-                enb.setLocalNodeId(nodeIdCounter++);
-            }
-            enb.startAttributeChunk();
+            startAttributes(enb);
             final int nAttrs = atts.getLength();
             for (int i = 0; i < nAttrs; ++i) {
                 String aName = atts.getQName(i);
                 int aIdx = aName.indexOf(':');
-                int aPrefixCode = db.lookup(aIdx < 0 ? "" : aName.substring(0, aIdx));
-                int aLocalNameCode = db.lookup(atts.getLocalName(i));
-                int aUriCode = db.lookup(atts.getURI(i));
+                int aPrefixCode = lookupName(aIdx < 0 ? "" : aName.substring(0, aIdx));
+                int aLocalNameCode = lookupName(atts.getLocalName(i));
+                int aUriCode = lookupName(atts.getURI(i));
                 String aValue = atts.getValue(i);
                 tempABVS.reset();
                 DataOutput tempOut = tempABVS.getDataOutput();
@@ -341,20 +546,357 @@ public class SAXContentHandler implements ContentHandler, LexicalHandler {
                 enb.startAttribute(anb);
                 anb.setName(aUriCode, aLocalNameCode, aPrefixCode);
                 if (attachTypes) {
-                    int typeUriCode = db.lookup(XQueryConstants.XS_NSURI);
-                    int typeLocalNameCode = db.lookup(BuiltinTypeQNames.UNTYPED_ATOMIC_STR);
-                    int typePrefixCode = db.lookup(XQueryConstants.XS_PREFIX);
+                    int typeUriCode = lookupName(XQueryConstants.XS_NSURI);
+                    int typeLocalNameCode = lookupName(BuiltinTypeQNames.UNTYPED_ATOMIC_STR);
+                    int typePrefixCode = lookupName(XQueryConstants.XS_PREFIX);
                     anb.setType(typeUriCode, typeLocalNameCode, typePrefixCode);
                 }
-                if (createNodeIds) {
-                    anb.setLocalNodeId(nodeIdCounter++);
+                endAttribute(enb);
+            }
+            endAttributes(enb);
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new SAXException(e);
+        }
+    }
+
+    /**
+     * Byte level version of {@link #startElement(String, String, String, Attributes)}. Names and values are taken
+     * from the tokenizer as UTF-8 strings, so every dictionary lookup in the document is done on bytes.
+     */
+    private void startElement(UTF8XMLTokenizer tokenizer) throws SAXException {
+        ++depth;
+        tokenizer.getURI(uriP);
+        tokenizer.getLocalName(localNameP);
+        boolean start = startElementChildPathStep(uriP, localNameP);
+
+        if (skipping) {
+            return;
+        }
+        if (projectionUri != null && depth == subElement.length + 1 && !isProjected(uriP, localNameP)) {
+            skipProjectedChild();
+            return;
+        }
+        if (predicates != null) {
+            if (start) {
+                if (!startPredicates(tokenizer)) {
+                    rejectElement();
+                    return;
+                }
+            } else if (depth == subElement.length + 1) {
+                startCapture(uriP, localNameP);
+            }
+        }
+        try {
+            flushText();
+            tokenizer.getPrefix(prefixP);
+            ElementNodeBuilder enb = createENB();
+            startChildInParent(enb, start);
+            enb.setName(lookupName(uriP), lookupName(localNameP), lookupName(prefixP));
+            if (attachTypes) {
+                enb.setType(lookupName(typeUriP), lookupName(untypedP), lookupName(typePrefixP));
+            }
+            startAttributes(enb);
+            final int nAttrs = tokenizer.getAttributeCount();
+            for (int i = 0; i < nAttrs; ++i) {
+                tokenizer.getAttributePrefix(i, prefixP);
+                tokenizer.getAttributeLocalName(i, localNameP);
+                tokenizer.getAttributeURI(i, uriP);
+                tokenizer.getAttributeValue(i, valueP);
+                tempABVS.reset();
+                DataOutput tempOut = tempABVS.getDataOutput();
+                tempOut.write(ValueTag.XS_UNTYPED_ATOMIC_TAG);
+                tempOut.write(valueP.getByteArray(), valueP.getStartOffset(), valueP.getLength());
+                enb.startAttribute(anb);
+                anb.setName(lookupName(uriP), lookupName(localNameP), lookupName(prefixP));
+                if (attachTypes) {
+                    anb.setType(lookupName(typeUriP), lookupName(untypedAtomicP), lookupName(typePrefixP));
+                }
+                endAttribute(enb);
+            }
+            endAttributes(enb);
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new SAXException(e);
+        }
+    }
+
+    /**
+     * Resets the value tests for a new element and runs the attribute tests.
+     *
+     * @return false if an attribute test failed.
+     */
+    private boolean startPredicates(Attributes atts) {
+        for (int i = 0; i < predicates.length; ++i) {
+            predicateResults[i] = ElementValuePredicate.NO_MATCH;
+            predicateValueCounts[i] = 0;
+            if (predicates[i].isAttribute()) {
+                String value = atts.getValue(predicateUri[i], predicateLocalName[i]);
+                if (value != null) {
+                    predicateResults[i] = predicates[i].evaluate(value);
+                }
+                if (predicateResults[i] == ElementValuePredicate.NO_MATCH) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean startPredicates(UTF8XMLTokenizer tokenizer) {
+        final int nAttrs = tokenizer.getAttributeCount();
+        for (int i = 0; i < predicates.length; ++i) {
+            predicateResults[i] = ElementValuePredicate.NO_MATCH;
+            predicateValueCounts[i] = 0;
+            if (predicates[i].isAttribute()) {
+                for (int a = 0; a < nAttrs; ++a) {
+                    tokenizer.getAttributeURI(a, prefixP);
+                    tokenizer.getAttributeLocalName(a, valueP);
+                    if (equalsUTF8String(prefixP, predicateUriBytes[i])
+                            && equalsUTF8String(valueP, predicateLocalNameBytes[i])) {
+                        tokenizer.getAttributeValue(a, valueP);
+                        attributeText.setLength(0);
+                        UTF8StringPointable.toString(attributeText, valueP.getByteArray(), valueP.getStartOffset());
+                        predicateResults[i] = predicates[i].evaluate(attributeText.toString());
+                        break;
+                    }
+                }
+                if (predicateResults[i] == ElementValuePredicate.NO_MATCH) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean isProjected(String uri, String localName) {
+        for (int i = 0; i < projectionUri.length; ++i) {
+            if (uri.equals(projectionUri[i]) && localName.equals(projectionLocalName[i])) {
+                return true;
+            }
+        }
+        if (predicates != null) {
+            for (int i = 0; i < predicates.length; ++i) {
+                if (!predicates[i].isAttribute() && uri.equals(predicateUri[i])
+                        && localName.equals(predicateLocalName[i])) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean isProjected(UTF8StringPointable uri, UTF8StringPointable localName) {
+        for (int i = 0; i < projectionUri.length; ++i) {
+            if (equalsUTF8String(uri, projectionUriBytes[i])
+                    && equalsUTF8String(localName, projectionLocalNameBytes[i])) {
+                return true;
+            }
+        }
+        if (predicates != null) {
+            for (int i = 0; i < predicates.length; ++i) {
+                if (!predicates[i].isAttribute() && equalsUTF8String(uri, predicateUriBytes[i])
+                        && equalsUTF8String(localName, predicateLocalNameBytes[i])) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Skips a child of the written element that the query does not use, with all its descendants.
+     */
+    private void skipProjectedChild() {
+        skipping = true;
+        projectedDepth = depth;
+    }
+
+    /**
+     * Text, comments and processing instructions directly below a written element are not used by a projection.
+     */
+    private boolean skipProjectedContent() {
+        return projectionUri != null && depth == subElement.length;
+    }
+
+    /**
+     * Stops building an element that failed an attribute test. The element and its children are skipped.
+     */
+    private void rejectElement() {
+        skipping = true;
+        rejectedDepth = depth;
+    }
+
+    private void startCapture(String uri, String localName) {
+        boolean found = false;
+        for (int i = 0; i < predicates.length; ++i) {
+            capturing[i] = !predicates[i].isAttribute() && uri.equals(predicateUri[i])
+                    && localName.equals(predicateLocalName[i]);
+            found |= capturing[i];
+        }
+        if (found) {
+            captureDepth = depth;
+            captureText.setLength(0);
+        }
+    }
+
+    private void startCapture(UTF8StringPointable uri, UTF8StringPointable localName) {
+        boolean found = false;
+        for (int i = 0; i < predicates.length; ++i) {
+            capturing[i] = !predicates[i].isAttribute() && equalsUTF8String(uri, predicateUriBytes[i])
+                    && equalsUTF8String(localName, predicateLocalNameBytes[i]);
+            found |= capturing[i];
+        }
+        if (found) {
+            captureDepth = depth;
+            captureText.setLength(0);
+        }
+    }
+
+    /**
+     * Tests the text of a finished child. One passing child is enough for the element to pass.
+     */
+    private void endCapture() {
+        String text = captureText.toString();
+        for (int i = 0; i < predicates.length; ++i) {
+            if (!capturing[i]) {
+                continue;
+            }
+            capturing[i] = false;
+            if (++predicateValueCounts[i] > 1 && !predicates[i].isGeneral()) {
+                // The query raises an error for more than one value.
+                predicateResults[i] = ElementValuePredicate.UNKNOWN;
+            } else if (predicateResults[i] != ElementValuePredicate.MATCH) {
+                int result = predicates[i].evaluate(text);
+                if (result != ElementValuePredicate.NO_MATCH) {
+                    predicateResults[i] = result;
                 }
-                anb.setValue(tempABVS);
-                enb.endAttribute(anb);
             }
-            enb.endAttributeChunk();
-            enb.startChildrenChunk();
-            enbStack.add(enb);
+        }
+        captureDepth = 0;
+    }
+
+    private boolean predicatesFailed() {
+        for (int result : predicateResults) {
+            if (result == ElementValuePredicate.NO_MATCH) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void startAttributes(ElementNodeBuilder enb) throws IOException {
+        if (createNodeIds) {
+            enb.setLocalNodeId(nodeIdCounter++);
+        }
+        enb.startAttributeChunk();
+    }
+
+    /**
+     * Finishes the attribute in anb with the value in tempABVS.
+     */
+    private void endAttribute(ElementNodeBuilder enb) throws IOException {
+        if (createNodeIds) {
+            anb.setLocalNodeId(nodeIdCounter++);
+        }
+        anb.setValue(tempABVS);
+        enb.endAttribute(anb);
+    }
+
+    private void endAttributes(ElementNodeBuilder enb) throws IOException {
+        enb.endAttributeChunk();
+        enb.startChildrenChunk();
+        enbStack.add(enb);
+    }
+
+    /**
+     * Parses a document from the byte level tokenizer instead of SAX events.
+     *
+     * @return False when the document has a DOCTYPE and has to be parsed again with a SAX parser. No element has
+     *         been written at that point.
+     */
+    public boolean parse(UTF8XMLTokenizer tokenizer) throws IOException, SAXException {
+        startDocument();
+        while (true) {
+            tokenizer.setReportCharacters(!skipping && !skipProjectedContent());
+            switch (tokenizer.next()) {
+                case UTF8XMLTokenizer.START_ELEMENT:
+                    startElement(tokenizer);
+                    break;
+                case UTF8XMLTokenizer.END_ELEMENT:
+                    endElement(null, null, null);
+                    break;
+                case UTF8XMLTokenizer.CHARACTERS:
+                    characters(tokenizer.getTextBytes(), tokenizer.getTextStart(), tokenizer.getTextLength());
+                    break;
+                case UTF8XMLTokenizer.COMMENT:
+                    comment(tokenizer.getTextBytes(), tokenizer.getTextStart(), tokenizer.getTextLength());
+                    break;
+                case UTF8XMLTokenizer.PROCESSING_INSTRUCTION:
+                    processingInstruction(tokenizer);
+                    break;
+                case UTF8XMLTokenizer.DOCTYPE:
+                    return false;
+                case UTF8XMLTokenizer.END_DOCUMENT:
+                    endDocument();
+                    return true;
+            }
+        }
+    }
+
+    private void characters(byte[] bytes, int start, int length) throws SAXException {
+        if (skipping || skipProjectedContent()) {
+            return;
+        }
+        try {
+            utf8b.appendUTF8Bytes(bytes, start, length);
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new SAXException(e);
+        }
+        if (captureDepth > 0) {
+            appendModifiedUTF8(captureText, bytes, start, length);
+        }
+        pendingText = true;
+    }
+
+    private void comment(byte[] bytes, int start, int length) throws SAXException {
+        if (skipping || skipProjectedContent()) {
+            return;
+        }
+        try {
+            flushText();
+            startChildInParent(cnb);
+            if (createNodeIds) {
+                cnb.setLocalNodeId(nodeIdCounter++);
+            }
+            utf8b.appendUTF8Bytes(bytes, start, length);
+            utf8b.finish();
+            cnb.setValue(textABVS);
+            endChildInParent(cnb);
+            textABVS.reset();
+            utf8b.reset(textABVS);
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new SAXException(e);
+        }
+    }
+
+    private void processingInstruction(UTF8XMLTokenizer tokenizer) throws SAXException {
+        if (skipping || skipProjectedContent()) {
+            return;
+        }
+        try {
+            flushText();
+            startChildInParent(pinb);
+            if (createNodeIds) {
+                pinb.setLocalNodeId(nodeIdCounter++);
+            }
+            tokenizer.getPITarget(valueP);
+            pinb.setTarget(valueP);
+            tokenizer.getPIData(valueP);
+            pinb.setContent(valueP);
+            endChildInParent(pinb);
         } catch (IOException e) {
             e.printStackTrace();
             throw new SAXException(e);
@@ -367,7 +909,7 @@ public class SAXContentHandler implements ContentHandler, LexicalHandler {
 
     @Override
     public void comment(char[] ch, int start, int length) throws SAXException {
-        if (skipping) {
+        if (skipping || skipProjectedContent()) {
             return;
         }
         try {
@@ -431,7 +973,8 @@ public class SAXContentHandler implements ContentHandler, LexicalHandler {
         tempABVS.reset();
         DataOutput out = tempABVS.getDataOutput();
         out.write(ValueTag.NODE_TREE_TAG);
-        byte header = NodeTreePointable.HEADER_DICTIONARY_EXISTS_MASK;
+        byte header = sharedDictionary != null ? NodeTreePointable.HEADER_SHARED_DICTIONARY_EXISTS_MASK
+                : NodeTreePointable.HEADER_DICTIONARY_EXISTS_MASK;
         if (attachTypes) {
             header |= NodeTreePointable.HEADER_TYPE_EXISTS_MASK;
         }
@@ -442,13 +985,49 @@ public class SAXContentHandler implements ContentHandler, LexicalHandler {
         if (createNodeIds) {
             out.writeInt(nodeIdProvider.getId());
         }
-        db.writeFromCache(tempABVS);
+        if (sharedDictionary != null) {
+            out.writeInt(sharedDictionary.getId());
+        } else {
+            db.writeFromCache(tempABVS);
+        }
         out.write(resultABVS.getByteArray(), resultABVS.getStartOffset(), resultABVS.getLength());
+        if (cache != null) {
+            // Cached without the node id, which is given out again when the tree is read.
+            int start = tempABVS.getStartOffset();
+            if (createNodeIds) {
+                cache.write(tempABVS.getByteArray(), start, 2, start + 6, tempABVS.getLength() - 6);
+            } else {
+                cache.write(tempABVS.getByteArray(), start, tempABVS.getLength());
+            }
+        }
         tvp.set(tempABVS.getByteArray(), tempABVS.getStartOffset(), tempABVS.getLength());
         addNodeToTuple(tvp, tupleIndex);
         skipping = true;
     }
 
+    /**
+     * Writes the trees of a {@link NodeTreeCache} entry as if they had just been parsed.
+     */
+    public void writeCachedElements(ByteBuffer trees) throws IOException {
+        while (trees.hasRemaining()) {
+            int length = trees.getInt();
+            if (cachedTree == null || cachedTree.length < length) {
+                cachedTree = new byte[Math.max(length, cachedTree == null ? 0 : cachedTree.length * 2)];
+            }
+            trees.get(cachedTree, 0, length);
+            tempABVS.reset();
+            DataOutput out = tempABVS.getDataOutput();
+            // Tag and header.
+            out.write(cachedTree, 0, 2);
+            if (createNodeIds) {
+                out.writeInt(nodeIdProvider.getId());
+            }
+            out.write(cachedTree, 2, length - 2);
+            tvp.set(tempABVS.getByteArray(), tempABVS.getStartOffset(), tempABVS.getLength());
+            addNodeToTuple(tvp, tupleIndex);
+        }
+    }
+
     public void writeDocument(ArrayBackedValueStorage abvs) throws IOException {
         DataOutput out = abvs.getDataOutput();
         out.write(ValueTag.NODE_TREE_TAG);
@@ -467,6 +1046,40 @@ public class SAXContentHandler implements ContentHandler, LexicalHandler {
         out.write(resultABVS.getByteArray(), resultABVS.getStartOffset(), resultABVS.getLength());
     }
 
+    /**
+     * Writes a document tree kept by {@link DocumentCache}, which has no node id.
+     */
+    public void writeCachedDocument(byte[] tree, ArrayBackedValueStorage abvs) throws IOException {
+        DataOutput out = abvs.getDataOutput();
+        // Tag and header.
+        out.write(tree, 0, 2);
+        if (createNodeIds) {
+            out.writeInt(nodeIdProvider.getId());
+        }
+        out.write(tree, 2, tree.length - 2);
+    }
+
+    private int lookupName(String str) {
+        int code = db.lookup(str);
+        return sharedDictionary != null ? getSharedCode(code) : code;
+    }
+
+    private int lookupName(UTF8StringPointable str) {
+        int code = db.lookup(str);
+        return sharedDictionary != null ? getSharedCode(code) : code;
+    }
+
+    private int getSharedCode(int code) {
+        // Codes of db are handed out in order, so a new code is always the next index.
+        if (code < sharedCodes.getSize()) {
+            return sharedCodes.getArray()[code];
+        }
+        db.getString(code, sharedNameP);
+        int sharedCode = sharedDictionary.lookup(sharedNameP);
+        sharedCodes.append(sharedCode);
+        return sharedCode;
+    }
+
     private ElementNodeBuilder createENB() {
         if (freeENBList.isEmpty()) {
             return new ElementNodeBuilder();
@@ -534,6 +1147,54 @@ public class SAXContentHandler implements ContentHandler, LexicalHandler {
         return appender.appendField(result.getByteArray(), result.getStartOffset(), result.getLength());
     }
 
+    private UTF8StringPointable createTypeName(String name) {
+        UTF8StringPointable p = (UTF8StringPointable) UTF8StringPointable.FACTORY.createPointable();
+        int start = typeNamesABVS.getLength();
+        try {
+            typeNamesABVS.getDataOutput().writeUTF(name);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        p.set(typeNamesABVS.getByteArray(), start, typeNamesABVS.getLength() - start);
+        return p;
+    }
+
+    private static boolean equalsUTF8String(UTF8StringPointable p, byte[] bytes) {
+        int length = p.getLength();
+        if (bytes.length < length) {
+            return false;
+        }
+        byte[] pBytes = p.getByteArray();
+        int pStart = p.getStartOffset();
+        for (int i = 0; i < length; ++i) {
+            if (pBytes[pStart + i] != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes modified UTF-8 bytes without a length prefix.
+     */
+    private static void appendModifiedUTF8(StringBuilder sb, byte[] bytes, int start, int length) {
+        int i = start;
+        final int end = start + length;
+        while (i < end) {
+            int b = bytes[i] & 0xff;
+            if (b < 0x80) {
+                sb.append((char) b);
+                ++i;
+            } else if ((b & 0xe0) == 0xc0) {
+                sb.append((char) (((b & 0x1f) << 6) | (bytes[i + 1] & 0x3f)));
+                i += 2;
+            } else {
+                sb.append((char) (((b & 0x0f) << 12) | ((bytes[i + 1] & 0x3f) << 6) | (bytes[i + 2] & 0x3f)));
+                i += 3;
+            }
+        }
+    }
+
     private String getStringFromBytes(byte[] bytes) {
         StringBuilder sb = new StringBuilder();
         UTF8StringPointable.toString(sb, bytes, 0);
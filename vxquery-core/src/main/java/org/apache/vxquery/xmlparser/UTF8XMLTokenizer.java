@@ -0,0 +1,979 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.vxquery.xmlparser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.apache.vxquery.util.GrowableIntArray;
+import org.xml.sax.SAXException;
+
+import edu.uci.ics.hyracks.data.std.api.IPointable;
+
+/**
+ * A pull tokenizer that reads UTF-8 encoded XML directly from bytes. Names, attribute values and text are handed out
+ * in the modified UTF-8 form written by {@link java.io.DataOutput#writeUTF(String)}, so they can be copied into the
+ * node builders without decoding to characters.
+ * The tokenizer checks well-formedness of tags and resolves namespaces. Only the predefined entities and character
+ * references are expanded. A DOCTYPE may declare entities and default attributes, so it is reported as
+ * {@link #DOCTYPE} and the document is left to a SAX parser.
+ */
+public class UTF8XMLTokenizer {
+    public static final int START_ELEMENT = 1;
+    public static final int END_ELEMENT = 2;
+    public static final int CHARACTERS = 3;
+    public static final int COMMENT = 4;
+    public static final int PROCESSING_INSTRUCTION = 5;
+    public static final int END_DOCUMENT = 6;
+    public static final int DOCTYPE = 7;
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_REFERENCE_LENGTH = 12;
+
+    private static final byte[] EMPTY = new byte[0];
+    private static final byte[] XML = { 'x', 'm', 'l' };
+    private static final byte[] XMLNS = { 'x', 'm', 'l', 'n', 's' };
+    private static final byte[] XML_NS_URI = "http://www.w3.org/XML/1998/namespace".getBytes();
+    private static final byte[] COMMENT_START = { '<', '!', '-', '-' };
+    private static final byte[] CDATA_START = { '<', '!', '[', 'C', 'D', 'A', 'T', 'A', '[' };
+    private static final byte[] DOCTYPE_START = { '<', '!', 'D', 'O', 'C', 'T', 'Y', 'P', 'E' };
+    private static final byte[] ENCODING = { 'e', 'n', 'c', 'o', 'd', 'i', 'n', 'g' };
+
+    // Input
+    private InputStream in;
+    private byte[] buf;
+    private int pos;
+    private int limit;
+    private long consumed;
+
+    // Document state
+    private int depth;
+    private boolean rootSeen;
+    private boolean pendingEndElement;
+    private boolean reportCharacters;
+
+    // Strings of the current event.
+    private byte[] str;
+    private int strLength;
+    private int prefixOffset;
+    private int localNameOffset;
+    private int uriOffset;
+    private int textStart;
+    private int targetOffset;
+    private int dataOffset;
+    private final GrowableIntArray attributes;
+    private int attributeCount;
+
+    // Raw attribute positions in the tag, relative to the tag start.
+    private final GrowableIntArray rawAttributes;
+
+    // Namespace bindings in scope, as pairs of prefix and URI offsets into nsData.
+    private byte[] nsData;
+    private int nsLength;
+    private int[] nsBindings;
+    private int nsBindingCount;
+
+    // Open elements, with the raw qualified name and the namespace state to restore.
+    private byte[] nameData;
+    private int nameLength;
+    private int[] openElements;
+    private int openElementCount;
+
+    public UTF8XMLTokenizer(int bufferSize) {
+        buf = new byte[bufferSize > 0 ? bufferSize : DEFAULT_BUFFER_SIZE];
+        str = new byte[256];
+        attributes = new GrowableIntArray();
+        rawAttributes = new GrowableIntArray();
+        nsData = new byte[256];
+        nsBindings = new int[16];
+        nameData = new byte[256];
+        openElements = new int[48];
+    }
+
+    public void reset(InputStream in) throws IOException, SAXException {
+        this.in = in;
+        pos = 0;
+        limit = 0;
+        consumed = 0;
+        depth = 0;
+        rootSeen = false;
+        pendingEndElement = false;
+        reportCharacters = true;
+        nsLength = 0;
+        nsBindingCount = 0;
+        nameLength = 0;
+        openElementCount = 0;
+        bindNamespace(XML, 0, XML.length, XML_NS_URI, 0, XML_NS_URI.length);
+
+        // Byte order marks
+        if (fill(3) && (buf[0] & 0xff) == 0xef && (buf[1] & 0xff) == 0xbb && (buf[2] & 0xff) == 0xbf) {
+            pos = 3;
+        } else if (fill(2) && (((buf[0] & 0xff) == 0xfe && (buf[1] & 0xff) == 0xff)
+                || ((buf[0] & 0xff) == 0xff && (buf[1] & 0xff) == 0xfe))) {
+            throw error("UTF-16 documents are not supported by the UTF-8 parser");
+        }
+    }
+
+    /**
+     * Text is only decoded while characters are reported. Skipped text still has to be well-formed.
+     */
+    public void setReportCharacters(boolean reportCharacters) {
+        this.reportCharacters = reportCharacters;
+    }
+
+    public int next() throws IOException, SAXException {
+        if (pendingEndElement) {
+            pendingEndElement = false;
+            popElement();
+            return END_ELEMENT;
+        }
+        while (true) {
+            if (!fill(1)) {
+                if (depth > 0) {
+                    throw error("Unexpected end of document");
+                }
+                if (!rootSeen) {
+                    throw error("Document has no root element");
+                }
+                return END_DOCUMENT;
+            }
+            if (buf[pos] == '<') {
+                int c = peek(1);
+                if (c == '/') {
+                    parseEndTag();
+                    return END_ELEMENT;
+                } else if (c == '?') {
+                    if (parseProcessingInstruction()) {
+                        return PROCESSING_INSTRUCTION;
+                    }
+                } else if (c == '!') {
+                    if (startsWith(COMMENT_START)) {
+                        parseComment();
+                        return COMMENT;
+                    } else if (startsWith(CDATA_START)) {
+                        if (depth == 0) {
+                            throw error("CDATA section outside of the root element");
+                        }
+                        if (parseCData() && reportCharacters) {
+                            return CHARACTERS;
+                        }
+                    } else if (startsWith(DOCTYPE_START) && !rootSeen) {
+                        return DOCTYPE;
+                    } else {
+                        throw error("Unexpected markup");
+                    }
+                } else {
+                    parseStartTag();
+                    return START_ELEMENT;
+                }
+            } else if (depth == 0) {
+                skipWhitespace();
+            } else if (parseText(reportCharacters) && reportCharacters) {
+                return CHARACTERS;
+            }
+        }
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public void getPrefix(IPointable p) {
+        setString(p, prefixOffset);
+    }
+
+    public void getLocalName(IPointable p) {
+        setString(p, localNameOffset);
+    }
+
+    public void getURI(IPointable p) {
+        setString(p, uriOffset);
+    }
+
+    public int getAttributeCount() {
+        return attributeCount;
+    }
+
+    public void getAttributePrefix(int index, IPointable p) {
+        setString(p, attributes.getArray()[index * 4]);
+    }
+
+    public void getAttributeLocalName(int index, IPointable p) {
+        setString(p, attributes.getArray()[index * 4 + 1]);
+    }
+
+    public void getAttributeURI(int index, IPointable p) {
+        setString(p, attributes.getArray()[index * 4 + 2]);
+    }
+
+    public void getAttributeValue(int index, IPointable p) {
+        setString(p, attributes.getArray()[index * 4 + 3]);
+    }
+
+    /**
+     * @return Bytes of the current text or comment, without a length.
+     */
+    public byte[] getTextBytes() {
+        return str;
+    }
+
+    public int getTextStart() {
+        return textStart;
+    }
+
+    public int getTextLength() {
+        return strLength - textStart;
+    }
+
+    public void getPITarget(IPointable p) {
+        setString(p, targetOffset);
+    }
+
+    public void getPIData(IPointable p) {
+        setString(p, dataOffset);
+    }
+
+    private void setString(IPointable p, int offset) {
+        int utfLength = ((str[offset] & 0xff) << 8) | (str[offset + 1] & 0xff);
+        p.set(str, offset, utfLength + 2);
+    }
+
+    // ---------------------------------------------------------------------
+    // Markup
+
+    private void parseStartTag() throws IOException, SAXException {
+        if (depth == 0 && rootSeen) {
+            throw error("Content after the root element");
+        }
+        // First pass: find the extent of the tag. Offsets are relative to pos, so buffer refills do not move them.
+        rawAttributes.clear();
+        int nameStart = 1;
+        int rel = scanName(nameStart);
+        int nameEnd = rel;
+        boolean empty = false;
+        while (true) {
+            int ws = rel;
+            rel = skipWhitespace(rel);
+            int c = peek(rel);
+            if (c == '>') {
+                ++rel;
+                break;
+            } else if (c == '/') {
+                if (peek(rel + 1) != '>') {
+                    throw error("Expected '>' after '/'");
+                }
+                empty = true;
+                rel += 2;
+                break;
+            } else if (c < 0) {
+                throw error("Unexpected end of document in start tag");
+            } else if (ws == rel) {
+                throw error("Expected whitespace before attribute");
+            }
+            int aNameStart = rel;
+            rel = scanName(rel);
+            int aNameEnd = rel;
+            rel = skipWhitespace(rel);
+            if (peek(rel) != '=') {
+                throw error("Expected '=' after attribute name");
+            }
+            rel = skipWhitespace(rel + 1);
+            int quote = peek(rel);
+            if (quote != '"' && quote != '\'') {
+                throw error("Expected quoted attribute value");
+            }
+            int valueStart = ++rel;
+            while (true) {
+                c = peek(rel);
+                if (c == quote) {
+                    break;
+                } else if (c == '<') {
+                    throw error("'<' in attribute value");
+                } else if (c < 0) {
+                    throw error("Unexpected end of document in attribute value");
+                }
+                ++rel;
+            }
+            rawAttributes.append(aNameStart);
+            rawAttributes.append(aNameEnd);
+            rawAttributes.append(valueStart);
+            rawAttributes.append(rel);
+            ++rel;
+        }
+
+        // Second pass: the whole tag is in the buffer.
+        strLength = 0;
+        attributes.clear();
+        attributeCount = 0;
+        if (openElements.length < openElementCount + 3) {
+            openElements = Arrays.copyOf(openElements, openElements.length * 2);
+        }
+        openElements[openElementCount++] = nameLength;
+        openElements[openElementCount++] = nsLength;
+        openElements[openElementCount++] = nsBindingCount;
+        pushName(pos + nameStart, nameEnd - nameStart);
+
+        // Namespace declarations apply to the element itself, so bind them first.
+        int nRaw = rawAttributes.getSize() / 4;
+        int[] raw = rawAttributes.getArray();
+        for (int i = 0; i < nRaw; ++i) {
+            int aStart = pos + raw[i * 4];
+            int aLength = raw[i * 4 + 1] - raw[i * 4];
+            if (regionEquals(aStart, aLength, XMLNS)) {
+                int valueOffset = appendAttributeValue(pos + raw[i * 4 + 2], pos + raw[i * 4 + 3]);
+                bindNamespace(EMPTY, 0, 0, str, valueOffset + 2, strLength - valueOffset - 2);
+            } else if (aLength > XMLNS.length && buf[aStart + XMLNS.length] == ':'
+                    && regionEquals(aStart, XMLNS.length, XMLNS)) {
+                int valueOffset = appendAttributeValue(pos + raw[i * 4 + 2], pos + raw[i * 4 + 3]);
+                bindNamespace(buf, aStart + XMLNS.length + 1, aLength - XMLNS.length - 1, str, valueOffset + 2,
+                        strLength - valueOffset - 2);
+            }
+        }
+
+        int colon = indexOf(pos + nameStart, nameEnd - nameStart, ':');
+        if (colon < 0) {
+            prefixOffset = appendString(buf, 0, 0);
+            localNameOffset = appendName(pos + nameStart, nameEnd - nameStart);
+            uriOffset = appendNamespaceURI(buf, 0, 0);
+        } else {
+            prefixOffset = appendName(pos + nameStart, colon - pos - nameStart);
+            localNameOffset = appendName(colon + 1, pos + nameEnd - colon - 1);
+            uriOffset = appendNamespaceURI(buf, pos + nameStart, colon - pos - nameStart);
+        }
+
+        for (int i = 0; i < nRaw; ++i) {
+            int aStart = pos + raw[i * 4];
+            int aLength = raw[i * 4 + 1] - raw[i * 4];
+            if (regionEquals(aStart, aLength, XMLNS)
+                    || (aLength > XMLNS.length && buf[aStart + XMLNS.length] == ':' && regionEquals(aStart,
+                            XMLNS.length, XMLNS))) {
+                continue;
+            }
+            int aColon = indexOf(aStart, aLength, ':');
+            if (aColon < 0) {
+                attributes.append(appendString(buf, 0, 0));
+                attributes.append(appendName(aStart, aLength));
+                attributes.append(appendString(buf, 0, 0));
+            } else {
+                attributes.append(appendName(aStart, aColon - aStart));
+                attributes.append(appendName(aColon + 1, aStart + aLength - aColon - 1));
+                attributes.append(appendNamespaceURI(buf, aStart, aColon - aStart));
+            }
+            attributes.append(appendAttributeValue(pos + raw[i * 4 + 2], pos + raw[i * 4 + 3]));
+            ++attributeCount;
+        }
+
+        pos += rel;
+        ++depth;
+        rootSeen = true;
+        pendingEndElement = empty;
+    }
+
+    private void parseEndTag() throws IOException, SAXException {
+        int nameStart = 2;
+        int rel = scanName(nameStart);
+        int nameEnd = rel;
+        rel = skipWhitespace(rel);
+        if (peek(rel) != '>') {
+            throw error("Expected '>' in end tag");
+        }
+        if (depth == 0) {
+            throw error("End tag without start tag");
+        }
+        int openName = openElements[openElementCount - 3];
+        int length = nameEnd - nameStart;
+        if (length != nameLength - openName) {
+            throw error("End tag does not match start tag");
+        }
+        for (int i = 0; i < length; ++i) {
+            if (buf[pos + nameStart + i] != nameData[openName + i]) {
+                throw error("End tag does not match start tag");
+            }
+        }
+        pos += rel + 1;
+        popElement();
+    }
+
+    private void popElement() {
+        nsBindingCount = openElements[--openElementCount];
+        nsLength = openElements[--openElementCount];
+        nameLength = openElements[--openElementCount];
+        --depth;
+    }
+
+    private boolean parseProcessingInstruction() throws IOException, SAXException {
+        int targetStart = 2;
+        int rel = scanName(targetStart);
+        int targetEnd = rel;
+        rel = skipWhitespace(rel);
+        int dataStart = rel;
+        while (true) {
+            int c = peek(rel);
+            if (c == '?' && peek(rel + 1) == '>') {
+                break;
+            } else if (c < 0) {
+                throw error("Unexpected end of document in processing instruction");
+            }
+            ++rel;
+        }
+        int tStart = pos + targetStart;
+        int tLength = targetEnd - targetStart;
+        if (tLength == XML.length && (buf[tStart] | 0x20) == 'x' && (buf[tStart + 1] | 0x20) == 'm'
+                && (buf[tStart + 2] | 0x20) == 'l') {
+            if (rootSeen || consumed + pos > 3) {
+                throw error("XML declaration is only allowed at the start of the document");
+            }
+            checkEncoding(pos + dataStart, pos + rel);
+            pos += rel + 2;
+            return false;
+        }
+        strLength = 0;
+        targetOffset = appendName(tStart, tLength);
+        dataOffset = strLength;
+        strLength += 2;
+        appendRaw(pos + dataStart, pos + rel);
+        endString(dataOffset);
+        pos += rel + 2;
+        return true;
+    }
+
+    private void checkEncoding(int start, int end) throws SAXException {
+        for (int i = start; i + ENCODING.length < end; ++i) {
+            if (regionEquals(i, ENCODING.length, ENCODING)) {
+                int j = i + ENCODING.length;
+                while (j < end && (buf[j] == ' ' || buf[j] == '=' || buf[j] == '\t' || buf[j] == '\n' || buf[j] == '\r')) {
+                    ++j;
+                }
+                if (j >= end || (buf[j] != '"' && buf[j] != '\'')) {
+                    throw error("Invalid encoding declaration");
+                }
+                byte quote = buf[j++];
+                int valueStart = j;
+                while (j < end && buf[j] != quote) {
+                    ++j;
+                }
+                String encoding = new String(buf, valueStart, j - valueStart).toUpperCase();
+                if (!encoding.equals("UTF-8") && !encoding.equals("UTF8") && !encoding.equals("US-ASCII")
+                        && !encoding.equals("ASCII")) {
+                    throw error("The UTF-8 parser does not support the " + encoding + " encoding");
+                }
+                return;
+            }
+        }
+    }
+
+    private void parseComment() throws IOException, SAXException {
+        int rel = COMMENT_START.length;
+        int start = rel;
+        while (true) {
+            int c = peek(rel);
+            if (c == '-' && peek(rel + 1) == '-') {
+                if (peek(rel + 2) != '>') {
+                    throw error("'--' in comment");
+                }
+                break;
+            } else if (c < 0) {
+                throw error("Unexpected end of document in comment");
+            }
+            ++rel;
+        }
+        strLength = 0;
+        textStart = 0;
+        appendRaw(pos + start, pos + rel);
+        pos += rel + 3;
+    }
+
+    private boolean parseCData() throws IOException, SAXException {
+        int rel = CDATA_START.length;
+        int start = rel;
+        while (true) {
+            int c = peek(rel);
+            if (c == ']' && peek(rel + 1) == ']' && peek(rel + 2) == '>') {
+                break;
+            } else if (c < 0) {
+                throw error("Unexpected end of document in CDATA section");
+            }
+            ++rel;
+        }
+        boolean hasText = rel > start;
+        if (reportCharacters) {
+            strLength = 0;
+            textStart = 0;
+            appendRaw(pos + start, pos + rel);
+        }
+        pos += rel + 3;
+        return hasText;
+    }
+
+    private void skipWhitespace() throws IOException, SAXException {
+        while (fill(1)) {
+            byte b = buf[pos];
+            if (b == '<') {
+                return;
+            }
+            if (b != ' ' && b != '\t' && b != '\n' && b != '\r') {
+                throw error("Text outside of the root element");
+            }
+            ++pos;
+        }
+    }
+
+    // ---------------------------------------------------------------------
+    // Text
+
+    /**
+     * Reads text up to the next markup.
+     *
+     * @return true if any text was read.
+     */
+    private boolean parseText(boolean decode) throws IOException, SAXException {
+        strLength = 0;
+        textStart = 0;
+        boolean hasText = false;
+        while (pos < limit || fill(1)) {
+            int i = pos;
+            boolean markup = false;
+            while (i < limit) {
+                byte b = buf[i];
+                if (b == '<') {
+                    markup = true;
+                    break;
+                }
+                if (b == '&' || b == '\r' || (b & 0xf8) == 0xf0) {
+                    break;
+                }
+                ++i;
+            }
+            if (i > pos) {
+                hasText = true;
+                if (decode) {
+                    append(buf, pos, i - pos);
+                }
+                pos = i;
+            }
+            if (markup) {
+                break;
+            }
+            if (pos >= limit) {
+                continue;
+            }
+            hasText = true;
+            byte b = buf[pos];
+            if (b == '&') {
+                int rel = 1;
+                while (peek(rel) != ';') {
+                    if (rel > MAX_REFERENCE_LENGTH || peek(rel) < 0) {
+                        throw error("Invalid entity reference");
+                    }
+                    ++rel;
+                }
+                int cp = decodeReference(pos + 1, pos + rel);
+                if (decode) {
+                    appendCodePoint(cp);
+                }
+                pos += rel + 1;
+            } else if (b == '\r') {
+                // Line ends are normalized to a single line feed.
+                if (peek(1) != '\n' && decode) {
+                    appendByte('\n');
+                }
+                ++pos;
+            } else {
+                if (!fill(4)) {
+                    throw error("Truncated UTF-8 sequence");
+                }
+                if (decode) {
+                    appendCodePoint(decodeFourByteSequence(pos));
+                }
+                pos += 4;
+            }
+        }
+        return hasText;
+    }
+
+    private int decodeReference(int start, int end) throws SAXException {
+        int length = end - start;
+        if (length > 1 && buf[start] == '#') {
+            int cp = 0;
+            if (buf[start + 1] == 'x') {
+                if (length < 3) {
+                    throw error("Invalid character reference");
+                }
+                for (int i = start + 2; i < end; ++i) {
+                    int digit = Character.digit(buf[i], 16);
+                    if (digit < 0) {
+                        throw error("Invalid character reference");
+                    }
+                    cp = cp * 16 + digit;
+                    if (cp > Character.MAX_CODE_POINT) {
+                        throw error("Invalid character reference");
+                    }
+                }
+            } else {
+                for (int i = start + 1; i < end; ++i) {
+                    int digit = Character.digit(buf[i], 10);
+                    if (digit < 0) {
+                        throw error("Invalid character reference");
+                    }
+                    cp = cp * 10 + digit;
+                    if (cp > Character.MAX_CODE_POINT) {
+                        throw error("Invalid character reference");
+                    }
+                }
+            }
+            if (!isXMLChar(cp)) {
+                throw error("Invalid character reference");
+            }
+            return cp;
+        }
+        if (length == 2 && buf[start] == 'l' && buf[start + 1] == 't') {
+            return '<';
+        } else if (length == 2 && buf[start] == 'g' && buf[start + 1] == 't') {
+            return '>';
+        } else if (length == 3 && buf[start] == 'a' && buf[start + 1] == 'm' && buf[start + 2] == 'p') {
+            return '&';
+        } else if (length == 4 && buf[start] == 'a' && buf[start + 1] == 'p' && buf[start + 2] == 'o'
+                && buf[start + 3] == 's') {
+            return '\'';
+        } else if (length == 4 && buf[start] == 'q' && buf[start + 1] == 'u' && buf[start + 2] == 'o'
+                && buf[start + 3] == 't') {
+            return '"';
+        }
+        throw error("Undeclared entity '" + new String(buf, start, length) + "'");
+    }
+
+    /**
+     * @return Whether the code point matches the Char production of XML 1.0, which excludes surrogates.
+     */
+    private static boolean isXMLChar(int cp) {
+        return cp == 0x9 || cp == 0xA || cp == 0xD || (cp >= 0x20 && cp <= 0xD7FF) || (cp >= 0xE000 && cp <= 0xFFFD)
+                || (cp >= 0x10000 && cp <= Character.MAX_CODE_POINT);
+    }
+
+    private int decodeFourByteSequence(int i) {
+        return ((buf[i] & 0x07) << 18) | ((buf[i + 1] & 0x3f) << 12) | ((buf[i + 2] & 0x3f) << 6)
+                | (buf[i + 3] & 0x3f);
+    }
+
+    /**
+     * Appends an attribute value with references expanded and whitespace normalized.
+     *
+     * @return Offset of the value string.
+     */
+    private int appendAttributeValue(int start, int end) throws SAXException {
+        int offset = strLength;
+        ensureString(2);
+        strLength += 2;
+        int runStart = start;
+        int i = start;
+        while (i < end) {
+            byte b = buf[i];
+            if (b == '&' || b == '\r' || b == '\n' || b == '\t' || (b & 0xf8) == 0xf0) {
+                append(buf, runStart, i - runStart);
+                if (b == '&') {
+                    int semicolon = i + 1;
+                    while (semicolon < end && buf[semicolon] != ';') {
+                        ++semicolon;
+                    }
+                    if (semicolon >= end) {
+                        throw error("Invalid entity reference");
+                    }
+                    appendCodePoint(decodeReference(i + 1, semicolon));
+                    i = semicolon + 1;
+                } else if (b == '\r') {
+                    appendByte(' ');
+                    i += (i + 1 < end && buf[i + 1] == '\n') ? 2 : 1;
+                } else if (b == '\n' || b == '\t') {
+                    appendByte(' ');
+                    ++i;
+                } else {
+                    if (i + 4 > end) {
+                        throw error("Truncated UTF-8 sequence");
+                    }
+                    appendCodePoint(decodeFourByteSequence(i));
+                    i += 4;
+                }
+                runStart = i;
+            } else {
+                ++i;
+            }
+        }
+        append(buf, runStart, end - runStart);
+        endString(offset);
+        return offset;
+    }
+
+    /**
+     * Appends text without references, normalizing line ends.
+     */
+    private void appendRaw(int start, int end) throws SAXException {
+        int runStart = start;
+        int i = start;
+        while (i < end) {
+            byte b = buf[i];
+            if (b == '\r' || (b & 0xf8) == 0xf0) {
+                append(buf, runStart, i - runStart);
+                if (b == '\r') {
+                    if (i + 1 >= end || buf[i + 1] != '\n') {
+                        appendByte('\n');
+                    }
+                    ++i;
+                } else {
+                    if (i + 4 > end) {
+                        throw error("Truncated UTF-8 sequence");
+                    }
+                    appendCodePoint(decodeFourByteSequence(i));
+                    i += 4;
+                }
+                runStart = i;
+            } else {
+                ++i;
+            }
+        }
+        append(buf, runStart, end - runStart);
+    }
+
+    // ---------------------------------------------------------------------
+    // Namespaces
+
+    private void bindNamespace(byte[] prefix, int prefixStart, int prefixLength, byte[] uri, int uriStart,
+            int uriLength) {
+        if (nsBindings.length < nsBindingCount + 2) {
+            nsBindings = Arrays.copyOf(nsBindings, nsBindings.length * 2);
+        }
+        nsBindings[nsBindingCount++] = nsLength;
+        nsAppend(prefix, prefixStart, prefixLength);
+        nsBindings[nsBindingCount++] = nsLength;
+        nsAppend(uri, uriStart, uriLength);
+    }
+
+    private void nsAppend(byte[] bytes, int start, int length) {
+        if (nsData.length < nsLength + length + 2) {
+            nsData = Arrays.copyOf(nsData, Math.max(nsData.length * 2, nsLength + length + 2));
+        }
+        nsData[nsLength++] = (byte) ((length >>> 8) & 0xff);
+        nsData[nsLength++] = (byte) (length & 0xff);
+        System.arraycopy(bytes, start, nsData, nsLength, length);
+        nsLength += length;
+    }
+
+    /**
+     * Appends the URI bound to a raw prefix. The innermost binding wins.
+     */
+    private int appendNamespaceURI(byte[] prefix, int prefixStart, int prefixLength) throws SAXException {
+        for (int i = nsBindingCount - 2; i >= 0; i -= 2) {
+            int p = nsBindings[i];
+            int pLength = ((nsData[p] & 0xff) << 8) | (nsData[p + 1] & 0xff);
+            if (pLength != prefixLength) {
+                continue;
+            }
+            boolean match = true;
+            for (int j = 0; j < prefixLength; ++j) {
+                if (nsData[p + 2 + j] != prefix[prefixStart + j]) {
+                    match = false;
+                    break;
+                }
+            }
+            if (match) {
+                int u = nsBindings[i + 1];
+                int uLength = ((nsData[u] & 0xff) << 8) | (nsData[u + 1] & 0xff);
+                return appendString(nsData, u + 2, uLength);
+            }
+        }
+        if (prefixLength == 0) {
+            return appendString(EMPTY, 0, 0);
+        }
+        throw error("Undeclared namespace prefix '" + new String(prefix, prefixStart, prefixLength) + "'");
+    }
+
+    private void pushName(int start, int length) {
+        if (nameData.length < nameLength + length) {
+            nameData = Arrays.copyOf(nameData, Math.max(nameData.length * 2, nameLength + length));
+        }
+        System.arraycopy(buf, start, nameData, nameLength, length);
+        nameLength += length;
+    }
+
+    // ---------------------------------------------------------------------
+    // String building
+
+    private int appendString(byte[] bytes, int start, int length) throws SAXException {
+        int offset = strLength;
+        ensureString(2);
+        strLength += 2;
+        append(bytes, start, length);
+        endString(offset);
+        return offset;
+    }
+
+    private int appendName(int start, int length) throws SAXException {
+        int offset = strLength;
+        ensureString(2);
+        strLength += 2;
+        appendRaw(start, start + length);
+        endString(offset);
+        return offset;
+    }
+
+    private void endString(int offset) throws SAXException {
+        int utfLength = strLength - offset - 2;
+        if (utfLength > 0xffff) {
+            throw error("String too long: " + utfLength + " bytes");
+        }
+        str[offset] = (byte) ((utfLength >>> 8) & 0xff);
+        str[offset + 1] = (byte) (utfLength & 0xff);
+    }
+
+    private void ensureString(int length) {
+        if (str.length < strLength + length) {
+            str = Arrays.copyOf(str, Math.max(str.length * 2, strLength + length));
+        }
+    }
+
+    private void append(byte[] bytes, int start, int length) {
+        ensureString(length);
+        System.arraycopy(bytes, start, str, strLength, length);
+        strLength += length;
+    }
+
+    private void appendByte(int b) {
+        ensureString(1);
+        str[strLength++] = (byte) b;
+    }
+
+    /**
+     * Appends a code point in modified UTF-8. Supplementary characters become a surrogate pair.
+     */
+    private void appendCodePoint(int cp) {
+        if (cp >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+            char[] pair = Character.toChars(cp);
+            appendChar(pair[0]);
+            appendChar(pair[1]);
+        } else {
+            appendChar((char) cp);
+        }
+    }
+
+    private void appendChar(char c) {
+        ensureString(3);
+        if (c >= 0x0001 && c <= 0x007f) {
+            str[strLength++] = (byte) c;
+        } else if (c > 0x07ff) {
+            str[strLength++] = (byte) (0xe0 | ((c >> 12) & 0x0f));
+            str[strLength++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            str[strLength++] = (byte) (0x80 | (c & 0x3f));
+        } else {
+            str[strLength++] = (byte) (0xc0 | ((c >> 6) & 0x1f));
+            str[strLength++] = (byte) (0x80 | (c & 0x3f));
+        }
+    }
+
+    // ---------------------------------------------------------------------
+    // Input
+
+    /**
+     * Makes sure at least n bytes are buffered at pos.
+     *
+     * @return false if the document ends first.
+     */
+    private boolean fill(int n) throws IOException {
+        if (limit - pos >= n) {
+            return true;
+        }
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, limit - pos);
+            consumed += pos;
+            limit -= pos;
+            pos = 0;
+        }
+        if (n > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(n, buf.length * 2));
+        }
+        while (limit < n) {
+            int read = in.read(buf, limit, buf.length - limit);
+            if (read < 0) {
+                return false;
+            }
+            limit += read;
+        }
+        return true;
+    }
+
+    private int peek(int rel) throws IOException {
+        if (pos + rel >= limit && !fill(rel + 1)) {
+            return -1;
+        }
+        return buf[pos + rel] & 0xff;
+    }
+
+    private int scanName(int rel) throws IOException, SAXException {
+        int start = rel;
+        while (true) {
+            int c = peek(rel);
+            if (c < 0 || c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '>' || c == '/' || c == '='
+                    || c == '<' || c == '?' || c == '"' || c == '\'') {
+                break;
+            }
+            ++rel;
+        }
+        if (rel == start) {
+            throw error("Expected a name");
+        }
+        return rel;
+    }
+
+    private int skipWhitespace(int rel) throws IOException {
+        while (true) {
+            int c = peek(rel);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return rel;
+            }
+            ++rel;
+        }
+    }
+
+    private boolean startsWith(byte[] prefix) throws IOException {
+        if (!fill(prefix.length)) {
+            return false;
+        }
+        return regionEquals(pos, prefix.length, prefix);
+    }
+
+    private boolean regionEquals(int start, int length, byte[] bytes) {
+        if (length != bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < length; ++i) {
+            if (buf[start + i] != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int indexOf(int start, int length, int b) {
+        for (int i = start; i < start + length; ++i) {
+            if (buf[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private SAXException error(String message) {
+        return new SAXException(message + " (at byte " + (consumed + pos) + ")");
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.vxquery.xmlparser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Opens XML files for parsing. Compressed files are recognized by their magic bytes, not their name.
+ */
+public class XMLInputHelper {
+    private static final int INFLATE_BUFFER_SIZE = 64 * 1024;
+
+    private static final byte[] GZIP_MAGIC = { (byte) 0x1f, (byte) 0x8b };
+    private static final byte[] ZSTD_MAGIC = { (byte) 0x28, (byte) 0xb5, (byte) 0x2f, (byte) 0xfd };
+    private static final byte[] LZ4_MAGIC = { (byte) 0x04, (byte) 0x22, (byte) 0x4d, (byte) 0x18 };
+    private static final byte[] BZIP2_MAGIC = { 'B', 'Z', 'h' };
+    private static final byte[] XZ_MAGIC = { (byte) 0xfd, '7', 'z', 'X', 'Z', 0 };
+    private static final int MAGIC_LENGTH = 6;
+
+    private XMLInputHelper() {
+    }
+
+    /**
+     * Open a file as a stream of uncompressed XML bytes. Gzip files are inflated on a separate thread while the
+     * caller parses.
+     */
+    public static InputStream openInputStream(File file) throws IOException {
+        return openInputStream(file, false);
+    }
+
+    /**
+     * @param mapped
+     *            Read the file through memory mapped chunks instead of a file stream.
+     */
+    public static InputStream openInputStream(File file, boolean mapped) throws IOException {
+        InputStream source = mapped ? new MappedFileInputStream(file) : new FileInputStream(file);
+        PushbackInputStream in = new PushbackInputStream(source, MAGIC_LENGTH);
+        try {
+            byte[] magic = peek(in, MAGIC_LENGTH);
+            if (startsWith(magic, GZIP_MAGIC)) {
+                return new AsyncInputStream(new GZIPInputStream(in, INFLATE_BUFFER_SIZE));
+            }
+            if (startsWith(magic, ZSTD_MAGIC)) {
+                throw unsupported(file, "zstd");
+            }
+            if (startsWith(magic, LZ4_MAGIC)) {
+                throw unsupported(file, "lz4");
+            }
+            if (startsWith(magic, BZIP2_MAGIC)) {
+                throw unsupported(file, "bzip2");
+            }
+            if (startsWith(magic, XZ_MAGIC)) {
+                throw unsupported(file, "xz");
+            }
+            return in;
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    private static byte[] peek(PushbackInputStream in, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int n = in.read(bytes, read, length - read);
+            if (n < 0) {
+                break;
+            }
+            read += n;
+        }
+        in.unread(bytes, 0, read);
+        if (read < length) {
+            byte[] shorter = new byte[read];
+            System.arraycopy(bytes, 0, shorter, 0, read);
+            return shorter;
+        }
+        return bytes;
+    }
+
+    private static boolean startsWith(byte[] bytes, byte[] prefix) {
+        if (bytes.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; ++i) {
+            if (bytes[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static IOException unsupported(File file, String compression) {
+        return new IOException("The file " + file.getAbsolutePath() + " is " + compression
+                + " compressed, which is not supported. Use gzip or uncompressed XML.");
+    }
+}
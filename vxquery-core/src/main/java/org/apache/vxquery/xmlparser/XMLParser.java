@@ -16,18 +16,23 @@ package org.apache.vxquery.xmlparser;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.vxquery.context.StaticContext;
+import org.apache.vxquery.datamodel.builders.nodes.SharedDictionary;
 import org.apache.vxquery.exceptions.VXQueryFileNotFoundException;
 import org.apache.vxquery.exceptions.VXQueryParseException;
+import org.apache.vxquery.types.AttributeType;
+import org.apache.vxquery.types.ElementType;
+import org.apache.vxquery.types.NameTest;
 import org.apache.vxquery.types.SequenceType;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
@@ -46,6 +51,12 @@ public class XMLParser {
     final InputSource in;
     final String nodeId;
     final int bufferSize;
+    final boolean utf8Parser;
+    final boolean mappedIO;
+    final UTF8XMLTokenizer tokenizer;
+    final NodeTreeCache cache;
+    final String documentSettings;
+    final boolean nodeIds;
 
     public XMLParser(boolean attachTypes, ITreeNodeIdProvider idProvider, String nodeId) throws HyracksDataException {
         this(attachTypes, idProvider, nodeId, null, null, null, null);
@@ -54,18 +65,57 @@ public class XMLParser {
     public XMLParser(boolean attachTypes, ITreeNodeIdProvider idProvider, String nodeId, ByteBuffer frame,
             FrameTupleAppender appender, List<Integer> childSeq, StaticContext staticContext)
             throws HyracksDataException {
+        this(attachTypes, idProvider, nodeId, frame, appender, childSeq, null, null, null, staticContext);
+    }
+
+    public XMLParser(boolean attachTypes, ITreeNodeIdProvider idProvider, String nodeId, ByteBuffer frame,
+            FrameTupleAppender appender, List<Integer> childSeq, List<ElementValuePredicate> valuePredicates,
+            List<Integer> projection, SharedDictionary sharedDictionary, StaticContext staticContext)
+            throws HyracksDataException {
         bufferSize = Integer.parseInt(System.getProperty("vxquery.buffer_size", "-1"));
+        mappedIO = Boolean.parseBoolean(System.getProperty("vxquery.mapped_io", "false"));
+        utf8Parser = Boolean.parseBoolean(System.getProperty("vxquery.utf8_parser", "false"));
+        tokenizer = utf8Parser ? new UTF8XMLTokenizer(bufferSize) : null;
         this.nodeId = nodeId;
+        nodeIds = idProvider != null;
+        documentSettings = "types=" + attachTypes + " ids=" + nodeIds + " utf8Parser=" + utf8Parser;
+        String cacheDirectory = System.getProperty("vxquery.parse_cache", "");
         try {
             parser = XMLReaderFactory.createXMLReader();
             if (frame == null || appender == null) {
                 handler = new SAXContentHandler(attachTypes, idProvider);
+                cache = null;
             } else {
+                // Describes everything that shapes the written trees.
+                StringBuilder cacheKey = new StringBuilder();
+                cacheKey.append("types=").append(attachTypes).append(" ids=").append(idProvider != null);
+                cacheKey.append(" utf8Parser=").append(utf8Parser);
                 List<SequenceType> childSequenceTypes = new ArrayList<SequenceType>();
                 for (int typeCode : childSeq) {
                     childSequenceTypes.add(staticContext.lookupSequenceType(typeCode));
                 }
+                cacheKey.append(" childSeq=").append(childSequenceTypes);
                 handler = new SAXContentHandler(attachTypes, idProvider, frame, appender, childSequenceTypes);
+                if (valuePredicates != null && !valuePredicates.isEmpty()) {
+                    List<NameTest> nameTests = new ArrayList<NameTest>();
+                    for (ElementValuePredicate predicate : valuePredicates) {
+                        nameTests.add(getNameTest(staticContext.lookupSequenceType(predicate.getTypeCode())));
+                    }
+                    handler.setValuePredicates(valuePredicates, nameTests);
+                    cacheKey.append(" predicates=").append(valuePredicates).append(nameTests);
+                }
+                if (projection != null) {
+                    List<NameTest> nameTests = new ArrayList<NameTest>();
+                    for (int typeCode : projection) {
+                        nameTests.add(getNameTest(staticContext.lookupSequenceType(typeCode)));
+                    }
+                    handler.setProjection(nameTests);
+                    cacheKey.append(" projection=").append(nameTests);
+                }
+                // Trees with a shared dictionary are only valid during the job and are not cached.
+                handler.setSharedDictionary(sharedDictionary);
+                cache = cacheDirectory.isEmpty() || sharedDictionary != null ? null : new NodeTreeCache(new File(
+                        cacheDirectory), cacheKey.toString());
             }
             parser.setContentHandler(handler);
             parser.setProperty("http://xml.org/sax/properties/lexical-handler", handler);
@@ -77,16 +127,24 @@ public class XMLParser {
 
     public void parseDocument(File file, ArrayBackedValueStorage abvs) throws HyracksDataException {
         try {
-            Reader input;
-            if (bufferSize > 0) {
-                input = new BufferedReader(new InputStreamReader(new FileInputStream(file)), bufferSize);
-            } else {
-                input = new InputStreamReader(new FileInputStream(file));
+            DocumentCache documentCache = DocumentCache.getInstance();
+            if (!documentCache.isEnabled()) {
+                parse(file);
+                handler.writeDocument(abvs);
+                return;
             }
-            in.setCharacterStream(input);
-            parser.parse(in);
+            // Read before parsing, so a change during the parse makes the entry stale.
+            long lastModified = file.lastModified();
+            long length = file.length();
+            byte[] tree = documentCache.get(file, documentSettings, lastModified, length);
+            if (tree != null) {
+                handler.writeCachedDocument(tree, abvs);
+                return;
+            }
+            parse(file);
+            int start = abvs.getStartOffset() + abvs.getLength();
             handler.writeDocument(abvs);
-            input.close();
+            documentCache.put(file, documentSettings, lastModified, length, copyWithoutNodeId(abvs, start));
         } catch (FileNotFoundException e) {
             HyracksDataException hde = new VXQueryFileNotFoundException(e, file);
             hde.setNodeId(nodeId);
@@ -105,16 +163,12 @@ public class XMLParser {
     public void parseElements(File file, IFrameWriter writer, FrameTupleAccessor fta, int tupleIndex)
             throws HyracksDataException {
         try {
-            Reader input;
-            if (bufferSize > 0) {
-                input = new BufferedReader(new InputStreamReader(new FileInputStream(file)), bufferSize);
+            handler.setupElementWriter(writer, fta, tupleIndex);
+            if (cache == null) {
+                parse(file);
             } else {
-                input = new InputStreamReader(new FileInputStream(file));
+                parseCached(file);
             }
-            in.setCharacterStream(input);
-            handler.setupElementWriter(writer, fta, tupleIndex);
-            parser.parse(in);
-            input.close();
         } catch (FileNotFoundException e) {
             HyracksDataException hde = new VXQueryFileNotFoundException(e, file);
             hde.setNodeId(nodeId);
@@ -130,4 +184,83 @@ public class XMLParser {
         }
     }
 
+    /**
+     * Copies the tree written at start, leaving out its node id.
+     */
+    private byte[] copyWithoutNodeId(ArrayBackedValueStorage abvs, int start) {
+        int idLength = nodeIds ? 4 : 0;
+        byte[] bytes = abvs.getByteArray();
+        byte[] tree = new byte[abvs.getStartOffset() + abvs.getLength() - start - idLength];
+        // Tag and header.
+        System.arraycopy(bytes, start, tree, 0, 2);
+        System.arraycopy(bytes, start + 2 + idLength, tree, 2, tree.length - 2);
+        return tree;
+    }
+
+    /**
+     * Writes the trees from the cache entry of the file, or parses the file and fills the entry.
+     */
+    private void parseCached(File file) throws IOException, SAXException {
+        ByteBuffer trees = cache.read(file);
+        if (trees != null) {
+            handler.writeCachedElements(trees);
+            return;
+        }
+        cache.startWrite(file);
+        handler.setCache(cache.isWriting() ? cache : null);
+        boolean parsed = false;
+        try {
+            parse(file);
+            parsed = true;
+        } finally {
+            handler.setCache(null);
+            if (parsed) {
+                cache.finishWrite();
+            } else {
+                cache.abortWrite();
+            }
+        }
+    }
+
+    private static NameTest getNameTest(SequenceType type) {
+        if (type.getItemType() instanceof ElementType) {
+            return ((ElementType) type.getItemType()).getNameTest();
+        }
+        if (type.getItemType() instanceof AttributeType) {
+            return ((AttributeType) type.getItemType()).getNameTest();
+        }
+        return NameTest.STAR_NAMETEST;
+    }
+
+    private void parse(File file) throws IOException, SAXException {
+        if (utf8Parser) {
+            InputStream input = null;
+            try {
+                input = XMLInputHelper.openInputStream(file, mappedIO);
+                tokenizer.reset(input);
+                if (handler.parse(tokenizer)) {
+                    return;
+                }
+            } finally {
+                IOUtils.closeQuietly(input);
+            }
+        }
+        Reader input = null;
+        try {
+            input = openReader(file);
+            in.setCharacterStream(input);
+            parser.parse(in);
+        } finally {
+            IOUtils.closeQuietly(input);
+        }
+    }
+
+    private Reader openReader(File file) throws IOException {
+        InputStream stream = XMLInputHelper.openInputStream(file, mappedIO);
+        if (bufferSize > 0) {
+            return new BufferedReader(new InputStreamReader(stream), bufferSize);
+        }
+        return new InputStreamReader(stream);
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.vxquery.xmlquery.query;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import edu.uci.ics.hyracks.api.dataset.ResultSetId;
+
+/**
+ * Keeps compiled queries, so a query submitted again skips parsing, translation, optimization and job generation.
+ * Entries are found by the query text, the optimization level and the compiler settings. The least recently used
+ * entries are evicted once the capacity is reached. All entries are dropped when the node list of the cluster
+ * changes, since the jobs place their partitions on those nodes.
+ * <p>
+ * External variable bindings are not part of the key, they are read from the dynamic context when a job runs.
+ */
+public class CompiledPlanCache {
+    private final int capacity;
+    private final LinkedHashMap<String, Entry> entries;
+    private String[] nodeList;
+
+    /**
+     * @param capacity
+     *            Number of compiled queries kept. A capacity of 0 turns caching off.
+     */
+    public CompiledPlanCache(int capacity) {
+        this.capacity = capacity;
+        entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    }
+
+    public boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    /**
+     * @param settings
+     *            Settings of the compiler, see {@link XMLQueryCompiler#getSettings()}.
+     * @return The key of the query compiled with the given settings.
+     */
+    public static String getKey(String query, int optimizationLevel, String settings) {
+        return normalize(query) + '\n' + optimizationLevel + '\n' + settings;
+    }
+
+    /**
+     * @return The compiled query or null.
+     */
+    public synchronized Entry get(String key, String[] nodeList) {
+        checkNodeList(nodeList);
+        return entries.get(key);
+    }
+
+    public synchronized void put(String key, String[] nodeList, Module module, ResultSetId resultSetId) {
+        if (!isEnabled()) {
+            return;
+        }
+        checkNodeList(nodeList);
+        entries.put(key, new Entry(module, resultSetId));
+        Iterator<Map.Entry<String, Entry>> i = entries.entrySet().iterator();
+        while (entries.size() > capacity && i.hasNext()) {
+            i.next();
+            i.remove();
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    private void checkNodeList(String[] nodeList) {
+        String[] sorted = nodeList.clone();
+        Arrays.sort(sorted);
+        if (!Arrays.equals(sorted, this.nodeList)) {
+            entries.clear();
+            this.nodeList = sorted;
+        }
+    }
+
+    /**
+     * Line endings and the whitespace around the query do not change the plan. Other whitespace may be part of a
+     * string literal or element content and is kept.
+     */
+    private static String normalize(String query) {
+        return query.replace("\r\n", "\n").replace('\r', '\n').trim();
+    }
+
+    public static class Entry {
+        private final Module module;
+        private final ResultSetId resultSetId;
+
+        Entry(Module module, ResultSetId resultSetId) {
+            this.module = module;
+            this.resultSetId = resultSetId;
+        }
+
+        /**
+         * @return The compiled module, holding the job specification.
+         */
+        public Module getModule() {
+            return module;
+        }
+
+        /**
+         * @return The result set id the job writes its result to.
+         */
+        public ResultSetId getResultSetId() {
+            return resultSetId;
+        }
+    }
+}
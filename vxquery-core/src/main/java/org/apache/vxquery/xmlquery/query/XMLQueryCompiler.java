@@ -16,6 +16,7 @@ package org.apache.vxquery.xmlquery.query;
 
 import java.io.Reader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.apache.vxquery.compiler.CompilerControlBlock;
@@ -24,11 +25,13 @@ import org.apache.vxquery.compiler.algebricks.VXQueryBinaryIntegerInspectorFacto
 import org.apache.vxquery.compiler.algebricks.VXQueryComparatorFactoryProvider;
 import org.apache.vxquery.compiler.algebricks.VXQueryConstantValue;
 import org.apache.vxquery.compiler.algebricks.VXQueryExpressionRuntimeProvider;
+import org.apache.vxquery.compiler.algebricks.VXQueryNormalizedKeyComputerFactoryProvider;
 import org.apache.vxquery.compiler.algebricks.VXQueryNullWriterFactory;
 import org.apache.vxquery.compiler.algebricks.VXQueryPrinterFactoryProvider;
 import org.apache.vxquery.compiler.algebricks.prettyprint.VXQueryLogicalExpressionPrettyPrintVisitor;
 import org.apache.vxquery.compiler.rewriter.RewriteRuleset;
 import org.apache.vxquery.compiler.rewriter.VXQueryOptimizationContext;
+import org.apache.vxquery.compiler.rewriter.rules.IntroduceBroadcastJoinRule;
 import org.apache.vxquery.exceptions.ErrorCode;
 import org.apache.vxquery.exceptions.SystemException;
 import org.apache.vxquery.metadata.VXQueryMetadataProvider;
@@ -89,15 +92,33 @@ public class XMLQueryCompiler {
 
     private String[] nodeList;
 
+    private int collectionFilePartitions;
+
+    private final String settings;
+
     public XMLQueryCompiler(XQueryCompilationListener listener, String[] nodeList, int frameSize) {
         this(listener, nodeList, frameSize, -1, -1, -1);
     }
 
     public XMLQueryCompiler(XQueryCompilationListener listener, String[] nodeList, int frameSize,
             int availableProcessors, long joinHashSize, long maximumDataSize) {
+        this(listener, nodeList, frameSize, availableProcessors, joinHashSize, maximumDataSize, false);
+    }
+
+    public XMLQueryCompiler(XQueryCompilationListener listener, String[] nodeList, int frameSize,
+            int availableProcessors, long joinHashSize, long maximumDataSize, boolean splitCollectionFiles) {
         this.listener = listener == null ? NoopXQueryCompilationListener.INSTANCE : listener;
         this.frameSize = frameSize;
         this.nodeList = nodeList;
+        if (splitCollectionFiles) {
+            collectionFilePartitions = availableProcessors < 1 ? Runtime.getRuntime().availableProcessors()
+                    : availableProcessors;
+        }
+        settings = "frameSize=" + frameSize + ", nodeList=" + Arrays.toString(nodeList) + ", availableProcessors="
+                + availableProcessors + ", joinHashSize=" + joinHashSize + ", maximumDataSize=" + maximumDataSize
+                + ", collectionFilePartitions=" + collectionFilePartitions + ", broadcastJoinSize="
+                + IntroduceBroadcastJoinRule.getBroadcastJoinSize() + ", sharedDictionary="
+                + VXQueryMetadataProvider.useSharedDictionary(nodeList);
         HeuristicCompilerFactoryBuilder builder = new HeuristicCompilerFactoryBuilder(
                 new IOptimizationContextFactory() {
                     @Override
@@ -143,6 +164,7 @@ public class XMLQueryCompiler {
         builder.setPrinterProvider(VXQueryPrinterFactoryProvider.INSTANCE);
         builder.setExpressionRuntimeProvider(new VXQueryExpressionRuntimeProvider());
         builder.setComparatorFactoryProvider(new VXQueryComparatorFactoryProvider());
+        builder.setNormalizedKeyComputerFactoryProvider(VXQueryNormalizedKeyComputerFactoryProvider.INSTANCE);
         builder.setBinaryBooleanInspectorFactory(new VXQueryBinaryBooleanInspectorFactory());
         builder.setBinaryIntegerInspectorFactory(new VXQueryBinaryIntegerInspectorFactory());
         builder.setExpressionTypeComputer(new IExpressionTypeComputer() {
@@ -193,7 +215,8 @@ public class XMLQueryCompiler {
         module = new XMLQueryTranslator(ccb).translateModule(moduleNode);
         pprinter = new LogicalOperatorPrettyPrintVisitor(new VXQueryLogicalExpressionPrettyPrintVisitor(
                 module.getModuleContext()));
-        VXQueryMetadataProvider mdProvider = new VXQueryMetadataProvider(nodeList, ccb.getSourceFileMap());
+        VXQueryMetadataProvider mdProvider = new VXQueryMetadataProvider(nodeList, ccb.getSourceFileMap(),
+                collectionFilePartitions);
         compiler = cFactory.createCompiler(module.getBody(), mdProvider, 0);
         listener.notifyTranslationResult(module);
         XMLQueryTypeChecker.typeCheckModule(module);
@@ -215,6 +238,13 @@ public class XMLQueryCompiler {
         listener.notifyCodegenResult(module);
     }
 
+    /**
+     * @return The compiler settings that shape the plans, as used in the key of a {@link CompiledPlanCache}.
+     */
+    public String getSettings() {
+        return settings;
+    }
+
     public ModuleNode getModuleNode() {
         return moduleNode;
     }
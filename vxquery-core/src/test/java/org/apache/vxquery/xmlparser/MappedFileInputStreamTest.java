@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.vxquery.xmlparser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class MappedFileInputStreamTest {
+    private static final int CHUNK_SIZE = 7;
+
+    @Test
+    public void readBytesAcrossChunks() throws IOException {
+        byte[] data = createData(100);
+        MappedFileInputStream in = new MappedFileInputStream(createFile(data), CHUNK_SIZE, 0);
+        try {
+            for (int i = 0; i < data.length; ++i) {
+                Assert.assertEquals(data[i] & 0xff, in.read());
+            }
+            Assert.assertEquals(-1, in.read());
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void readArraysAcrossChunks() throws IOException {
+        byte[] data = createData(100);
+        MappedFileInputStream in = new MappedFileInputStream(createFile(data), CHUNK_SIZE, 4096);
+        try {
+            Assert.assertTrue(Arrays.equals(data, readAll(in, 16)));
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void readChunkSizedFile() throws IOException {
+        byte[] data = createData(2 * CHUNK_SIZE);
+        MappedFileInputStream in = new MappedFileInputStream(createFile(data), CHUNK_SIZE, 0);
+        try {
+            Assert.assertTrue(Arrays.equals(data, readAll(in, CHUNK_SIZE)));
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void skipAcrossChunks() throws IOException {
+        byte[] data = createData(100);
+        MappedFileInputStream in = new MappedFileInputStream(createFile(data), CHUNK_SIZE, 0);
+        try {
+            Assert.assertEquals(3, in.skip(3));
+            Assert.assertEquals(data[3], (byte) in.read());
+            Assert.assertEquals(20, in.skip(20));
+            Assert.assertEquals(data[24], (byte) in.read());
+            Assert.assertEquals(75, in.skip(1000));
+            Assert.assertEquals(-1, in.read());
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void readEmptyFile() throws IOException {
+        MappedFileInputStream in = new MappedFileInputStream(createFile(new byte[0]), CHUNK_SIZE, 0);
+        try {
+            Assert.assertEquals(-1, in.read());
+            Assert.assertEquals(-1, in.read(new byte[4], 0, 4));
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] createData(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; ++i) {
+            data[i] = (byte) (i * 31 + 7);
+        }
+        return data;
+    }
+
+    static File createFile(byte[] data) throws IOException {
+        File file = File.createTempFile("vxquery", ".xml");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static byte[] readAll(MappedFileInputStream in, int bufferSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[bufferSize];
+        int n;
+        while ((n = in.read(buffer, 0, bufferSize)) >= 0) {
+            // A read never crosses the end of a mapped chunk.
+            Assert.assertTrue(n > 0 && n <= CHUNK_SIZE);
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.vxquery.xmlparser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class XMLInputHelperTest {
+    private static final String XML = "<a><b>text</b></a>";
+
+    @Test
+    public void plainFile() throws IOException {
+        File file = MappedFileInputStreamTest.createFile(XML.getBytes("UTF-8"));
+        Assert.assertEquals(XML, read(file, false));
+        Assert.assertEquals(XML, read(file, true));
+    }
+
+    @Test
+    public void fileShorterThanMagic() throws IOException {
+        File file = MappedFileInputStreamTest.createFile("<a/>".getBytes("UTF-8"));
+        Assert.assertEquals("<a/>", read(file, false));
+        Assert.assertEquals("<a/>", read(file, true));
+    }
+
+    @Test
+    public void gzipFile() throws IOException {
+        // Detected by the magic bytes, the name ends with .xml.
+        File file = MappedFileInputStreamTest.createFile(gzip(XML.getBytes("UTF-8")));
+        Assert.assertEquals(XML, read(file, false));
+        Assert.assertEquals(XML, read(file, true));
+    }
+
+    @Test
+    public void largeGzipFile() throws IOException {
+        // Larger than the buffers passed between the inflating thread and the reader.
+        StringBuilder sb = new StringBuilder("<a>");
+        for (int i = 0; i < 100000; ++i) {
+            sb.append("<b>").append(i).append("</b>");
+        }
+        String xml = sb.append("</a>").toString();
+        File file = MappedFileInputStreamTest.createFile(gzip(xml.getBytes("UTF-8")));
+        Assert.assertEquals(xml, read(file, false));
+        Assert.assertEquals(xml, read(file, true));
+    }
+
+    @Test
+    public void unsupportedCompression() throws IOException {
+        byte[] zstd = { (byte) 0x28, (byte) 0xb5, (byte) 0x2f, (byte) 0xfd, 0, 0, 0, 0 };
+        File file = MappedFileInputStreamTest.createFile(zstd);
+        for (boolean mapped : new boolean[] { false, true }) {
+            try {
+                XMLInputHelper.openInputStream(file, mapped).close();
+                Assert.fail("zstd file was opened");
+            } catch (IOException e) {
+                Assert.assertTrue(e.getMessage(), e.getMessage().contains("zstd"));
+            }
+        }
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(data);
+        gzip.close();
+        return out.toByteArray();
+    }
+
+    private static String read(File file, boolean mapped) throws IOException {
+        InputStream in = XMLInputHelper.openInputStream(file, mapped);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1000];
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, n);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+}
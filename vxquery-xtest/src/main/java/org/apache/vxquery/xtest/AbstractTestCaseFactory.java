@@ -236,6 +236,10 @@ public abstract class AbstractTestCaseFactory {
                     nextVariable = atts.getValue("", "variable");
                 } else if ("output-file".equals(localName)) {
                     outputFile = true;
+                } else if ("property".equals(localName)) {
+                    if (tc != null) {
+                        tc.addProperty(atts.getValue("", "name"), atts.getValue("", "value"));
+                    }
                 } else if ("test-case".equals(localName)) {
                     tc = new TestCase(tConfig);
                     String folder = atts.getValue("", "FilePath");
@@ -33,10 +33,12 @@ public class TestCase {
     private Map<QName, File> extVars;
     private String expectedError;
     private List<ExpectedResult> expectedResults;
+    private Map<String, String> properties;
 
     public TestCase(TestConfiguration config) {
         this.tConfig = config;
         extVars = new HashMap<QName, File>();
+        properties = new HashMap<String, String>();
         expectedResults = new ArrayList<ExpectedResult>();
     }
 
@@ -92,6 +94,17 @@ public class TestCase {
         this.expectedResults.add(expectedResult);
     }
 
+    public void addProperty(String name, String value) {
+        properties.put(name, value);
+    }
+
+    /**
+     * System properties set while the test case is compiled and run.
+     */
+    public Map<String, String> getProperties() {
+        return Collections.unmodifiableMap(properties);
+    }
+
     public String toString() {
         StringBuilder buffer = new StringBuilder();
         buffer.append("TestCase {\n");
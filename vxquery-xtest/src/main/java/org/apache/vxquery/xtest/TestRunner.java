@@ -20,6 +20,8 @@ import java.io.InputStreamReader;
 import java.io.Reader;
 import java.nio.ByteBuffer;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -102,6 +104,7 @@ public class TestRunner {
             System.err.println("Starting " + testCase.getXQueryDisplayName());
         }
         long start = System.currentTimeMillis();
+        Map<String, String> previousProperties = setProperties(testCase.getProperties());
         try {
             try {
                 XMLQueryCompiler compiler = new XMLQueryCompiler(null, new String[] { "nc1" }, FRAME_SIZE);
@@ -160,6 +163,7 @@ public class TestRunner {
                 res.error = e;
             }
         } finally {
+            setProperties(previousProperties);
             try {
                 res.compare();
             } catch (Exception e) {
@@ -172,6 +176,19 @@ public class TestRunner {
         return res;
     }
 
+    /**
+     * Sets the given system properties and returns their previous values. A null value clears the property.
+     */
+    private static Map<String, String> setProperties(Map<String, String> properties) {
+        Map<String, String> previous = new HashMap<String, String>();
+        for (Map.Entry<String, String> e : properties.entrySet()) {
+            String old = e.getValue() == null ? System.clearProperty(e.getKey()) : System.setProperty(e.getKey(),
+                    e.getValue());
+            previous.put(e.getKey(), old);
+        }
+        return previous;
+    }
+
     public void close() throws Exception {
         nc1.stop();
         cc.stop();
@@ -42,10 +42,12 @@ import org.apache.vxquery.xtest.util.tests.BufferedReaderBufferedStream;
 import org.apache.vxquery.xtest.util.tests.BufferedReaderStream;
 import org.apache.vxquery.xtest.util.tests.BufferedStream;
 import org.apache.vxquery.xtest.util.tests.IDiskTest;
+import org.apache.vxquery.xtest.util.tests.MappedStream;
 import org.apache.vxquery.xtest.util.tests.ParsedBufferedByteStream;
 import org.apache.vxquery.xtest.util.tests.ParsedBufferedCharacterStream;
 import org.apache.vxquery.xtest.util.tests.ParsedByteStream;
 import org.apache.vxquery.xtest.util.tests.ParsedCharacterStream;
+import org.apache.vxquery.xtest.util.tests.ParsedMappedByteStream;
 import org.apache.vxquery.xtest.util.tests.ReaderBufferedStream;
 import org.apache.vxquery.xtest.util.tests.ReaderStream;
 import org.apache.vxquery.xtest.util.tests.Stream;
@@ -150,6 +152,7 @@ public class DiskPerformance {
         //        tests.add(BufferedParsedCharacterStream.class);
         //        tests.add(ParsedCharacterStream.class);
         // Parsed Byte Streams
+        tests.add(ParsedMappedByteStream.class);
         //        tests.add(ParsedBufferedByteStream.class);
         //        tests.add(ParsedByteStream.class);
         // Character Streams
@@ -158,6 +161,7 @@ public class DiskPerformance {
         //        tests.add(ReaderBufferedStream.class);
         //        tests.add(ReaderStream.class);
         // Byte Streams
+        //        tests.add(MappedStream.class);
         //        tests.add(BufferedStream.class);
         //        tests.add(Stream.class);
 